@@ -0,0 +1,78 @@
+package com.LaNasil;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 基准测试使用的H.264码流
+ * 默认用 {@link TestPatternGenerator} 生成（每种参数只生成一次），
+ * 也可以用 -Dbench.stream=sample.h264 改用录制的码流（此时忽略分辨率和slice参数）。
+ */
+final class BenchmarkStreams {
+
+    // 两个GOP：包含IDR帧和足够多的P帧
+    private static final int FRAME_COUNT = 60;
+    private static final int GOP_SIZE = 30;
+    private static final double FPS = 30.0;
+
+    private static final Map<String, List<byte[]>> CACHE = new ConcurrentHashMap<>();
+
+    private BenchmarkStreams() {
+    }
+
+    /**
+     * @return 按解码顺序排列的访问单元，第一个包含SPS/PPS和IDR帧
+     */
+    static List<byte[]> accessUnits(int width, int height, int slices) throws IOException {
+        String file = System.getProperty("bench.stream");
+        String key = file != null ? file : width + "x" + height + "/" + slices;
+        List<byte[]> cached = CACHE.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        List<byte[]> accessUnits;
+        if (file != null) {
+            accessUnits = DeviceSimulator.loadAccessUnits(Paths.get(file));
+        } else {
+            // 码率按像素数缩放，720p约2 Mbps
+            int bitrate = (int) Math.max(200_000L, (long) width * height * 2);
+            accessUnits = new TestPatternGenerator(width, height, FPS, GOP_SIZE, slices, bitrate)
+                    .generate(FRAME_COUNT);
+        }
+        CACHE.put(key, accessUnits);
+        return accessUnits;
+    }
+
+    /**
+     * @return 按接收顺序排列的NALU（含起始码）
+     */
+    static List<byte[]> nalus(int width, int height, int slices) throws IOException {
+        List<byte[]> nalus = new ArrayList<>();
+        for (byte[] accessUnit : accessUnits(width, height, slices)) {
+            nalus.addAll(H264Bitstream.splitNalus(accessUnit));
+        }
+        return nalus;
+    }
+
+    /**
+     * @return 整段Annex-B码流
+     */
+    static byte[] stream(int width, int height, int slices) throws IOException {
+        List<byte[]> accessUnits = accessUnits(width, height, slices);
+        int length = 0;
+        for (byte[] accessUnit : accessUnits) {
+            length += accessUnit.length;
+        }
+        byte[] stream = new byte[length];
+        int offset = 0;
+        for (byte[] accessUnit : accessUnits) {
+            System.arraycopy(accessUnit, 0, stream, offset, accessUnit.length);
+            offset += accessUnit.length;
+        }
+        return stream;
+    }
+}
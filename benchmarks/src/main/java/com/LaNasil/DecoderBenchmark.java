@@ -0,0 +1,60 @@
+package com.LaNasil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 单帧解码：{@link H264Decoder} 每次用新的grabber解码一个带SPS/PPS的IDR访问单元
+ * decodeToRGB 经过Java2DFrameConverter得到BufferedImage，decodeFrame 直接复制BGR像素；
+ * 两者的差别就是Java2D转换的开销。连续解码的性能见 DecoderThreadingBenchmark。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecoderBenchmark {
+
+    @Param({ "1280x720" })
+    public String size;
+
+    private byte[] keyFrame;
+    private H264Decoder decoder;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] wh = size.split("x");
+        keyFrame = BenchmarkStreams.accessUnits(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), 1).get(0);
+        decoder = new H264Decoder();
+    }
+
+    @TearDown
+    public void tearDown() {
+        decoder.release();
+    }
+
+    @Benchmark
+    public BufferedImage decodeToRGB() {
+        return decoder.decodeToRGB(keyFrame);
+    }
+
+    @Benchmark
+    public DecodedFrame decodeFrame() {
+        return decoder.decodeFrame(keyFrame, 1);
+    }
+}
@@ -0,0 +1,238 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+
+/**
+ * 解码线程配置基准测试
+ * 对录制的.h264文件（如1080p/4K样本）逐一测试不同的线程数和线程类型，
+ * 报告最大解码帧率以及按实时速率送帧时解码器引入的额外延迟。
+ * 延迟测试时每个访问单元以其序号作为pts送入解码器，输出帧按pts对应回送入时间，
+ * 因此含B帧（按显示顺序输出）或解码器丢帧的样本也能得到正确的延迟。
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.LaNasil.DecoderThreadingBenchmark <file.h264>... [--fps 30] [--threads 1,2,4,0]
+ */
+public class DecoderThreadingBenchmark {
+
+    private static final int LATENCY_SAMPLE_FRAMES = 300;
+
+    /**
+     * 单个配置的测试结果
+     */
+    private static final class Result {
+        final String corpus;
+        final DecoderOptions options;
+        final int frames;
+        final int droppedFrames;
+        final double decodeFps;
+        final double avgLatencyMs;
+        final double p95LatencyMs;
+
+        Result(String corpus, DecoderOptions options, int frames, int droppedFrames, double decodeFps,
+                double avgLatencyMs, double p95LatencyMs) {
+            this.corpus = corpus;
+            this.options = options;
+            this.frames = frames;
+            this.droppedFrames = droppedFrames;
+            this.decodeFps = decodeFps;
+            this.avgLatencyMs = avgLatencyMs;
+            this.p95LatencyMs = p95LatencyMs;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<Path> corpus = new ArrayList<>();
+        double fps = 30.0;
+        int[] threadCounts = { 1, 2, 4, 0 };
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--fps".equals(args[i]) && i + 1 < args.length) {
+                fps = Double.parseDouble(args[++i]);
+            } else if ("--threads".equals(args[i]) && i + 1 < args.length) {
+                threadCounts = Arrays.stream(args[++i].split(",")).mapToInt(t -> Integer.parseInt(t.trim())).toArray();
+            } else {
+                corpus.add(Paths.get(args[i]));
+            }
+        }
+
+        if (corpus.isEmpty()) {
+            System.err.println("用法: DecoderThreadingBenchmark <file.h264>... [--fps 30] [--threads 1,2,4,0]");
+            System.err.println("  --threads 中的 0 表示由FFmpeg自动选择线程数");
+            return;
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Path file : corpus) {
+            byte[] stream = Files.readAllBytes(file);
+            List<byte[]> accessUnits = H264Bitstream.groupAccessUnits(H264Bitstream.splitNalus(stream));
+            System.out.println(String.format("样本: %s, 大小=%d字节, 访问单元=%d", file, stream.length, accessUnits.size()));
+
+            for (DecoderOptions.ThreadType type : DecoderOptions.ThreadType.values()) {
+                for (int threads : threadCounts) {
+                    DecoderOptions options = new DecoderOptions(threads, type);
+                    results.add(runSingle(file, accessUnits, options, fps));
+                }
+            }
+        }
+
+        printResults(results);
+    }
+
+    /**
+     * 测试单个配置: 先测最大吞吐量，再按实时速率测延迟
+     */
+    private static Result runSingle(Path file, List<byte[]> accessUnits, DecoderOptions options, double fps)
+            throws Exception {
+        // 吞吐量: 直接从文件以最快速度解码
+        int frames = 0;
+        long startNanos;
+        long elapsedNanos;
+        try (FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(file.toFile())) {
+            grabber.setFormat("h264");
+            options.applyTo(grabber);
+            grabber.start();
+            startNanos = System.nanoTime();
+            Frame frame;
+            while ((frame = grabber.grabImage()) != null) {
+                if (frame.image != null) {
+                    frames++;
+                }
+            }
+            elapsedNanos = System.nanoTime() - startNanos;
+            grabber.stop();
+        }
+        double decodeFps = elapsedNanos > 0 ? frames * 1_000_000_000.0 / elapsedNanos : 0;
+
+        // 延迟: 按实时帧率逐帧送入，测量从送入到输出的时间
+        List<byte[]> sample = accessUnits.subList(0, Math.min(LATENCY_SAMPLE_FRAMES, accessUnits.size()));
+        List<Double> latencies = new ArrayList<>();
+        int decoded = measureLatency(sample, options, fps, latencies);
+        int dropped = sample.size() - decoded;
+
+        latencies.sort(null);
+        double avg = latencies.stream().mapToDouble(Double::doubleValue).average().orElse(0);
+        double p95 = latencies.isEmpty() ? 0 : latencies.get((int) Math.min(latencies.size() - 1, latencies.size() * 0.95));
+
+        Result result = new Result(file.getFileName().toString(), options, frames, dropped, decodeFps, avg, p95);
+        System.out.println(String.format("  [%s] 解码帧率=%.1f fps, 平均延迟=%.1f ms, P95延迟=%.1f ms, 未输出=%d帧",
+                options, decodeFps, avg, p95, dropped));
+        return result;
+    }
+
+    /**
+     * 按实时帧率把访问单元逐个送入解码器，每帧的pts为其序号，
+     * 输出帧通过pts找到对应的送入时间，不依赖输出顺序
+     *
+     * @return 实际输出的帧数
+     */
+    private static int measureLatency(List<byte[]> accessUnits, DecoderOptions options, double fps,
+            List<Double> latencies) throws IOException {
+        AVCodec codec = avcodec_find_decoder(AV_CODEC_ID_H264);
+        if (codec == null) {
+            throw new IOException("找不到H.264解码器");
+        }
+        AVCodecContext context = avcodec_alloc_context3(codec);
+        AVPacket packet = av_packet_alloc();
+        AVFrame frame = av_frame_alloc();
+        AVDictionary codecOptions = new AVDictionary(null);
+        long[] feedTimes = new long[accessUnits.size()];
+        boolean[] received = new boolean[accessUnits.size()];
+        int decoded = 0;
+        try {
+            av_dict_set(codecOptions, "threads",
+                    options.getThreadCount() > 0 ? String.valueOf(options.getThreadCount()) : "auto", 0);
+            av_dict_set(codecOptions, "thread_type", options.getThreadType().getFfmpegName(), 0);
+            if (avcodec_open2(context, codec, codecOptions) < 0) {
+                throw new IOException("无法打开H.264解码器: " + options);
+            }
+
+            long frameIntervalNanos = (long) (1_000_000_000L / fps);
+            long startNanos = System.nanoTime();
+            for (int i = 0; i < accessUnits.size(); i++) {
+                // 模拟设备按实时帧率发送
+                long wait = startNanos + i * frameIntervalNanos - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("基准测试被中断", e);
+                    }
+                }
+
+                byte[] accessUnit = accessUnits.get(i);
+                if (av_new_packet(packet, accessUnit.length) < 0) {
+                    throw new IOException("无法分配AVPacket");
+                }
+                packet.data().put(accessUnit);
+                packet.pts(i);
+                packet.dts(i);
+                feedTimes[i] = System.nanoTime();
+                int ret = avcodec_send_packet(context, packet);
+                av_packet_unref(packet);
+                // 解码错误的访问单元不会有输出，最终计入未输出帧数
+                if (ret < 0 && ret != AVERROR_EAGAIN()) {
+                    continue;
+                }
+                decoded += receiveFrames(context, frame, feedTimes, received, latencies);
+            }
+
+            // 冲刷解码器中缓存的帧（B帧重排序、帧级多线程延迟）
+            avcodec_send_packet(context, null);
+            decoded += receiveFrames(context, frame, feedTimes, received, latencies);
+        } finally {
+            av_dict_free(codecOptions);
+            av_frame_free(frame);
+            av_packet_free(packet);
+            avcodec_free_context(context);
+        }
+        return decoded;
+    }
+
+    /**
+     * 取出解码器当前可用的全部帧，按pts记录对应访问单元的延迟
+     */
+    private static int receiveFrames(AVCodecContext context, AVFrame frame, long[] feedTimes, boolean[] received,
+            List<Double> latencies) {
+        int count = 0;
+        while (avcodec_receive_frame(context, frame) >= 0) {
+            long now = System.nanoTime();
+            long index = frame.pts();
+            if (index >= 0 && index < feedTimes.length && !received[(int) index]) {
+                received[(int) index] = true;
+                latencies.add((now - feedTimes[(int) index]) / 1_000_000.0);
+                count++;
+            }
+            av_frame_unref(frame);
+        }
+        return count;
+    }
+
+    private static void printResults(List<Result> results) {
+        System.out.println();
+        System.out.println("样本\t线程数\t线程类型\t帧数\t解码帧率(fps)\t平均延迟(ms)\tP95延迟(ms)\t未输出帧");
+        for (Result r : results) {
+            System.out.println(String.format("%s\t%s\t%s\t%d\t%.1f\t%.1f\t%.1f\t%d",
+                    r.corpus,
+                    r.options.getThreadCount() > 0 ? String.valueOf(r.options.getThreadCount()) : "auto",
+                    r.options.getThreadType().getFfmpegName(),
+                    r.frames, r.decodeFps, r.avgLatencyMs, r.p95LatencyMs, r.droppedFrames));
+        }
+    }
+}
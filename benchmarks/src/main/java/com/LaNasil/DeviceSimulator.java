@@ -0,0 +1,334 @@
+package com.LaNasil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟H.264设备 - 像真实设备一样通过TCP发送Annex-B格式的H.264裸流
+ * 每个连接都从第一个访问单元（SPS/PPS/IDR）开始循环发送，可以按实时帧率、指定倍速或最快速度发送。
+ * 码流可以来自录制的.h264文件，也可以由 {@link TestPatternGenerator} 生成；
+ * 多个实例监听连续的端口并共享同一份码流，用于在没有设备和网络的机器上做基准和长时间测试。
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.LaNasil.DeviceSimulator --file sample.h264 [--port 8000] [--instances 1] [--fps 30] [--speed 1|max]
+ *       java -cp benchmarks/target/benchmarks.jar com.LaNasil.DeviceSimulator --pattern [--size 1280x720] [--fps 30] [--gop 30] [--slices 1]
+ *                                                  [--bitrate 2000] [--duration 10] [--save pattern.h264] ...
+ */
+public class DeviceSimulator implements Closeable {
+
+    public static final int DEFAULT_PORT = 8000;
+
+    private final List<byte[]> accessUnits;
+    private final double fps;
+    private final double speed;
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private final Set<Socket> clients = new CopyOnWriteArraySet<>();
+
+    // 统计
+    private final AtomicLong connections = new AtomicLong(0);
+    private final AtomicLong accessUnitsSent = new AtomicLong(0);
+    private final AtomicLong bytesSent = new AtomicLong(0);
+    private volatile long lastConnectNanos = -1;
+
+    /**
+     * @param accessUnits 按解码顺序排列的访问单元（Annex-B，含起始码）
+     * @param fps         码流帧率
+     * @param speed       发送倍速，1为实时，0或负数表示不限速
+     */
+    public DeviceSimulator(List<byte[]> accessUnits, double fps, double speed) {
+        if (accessUnits.isEmpty()) {
+            throw new IllegalArgumentException("码流中没有访问单元");
+        }
+        this.accessUnits = accessUnits;
+        this.fps = fps;
+        this.speed = speed;
+    }
+
+    /**
+     * 读取.h264文件并按访问单元切分
+     */
+    public static List<byte[]> loadAccessUnits(Path file) throws IOException {
+        return H264Bitstream.groupAccessUnits(H264Bitstream.splitNalus(Files.readAllBytes(file)));
+    }
+
+    /**
+     * 在指定端口上开始接受连接（0表示由系统分配端口）
+     */
+    public synchronized void start(int port) throws IOException {
+        ServerSocket socket = new ServerSocket();
+        socket.setReuseAddress(true);
+        socket.bind(new InetSocketAddress(port));
+        listen(socket);
+    }
+
+    /**
+     * 在本机回环地址的空闲端口上开始接受连接（测试工具内嵌使用）
+     */
+    public synchronized void startOnLoopback() throws IOException {
+        listen(new ServerSocket(0, 50, InetAddress.getLoopbackAddress()));
+    }
+
+    private void listen(ServerSocket socket) throws IOException {
+        if (serverSocket != null) {
+            socket.close();
+            throw new IllegalStateException("模拟设备已经启动");
+        }
+        serverSocket = socket;
+        acceptThread = new Thread(this::acceptLoop, "Device-Simulator-" + socket.getLocalPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                lastConnectNanos = System.nanoTime();
+                connections.incrementAndGet();
+                clients.add(socket);
+                Thread sender = new Thread(() -> stream(socket), "Device-Simulator-Sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.err.println("模拟设备接受连接失败: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * 向一个连接循环发送码流，直到对方断开或模拟器关闭
+     */
+    private void stream(Socket socket) {
+        try (Socket s = socket; OutputStream out = s.getOutputStream()) {
+            s.setTcpNoDelay(true);
+            long frameIntervalNanos = speed > 0 ? (long) (1_000_000_000L / (fps * speed)) : 0;
+            long nextDue = System.nanoTime();
+            while (!s.isClosed()) {
+                for (byte[] accessUnit : accessUnits) {
+                    out.write(accessUnit);
+                    out.flush();
+                    accessUnitsSent.incrementAndGet();
+                    bytesSent.addAndGet(accessUnit.length);
+                    if (frameIntervalNanos > 0) {
+                        nextDue += frameIntervalNanos;
+                        long wait = nextDue - System.nanoTime();
+                        if (wait > 0) {
+                            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // 接收端断开
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            clients.remove(socket);
+        }
+    }
+
+    public int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    public long getConnectionCount() {
+        return connections.get();
+    }
+
+    public int getActiveConnectionCount() {
+        return clients.size();
+    }
+
+    public long getAccessUnitsSent() {
+        return accessUnitsSent.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * @return 最近一次接受连接的时间（System.nanoTime），还没有连接时返回-1
+     */
+    public long getLastConnectNanos() {
+        return lastConnectNanos;
+    }
+
+    public String getStats() {
+        return String.format("端口 %d: 当前连接=%d, 累计连接=%d, 已发送=%d帧 / %d KB", getPort(),
+                getActiveConnectionCount(), getConnectionCount(), getAccessUnitsSent(), getBytesSent() / 1024);
+    }
+
+    /**
+     * 停止接受连接并断开所有接收端
+     */
+    @Override
+    public synchronized void close() {
+        if (serverSocket == null) {
+            return;
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // 忽略
+        }
+        for (Socket client : clients) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+        }
+        clients.clear();
+    }
+
+    private static void printUsage() {
+        System.err.println("用法: DeviceSimulator (--file <file.h264> | --pattern) [选项]");
+        System.err.println("  --port 8000        第一个实例的端口，其余实例依次递增");
+        System.err.println("  --instances 1      同时运行的模拟设备数量");
+        System.err.println("  --fps 30           帧率（回放文件时用于实时节奏）");
+        System.err.println("  --speed 1          发送倍速，max 表示不限速");
+        System.err.println("测试图案选项:");
+        System.err.println("  --size 1280x720    分辨率");
+        System.err.println("  --gop 30           IDR间隔（帧数）");
+        System.err.println("  --slices 1         每帧slice数");
+        System.err.println("  --bitrate 2000     目标码率（kbps）");
+        System.err.println("  --duration 10      预先编码的循环时长（秒）");
+        System.err.println("  --save <file>      同时把生成的码流保存为.h264文件");
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        boolean pattern = false;
+        int port = DEFAULT_PORT;
+        int instances = 1;
+        double fps = 30.0;
+        double speed = 1.0;
+        int width = 1280;
+        int height = 720;
+        int gop = 30;
+        int slices = 1;
+        int bitrateKbps = 2000;
+        double durationSec = 10;
+        String saveTo = null;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                boolean hasValue = i + 1 < args.length;
+                if ("--file".equals(arg) && hasValue) {
+                    file = args[++i];
+                } else if ("--pattern".equals(arg)) {
+                    pattern = true;
+                } else if ("--port".equals(arg) && hasValue) {
+                    port = Integer.parseInt(args[++i]);
+                } else if ("--instances".equals(arg) && hasValue) {
+                    instances = Integer.parseInt(args[++i]);
+                } else if ("--fps".equals(arg) && hasValue) {
+                    fps = Double.parseDouble(args[++i]);
+                } else if ("--speed".equals(arg) && hasValue) {
+                    String value = args[++i];
+                    speed = "max".equalsIgnoreCase(value) ? 0 : Double.parseDouble(value);
+                } else if ("--size".equals(arg) && hasValue) {
+                    String[] size = args[++i].toLowerCase().split("x");
+                    width = Integer.parseInt(size[0]);
+                    height = Integer.parseInt(size[1]);
+                } else if ("--gop".equals(arg) && hasValue) {
+                    gop = Integer.parseInt(args[++i]);
+                } else if ("--slices".equals(arg) && hasValue) {
+                    slices = Integer.parseInt(args[++i]);
+                } else if ("--bitrate".equals(arg) && hasValue) {
+                    bitrateKbps = Integer.parseInt(args[++i]);
+                } else if ("--duration".equals(arg) && hasValue) {
+                    durationSec = Double.parseDouble(args[++i]);
+                } else if ("--save".equals(arg) && hasValue) {
+                    saveTo = args[++i];
+                } else {
+                    System.err.println("未知参数: " + arg);
+                    printUsage();
+                    return;
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("参数错误: " + e.getMessage());
+            printUsage();
+            return;
+        }
+        if ((file == null) == !pattern) {
+            printUsage();
+            return;
+        }
+
+        List<byte[]> accessUnits;
+        if (pattern) {
+            TestPatternGenerator generator = new TestPatternGenerator(width, height, fps, gop, slices,
+                    bitrateKbps * 1000);
+            int frames = Math.max(1, (int) Math.round(durationSec * fps));
+            System.out.println("正在生成测试图案: " + generator + ", " + frames + "帧");
+            long start = System.currentTimeMillis();
+            accessUnits = generator.generate(frames);
+            System.out.println(String.format("生成完成: %d个访问单元, 耗时 %d ms", accessUnits.size(),
+                    System.currentTimeMillis() - start));
+            if (saveTo != null) {
+                try (OutputStream out = Files.newOutputStream(Paths.get(saveTo))) {
+                    for (byte[] accessUnit : accessUnits) {
+                        out.write(accessUnit);
+                    }
+                }
+                System.out.println("码流已保存到 " + saveTo);
+            }
+        } else {
+            accessUnits = loadAccessUnits(Paths.get(file));
+            System.out.println(String.format("已加载 %s: %d个访问单元", file, accessUnits.size()));
+        }
+
+        List<DeviceSimulator> simulators = new ArrayList<>();
+        for (int i = 0; i < instances; i++) {
+            DeviceSimulator simulator = new DeviceSimulator(accessUnits, fps, speed);
+            simulator.start(port + i);
+            simulators.add(simulator);
+        }
+        System.out.println(String.format("%d个模拟设备已启动，端口 %d-%d，%s", instances, port, port + instances - 1,
+                speed > 0 ? String.format("%.2f倍速 (%.1f fps)", speed, fps * speed) : "不限速"));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> simulators.forEach(DeviceSimulator::close)));
+
+        // 定期输出发送统计
+        long lastFrames = 0;
+        long lastBytes = 0;
+        long lastTime = System.currentTimeMillis();
+        while (true) {
+            Thread.sleep(5000);
+            long frames = 0;
+            long bytes = 0;
+            int active = 0;
+            for (DeviceSimulator simulator : simulators) {
+                frames += simulator.getAccessUnitsSent();
+                bytes += simulator.getBytesSent();
+                active += simulator.getActiveConnectionCount();
+            }
+            long now = System.currentTimeMillis();
+            double seconds = (now - lastTime) / 1000.0;
+            System.out.println(String.format("[模拟设备] 连接: %d | 发送帧率: %.1f fps | 发送速率: %.1f KB/s",
+                    active, (frames - lastFrames) / seconds, (bytes - lastBytes) / 1024.0 / seconds));
+            lastFrames = frames;
+            lastBytes = bytes;
+            lastTime = now;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.LaNasil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 帧组装：{@link H264FrameAssembler#processNALU}
+ * 每次操作按接收顺序送入一段完整码流的全部NALU（默认2个GOP，IDR开头，可以无缝循环），
+ * 包括参数集检测、码流错误检测和帧边界判断；slices=4 时每帧有多个slice NALU。
+ * 组装器为每个NALU和每个完成的帧打印日志，测量期间丢弃 System.out，否则测到的主要是控制台输出。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FrameAssemblerBenchmark {
+
+    @Param({ "1280x720" })
+    public String size;
+
+    @Param({ "1", "4" })
+    public int slices;
+
+    @Param({ "false", "true" })
+    public boolean keyFrameOnly;
+
+    private byte[][] nalus;
+    private H264FrameAssembler assembler;
+    private Blackhole blackhole;
+    private PrintStream console;
+
+    @Setup
+    public void setup(Blackhole blackhole) throws IOException {
+        String[] wh = size.split("x");
+        List<byte[]> naluList = BenchmarkStreams.nalus(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), slices);
+        nalus = naluList.toArray(new byte[0][]);
+        this.blackhole = blackhole;
+        console = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream(), true, StandardCharsets.UTF_8));
+        assembler = new H264FrameAssembler(new H264FrameAssembler.FrameCallback() {
+            @Override
+            public void onFrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+                FrameAssemblerBenchmark.this.blackhole.consume(frameData);
+            }
+
+            @Override
+            public void onParameterSetsReceived(List<byte[]> parameterSets) {
+                FrameAssemblerBenchmark.this.blackhole.consume(parameterSets);
+            }
+        });
+        assembler.setKeyFrameOnly(keyFrameOnly);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(console);
+    }
+
+    @Benchmark
+    public long processNalus() {
+        for (byte[] nalu : nalus) {
+            assembler.processNALU(nalu);
+        }
+        return assembler.getBitstreamErrorCount();
+    }
+}
@@ -0,0 +1,82 @@
+package com.LaNasil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 解码帧的图像编码
+ * imageIoPng 是最初渲染路径使用的 ImageIO PNG 编码（作为基线），
+ * encoderPng / encoderJpeg 是现在 {@link ImageEncoder} 的实现，decodedFrameMessage 再加上Base64和JSON拼接，
+ * 即图像分发阶段处理每个解码帧的全部工作。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ImageEncodeBenchmark {
+
+    @Param({ "1280x720" })
+    public String size;
+
+    private DecodedFrame frame;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] wh = size.split("x");
+        byte[] keyFrame = BenchmarkStreams.accessUnits(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), 1).get(0);
+        H264Decoder decoder = new H264Decoder();
+        try {
+            frame = decoder.decodeFrame(keyFrame, 1);
+        } finally {
+            decoder.release();
+        }
+        if (frame == null) {
+            throw new IllegalStateException("无法解码基准测试使用的IDR帧");
+        }
+        // 与Java2DFrameConverter输出的BGR图像相同的布局
+        image = new BufferedImage(frame.getWidth(), frame.getHeight(), BufferedImage.TYPE_3BYTE_BGR);
+        byte[] target = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(frame.getPixels(), 0, target, 0, target.length);
+    }
+
+    @Benchmark
+    public byte[] imageIoPng() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] encoderPng() throws IOException {
+        return ImageEncoder.encodePng(frame);
+    }
+
+    @Benchmark
+    public byte[] encoderJpeg() throws IOException {
+        return ImageEncoder.encodeJpeg(frame);
+    }
+
+    @Benchmark
+    public String decodedFrameMessage() throws IOException {
+        return ReceiverEngine.buildDecodedFrameMessage(frame);
+    }
+}
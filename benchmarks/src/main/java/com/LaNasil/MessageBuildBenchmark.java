@@ -0,0 +1,66 @@
+package com.LaNasil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket消息构建：Base64编码 + String.format 拼接JSON
+ * keyFrame / interFrame 是分发阶段为每个完整帧构建的 complete_frame 消息（IDR帧和P帧），
+ * rawNalu 是为每个NALU构建的 frame 消息（这里取IDR帧的slice NALU）。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBuildBenchmark {
+
+    @Param({ "1280x720" })
+    public String size;
+
+    private byte[] keyFrame;
+    private byte[] interFrame;
+    private byte[] sliceNalu;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] wh = size.split("x");
+        List<byte[]> accessUnits = BenchmarkStreams.accessUnits(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), 1);
+        keyFrame = accessUnits.get(0);
+        interFrame = accessUnits.get(1);
+        for (byte[] nalu : H264Bitstream.splitNalus(keyFrame)) {
+            if (H264Bitstream.getNaluType(nalu) == H264FrameAssembler.NALU_TYPE_IDR) {
+                sliceNalu = nalu;
+            }
+        }
+    }
+
+    @Benchmark
+    public String keyFrame() {
+        return ReceiverEngine.buildCompleteFrameMessage(keyFrame, "关键帧", 1);
+    }
+
+    @Benchmark
+    public String interFrame() {
+        return ReceiverEngine.buildCompleteFrameMessage(interFrame, "普通帧", 2);
+    }
+
+    @Benchmark
+    public String rawNalu() {
+        return ReceiverEngine.buildRawNaluMessage(sliceNalu);
+    }
+}
@@ -0,0 +1,72 @@
+package com.LaNasil;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NALU切分：{@link StreamPipeline#parseNalusWithStateMachine}
+ * 每次操作处理整段码流（默认2个GOP），吞吐量 = 码流字节数 / 平均时间。
+ * wholeStream 一次解析全部数据；socketChunks 按接入阶段的方式每次读取8KB，
+ * 把新数据追加到缓冲区后重新解析并保留未完成的NALU，反映实际接收循环的复制开销。
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NaluParserBenchmark {
+
+    // 与接入阶段的读取缓冲区大小一致
+    private static final int READ_SIZE = 8192;
+
+    @Param({ "1280x720" })
+    public String size;
+
+    @Param({ "1", "4" })
+    public int slices;
+
+    private byte[] stream;
+
+    @Setup
+    public void setup() throws IOException {
+        String[] wh = size.split("x");
+        stream = BenchmarkStreams.stream(Integer.parseInt(wh[0]), Integer.parseInt(wh[1]), slices);
+    }
+
+    @Benchmark
+    public int wholeStream(Blackhole blackhole) {
+        return StreamPipeline.parseNalusWithStateMachine(stream, -1, 0, blackhole::consume);
+    }
+
+    @Benchmark
+    public void socketChunks(Blackhole blackhole) throws IOException {
+        ByteArrayOutputStream streamBuffer = new ByteArrayOutputStream();
+        for (int offset = 0; offset < stream.length; offset += READ_SIZE) {
+            streamBuffer.write(stream, offset, Math.min(READ_SIZE, stream.length - offset));
+            byte[] currentData = streamBuffer.toByteArray();
+            int processedBytes = StreamPipeline.parseNalusWithStateMachine(currentData, -1, 0, blackhole::consume);
+            if (processedBytes > 0 && processedBytes < currentData.length) {
+                byte[] remainingData = Arrays.copyOfRange(currentData, processedBytes, currentData.length);
+                streamBuffer.reset();
+                streamBuffer.write(remainingData);
+            }
+        }
+        blackhole.consume(streamBuffer.size());
+    }
+}
@@ -0,0 +1,487 @@
+package com.LaNasil;
+
+import org.java_websocket.client.WebSocketClient;
+import org.java_websocket.handshake.ServerHandshake;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 端到端长时间负载测试（N路流 × 每路M个WebSocket客户端）
+ * 在同一进程中为每路流启动一个 {@link DeviceSimulator} 和一个 {@link ReceiverEngine}（GUI使用的同一个引擎），
+ * 再连接M个无界面WebSocket客户端，其中一部分是每条消息都会停顿的慢客户端。
+ * 运行指定时间后输出JSON报告：接入吞吐量、每个客户端实际收到的帧率、从解码完成到客户端收到的延迟分位数、
+ * 各阶段丢弃数、堆内存和GC情况以及每路流的CPU占用，便于在发布前比较广播和解码路径的回归。
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.LaNasil.SoakTest [--file sample.h264 | --size 1280x720 --fps 30 --gop 30 --bitrate 2000]
+ *                                        [--streams 4] [--clients 3] [--slow 1] [--slow-delay-ms 200]
+ *                                        [--duration 60] [--warmup 5] [--interval 5] [--output report.json]
+ */
+public class SoakTest {
+
+    // 延迟直方图：1毫秒一格，超过上限的计入最后一格
+    private static final int LATENCY_HISTOGRAM_MS = 10_000;
+    // 解码时间记录的环形缓冲区大小（帧）
+    private static final int DECODE_TIME_SLOTS = 4096;
+
+    /**
+     * 无界面WebSocket客户端，统计各类消息并测量解码帧的端到端延迟
+     */
+    private static final class LoadClient extends WebSocketClient {
+        final String id;
+        final boolean slow;
+        final long slowDelayMs;
+        final StreamUnderTest stream;
+        final AtomicLong decodedFrames = new AtomicLong(0);
+        final AtomicLong completeFrames = new AtomicLong(0);
+        final AtomicLong nalus = new AtomicLong(0);
+        final AtomicLong messages = new AtomicLong(0);
+        final AtomicLong bytes = new AtomicLong(0);
+        final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_HISTOGRAM_MS + 1);
+        final AtomicLong maxLatencyMs = new AtomicLong(-1);
+        volatile boolean closedEarly = false;
+
+        LoadClient(URI uri, String id, boolean slow, long slowDelayMs, StreamUnderTest stream) {
+            super(uri);
+            this.id = id;
+            this.slow = slow;
+            this.slowDelayMs = slowDelayMs;
+            this.stream = stream;
+        }
+
+        @Override
+        public void onOpen(ServerHandshake handshake) {
+        }
+
+        @Override
+        public void onMessage(String message) {
+            long receivedAt = System.nanoTime();
+            messages.incrementAndGet();
+            bytes.addAndGet(message.length());
+            String type = jsonString(message, "type");
+            if ("decoded_frame".equals(type)) {
+                decodedFrames.incrementAndGet();
+                long frameNumber = jsonLong(message, "frameNumber");
+                long decodedAt = stream.decodeTimeOf(frameNumber);
+                if (decodedAt > 0) {
+                    long latencyMs = Math.max(0, (receivedAt - decodedAt) / 1_000_000);
+                    latencyHistogram.incrementAndGet((int) Math.min(LATENCY_HISTOGRAM_MS, latencyMs));
+                    maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+                }
+            } else if ("complete_frame".equals(type)) {
+                completeFrames.incrementAndGet();
+            } else if ("frame".equals(type)) {
+                nalus.incrementAndGet();
+            }
+            if (slow) {
+                // 慢客户端：阻塞读取线程，积压留在服务器的发送队列和TCP缓冲区中
+                try {
+                    Thread.sleep(slowDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void onClose(int code, String reason, boolean remote) {
+            closedEarly = remote;
+        }
+
+        @Override
+        public void onError(Exception ex) {
+            System.err.println("负载客户端 " + id + " 错误: " + ex.getMessage());
+        }
+
+        void resetCounters() {
+            decodedFrames.set(0);
+            completeFrames.set(0);
+            nalus.set(0);
+            messages.set(0);
+            bytes.set(0);
+            maxLatencyMs.set(-1);
+            for (int i = 0; i < latencyHistogram.length(); i++) {
+                latencyHistogram.set(i, 0);
+            }
+        }
+
+        long latencyPercentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < latencyHistogram.length(); i++) {
+                total += latencyHistogram.get(i);
+            }
+            if (total == 0) {
+                return -1;
+            }
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < latencyHistogram.length(); i++) {
+                seen += latencyHistogram.get(i);
+                if (seen >= target) {
+                    return i;
+                }
+            }
+            return LATENCY_HISTOGRAM_MS;
+        }
+    }
+
+    /**
+     * 一路被测流：模拟设备、接收引擎和它的WebSocket客户端
+     */
+    private static final class StreamUnderTest {
+        final int index;
+        final DeviceSimulator simulator;
+        final ReceiverEngine engine;
+        final int wsPort;
+        final List<LoadClient> clients = new ArrayList<>();
+        // 按解码帧号记录解码完成时间（System.nanoTime）
+        final AtomicLongArray decodeFrameNumbers = new AtomicLongArray(DECODE_TIME_SLOTS);
+        final AtomicLongArray decodeTimes = new AtomicLongArray(DECODE_TIME_SLOTS);
+
+        long baseBytes;
+        long baseFrames;
+        long baseDecoded;
+        long baseSkipped;
+        long baseErrors;
+        long[] baseStageDrops;
+
+        StreamUnderTest(int index, List<byte[]> accessUnits, double fps) throws IOException {
+            this.index = index;
+            this.simulator = new DeviceSimulator(accessUnits, fps, 1.0);
+            this.engine = new ReceiverEngine(false, message -> {
+            });
+            this.wsPort = findFreePort();
+            engine.getLiveDecoder().addFrameListener((frame, frameNumber) -> {
+                int slot = (int) (frameNumber % DECODE_TIME_SLOTS);
+                decodeTimes.set(slot, System.nanoTime());
+                decodeFrameNumbers.set(slot, frameNumber);
+            });
+        }
+
+        long decodeTimeOf(long frameNumber) {
+            int slot = (int) (frameNumber % DECODE_TIME_SLOTS);
+            long time = decodeTimes.get(slot);
+            return decodeFrameNumbers.get(slot) == frameNumber ? time : -1;
+        }
+
+        void start(int clientCount, int slowCount, long slowDelayMs) throws Exception {
+            simulator.startOnLoopback();
+            engine.startWebSocketServer(wsPort);
+            long deadline = System.currentTimeMillis() + 5000;
+            for (int c = 0; c < clientCount; c++) {
+                LoadClient client = new LoadClient(new URI("ws://127.0.0.1:" + wsPort),
+                        "s" + index + "-c" + c, c < slowCount, slowDelayMs, this);
+                // WebSocket服务器在后台线程上启动，连接失败时重试直到超时
+                while (!client.connectBlocking(1, TimeUnit.SECONDS)) {
+                    if (System.currentTimeMillis() > deadline) {
+                        throw new IOException("无法连接WebSocket服务器: 端口 " + wsPort);
+                    }
+                    Thread.sleep(50);
+                    client = new LoadClient(new URI("ws://127.0.0.1:" + wsPort), client.id, client.slow,
+                            slowDelayMs, this);
+                }
+                clients.add(client);
+            }
+            engine.connect("127.0.0.1", simulator.getPort());
+        }
+
+        void snapshot() {
+            baseBytes = engine.getTotalBytesReceived();
+            baseFrames = engine.getFrameCount();
+            baseDecoded = engine.getLiveDecoder().getDecodedFrameCount();
+            baseSkipped = engine.getSkippedFrameCount();
+            baseErrors = engine.getErrorCount();
+            baseStageDrops = stageDrops();
+            clients.forEach(LoadClient::resetCounters);
+        }
+
+        long[] stageDrops() {
+            List<PipelineStage<?>> stages = engine.getPipeline().getStages();
+            long[] drops = new long[stages.size()];
+            for (int i = 0; i < drops.length; i++) {
+                drops[i] = stages.get(i).getDroppedCount();
+            }
+            return drops;
+        }
+
+        void stop() {
+            for (LoadClient client : clients) {
+                try {
+                    client.closeBlocking();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            engine.close();
+            simulator.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        int width = 1280;
+        int height = 720;
+        double fps = 30.0;
+        int gop = 30;
+        int bitrateKbps = 2000;
+        int streamCount = 4;
+        int clientCount = 3;
+        int slowCount = 1;
+        long slowDelayMs = 200;
+        int durationSec = 60;
+        int warmupSec = 5;
+        int intervalSec = 5;
+        String output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if ("--file".equals(arg) && hasValue) {
+                file = args[++i];
+            } else if ("--size".equals(arg) && hasValue) {
+                String[] size = args[++i].toLowerCase().split("x");
+                width = Integer.parseInt(size[0]);
+                height = Integer.parseInt(size[1]);
+            } else if ("--fps".equals(arg) && hasValue) {
+                fps = Double.parseDouble(args[++i]);
+            } else if ("--gop".equals(arg) && hasValue) {
+                gop = Integer.parseInt(args[++i]);
+            } else if ("--bitrate".equals(arg) && hasValue) {
+                bitrateKbps = Integer.parseInt(args[++i]);
+            } else if ("--streams".equals(arg) && hasValue) {
+                streamCount = Integer.parseInt(args[++i]);
+            } else if ("--clients".equals(arg) && hasValue) {
+                clientCount = Integer.parseInt(args[++i]);
+            } else if ("--slow".equals(arg) && hasValue) {
+                slowCount = Integer.parseInt(args[++i]);
+            } else if ("--slow-delay-ms".equals(arg) && hasValue) {
+                slowDelayMs = Long.parseLong(args[++i]);
+            } else if ("--duration".equals(arg) && hasValue) {
+                durationSec = Integer.parseInt(args[++i]);
+            } else if ("--warmup".equals(arg) && hasValue) {
+                warmupSec = Integer.parseInt(args[++i]);
+            } else if ("--interval".equals(arg) && hasValue) {
+                intervalSec = Integer.parseInt(args[++i]);
+            } else if ("--output".equals(arg) && hasValue) {
+                output = args[++i];
+            } else {
+                System.err.println("未知参数: " + arg);
+                System.err.println("用法: SoakTest [--file sample.h264 | --size 1280x720 --fps 30 --gop 30 --bitrate 2000]");
+                System.err.println("                [--streams 4] [--clients 3] [--slow 1] [--slow-delay-ms 200]");
+                System.err.println("                [--duration 60] [--warmup 5] [--interval 5] [--output report.json]");
+                return;
+            }
+        }
+
+        // 接收器各组件直接向标准输出打印每帧日志，测试期间丢弃，只保留本工具的进度输出
+        PrintStream console = System.out;
+        List<byte[]> accessUnits;
+        if (file != null) {
+            accessUnits = DeviceSimulator.loadAccessUnits(Paths.get(file));
+            console.println(String.format("样本: %s, 访问单元=%d", file, accessUnits.size()));
+        } else {
+            TestPatternGenerator generator = new TestPatternGenerator(width, height, fps, gop, 1, bitrateKbps * 1000);
+            console.println("生成测试图案: " + generator);
+            accessUnits = generator.generate((int) Math.max(gop, Math.round(fps * 10)));
+        }
+        System.setOut(new PrintStream(OutputStream.nullOutputStream(), true, StandardCharsets.UTF_8));
+
+        List<StreamUnderTest> streams = new ArrayList<>();
+        StringBuilder samples = new StringBuilder();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        try {
+            for (int s = 0; s < streamCount; s++) {
+                StreamUnderTest stream = new StreamUnderTest(s, accessUnits, fps);
+                streams.add(stream);
+                stream.start(clientCount, slowCount, slowDelayMs);
+            }
+            console.println(String.format("已启动 %d 路流 × %d 个客户端（其中慢客户端 %d 个，每条消息停顿 %d ms），预热 %d 秒",
+                    streamCount, clientCount, slowCount, slowDelayMs, warmupSec));
+            Thread.sleep(warmupSec * 1000L);
+
+            // 预热结束后开始计量
+            streams.forEach(StreamUnderTest::snapshot);
+            long gcCountBase = gcCount();
+            long gcTimeBase = gcTimeMs();
+            long cpuBase = os.getProcessCpuTime();
+            long startNanos = System.nanoTime();
+            long peakHeap = memory.getHeapMemoryUsage().getUsed();
+            long lastBytes = 0;
+            long lastDelivered = 0;
+            long lastSampleNanos = startNanos;
+
+            long endNanos = startNanos + TimeUnit.SECONDS.toNanos(durationSec);
+            while (System.nanoTime() < endNanos) {
+                long sleepNanos = Math.min(TimeUnit.SECONDS.toNanos(intervalSec), endNanos - System.nanoTime());
+                Thread.sleep(Math.max(1, sleepNanos / 1_000_000));
+                long now = System.nanoTime();
+                long heap = memory.getHeapMemoryUsage().getUsed();
+                peakHeap = Math.max(peakHeap, heap);
+                long bytes = 0;
+                long delivered = 0;
+                for (StreamUnderTest stream : streams) {
+                    bytes += stream.engine.getTotalBytesReceived() - stream.baseBytes;
+                    for (LoadClient client : stream.clients) {
+                        delivered += client.decodedFrames.get();
+                    }
+                }
+                double seconds = (now - lastSampleNanos) / 1e9;
+                double elapsed = (now - startNanos) / 1e9;
+                double ingestKBps = (bytes - lastBytes) / 1024.0 / seconds;
+                double deliveredFps = (delivered - lastDelivered) / seconds;
+                if (samples.length() > 0) {
+                    samples.append(",");
+                }
+                samples.append(String.format(
+                        "{\"t\":%.1f,\"heapMB\":%.1f,\"ingestKBps\":%.1f,\"deliveredFps\":%.1f,\"gcCount\":%d}",
+                        elapsed, heap / 1048576.0, ingestKBps, deliveredFps, gcCount() - gcCountBase));
+                console.println(String.format("[%5.0fs] 堆=%.0f MB | 接入=%.0f KB/s | 客户端合计=%.1f fps | GC=%d次",
+                        elapsed, heap / 1048576.0, ingestKBps, deliveredFps, gcCount() - gcCountBase));
+                lastBytes = bytes;
+                lastDelivered = delivered;
+                lastSampleNanos = now;
+            }
+
+            double seconds = (System.nanoTime() - startNanos) / 1e9;
+            double cpuPercent = (os.getProcessCpuTime() - cpuBase) / 1e9 / seconds * 100;
+            String report = buildReport(streams, seconds, cpuPercent, peakHeap, memory.getHeapMemoryUsage().getUsed(),
+                    gcCount() - gcCountBase, gcTimeMs() - gcTimeBase, samples.toString(), file, streamCount,
+                    clientCount, slowCount, slowDelayMs);
+            if (output != null) {
+                Files.write(Paths.get(output), report.getBytes(StandardCharsets.UTF_8));
+                console.println("报告已写入 " + output);
+            } else {
+                console.println(report);
+            }
+        } finally {
+            streams.forEach(StreamUnderTest::stop);
+            System.setOut(console);
+        }
+        System.exit(0);
+    }
+
+    private static String buildReport(List<StreamUnderTest> streams, double seconds, double cpuPercent,
+            long peakHeap, long endHeap, long gcCount, long gcTimeMs, String samples, String file,
+            int streamCount, int clientCount, int slowCount, long slowDelayMs) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"config\":{");
+        json.append(String.format("\"source\":\"%s\",\"streams\":%d,\"clientsPerStream\":%d,"
+                + "\"slowClientsPerStream\":%d,\"slowDelayMs\":%d,\"cpus\":%d},",
+                file != null ? file.replace("\\", "/") : "pattern", streamCount, clientCount, slowCount,
+                slowDelayMs, Runtime.getRuntime().availableProcessors()));
+        json.append(String.format("\"durationSec\":%.1f,", seconds));
+        json.append(String.format("\"process\":{\"cpuPercent\":%.1f,\"cpuPercentPerStream\":%.1f,"
+                + "\"heapPeakMB\":%.1f,\"heapEndMB\":%.1f,\"gcCount\":%d,\"gcTimeMs\":%d},",
+                cpuPercent, cpuPercent / Math.max(1, streams.size()), peakHeap / 1048576.0, endHeap / 1048576.0,
+                gcCount, gcTimeMs));
+        json.append("\"streams\":[");
+        for (int s = 0; s < streams.size(); s++) {
+            StreamUnderTest stream = streams.get(s);
+            ReceiverEngine engine = stream.engine;
+            if (s > 0) {
+                json.append(",");
+            }
+            json.append(String.format("{\"index\":%d,\"ingestKBps\":%.1f,\"assembledFps\":%.1f,\"decodedFps\":%.1f,"
+                    + "\"decoderSkipped\":%d,\"errors\":%d,\"stageDrops\":{",
+                    stream.index, (engine.getTotalBytesReceived() - stream.baseBytes) / 1024.0 / seconds,
+                    (engine.getFrameCount() - stream.baseFrames) / seconds,
+                    (engine.getLiveDecoder().getDecodedFrameCount() - stream.baseDecoded) / seconds,
+                    engine.getSkippedFrameCount() - stream.baseSkipped, engine.getErrorCount() - stream.baseErrors));
+            List<PipelineStage<?>> stages = engine.getPipeline().getStages();
+            long[] drops = stream.stageDrops();
+            for (int i = 0; i < stages.size(); i++) {
+                if (i > 0) {
+                    json.append(",");
+                }
+                json.append(String.format("\"%s\":%d", stages.get(i).getName(), drops[i] - stream.baseStageDrops[i]));
+            }
+            json.append("},\"clients\":[");
+            for (int c = 0; c < stream.clients.size(); c++) {
+                LoadClient client = stream.clients.get(c);
+                if (c > 0) {
+                    json.append(",");
+                }
+                json.append(String.format("{\"id\":\"%s\",\"slow\":%b,\"connected\":%b,\"decodedFps\":%.1f,"
+                        + "\"completeFrameFps\":%.1f,\"naluPerSec\":%.1f,\"receivedKBps\":%.1f,"
+                        + "\"latencyMs\":{\"p50\":%d,\"p95\":%d,\"p99\":%d,\"max\":%d}}",
+                        client.id, client.slow, client.isOpen() && !client.closedEarly,
+                        client.decodedFrames.get() / seconds, client.completeFrames.get() / seconds,
+                        client.nalus.get() / seconds, client.bytes.get() / 1024.0 / seconds,
+                        client.latencyPercentile(0.50), client.latencyPercentile(0.95),
+                        client.latencyPercentile(0.99), client.maxLatencyMs.get()));
+            }
+            json.append("]}");
+        }
+        json.append("],\"samples\":[").append(samples).append("]}");
+        return json.toString();
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcTimeMs() {
+        long time = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            time += Math.max(0, gc.getCollectionTime());
+        }
+        return time;
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static String jsonString(String json, String key) {
+        String marker = "\"" + key + "\":\"";
+        int start = json.indexOf(marker);
+        if (start < 0) {
+            return null;
+        }
+        start += marker.length();
+        int end = json.indexOf('"', start);
+        return end < 0 ? null : json.substring(start, end);
+    }
+
+    private static long jsonLong(String json, String key) {
+        String marker = "\"" + key + "\":";
+        // 数值字段都在Base64数据之后，从末尾查找更快
+        int start = json.lastIndexOf(marker);
+        if (start < 0) {
+            return -1;
+        }
+        start += marker.length();
+        int end = start;
+        while (end < json.length() && (Character.isDigit(json.charAt(end)) || json.charAt(end) == '-')) {
+            end++;
+        }
+        try {
+            return Long.parseLong(json.substring(start, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.LaNasil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 冷启动基准测试
+ * 用 {@link DeviceSimulator} 在本地端口上按实时帧率循环发送录制的.h264文件，每轮启动一个新的接收器JVM（--noui），
+ * 测量从启动进程到连接上游、FFmpeg本地库加载完成以及第一帧解码完成的时间。
+ * 子进程运行 --jar 指定的接收器JAR（例如 target/udp-h264-1.0.0-jar-with-dependencies.jar，即测量打包后的启动时间），
+ * 额外的JVM参数（例如 -XX:SharedArchiveFile=target/receiver.jsa）通过 --jvm-arg 传入。
+ * AppCDS归档由主项目中的 {@link AppCdsTrainer} 生成。
+ *
+ * 用法: java -cp benchmarks/target/benchmarks.jar com.LaNasil.StartupBenchmark <file.h264> --jar <receiver.jar>
+ *            [--runs 5] [--fps 30] [--keyframe-only] [--jvm-arg <arg>]...
+ */
+public class StartupBenchmark {
+
+    private static final long RUN_TIMEOUT_MS = 30_000;
+
+    // 子进程日志中的标记（见 FFmpegNatives 和 ReceiverEngine）
+    private static final String NATIVES_LOADED_MARKER = "FFmpeg本地库已加载";
+    private static final String FIRST_FRAME_MARKER = "首帧解码完成";
+
+    /**
+     * 单轮启动的测量结果（毫秒，-1表示未观察到）
+     */
+    private static final class Result {
+        final long connectMs;
+        final long nativesLoadedMs;
+        final long firstFrameMs;
+
+        Result(long connectMs, long nativesLoadedMs, long firstFrameMs) {
+            this.connectMs = connectMs;
+            this.nativesLoadedMs = nativesLoadedMs;
+            this.firstFrameMs = firstFrameMs;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        int runs = 5;
+        double fps = 30.0;
+        boolean keyFrameOnly = false;
+        String receiverJar = null;
+        List<String> jvmArgs = new ArrayList<>();
+
+        for (int i = 0; i < args.length; i++) {
+            if ("--runs".equals(args[i]) && i + 1 < args.length) {
+                runs = Integer.parseInt(args[++i]);
+            } else if ("--fps".equals(args[i]) && i + 1 < args.length) {
+                fps = Double.parseDouble(args[++i]);
+            } else if ("--jvm-arg".equals(args[i]) && i + 1 < args.length) {
+                jvmArgs.add(args[++i]);
+            } else if ("--keyframe-only".equals(args[i])) {
+                keyFrameOnly = true;
+            } else if ("--jar".equals(args[i]) && i + 1 < args.length) {
+                receiverJar = args[++i];
+            } else {
+                file = args[i];
+            }
+        }
+
+        if (file == null || receiverJar == null) {
+            System.err.println("用法: StartupBenchmark <file.h264> --jar <receiver.jar> [--runs 5] [--fps 30] [--keyframe-only]"
+                    + " [--jvm-arg <arg>]...");
+            return;
+        }
+
+        List<byte[]> accessUnits = DeviceSimulator.loadAccessUnits(Paths.get(file));
+        DeviceSimulator server = new DeviceSimulator(accessUnits, fps, 1.0);
+        server.startOnLoopback();
+
+        try {
+            System.out.println(String.format("样本: %s, 访问单元=%d, 测试流端口=%d, 接收器=%s, JVM参数=%s",
+                    file, accessUnits.size(), server.getPort(), receiverJar, jvmArgs));
+            List<Result> results = new ArrayList<>();
+            for (int run = 1; run <= runs; run++) {
+                Result result = runSingle(server, receiverJar, jvmArgs, keyFrameOnly);
+                results.add(result);
+                System.out.println(String.format("  第%d轮: 连接=%d ms, 本地库就绪=%d ms, 首帧=%d ms",
+                        run, result.connectMs, result.nativesLoadedMs, result.firstFrameMs));
+            }
+            printResults(results);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * 启动一个接收器子进程并测量其启动时间
+     */
+    private static Result runSingle(DeviceSimulator server, String receiverJar, List<String> jvmArgs,
+            boolean keyFrameOnly)
+            throws Exception {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        // 子进程日志按UTF-8输出，以便匹配中文标记
+        command.add("-Dfile.encoding=UTF-8");
+        command.add("-Dsun.stdout.encoding=UTF-8");
+        command.add("-Ddecoder.onDemand=false");
+        command.add("-cp");
+        command.add(receiverJar);
+        command.add(ReceiverMain.class.getName());
+        command.add("--noui");
+        if (keyFrameOnly) {
+            command.add("--keyframe-only");
+        }
+        command.addAll(Arrays.asList("127.0.0.1", String.valueOf(server.getPort())));
+
+        long previousConnections = server.getConnectionCount();
+        AtomicLong nativesLoaded = new AtomicLong(-1);
+        CountDownLatch firstFrame = new CountDownLatch(1);
+
+        long startNanos = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        Thread reader = new Thread(() -> {
+            try (BufferedReader in = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.contains(NATIVES_LOADED_MARKER)) {
+                        nativesLoaded.compareAndSet(-1, System.nanoTime());
+                    } else if (line.contains(FIRST_FRAME_MARKER)) {
+                        firstFrame.countDown();
+                    }
+                }
+            } catch (IOException e) {
+                // 子进程已退出
+            }
+        }, "Startup-Output-Reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean sawFirstFrame = firstFrame.await(RUN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        long firstFrameNanos = sawFirstFrame ? System.nanoTime() : -1;
+        long connectNanos = server.getConnectionCount() > previousConnections ? server.getLastConnectNanos() : -1;
+
+        process.destroy();
+        if (!process.waitFor(5, TimeUnit.SECONDS)) {
+            process.destroyForcibly().waitFor();
+        }
+
+        return new Result(sinceStart(startNanos, connectNanos), sinceStart(startNanos, nativesLoaded.get()),
+                sinceStart(startNanos, firstFrameNanos));
+    }
+
+    private static long sinceStart(long startNanos, long eventNanos) {
+        return eventNanos < 0 ? -1 : (eventNanos - startNanos) / 1_000_000;
+    }
+
+    private static void printResults(List<Result> results) {
+        System.out.println();
+        System.out.println("指标\t中位数(ms)\t最小(ms)\t最大(ms)");
+        printRow("连接上游", results.stream().mapToLong(r -> r.connectMs).toArray());
+        printRow("本地库就绪", results.stream().mapToLong(r -> r.nativesLoadedMs).toArray());
+        printRow("首帧解码", results.stream().mapToLong(r -> r.firstFrameMs).toArray());
+    }
+
+    private static void printRow(String name, long[] values) {
+        long[] observed = Arrays.stream(values).filter(v -> v >= 0).sorted().toArray();
+        if (observed.length == 0) {
+            System.out.println(name + "\t-\t-\t-");
+            return;
+        }
+        System.out.println(String.format("%s\t%d\t%d\t%d", name, observed[observed.length / 2], observed[0],
+                observed[observed.length - 1]));
+    }
+}
@@ -0,0 +1,152 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 测试图案视频生成器
+ * 用 {@link FFmpegFrameRecorder} 把合成的测试图案编码为Annex-B格式的H.264，按访问单元返回。
+ * 图案包括水平滚动的彩条、一个来回移动的方块和底部以二进制方块表示的帧号，
+ * 运动量足以产生真实的P帧，帧号便于在客户端检查丢帧。
+ */
+public class TestPatternGenerator {
+
+    private static final byte[][] BAR_COLORS = { // BGR
+            { (byte) 192, (byte) 192, (byte) 192 }, // 灰
+            { 0, (byte) 192, (byte) 192 }, // 黄
+            { (byte) 192, (byte) 192, 0 }, // 青
+            { 0, (byte) 192, 0 }, // 绿
+            { (byte) 192, 0, (byte) 192 }, // 品红
+            { 0, 0, (byte) 192 }, // 红
+            { (byte) 192, 0, 0 }, // 蓝
+            { 16, 16, 16 }, // 黑
+    };
+    private static final int COUNTER_BITS = 16;
+
+    private final int width;
+    private final int height;
+    private final double fps;
+    private final int gopSize;
+    private final int slices;
+    private final int bitrate;
+
+    /**
+     * @param width   图像宽度（偶数）
+     * @param height  图像高度（偶数）
+     * @param fps     帧率
+     * @param gopSize IDR间隔（帧数）
+     * @param slices  每帧的slice数，1表示不分片
+     * @param bitrate 目标码率（bit/s）
+     */
+    public TestPatternGenerator(int width, int height, double fps, int gopSize, int slices, int bitrate) {
+        if (width <= 0 || height <= 0 || width % 2 != 0 || height % 2 != 0) {
+            throw new IllegalArgumentException("分辨率必须为正偶数: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.gopSize = gopSize;
+        this.slices = slices;
+        this.bitrate = bitrate;
+    }
+
+    /**
+     * 编码指定帧数的测试图案
+     *
+     * @return 按解码顺序排列的访问单元，第一个包含SPS/PPS和IDR帧
+     */
+    public List<byte[]> generate(int frameCount) throws IOException {
+        FFmpegNatives.ensureLoaded();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output, width, height);
+        Frame frame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+        try {
+            recorder.setFormat("h264");
+            recorder.setVideoCodecName("libopenh264");
+            recorder.setFrameRate(fps);
+            recorder.setGopSize(gopSize);
+            recorder.setVideoBitrate(bitrate);
+            recorder.setVideoOption("slices", String.valueOf(slices));
+            recorder.start();
+            for (int i = 0; i < frameCount; i++) {
+                drawFrame(frame, i);
+                recorder.record(frame);
+            }
+            recorder.stop();
+        } finally {
+            recorder.release();
+            frame.close();
+        }
+        return H264Bitstream.groupAccessUnits(H264Bitstream.splitNalus(output.toByteArray()));
+    }
+
+    /**
+     * 绘制第 index 帧（BGR）
+     */
+    private void drawFrame(Frame frame, int index) {
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        int stride = frame.imageStride;
+
+        // 水平滚动的彩条
+        int barWidth = Math.max(1, width / BAR_COLORS.length);
+        int offset = index * 4;
+        byte[] row = new byte[stride];
+        for (int x = 0; x < width; x++) {
+            byte[] color = BAR_COLORS[((x + offset) / barWidth) % BAR_COLORS.length];
+            row[x * 3] = color[0];
+            row[x * 3 + 1] = color[1];
+            row[x * 3 + 2] = color[2];
+        }
+        for (int y = 0; y < height; y++) {
+            pixels.position(y * stride);
+            pixels.put(row, 0, width * 3);
+        }
+
+        // 来回移动的白色方块
+        int box = Math.max(8, height / 6);
+        int boxX = bounce(index * 7, width - box);
+        int boxY = bounce(index * 5, height - box);
+        fillRect(pixels, stride, boxX, boxY, box, box, (byte) 235);
+
+        // 底部的二进制帧号（白=1，黑=0）
+        int cell = Math.max(4, Math.min(width / (COUNTER_BITS + 2), height / 12));
+        int counterY = height - cell * 3 / 2;
+        for (int bit = 0; bit < COUNTER_BITS; bit++) {
+            byte value = ((index >> (COUNTER_BITS - 1 - bit)) & 1) != 0 ? (byte) 235 : (byte) 16;
+            fillRect(pixels, stride, cell / 2 + bit * cell, counterY, cell - 2, cell, value);
+        }
+        pixels.rewind();
+    }
+
+    private static int bounce(int position, int range) {
+        if (range <= 0) {
+            return 0;
+        }
+        int period = position % (range * 2);
+        return period < range ? period : range * 2 - period;
+    }
+
+    private void fillRect(ByteBuffer pixels, int stride, int x0, int y0, int w, int h, byte value) {
+        int x1 = Math.min(width, x0 + w);
+        int y1 = Math.min(height, y0 + h);
+        for (int y = Math.max(0, y0); y < y1; y++) {
+            for (int x = Math.max(0, x0); x < x1; x++) {
+                int p = y * stride + x * 3;
+                pixels.put(p, value);
+                pixels.put(p + 1, value);
+                pixels.put(p + 2, value);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d@%.1ffps, GOP=%d, slices=%d, 码率=%d kbps", width, height, fps, gopSize, slices,
+                bitrate / 1000);
+    }
+}
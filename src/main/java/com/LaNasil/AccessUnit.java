@@ -0,0 +1,49 @@
+package com.LaNasil;
+
+/**
+ * 访问单元 - 组装完成的一帧H.264数据（Annex-B格式，包含起始码）
+ * 关键帧前面附带SPS/PPS，可以独立开始解码。数据数组被多个订阅者共享，不要修改。
+ */
+public final class AccessUnit {
+
+    private final byte[] data;
+    private final boolean keyFrame;
+    private final long frameNumber;
+    private final long timestamp;
+
+    public AccessUnit(byte[] data, boolean keyFrame, long frameNumber, long timestamp) {
+        this.data = data;
+        this.keyFrame = keyFrame;
+        this.frameNumber = frameNumber;
+        this.timestamp = timestamp;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getSize() {
+        return data.length;
+    }
+
+    public boolean isKeyFrame() {
+        return keyFrame;
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return 组装完成的时间（毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AccessUnit[帧号=%d, 大小=%d字节, 关键帧=%s]", frameNumber, data.length,
+                keyFrame ? "是" : "否");
+    }
+}
@@ -0,0 +1,274 @@
+package com.LaNasil;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 压缩域画面活动检测 - 不解码，只根据码流判断设备画面是否在变化
+ * 画面静止时编码器输出的P帧几乎全部是跳过宏块，只有十几个字节；画面变化时帧大小成倍增长，
+ * 场景切换时出现帧内编码的切片。每个访问单元的活动分数（0~1）取以下两项的较大值：
+ * <ul>
+ * <li>帧大小相对于基线的倍数：基线为最近 windowFrames 个非关键帧大小的最小值（静止帧的开销），
+ * 但不超过 宏块数 × idleBytesPerMb，画面一直在运动时基线不会被抬高</li>
+ * <li>非IDR帧中I/SI切片所占比例；IDR帧按与上一个IDR帧的大小差异计算（静止画面的周期IDR大小几乎不变）</li>
+ * </ul>
+ * 编码器在IDR之后的几帧中会逐步提高画质，这些P帧明显大于静止帧；IDR判断为没有变化时，之后的P帧
+ * 在大小回落到基线附近之前（最多 {@value #IDR_SETTLE_MS} 毫秒）不算作活动。
+ * 分数达到 threshold 时为活动状态，连续 idleMs 没有活动后进入静止状态。静止期间解码图像的编码和推送
+ * 只保留每 idleImageMs 一次，非参考帧不再解码（不影响其他帧）；参考帧始终解码，保证预测链完整。
+ * 配置: -Dactivity=true -Dactivity.threshold=0.5 -Dactivity.idleMs=1000 -Dactivity.idleImageMs=2000
+ * -Dactivity.sizeRatio=3 -Dactivity.windowFrames=300 -Dactivity.idleBytesPerMb=0.1
+ */
+public class ActivityDetector {
+
+    /**
+     * 活动状态变化回调（在组装线程上调用）
+     */
+    public interface StateChange {
+        void onActivityChanged(boolean idle, double score, long quietMillis);
+    }
+
+    private static final int SLICE_TYPE_I = 2;
+    private static final int SLICE_TYPE_SI = 4;
+    // IDR帧大小变化超过该比例时分数为1
+    private static final double IDR_SIZE_CHANGE = 0.1;
+    // 画面没有变化的IDR之后，忽略画质提升帧的最长时间
+    private static final long IDR_SETTLE_MS = 500;
+
+    private final double threshold;
+    private final long idleMs;
+    private final long idleImageMs;
+    private final double sizeRatio;
+    private final int windowFrames;
+    private final double idleBytesPerMb;
+    private final StateChange stateChange;
+
+    // 只在组装线程上访问
+    // 单调递增队列：窗口内非关键帧 {序号, 大小}，队首为最小值
+    private final ArrayDeque<long[]> window = new ArrayDeque<>();
+    private long sequence = 0;
+    private long macroblocks = 0;
+    private long lastIdrSize = -1;
+    private long lastIdrMillis;
+    private boolean settlingAfterIdr = false;
+    private long lastActiveMillis;
+
+    // 组装线程写入，解码线程和图像分发线程读取
+    private volatile boolean idle = false;
+    private volatile double lastScore = 0;
+    private volatile long lastImageMillis = 0;
+
+    // 统计
+    private final AtomicLong analyzedFrames = new AtomicLong(0);
+    private final AtomicLong activeFrames = new AtomicLong(0);
+    private final AtomicLong idlePeriods = new AtomicLong(0);
+    private final AtomicLong skippedDecodes = new AtomicLong(0);
+    private final AtomicLong skippedImages = new AtomicLong(0);
+
+    public ActivityDetector(double threshold, long idleMs, long idleImageMs, double sizeRatio, int windowFrames,
+            double idleBytesPerMb, StateChange stateChange) {
+        if (threshold <= 0 || threshold > 1 || sizeRatio <= 1 || windowFrames <= 0) {
+            throw new IllegalArgumentException(String.format("无效的活动检测参数: threshold=%.2f, sizeRatio=%.2f, windowFrames=%d",
+                    threshold, sizeRatio, windowFrames));
+        }
+        this.threshold = threshold;
+        this.idleMs = idleMs;
+        this.idleImageMs = idleImageMs;
+        this.sizeRatio = sizeRatio;
+        this.windowFrames = windowFrames;
+        this.idleBytesPerMb = idleBytesPerMb;
+        this.stateChange = stateChange;
+        this.lastActiveMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * 按 -Dactivity.* 创建检测器
+     *
+     * @return 检测器，-Dactivity=false 时返回null（不检测，所有帧照常解码和推送）
+     */
+    public static ActivityDetector fromSystemProperties(StateChange stateChange) {
+        if (!Boolean.parseBoolean(System.getProperty("activity", "true"))) {
+            return null;
+        }
+        return new ActivityDetector(
+                Double.parseDouble(System.getProperty("activity.threshold", "0.5")),
+                Long.getLong("activity.idleMs", 1000),
+                Long.getLong("activity.idleImageMs", 2000),
+                Double.parseDouble(System.getProperty("activity.sizeRatio", "3")),
+                Integer.getInteger("activity.windowFrames", 300),
+                Double.parseDouble(System.getProperty("activity.idleBytesPerMb", "0.1")),
+                stateChange);
+    }
+
+    /**
+     * 分析一个访问单元（在组装线程上调用）
+     *
+     * @return 活动分数（0~1）
+     */
+    public double analyze(byte[] frameData, boolean isKeyFrame, long now) {
+        int slices = 0;
+        int intraSlices = 0;
+        for (int i = 0; i + 4 < frameData.length; i++) {
+            if (frameData[i] == 0x00 && frameData[i + 1] == 0x00 && frameData[i + 2] == 0x01) {
+                int type = frameData[i + 3] & 0x1F;
+                if (type == H264FrameAssembler.NALU_TYPE_SPS) {
+                    updateMacroblocks(frameData, i);
+                } else if (type == H264FrameAssembler.NALU_TYPE_NON_IDR || type == H264FrameAssembler.NALU_TYPE_IDR) {
+                    slices++;
+                    int sliceType = readSliceType(frameData, i + 4);
+                    if (sliceType % 5 == SLICE_TYPE_I || sliceType % 5 == SLICE_TYPE_SI) {
+                        intraSlices++;
+                    }
+                }
+                i += 2;
+            }
+        }
+
+        double score;
+        if (isKeyFrame) {
+            score = lastIdrSize <= 0 ? 1.0
+                    : Math.min(1.0, Math.abs(frameData.length - lastIdrSize) / (lastIdrSize * IDR_SIZE_CHANGE));
+            lastIdrSize = frameData.length;
+            lastIdrMillis = now;
+            settlingAfterIdr = score < threshold;
+        } else {
+            double baseline = updateBaseline(frameData.length);
+            double sizeScore = Math.log(frameData.length / baseline) / Math.log(sizeRatio);
+            double intraShare = slices > 0 ? (double) intraSlices / slices : 0.0;
+            score = Math.max(0.0, Math.min(1.0, Math.max(sizeScore, intraShare)));
+        }
+        analyzedFrames.incrementAndGet();
+        lastScore = score;
+        if (settlingAfterIdr && !isKeyFrame && (score < threshold || now - lastIdrMillis >= IDR_SETTLE_MS)) {
+            settlingAfterIdr = false;
+        }
+
+        if (score >= threshold && !settlingAfterIdr) {
+            activeFrames.incrementAndGet();
+            long quiet = now - lastActiveMillis;
+            lastActiveMillis = now;
+            if (idle) {
+                idle = false;
+                stateChange.onActivityChanged(false, score, quiet);
+            }
+        } else if (!idle && now - lastActiveMillis >= idleMs) {
+            idle = true;
+            idlePeriods.incrementAndGet();
+            stateChange.onActivityChanged(true, score, now - lastActiveMillis);
+        }
+        return score;
+    }
+
+    /**
+     * 把帧大小加入窗口并返回基线（窗口最小值，不超过静止帧的预期上限）
+     */
+    private double updateBaseline(int size) {
+        long index = sequence++;
+        while (!window.isEmpty() && window.peekLast()[1] >= size) {
+            window.pollLast();
+        }
+        window.addLast(new long[] { index, size });
+        while (window.peekFirst()[0] <= index - windowFrames) {
+            window.pollFirst();
+        }
+        double baseline = window.peekFirst()[1];
+        if (macroblocks > 0) {
+            baseline = Math.min(baseline, macroblocks * idleBytesPerMb);
+        }
+        return Math.max(baseline, 1.0);
+    }
+
+    private void updateMacroblocks(byte[] frameData, int start) {
+        int end = start + 3;
+        while (end + 2 < frameData.length
+                && !(frameData[end] == 0x00 && frameData[end + 1] == 0x00 && frameData[end + 2] == 0x01)) {
+            end++;
+        }
+        if (end + 2 >= frameData.length) {
+            end = frameData.length;
+        }
+        byte[] sps = new byte[end - start];
+        System.arraycopy(frameData, start, sps, 0, sps.length);
+        H264SpsInfo info = H264SpsInfo.parse(sps);
+        if (info != null) {
+            macroblocks = (long) ((info.getWidth() + 15) / 16) * ((info.getHeight() + 15) / 16);
+        }
+    }
+
+    /**
+     * 读取切片头中的 slice_type（first_mb_in_slice 之后的 ue(v)）
+     * 这两个字段位于NALU头之后的几个字节内，不会出现防竞争字节
+     *
+     * @return slice_type，数据不完整时返回-1
+     */
+    private static int readSliceType(byte[] data, int offset) {
+        int[] bitPosition = { offset * 8 };
+        int limit = Math.min(data.length, offset + 8) * 8;
+        if (readUE(data, bitPosition, limit) < 0) {
+            return -1;
+        }
+        return readUE(data, bitPosition, limit);
+    }
+
+    private static int readUE(byte[] data, int[] bitPosition, int limit) {
+        int leadingZeros = 0;
+        while (true) {
+            if (bitPosition[0] >= limit) {
+                return -1;
+            }
+            int bit = (data[bitPosition[0] >> 3] >> (7 - (bitPosition[0] & 7))) & 0x01;
+            bitPosition[0]++;
+            if (bit == 1) {
+                break;
+            }
+            leadingZeros++;
+        }
+        if (bitPosition[0] + leadingZeros > limit) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < leadingZeros; i++) {
+            value = (value << 1) | ((data[bitPosition[0] >> 3] >> (7 - (bitPosition[0] & 7))) & 0x01);
+            bitPosition[0]++;
+        }
+        return (1 << leadingZeros) - 1 + value;
+    }
+
+    /**
+     * 是否把帧交给解码器：静止期间跳过非参考帧
+     */
+    public boolean admitDecode(byte[] frameData) {
+        if (idle && H264FrameAssembler.isNonReferenceFrame(frameData)) {
+            skippedDecodes.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 是否编码和推送这一帧解码图像：静止期间每 idleImageMs 只推送一帧
+     */
+    public boolean admitImage(long now) {
+        if (idle && now - lastImageMillis < idleImageMs) {
+            skippedImages.incrementAndGet();
+            return false;
+        }
+        lastImageMillis = now;
+        return true;
+    }
+
+    public boolean isIdle() {
+        return idle;
+    }
+
+    public double getLastScore() {
+        return lastScore;
+    }
+
+    public String getStats() {
+        long analyzed = analyzedFrames.get();
+        return String.format("画面活动: %s, 最近分数=%.2f, 活动帧比例=%.1f%%, 静止次数=%d, 跳过解码=%d, 跳过图像=%d",
+                idle ? "静止" : "活动", lastScore, analyzed > 0 ? activeFrames.get() * 100.0 / analyzed : 0.0,
+                idlePeriods.get(), skippedDecodes.get(), skippedImages.get());
+    }
+}
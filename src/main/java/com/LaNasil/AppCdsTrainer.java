@@ -0,0 +1,74 @@
+package com.LaNasil;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * AppCDS训练入口（pom.xml 中的 appcds profile 在打包阶段调用）
+ * 在本地端口上发送一次录制的.h264文件，在本进程中以命令行模式运行接收器直到第一帧解码完成，
+ * 覆盖启动、WebSocket服务器、连接和首帧解码路径上加载的类，随后退出以写出归档。
+ *
+ * 用法: java -XX:ArchiveClassesAtExit=receiver.jsa -cp <jar> com.LaNasil.AppCdsTrainer <file.h264> [--keyframe-only]
+ */
+public class AppCdsTrainer {
+
+    private static final long RUN_TIMEOUT_MS = 30_000;
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        boolean keyFrameOnly = false;
+        for (String arg : args) {
+            if ("--keyframe-only".equals(arg)) {
+                keyFrameOnly = true;
+            } else {
+                file = arg;
+            }
+        }
+        if (file == null) {
+            System.err.println("用法: AppCdsTrainer <file.h264> [--keyframe-only]   (配合 -XX:ArchiveClassesAtExit 生成AppCDS归档)");
+            System.exit(1);
+        }
+
+        byte[] stream = Files.readAllBytes(Paths.get(file));
+        ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        Thread upstream = new Thread(() -> serve(server, stream), "AppCds-Upstream");
+        upstream.setDaemon(true);
+        upstream.start();
+
+        // 没有客户端时解码会暂停，训练需要走完首帧解码路径
+        System.setProperty("decoder.onDemand", "false");
+        HeadlessReceiver receiver = new HeadlessReceiver("127.0.0.1", server.getLocalPort(), keyFrameOnly);
+        receiver.start();
+        ReceiverEngine engine = receiver.getEngine();
+        long deadline = System.currentTimeMillis() + RUN_TIMEOUT_MS;
+        while (engine.getFirstFrameLatencyMillis() < 0) {
+            if (System.currentTimeMillis() > deadline) {
+                System.err.println("\n训练运行失败: 等待首帧超时");
+                System.exit(1);
+            }
+            Thread.sleep(10);
+        }
+        System.out.println("\n训练运行完成，首帧耗时 " + engine.getFirstFrameLatencyMillis() + " ms");
+        // 关闭钩子释放引擎；归档在JVM退出时写出
+        System.exit(0);
+    }
+
+    /**
+     * 向第一个连接发送整个文件后保持连接，避免接收器进入重连
+     */
+    private static void serve(ServerSocket server, byte[] stream) {
+        try (Socket socket = server.accept()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(stream);
+            out.flush();
+            Thread.sleep(Long.MAX_VALUE);
+        } catch (IOException | InterruptedException e) {
+            // 训练结束
+        }
+    }
+}
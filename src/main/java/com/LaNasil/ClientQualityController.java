@@ -0,0 +1,442 @@
+package com.LaNasil;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WebSocket客户端自适应质量控制
+ * 根据每个连接的发送积压（Java-WebSocket发送队列中尚未写出的字节）和写出速率估计排队延迟，
+ * 拥塞时逐级降低发送给该客户端的内容：PNG → JPEG → 限制帧率的JPEG → 只发送关键帧，
+ * 积压持续清空一段时间后再逐级恢复。拥塞期间不再向该连接追加可丢弃的媒体消息，积压和服务端内存不会持续增长。
+ * 控制消息（尺寸变化、上游状态、缩略图等）不受影响。
+ * 内核的发送缓冲区会自动增长到数MB，其中的数据无法观察，因此连接建立时限制它的大小，让积压留在发送队列中。
+ * 配置: -Dws.adaptive=true -Dws.adaptive.maxDelayMs=1000 -Dws.adaptive.maxBacklogKB=4096
+ * -Dws.adaptive.recoverMs=5000 -Dws.adaptive.reducedFps=5 -Dws.adaptive.sendBufferKB=256（0表示使用系统默认值）
+ */
+public class ClientQualityController {
+
+    /**
+     * 质量级别（从高到低）
+     */
+    public enum Level {
+        /** 每帧PNG图像，完整帧和原始NALU */
+        FULL("full", "原画PNG"),
+        /** 每帧JPEG图像，完整帧 */
+        JPEG("jpeg", "JPEG"),
+        /** 限制帧率的JPEG图像，只发送关键帧的完整帧 */
+        REDUCED_RATE("reduced_rate", "JPEG限帧"),
+        /** 每2秒一张JPEG图像，只发送关键帧的完整帧 */
+        KEY_FRAMES("key_frames", "仅关键帧");
+
+        private final String key;
+        private final String description;
+
+        Level(String key, String description) {
+            this.key = key;
+            this.description = description;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    /**
+     * 客户端级别变化回调（在发送线程上调用，不持有锁）
+     */
+    public interface Listener {
+        void onLevelChanged(WebSocket client, Level previous, Level current, long backlogBytes, long delayMs);
+    }
+
+    // 两次降级之间的最短间隔，给上一次降级生效的时间
+    private static final long STEP_DOWN_INTERVAL_MS = 500;
+    // 写出速率的采样间隔
+    private static final long SAMPLE_INTERVAL_MS = 200;
+    // 关键帧级别的图像间隔
+    private static final long KEY_FRAMES_IMAGE_INTERVAL_MS = 2000;
+    // 写出速率未知或接近0时使用的下限（字节/毫秒，约1KB/s）
+    private static final double MIN_DRAIN_RATE = 1.0;
+    // 恢复等待时间最多加倍到 recoverMs 的倍数
+    private static final long MAX_RECOVER_BACKOFF = 8;
+
+    /**
+     * 单个客户端的状态（由自身的锁保护）
+     */
+    private static final class ClientState {
+        Level level = Level.FULL;
+        long sentBytes;
+        long lastDrainedBytes;
+        long lastBacklogBytes;
+        long lastSampleMillis;
+        // 写出速率（字节/毫秒）的滑动平均，只在连接有积压时采样，-1表示未知
+        double drainRate = -1;
+        long backlogBytes;
+        long delayMs;
+        long lastLevelChangeMillis;
+        long clearSinceMillis = -1;
+        long lastUpgradeMillis;
+        // 恢复前需要保持无积压的时间，反复拥塞时加倍
+        long recoverDelayMs;
+        long lastImageMillis;
+        // 跳过完整帧之后等待下一个关键帧，避免客户端收到缺少参考帧的帧
+        boolean awaitingKeyFrame;
+    }
+
+    /**
+     * 一次级别变化（在锁外通知）
+     */
+    private static final class LevelChange {
+        final Level previous;
+        final Level current;
+        final long backlogBytes;
+        final long delayMs;
+
+        LevelChange(Level previous, Level current, long backlogBytes, long delayMs) {
+            this.previous = previous;
+            this.current = current;
+            this.backlogBytes = backlogBytes;
+            this.delayMs = delayMs;
+        }
+    }
+
+    private final boolean enabled;
+    private final long maxDelayMs;
+    private final long maxBacklogBytes;
+    private final long recoverMs;
+    private final long reducedIntervalMs;
+    private final int sendBufferBytes;
+    private final Listener listener;
+    private final Map<WebSocket, ClientState> clients = new ConcurrentHashMap<>();
+
+    // 统计
+    private final AtomicLong downgrades = new AtomicLong(0);
+    private final AtomicLong upgrades = new AtomicLong(0);
+    private final AtomicLong skippedMessages = new AtomicLong(0);
+
+    public ClientQualityController(boolean enabled, long maxDelayMs, long maxBacklogBytes, long recoverMs,
+            int reducedFps, int sendBufferBytes, Listener listener) {
+        if (maxDelayMs <= 0 || maxBacklogBytes <= 0 || recoverMs <= 0 || reducedFps <= 0 || sendBufferBytes < 0) {
+            throw new IllegalArgumentException(String.format(
+                    "无效的自适应质量参数: maxDelayMs=%d, maxBacklogBytes=%d, recoverMs=%d, reducedFps=%d",
+                    maxDelayMs, maxBacklogBytes, recoverMs, reducedFps));
+        }
+        this.enabled = enabled;
+        this.maxDelayMs = maxDelayMs;
+        this.maxBacklogBytes = maxBacklogBytes;
+        this.recoverMs = recoverMs;
+        this.reducedIntervalMs = 1000 / reducedFps;
+        this.sendBufferBytes = sendBufferBytes;
+        this.listener = listener;
+    }
+
+    /**
+     * 按 -Dws.adaptive.* 创建控制器（-Dws.adaptive=false 时所有消息照常发送）
+     */
+    public static ClientQualityController fromSystemProperties(Listener listener) {
+        return new ClientQualityController(
+                Boolean.parseBoolean(System.getProperty("ws.adaptive", "true")),
+                Long.getLong("ws.adaptive.maxDelayMs", 1000),
+                Long.getLong("ws.adaptive.maxBacklogKB", 4096) * 1024,
+                Long.getLong("ws.adaptive.recoverMs", 5000),
+                Integer.getInteger("ws.adaptive.reducedFps", 5),
+                Integer.getInteger("ws.adaptive.sendBufferKB", 256) * 1024,
+                listener);
+    }
+
+    /**
+     * 新连接建立时调用：限制内核发送缓冲区的大小
+     */
+    public void onOpen(WebSocket client) {
+        if (!enabled || sendBufferBytes == 0 || !(client instanceof WebSocketImpl)) {
+            return;
+        }
+        ByteChannel channel = ((WebSocketImpl) client).getChannel();
+        if (channel instanceof SocketChannel) {
+            try {
+                ((SocketChannel) channel).socket().setSendBufferSize(sendBufferBytes);
+            } catch (IOException e) {
+                // 保持系统默认值
+            }
+        }
+    }
+
+    /**
+     * 是否向客户端发送一张解码图像
+     *
+     * @return 客户端当前的级别（FULL发送PNG，其他级别发送JPEG），不发送时返回null
+     */
+    public Level admitImage(WebSocket client, long now) {
+        if (!enabled) {
+            return Level.FULL;
+        }
+        ClientState state = stateOf(client);
+        Level level;
+        boolean admitted;
+        LevelChange change;
+        synchronized (state) {
+            change = evaluate(state, client, now);
+            level = state.level;
+            long interval = level == Level.REDUCED_RATE ? reducedIntervalMs
+                    : level == Level.KEY_FRAMES ? KEY_FRAMES_IMAGE_INTERVAL_MS : 0;
+            admitted = !isCongested(state) && now - state.lastImageMillis >= interval;
+            if (admitted) {
+                state.lastImageMillis = now;
+            }
+        }
+        notifyChange(client, change);
+        if (!admitted) {
+            skippedMessages.incrementAndGet();
+            return null;
+        }
+        return level;
+    }
+
+    /**
+     * 是否向客户端发送一个完整帧（complete_frame）
+     * 跳过之后直到下一个关键帧都不再发送，客户端收到的帧始终可以解码
+     */
+    public boolean admitFrame(WebSocket client, boolean isKeyFrame, long now) {
+        if (!enabled) {
+            return true;
+        }
+        ClientState state = stateOf(client);
+        boolean admitted;
+        LevelChange change;
+        synchronized (state) {
+            change = evaluate(state, client, now);
+            if (isKeyFrame) {
+                state.awaitingKeyFrame = false;
+            }
+            admitted = !isCongested(state) && !state.awaitingKeyFrame
+                    && (isKeyFrame || state.level.compareTo(Level.JPEG) <= 0);
+            if (!admitted) {
+                state.awaitingKeyFrame = true;
+            }
+        }
+        notifyChange(client, change);
+        if (!admitted) {
+            skippedMessages.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * 是否向客户端发送一个原始NALU（frame消息），只在最高级别发送
+     */
+    public boolean admitNalu(WebSocket client, long now) {
+        if (!enabled) {
+            return true;
+        }
+        ClientState state = stateOf(client);
+        boolean admitted;
+        LevelChange change;
+        synchronized (state) {
+            change = evaluate(state, client, now);
+            admitted = !isCongested(state) && state.level == Level.FULL;
+        }
+        notifyChange(client, change);
+        if (!admitted) {
+            skippedMessages.incrementAndGet();
+        }
+        return admitted;
+    }
+
+    /**
+     * 记录交给连接发送的文本消息（用于计算写出速率）
+     * 积压包含发往该连接的所有消息，控制消息和其他订阅模式的消息也必须记录，否则写出速率会被低估甚至为负
+     */
+    public void onSent(WebSocket client, String message) {
+        if (enabled) {
+            addSent(client, frameBytes(utf8Length(message)));
+        }
+    }
+
+    /**
+     * 记录交给连接发送的二进制消息
+     */
+    public void onSent(WebSocket client, byte[] data) {
+        if (enabled) {
+            addSent(client, frameBytes(data.length));
+        }
+    }
+
+    private void addSent(WebSocket client, long bytes) {
+        ClientState state = stateOf(client);
+        synchronized (state) {
+            state.sentBytes += bytes;
+        }
+    }
+
+    /**
+     * @return 服务端发出的一个未掩码、未分片的WebSocket帧的字节数（与发送队列中的字节一致）
+     */
+    static long frameBytes(long payloadBytes) {
+        return payloadBytes + (payloadBytes <= 125 ? 2 : payloadBytes <= 0xFFFF ? 4 : 10);
+    }
+
+    static long utf8Length(String text) {
+        long length = text.length();
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    length += 1;
+                } else if (Character.isSurrogate(c)) {
+                    // 代理对共4字节，两个char各计2字节
+                    length += 1;
+                } else {
+                    length += 2;
+                }
+            }
+        }
+        return length;
+    }
+
+    public void remove(WebSocket client) {
+        clients.remove(client);
+    }
+
+    public void clear() {
+        clients.clear();
+    }
+
+    /**
+     * @return 客户端当前的级别，未知客户端返回FULL
+     */
+    public Level getLevel(WebSocket client) {
+        ClientState state = clients.get(client);
+        if (state == null) {
+            return Level.FULL;
+        }
+        synchronized (state) {
+            return state.level;
+        }
+    }
+
+    private ClientState stateOf(WebSocket client) {
+        return clients.computeIfAbsent(client, key -> {
+            ClientState state = new ClientState();
+            long now = System.currentTimeMillis();
+            state.lastSampleMillis = now;
+            state.lastLevelChangeMillis = now;
+            state.recoverDelayMs = recoverMs;
+            return state;
+        });
+    }
+
+    private boolean isCongested(ClientState state) {
+        return state.backlogBytes > maxBacklogBytes || state.delayMs > maxDelayMs;
+    }
+
+    /**
+     * 更新积压和写出速率，必要时调整级别（持有state的锁时调用）
+     *
+     * @return 级别变化，没有变化时返回null
+     */
+    private LevelChange evaluate(ClientState state, WebSocket client, long now) {
+        long backlog = backlogBytes(client);
+        long drained = state.sentBytes - backlog;
+        if (now - state.lastSampleMillis >= SAMPLE_INTERVAL_MS) {
+            // 上次采样时连接空闲的区间没有意义，只用忙碌区间估计写出速率
+            if (state.lastBacklogBytes > 0) {
+                double rate = (drained - state.lastDrainedBytes) / (double) (now - state.lastSampleMillis);
+                state.drainRate = state.drainRate < 0 ? rate : state.drainRate * 0.75 + rate * 0.25;
+            }
+            state.lastDrainedBytes = drained;
+            state.lastBacklogBytes = backlog;
+            state.lastSampleMillis = now;
+        }
+        state.backlogBytes = backlog;
+        if (backlog == 0) {
+            state.delayMs = 0;
+        } else if (state.drainRate < 0) {
+            // 还没有忙碌区间的样本：只按积压字节判断
+            state.delayMs = 0;
+        } else {
+            state.delayMs = (long) (backlog / Math.max(state.drainRate, MIN_DRAIN_RATE));
+        }
+
+        Level previous = state.level;
+        Level[] levels = Level.values();
+        if (isCongested(state)) {
+            state.clearSinceMillis = -1;
+            if (previous.ordinal() < levels.length - 1
+                    && now - state.lastLevelChangeMillis >= STEP_DOWN_INTERVAL_MS) {
+                state.level = levels[previous.ordinal() + 1];
+                downgrades.incrementAndGet();
+                // 恢复后很快又拥塞：链路带宽就在两个级别之间，加倍下次恢复前的等待时间，避免反复切换
+                if (now - state.lastUpgradeMillis < state.recoverDelayMs * 2) {
+                    state.recoverDelayMs = Math.min(state.recoverDelayMs * 2, recoverMs * MAX_RECOVER_BACKOFF);
+                }
+            }
+        } else if (state.delayMs <= maxDelayMs / 10) {
+            if (state.clearSinceMillis < 0) {
+                state.clearSinceMillis = now;
+            } else if (previous != Level.FULL && now - state.clearSinceMillis >= state.recoverDelayMs
+                    && now - state.lastLevelChangeMillis >= state.recoverDelayMs) {
+                state.level = levels[previous.ordinal() - 1];
+                state.clearSinceMillis = now;
+                state.lastUpgradeMillis = now;
+                upgrades.incrementAndGet();
+            } else if (previous == Level.FULL && now - state.clearSinceMillis >= state.recoverDelayMs * 4) {
+                state.recoverDelayMs = recoverMs;
+            }
+        } else {
+            // 有积压但没有超出预算：保持当前级别
+            state.clearSinceMillis = -1;
+        }
+        if (state.level == previous) {
+            return null;
+        }
+        state.lastLevelChangeMillis = now;
+        return new LevelChange(previous, state.level, state.backlogBytes, state.delayMs);
+    }
+
+    private void notifyChange(WebSocket client, LevelChange change) {
+        if (change != null && listener != null) {
+            listener.onLevelChanged(client, change.previous, change.current, change.backlogBytes, change.delayMs);
+        }
+    }
+
+    /**
+     * @return 连接发送队列中尚未写出的字节数
+     */
+    static long backlogBytes(WebSocket client) {
+        if (client instanceof WebSocketImpl) {
+            long total = 0;
+            for (ByteBuffer buffer : ((WebSocketImpl) client).outQueue) {
+                total += buffer.remaining();
+            }
+            return total;
+        }
+        return client.hasBufferedData() ? 1 : 0;
+    }
+
+    public String getStats() {
+        Map<Level, Integer> counts = new EnumMap<>(Level.class);
+        for (ClientState state : clients.values()) {
+            synchronized (state) {
+                counts.merge(state.level, 1, Integer::sum);
+            }
+        }
+        StringBuilder levels = new StringBuilder();
+        for (Level level : Level.values()) {
+            levels.append(level.getDescription()).append('=').append(counts.getOrDefault(level, 0)).append(' ');
+        }
+        return String.format("自适应质量: %s%s, 降级=%d, 恢复=%d, 跳过消息=%d", enabled ? "" : "(已禁用) ",
+                levels.toString().trim(), downgrades.get(), upgrades.get(), skippedMessages.get());
+    }
+}
@@ -0,0 +1,339 @@
+package com.LaNasil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 解码调度器 - 最新帧优先
+ * 位于接收线程和解码线程之间，按访问单元缓存待解码的帧并测量积压。
+ * 当积压超过延迟预算时，先丢弃非参考帧；仍然超出时直接跳到下一个IDR帧，
+ * 保证实时预览始终显示"当前"画面，而不是越来越落后。
+ * 调度器还可以在IDR帧之前插入解码器边界，使解码线程在参数集变化时重新初始化解码器。
+ */
+public class DecodeScheduler {
+
+    // 默认延迟预算（毫秒），可通过 -Ddecoder.latencyBudgetMs 调整
+    public static final long DEFAULT_LATENCY_BUDGET_MS = 300;
+    // 默认最大积压帧数，可通过 -Ddecoder.maxQueuedFrames 调整
+    public static final int DEFAULT_MAX_QUEUED_FRAMES = 30;
+
+    /**
+     * 待解码的访问单元
+     */
+    private static final class PendingFrame {
+        final byte[] data;
+        final boolean isKeyFrame;
+        final boolean isReference;
+        final boolean isBoundary;
+        final long enqueueTime;
+
+        PendingFrame(byte[] data, boolean isKeyFrame, long enqueueTime) {
+            this.data = data;
+            this.isKeyFrame = isKeyFrame;
+            this.isReference = isKeyFrame || !H264FrameAssembler.isNonReferenceFrame(data);
+            this.isBoundary = false;
+            this.enqueueTime = enqueueTime;
+        }
+
+        // 解码器边界标记
+        PendingFrame(long enqueueTime) {
+            this.data = new byte[0];
+            this.isKeyFrame = false;
+            this.isReference = true;
+            this.isBoundary = true;
+            this.enqueueTime = enqueueTime;
+        }
+    }
+
+    // 从take()返回，表示解码器边界（输入流在此处结束）
+    private static final byte[] BOUNDARY = new byte[0];
+
+    private final ArrayDeque<PendingFrame> queue = new ArrayDeque<>();
+    private final long latencyBudgetMs;
+    private final int maxQueuedFrames;
+    private boolean waitingForIdr = false;
+    private boolean boundaryPending = false;
+    private boolean closed = false;
+
+    // 统计
+    private final AtomicLong submittedFrames = new AtomicLong(0);
+    private final AtomicLong deliveredFrames = new AtomicLong(0);
+    private final AtomicLong skippedNonReference = new AtomicLong(0);
+    private final AtomicLong skippedToIdr = new AtomicLong(0);
+    private final AtomicLong idrJumps = new AtomicLong(0);
+    private volatile long lastDeliveredLatencyMs = 0;
+
+    public DecodeScheduler() {
+        this(Long.getLong("decoder.latencyBudgetMs", DEFAULT_LATENCY_BUDGET_MS),
+                Integer.getInteger("decoder.maxQueuedFrames", DEFAULT_MAX_QUEUED_FRAMES));
+    }
+
+    /**
+     * @param latencyBudgetMs 允许的最大积压时长（毫秒）
+     * @param maxQueuedFrames 允许的最大积压帧数
+     */
+    public DecodeScheduler(long latencyBudgetMs, int maxQueuedFrames) {
+        this.latencyBudgetMs = latencyBudgetMs;
+        this.maxQueuedFrames = Math.max(1, maxQueuedFrames);
+    }
+
+    /**
+     * 提交一个完整的访问单元（由接收线程调用，从不阻塞）
+     *
+     * @param frameData  H.264帧数据（包含起始码）
+     * @param isKeyFrame 是否为IDR关键帧
+     */
+    public synchronized void submit(byte[] frameData, boolean isKeyFrame) {
+        if (closed || frameData == null || frameData.length == 0) {
+            return;
+        }
+        submittedFrames.incrementAndGet();
+
+        if (waitingForIdr) {
+            if (!isKeyFrame) {
+                // 跳帧模式：在下一个IDR之前的帧都无法正确解码
+                skippedToIdr.incrementAndGet();
+                return;
+            }
+            waitingForIdr = false;
+        }
+
+        long now = System.currentTimeMillis();
+        if (boundaryPending && isKeyFrame) {
+            // 边界总是紧挨在IDR帧之前
+            queue.addLast(new PendingFrame(now));
+            boundaryPending = false;
+        }
+        queue.addLast(new PendingFrame(frameData, isKeyFrame, now));
+        enforceLatencyBudget();
+        notifyAll();
+    }
+
+    /**
+     * 检查积压并按需丢帧
+     */
+    private void enforceLatencyBudget() {
+        if (!isOverBudget()) {
+            return;
+        }
+
+        // 第一步：丢弃非参考帧，不影响后续帧的解码
+        Iterator<PendingFrame> it = queue.iterator();
+        while (it.hasNext()) {
+            PendingFrame frame = it.next();
+            if (!frame.isReference) {
+                it.remove();
+                skippedNonReference.incrementAndGet();
+            }
+        }
+        if (!isOverBudget()) {
+            return;
+        }
+
+        // 第二步：跳到队列中最新的IDR帧（保留紧挨在它之前的边界）
+        PendingFrame jumpTarget = null;
+        PendingFrame previous = null;
+        for (PendingFrame frame : queue) {
+            if (frame.isKeyFrame) {
+                jumpTarget = (previous != null && previous.isBoundary) ? previous : frame;
+            }
+            previous = frame;
+        }
+        // 最新的IDR就在队首时没有可以跳过的帧，按没有IDR处理
+        if (jumpTarget != null && jumpTarget != queue.peekFirst()) {
+            boolean droppedBoundary = false;
+            while (queue.peekFirst() != jumpTarget) {
+                PendingFrame dropped = queue.pollFirst();
+                if (dropped.isBoundary) {
+                    droppedBoundary = true;
+                } else {
+                    skippedToIdr.incrementAndGet();
+                }
+            }
+            if (droppedBoundary && !jumpTarget.isBoundary) {
+                queue.addFirst(new PendingFrame(jumpTarget.enqueueTime));
+            }
+            idrJumps.incrementAndGet();
+            return;
+        }
+
+        // 队列中没有之后的IDR帧：丢弃全部积压并等待下一个IDR
+        dropAllAndWaitForIdr();
+        idrJumps.incrementAndGet();
+    }
+
+    /**
+     * 丢弃全部积压，被丢弃的边界推迟到下一个IDR之前
+     */
+    private void dropAllAndWaitForIdr() {
+        for (PendingFrame frame : queue) {
+            if (frame.isBoundary) {
+                boundaryPending = true;
+            } else {
+                skippedToIdr.incrementAndGet();
+            }
+        }
+        queue.clear();
+        waitingForIdr = true;
+    }
+
+    private boolean isOverBudget() {
+        PendingFrame oldest = queue.peekFirst();
+        if (oldest == null) {
+            return false;
+        }
+        return queue.size() > maxQueuedFrames
+                || System.currentTimeMillis() - oldest.enqueueTime > latencyBudgetMs;
+    }
+
+    /**
+     * 取出下一个待解码的访问单元（由解码线程调用，队列为空时阻塞）
+     *
+     * @return 帧数据，调度器关闭时返回null
+     */
+    public synchronized byte[] take() throws InterruptedException {
+        while (queue.isEmpty() && !closed) {
+            wait();
+        }
+        if (closed) {
+            return null;
+        }
+        PendingFrame frame = queue.pollFirst();
+        if (frame.isBoundary) {
+            return BOUNDARY;
+        }
+        deliveredFrames.incrementAndGet();
+        lastDeliveredLatencyMs = System.currentTimeMillis() - frame.enqueueTime;
+        return frame.data;
+    }
+
+    /**
+     * 丢弃积压并等待下一个IDR帧（用于码流错误后的重新同步）
+     */
+    public synchronized void resyncAtNextIdr() {
+        dropAllAndWaitForIdr();
+    }
+
+    /**
+     * 在下一个IDR帧之前插入解码器边界
+     * 当前输入流读到边界时返回EOF，解码线程据此冲刷并重新初始化解码器，
+     * 然后通过新的 {@link #asInputStream()} 从IDR帧继续解码。
+     */
+    public synchronized void requestBoundaryBeforeNextIdr() {
+        boundaryPending = true;
+    }
+
+    /**
+     * 重新打开调度器（解码线程重启时调用）
+     */
+    public synchronized void open() {
+        queue.clear();
+        waitingForIdr = false;
+        boundaryPending = false;
+        closed = false;
+    }
+
+    /**
+     * 关闭调度器，唤醒阻塞的解码线程
+     */
+    public synchronized void close() {
+        closed = true;
+        queue.clear();
+        notifyAll();
+    }
+
+    public synchronized int getQueuedFrames() {
+        return queue.size();
+    }
+
+    /**
+     * @return 已跳过的帧总数
+     */
+    public long getSkippedFrameCount() {
+        return skippedNonReference.get() + skippedToIdr.get();
+    }
+
+    public long getSkippedNonReferenceCount() {
+        return skippedNonReference.get();
+    }
+
+    public long getSkippedToIdrCount() {
+        return skippedToIdr.get();
+    }
+
+    public long getIdrJumpCount() {
+        return idrJumps.get();
+    }
+
+    public long getLastDeliveredLatencyMs() {
+        return lastDeliveredLatencyMs;
+    }
+
+    /**
+     * 获取调度器统计信息
+     */
+    public String getStats() {
+        return String.format("解码调度: 提交=%d, 解码=%d, 积压=%d, 跳过非参考帧=%d, 跳至IDR丢弃=%d, IDR跳转=%d, 排队延迟=%dms",
+                submittedFrames.get(), deliveredFrames.get(), getQueuedFrames(), skippedNonReference.get(),
+                skippedToIdr.get(), idrJumps.get(), lastDeliveredLatencyMs);
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * 以输入流形式向FFmpeg提供访问单元，每次按整帧取出
+     * 读到解码器边界或调度器关闭时返回EOF
+     */
+    public InputStream asInputStream() {
+        return new InputStream() {
+            private byte[] current;
+            private int position;
+            private boolean ended;
+
+            @Override
+            public int read() throws IOException {
+                byte[] single = new byte[1];
+                int n = read(single, 0, 1);
+                return n == -1 ? -1 : (single[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                if (ended) {
+                    return -1;
+                }
+                if (current == null || position >= current.length) {
+                    try {
+                        current = take();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("解码调度器读取被中断", e);
+                    }
+                    position = 0;
+                    if (current == null || current == BOUNDARY) {
+                        ended = true;
+                        return -1;
+                    }
+                }
+                int n = Math.min(len, current.length - position);
+                System.arraycopy(current, position, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public void close() {
+                // 由调度器的所有者负责关闭调度器，这里只结束当前流
+                ended = true;
+            }
+        };
+    }
+}
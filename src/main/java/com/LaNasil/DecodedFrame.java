@@ -0,0 +1,87 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.Frame;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 解码后的图像 - 紧凑排列的8位BGR像素（每行 width * channels 字节）
+ * 与FFmpeg的帧缓冲区无关，可以安全地交给其他线程。像素数组不要修改。
+ */
+public final class DecodedFrame {
+
+    private final byte[] pixels;
+    private final int width;
+    private final int height;
+    private final int channels;
+    private final long frameNumber;
+    private final long timestamp;
+
+    public DecodedFrame(byte[] pixels, int width, int height, int channels, long frameNumber, long timestamp) {
+        if (pixels.length < width * height * channels) {
+            throw new IllegalArgumentException("像素数据不足: " + pixels.length + " < " + width + "x" + height + "x"
+                    + channels);
+        }
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.frameNumber = frameNumber;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * 从FFmpeg抓取器输出的帧复制像素（去除行对齐填充）
+     *
+     * @param frame       8位图像帧（抓取器默认输出BGR24）
+     * @param frameNumber 解码帧序号
+     */
+    public static DecodedFrame copyOf(Frame frame, long frameNumber) {
+        if (frame.image == null || frame.imageDepth != Frame.DEPTH_UBYTE) {
+            throw new IllegalArgumentException("不支持的图像帧: depth=" + frame.imageDepth);
+        }
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        int channels = frame.imageChannels;
+        int rowBytes = width * channels;
+        byte[] pixels = new byte[rowBytes * height];
+        ByteBuffer source = ((ByteBuffer) frame.image[0]).duplicate();
+        for (int y = 0; y < height; y++) {
+            source.position(y * frame.imageStride);
+            source.get(pixels, y * rowBytes, rowBytes);
+        }
+        return new DecodedFrame(pixels, width, height, channels, frameNumber, System.currentTimeMillis());
+    }
+
+    public byte[] getPixels() {
+        return pixels;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * @return 解码完成的时间（毫秒）
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DecodedFrame[帧号=%d, %dx%d]", frameNumber, width, height);
+    }
+}
@@ -0,0 +1,189 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+
+/**
+ * 解码器配置 - 每路流独立的FFmpeg解码参数
+ * 默认值从系统属性读取，例如:
+ * -Ddecoder.threads=4 -Ddecoder.threadType=slice -Ddecoder.outputWidth=960 -Ddecoder.outputHeight=540
+ */
+public class DecoderOptions {
+
+    /**
+     * FFmpeg解码线程类型
+     */
+    public enum ThreadType {
+        SLICE("slice"), // 切片级并行，不增加解码延迟，适合低延迟场景
+        FRAME("frame"), // 帧级并行，吞吐量高，但每个线程增加一帧延迟
+        FRAME_AND_SLICE("frame+slice");
+
+        private final String ffmpegName;
+
+        ThreadType(String ffmpegName) {
+            this.ffmpegName = ffmpegName;
+        }
+
+        public String getFfmpegName() {
+            return ffmpegName;
+        }
+
+        /**
+         * 解析线程类型名称（slice / frame / frame+slice）
+         */
+        public static ThreadType parse(String name) {
+            for (ThreadType type : values()) {
+                if (type.ffmpegName.equalsIgnoreCase(name.trim()) || type.name().equalsIgnoreCase(name.trim())) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("未知的解码线程类型: " + name);
+        }
+    }
+
+    // 0 表示由FFmpeg自动选择线程数
+    private int threadCount = 0;
+    private ThreadType threadType = ThreadType.SLICE;
+    // 输出尺寸上限，0 表示该方向不限制；缩放在FFmpeg的YUV→BGR转换中一次完成
+    private int outputWidth = 0;
+    private int outputHeight = 0;
+
+    public DecoderOptions() {
+    }
+
+    public DecoderOptions(int threadCount, ThreadType threadType) {
+        setThreadCount(threadCount);
+        setThreadType(threadType);
+    }
+
+    /**
+     * 从系统属性创建默认配置
+     */
+    public static DecoderOptions fromSystemProperties() {
+        DecoderOptions options = new DecoderOptions();
+        options.setThreadCount(Integer.getInteger("decoder.threads", 0));
+        String threadType = System.getProperty("decoder.threadType");
+        if (threadType != null) {
+            options.setThreadType(ThreadType.parse(threadType));
+        }
+        options.setOutputSize(Integer.getInteger("decoder.outputWidth", 0),
+                Integer.getInteger("decoder.outputHeight", 0));
+        return options;
+    }
+
+    /**
+     * 将配置应用到FFmpeg抓取器（必须在start()之前调用）
+     */
+    public void applyTo(FFmpegFrameGrabber grabber) {
+        // 裸H.264流无需长时间探测，缩短探测可避免启动和重新初始化时预读大量帧
+        grabber.setOption("probesize", "32");
+        grabber.setOption("analyzeduration", "0");
+        grabber.setVideoOption("threads", threadCount > 0 ? String.valueOf(threadCount) : "auto");
+        grabber.setVideoOption("thread_type", threadType.getFfmpegName());
+    }
+
+    /**
+     * 根据源图像尺寸设置抓取器的输出尺寸（在start()之后、源尺寸已知时调用）
+     * 输出尺寸在上限范围内保持宽高比，且不会放大
+     *
+     * @return 是否启用了缩放
+     */
+    public boolean applyScaling(FFmpegFrameGrabber grabber, int sourceWidth, int sourceHeight) {
+        int[] size = fitOutputSize(sourceWidth, sourceHeight);
+        if (size[0] == sourceWidth && size[1] == sourceHeight) {
+            grabber.setImageWidth(0);
+            grabber.setImageHeight(0);
+            return false;
+        }
+        grabber.setImageScalingFlags(swscale.SWS_FAST_BILINEAR);
+        grabber.setImageWidth(size[0]);
+        grabber.setImageHeight(size[1]);
+        return true;
+    }
+
+    /**
+     * 计算在输出尺寸上限内保持宽高比的目标尺寸
+     *
+     * @return {宽, 高}
+     */
+    public int[] fitOutputSize(int sourceWidth, int sourceHeight) {
+        if (sourceWidth <= 0 || sourceHeight <= 0 || !isScalingEnabled()) {
+            return new int[] { sourceWidth, sourceHeight };
+        }
+        double scale = 1.0;
+        if (outputWidth > 0) {
+            scale = Math.min(scale, (double) outputWidth / sourceWidth);
+        }
+        if (outputHeight > 0) {
+            scale = Math.min(scale, (double) outputHeight / sourceHeight);
+        }
+        if (scale >= 1.0) {
+            return new int[] { sourceWidth, sourceHeight };
+        }
+        // 偶数尺寸对swscale更友好
+        int width = Math.max(2, (int) (sourceWidth * scale) & ~1);
+        int height = Math.max(2, (int) (sourceHeight * scale) & ~1);
+        return new int[] { width, height };
+    }
+
+    public boolean isScalingEnabled() {
+        return outputWidth > 0 || outputHeight > 0;
+    }
+
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * 设置输出尺寸上限
+     *
+     * @param outputWidth  最大宽度，0 表示不限制
+     * @param outputHeight 最大高度，0 表示不限制
+     */
+    public void setOutputSize(int outputWidth, int outputHeight) {
+        if (outputWidth < 0 || outputHeight < 0) {
+            throw new IllegalArgumentException("输出尺寸不能为负数: " + outputWidth + "x" + outputHeight);
+        }
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+    }
+
+    /**
+     * 复制当前配置
+     */
+    public DecoderOptions copy() {
+        DecoderOptions copy = new DecoderOptions(threadCount, threadType);
+        copy.setOutputSize(outputWidth, outputHeight);
+        return copy;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public void setThreadCount(int threadCount) {
+        if (threadCount < 0) {
+            throw new IllegalArgumentException("解码线程数不能为负数: " + threadCount);
+        }
+        this.threadCount = threadCount;
+    }
+
+    public ThreadType getThreadType() {
+        return threadType;
+    }
+
+    public void setThreadType(ThreadType threadType) {
+        this.threadType = threadType;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("线程数=%s, 线程类型=%s, 输出尺寸=%s",
+                threadCount > 0 ? String.valueOf(threadCount) : "auto", threadType.getFfmpegName(),
+                isScalingEnabled() ? outputWidth + "x" + outputHeight : "原始");
+    }
+}
@@ -0,0 +1,88 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avformat;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.ffmpeg.global.swresample;
+import org.bytedeco.ffmpeg.global.swscale;
+import org.bytedeco.javacpp.Loader;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FrameGrabber;
+
+/**
+ * FFmpeg本地库加载
+ * 只有解码阶段（实时解码、关键帧缩略图、JPEG编码）需要FFmpeg本地库，解码器在第一次创建前调用
+ * {@link #ensureLoaded()}；接入、组装和WebSocket分发都不会触发本地库加载。
+ * 引擎创建时默认在后台线程上提前开始加载（-Dnatives.preload=false 关闭），
+ * 与WebSocket服务器启动和上游连接并行，第一个IDR帧到达时本地库通常已经就绪。
+ */
+public final class FFmpegNatives {
+
+    private static final boolean PRELOAD_ENABLED = !"false".equalsIgnoreCase(System.getProperty("natives.preload"));
+
+    private static final Object LOCK = new Object();
+    private static volatile boolean loaded = false;
+    private static boolean preloadStarted = false;
+
+    private FFmpegNatives() {
+    }
+
+    /**
+     * 在后台线程上开始加载本地库（只启动一次，-Dnatives.preload=false 时不做任何事）
+     */
+    public static void preloadAsync() {
+        synchronized (LOCK) {
+            if (!PRELOAD_ENABLED || loaded || preloadStarted) {
+                return;
+            }
+            preloadStarted = true;
+        }
+        Thread preloadThread = new Thread(() -> {
+            try {
+                ensureLoaded();
+            } catch (FrameGrabber.Exception e) {
+                // 解码器创建时会再次尝试并报告错误
+                System.err.println("预加载FFmpeg本地库失败: " + e.getMessage());
+            }
+        }, "FFmpeg-Natives-Preload");
+        preloadThread.setDaemon(true);
+        preloadThread.start();
+    }
+
+    /**
+     * 确保FFmpeg本地库已加载；正在后台加载时等待其完成
+     *
+     * @throws FrameGrabber.Exception 本地库无法加载（例如打包时缺少当前平台的本地库）
+     */
+    public static void ensureLoaded() throws FrameGrabber.Exception {
+        if (loaded) {
+            return;
+        }
+        synchronized (LOCK) {
+            if (loaded) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                // 只加载解码和颜色转换需要的库
+                Loader.load(avutil.class);
+                Loader.load(swresample.class);
+                Loader.load(avcodec.class);
+                Loader.load(avformat.class);
+                Loader.load(swscale.class);
+                // FFmpegFrameGrabber的静态初始化还会尝试加载avdevice（依赖X11等库）。接收器不使用它，
+                // 静态初始化会忽略它的加载失败，而 FFmpegFrameGrabber.tryLoad() 会把它作为错误抛出
+                Class.forName(FFmpegFrameGrabber.class.getName(), true, FFmpegNatives.class.getClassLoader());
+            } catch (UnsatisfiedLinkError | ClassNotFoundException e) {
+                throw new FrameGrabber.Exception("无法加载FFmpeg本地库: " + e.getMessage(), e);
+            }
+            loaded = true;
+            System.out.println(String.format("FFmpeg本地库已加载，耗时 %d ms",
+                    (System.nanoTime() - startNanos) / 1_000_000));
+        }
+    }
+
+    public static boolean isLoaded() {
+        return loaded;
+    }
+}
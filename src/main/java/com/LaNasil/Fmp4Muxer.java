@@ -0,0 +1,436 @@
+package com.LaNasil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * 分片MP4（CMAF）封装器 - 把组装好的访问单元封装为fMP4，不重新编码
+ * 初始化段（ftyp + moov，avcC中包含SPS/PPS）只在参数集变化时重新生成；
+ * 每个访问单元封装为一个媒体分片（moof + mdat），浏览器可以直接交给
+ * Media Source Extensions 用硬件解码，服务端不需要为观看者解码和编码图像。
+ * 裸流没有时间戳，样本时长按访问单元到达间隔的滑动平均估计，解码时间戳连续递增。
+ * 非线程安全：同一个封装器只能在一个线程上使用。
+ * 配置: -Dfmp4.fps=30（收到前两帧之前使用的帧率）
+ */
+public class Fmp4Muxer {
+
+    public static final int TIMESCALE = 90000;
+
+    // moof（mfhd + traf(tfhd + tfdt + trun，1个样本)）固定为100字节，加上mdat头8字节
+    private static final int MOOF_SIZE = 100;
+    private static final int MDAT_HEADER_SIZE = 8;
+
+    // 样本标志：关键帧不依赖其他帧；非关键帧依赖其他帧且不是同步样本
+    private static final int KEY_SAMPLE_FLAGS = 0x02000000;
+    private static final int NON_KEY_SAMPLE_FLAGS = 0x01010000;
+
+    /**
+     * 一个媒体分片
+     */
+    public static final class Fragment {
+        private final byte[] data;
+        private final boolean keyFrame;
+        private final boolean initChanged;
+        private final long decodeTime;
+        private final int duration;
+
+        Fragment(byte[] data, boolean keyFrame, boolean initChanged, long decodeTime, int duration) {
+            this.data = data;
+            this.keyFrame = keyFrame;
+            this.initChanged = initChanged;
+            this.decodeTime = decodeTime;
+            this.duration = duration;
+        }
+
+        /**
+         * @return moof + mdat
+         */
+        public byte[] getData() {
+            return data;
+        }
+
+        public boolean isKeyFrame() {
+            return keyFrame;
+        }
+
+        /**
+         * @return 这个分片使用新的初始化段（第一个分片或参数集变化），应先发送 {@link #getInitSegment()}
+         */
+        public boolean isInitChanged() {
+            return initChanged;
+        }
+
+        /**
+         * @return 解码时间戳（{@link #TIMESCALE} 为单位）
+         */
+        public long getDecodeTime() {
+            return decodeTime;
+        }
+
+        public int getDuration() {
+            return duration;
+        }
+    }
+
+    private final int defaultDuration;
+
+    private byte[] sps;
+    private byte[] pps;
+    private H264SpsInfo spsInfo;
+    private byte[] initSegment;
+
+    private int sequenceNumber = 0;
+    private long decodeTime = 0;
+    private long lastTimestamp = -1;
+    private double averageDuration;
+
+    // 统计
+    private long fragmentCount = 0;
+    private long fragmentBytes = 0;
+    private long initSegmentCount = 0;
+    private long skippedFrames = 0;
+
+    public Fmp4Muxer() {
+        this(Double.parseDouble(System.getProperty("fmp4.fps", "30")));
+    }
+
+    /**
+     * @param fps 收到前两帧之前用于估计样本时长的帧率
+     */
+    public Fmp4Muxer(double fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("帧率必须大于0: " + fps);
+        }
+        this.defaultDuration = (int) Math.round(TIMESCALE / fps);
+        this.averageDuration = defaultDuration;
+    }
+
+    /**
+     * 封装一个访问单元
+     *
+     * @param frameData  Annex-B访问单元（关键帧带SPS/PPS，与组装器输出的一致）
+     * @param isKeyFrame 是否为IDR帧
+     * @param timestamp  到达时间（毫秒），用于估计样本时长
+     * @return 媒体分片；尚未收到带参数集的关键帧时返回null
+     */
+    public Fragment mux(byte[] frameData, boolean isKeyFrame, long timestamp) {
+        boolean initChanged = false;
+        if (isKeyFrame) {
+            initChanged = updateParameterSets(frameData);
+        }
+        if (initSegment == null) {
+            skippedFrames++;
+            return null;
+        }
+
+        int duration = estimateDuration(timestamp);
+        byte[] data = buildMediaSegment(frameData, isKeyFrame, duration);
+        if (data == null) {
+            skippedFrames++;
+            return null;
+        }
+        Fragment fragment = new Fragment(data, isKeyFrame, initChanged, decodeTime, duration);
+        decodeTime += duration;
+        fragmentCount++;
+        fragmentBytes += data.length;
+        return fragment;
+    }
+
+    /**
+     * @return 当前的初始化段（ftyp + moov），尚未收到参数集时返回null
+     */
+    public byte[] getInitSegment() {
+        return initSegment;
+    }
+
+    /**
+     * @return RFC 6381 编解码器字符串（用于 MediaSource.isTypeSupported），尚未收到参数集时返回null
+     */
+    public String getCodecString() {
+        return spsInfo != null ? spsInfo.getCodecString() : null;
+    }
+
+    public H264SpsInfo getSpsInfo() {
+        return spsInfo;
+    }
+
+    /**
+     * 从关键帧中取出SPS/PPS，内容变化时重新生成初始化段
+     *
+     * @return 初始化段是否变化
+     */
+    private boolean updateParameterSets(byte[] frameData) {
+        byte[] newSps = null;
+        byte[] newPps = null;
+        int pos = nextStartCode(frameData, 0);
+        while (pos >= 0) {
+            int payloadStart = pos + 3;
+            int next = nextStartCode(frameData, payloadStart);
+            int payloadEnd = trimEnd(frameData, payloadStart, next >= 0 ? next : frameData.length);
+            if (payloadEnd > payloadStart) {
+                int type = frameData[payloadStart] & 0x1F;
+                if (type == H264FrameAssembler.NALU_TYPE_SPS && newSps == null) {
+                    newSps = Arrays.copyOfRange(frameData, payloadStart, payloadEnd);
+                } else if (type == H264FrameAssembler.NALU_TYPE_PPS && newPps == null) {
+                    newPps = Arrays.copyOfRange(frameData, payloadStart, payloadEnd);
+                }
+            }
+            pos = next;
+        }
+        if (newSps == null || newPps == null || newSps.length < 4
+                || (Arrays.equals(newSps, sps) && Arrays.equals(newPps, pps))) {
+            return false;
+        }
+        H264SpsInfo info = H264SpsInfo.parse(newSps);
+        if (info == null) {
+            return false;
+        }
+        sps = newSps;
+        pps = newPps;
+        spsInfo = info;
+        initSegment = buildInitSegment();
+        initSegmentCount++;
+        return true;
+    }
+
+    /**
+     * 按到达间隔的滑动平均估计样本时长（限制在1毫秒到1秒之间，断流后的长间隔不计入）
+     */
+    private int estimateDuration(long timestamp) {
+        if (lastTimestamp >= 0) {
+            long interval = timestamp - lastTimestamp;
+            if (interval > 0 && interval < 1000) {
+                averageDuration += (interval * (TIMESCALE / 1000.0) - averageDuration) / 8;
+            }
+        }
+        lastTimestamp = timestamp;
+        return (int) Math.max(TIMESCALE / 1000, Math.min(TIMESCALE, Math.round(averageDuration)));
+    }
+
+    /**
+     * 生成 moof + mdat，样本数据为4字节长度前缀的NALU（去掉SPS/PPS/AUD，参数集在avcC中）
+     *
+     * @return 分片数据，访问单元中没有可用的NALU时返回null
+     */
+    private byte[] buildMediaSegment(byte[] frameData, boolean isKeyFrame, int duration) {
+        // 第一遍：计算样本大小
+        int sampleSize = 0;
+        int pos = nextStartCode(frameData, 0);
+        while (pos >= 0) {
+            int next = nextStartCode(frameData, pos + 3);
+            int end = trimEnd(frameData, pos + 3, next >= 0 ? next : frameData.length);
+            if (isSampleNalu(frameData, pos + 3, end)) {
+                sampleSize += 4 + end - (pos + 3);
+            }
+            pos = next;
+        }
+        if (sampleSize == 0) {
+            return null;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(MOOF_SIZE + MDAT_HEADER_SIZE + sampleSize);
+        buffer.putInt(MOOF_SIZE).put(fourCc("moof"));
+        buffer.putInt(16).put(fourCc("mfhd")).putInt(0).putInt(++sequenceNumber);
+        buffer.putInt(76).put(fourCc("traf"));
+        // tfhd: default-base-is-moof
+        buffer.putInt(16).put(fourCc("tfhd")).putInt(0x020000).putInt(1);
+        // tfdt: 版本1，64位解码时间戳
+        buffer.putInt(20).put(fourCc("tfdt")).putInt(0x01000000).putLong(decodeTime);
+        // trun: data-offset、sample-duration、sample-size、sample-flags
+        buffer.putInt(32).put(fourCc("trun")).putInt(0x000701).putInt(1).putInt(MOOF_SIZE + MDAT_HEADER_SIZE);
+        buffer.putInt(duration).putInt(sampleSize).putInt(isKeyFrame ? KEY_SAMPLE_FLAGS : NON_KEY_SAMPLE_FLAGS);
+
+        buffer.putInt(MDAT_HEADER_SIZE + sampleSize).put(fourCc("mdat"));
+        pos = nextStartCode(frameData, 0);
+        while (pos >= 0) {
+            int next = nextStartCode(frameData, pos + 3);
+            int end = trimEnd(frameData, pos + 3, next >= 0 ? next : frameData.length);
+            if (isSampleNalu(frameData, pos + 3, end)) {
+                buffer.putInt(end - (pos + 3)).put(frameData, pos + 3, end - (pos + 3));
+            }
+            pos = next;
+        }
+        return buffer.array();
+    }
+
+    private static boolean isSampleNalu(byte[] data, int start, int end) {
+        if (end <= start) {
+            return false;
+        }
+        int type = data[start] & 0x1F;
+        return type != H264FrameAssembler.NALU_TYPE_SPS && type != H264FrameAssembler.NALU_TYPE_PPS
+                && type != H264FrameAssembler.NALU_TYPE_AUD;
+    }
+
+    /**
+     * @return 从 from 开始的下一个3字节起始码（00 00 01）的位置，没有时返回-1
+     */
+    private static int nextStartCode(byte[] data, int from) {
+        for (int i = from; i + 2 < data.length; i++) {
+            if ((data[i + 2] & 0xFF) > 1) {
+                i += 2;
+            } else if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 去掉NALU末尾的0（下一个4字节起始码的前导0或trailing_zero_8bits）
+     */
+    private static int trimEnd(byte[] data, int start, int end) {
+        while (end > start && data[end - 1] == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private byte[] buildInitSegment() {
+        try {
+            byte[] ftyp = box("ftyp", fourCc("iso6"), int32(0), fourCc("iso6"), fourCc("cmfc"), fourCc("isom"),
+                    fourCc("avc1"), fourCc("mp41"));
+            byte[] moov = box("moov", buildMvhd(), buildTrak(), box("mvex", fullBox("trex", 0, 0,
+                    int32(1), int32(1), int32(0), int32(0), int32(0))));
+            return concat(ftyp, moov);
+        } catch (IOException e) {
+            // 写入内存，不会发生
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] buildMvhd() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(0); // creation_time
+        out.writeInt(0); // modification_time
+        out.writeInt(1000); // timescale
+        out.writeInt(0); // duration（分片文件为0）
+        out.writeInt(0x00010000); // rate 1.0
+        out.writeShort(0x0100); // volume 1.0
+        out.write(new byte[10]); // reserved
+        writeMatrix(out);
+        out.write(new byte[24]); // pre_defined
+        out.writeInt(2); // next_track_ID
+        return fullBox("mvhd", 0, 0, body.toByteArray());
+    }
+
+    private byte[] buildTrak() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(0); // creation_time
+        out.writeInt(0); // modification_time
+        out.writeInt(1); // track_ID
+        out.writeInt(0); // reserved
+        out.writeInt(0); // duration
+        out.write(new byte[8]); // reserved
+        out.writeShort(0); // layer
+        out.writeShort(0); // alternate_group
+        out.writeShort(0); // volume（视频轨为0）
+        out.writeShort(0); // reserved
+        writeMatrix(out);
+        out.writeInt(spsInfo.getWidth() << 16);
+        out.writeInt(spsInfo.getHeight() << 16);
+        // flags: track_enabled | track_in_movie
+        byte[] tkhd = fullBox("tkhd", 0, 3, body.toByteArray());
+
+        byte[] mdhd = fullBox("mdhd", 0, 0, int32(0), int32(0), int32(TIMESCALE), int32(0),
+                new byte[] { 0x55, (byte) 0xC4, 0, 0 }); // language=und, pre_defined
+        byte[] hdlr = fullBox("hdlr", 0, 0, int32(0), fourCc("vide"), new byte[12],
+                "VideoHandler\0".getBytes(StandardCharsets.US_ASCII));
+        byte[] vmhd = fullBox("vmhd", 0, 1, new byte[8]);
+        byte[] dinf = box("dinf", fullBox("dref", 0, 0, int32(1), fullBox("url ", 0, 1)));
+        byte[] stbl = box("stbl", fullBox("stsd", 0, 0, int32(1), buildAvc1()),
+                fullBox("stts", 0, 0, int32(0)), fullBox("stsc", 0, 0, int32(0)),
+                fullBox("stsz", 0, 0, int32(0), int32(0)), fullBox("stco", 0, 0, int32(0)));
+        return box("trak", tkhd, box("mdia", mdhd, hdlr, box("minf", vmhd, dinf, stbl)));
+    }
+
+    private byte[] buildAvc1() throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.write(new byte[6]); // reserved
+        out.writeShort(1); // data_reference_index
+        out.write(new byte[16]); // pre_defined / reserved
+        out.writeShort(spsInfo.getWidth());
+        out.writeShort(spsInfo.getHeight());
+        out.writeInt(0x00480000); // 72 dpi
+        out.writeInt(0x00480000);
+        out.writeInt(0); // reserved
+        out.writeShort(1); // frame_count
+        out.write(new byte[32]); // compressorname
+        out.writeShort(0x0018); // depth
+        out.writeShort(-1); // pre_defined
+
+        ByteArrayOutputStream avcC = new ByteArrayOutputStream();
+        DataOutputStream config = new DataOutputStream(avcC);
+        config.writeByte(1); // configurationVersion
+        config.writeByte(sps[1]); // AVCProfileIndication
+        config.writeByte(sps[2]); // profile_compatibility
+        config.writeByte(sps[3]); // AVCLevelIndication
+        config.writeByte(0xFF); // lengthSizeMinusOne = 3
+        config.writeByte(0xE1); // 1个SPS
+        config.writeShort(sps.length);
+        config.write(sps);
+        config.writeByte(1); // 1个PPS
+        config.writeShort(pps.length);
+        config.write(pps);
+        out.write(box("avcC", avcC.toByteArray()));
+        return box("avc1", body.toByteArray());
+    }
+
+    private static void writeMatrix(DataOutputStream out) throws IOException {
+        int[] matrix = { 0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000 };
+        for (int value : matrix) {
+            out.writeInt(value);
+        }
+    }
+
+    private static byte[] box(String type, byte[]... children) {
+        int size = 8;
+        for (byte[] child : children) {
+            size += child.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(size).put(fourCc(type));
+        for (byte[] child : children) {
+            buffer.put(child);
+        }
+        return buffer.array();
+    }
+
+    private static byte[] fullBox(String type, int version, int flags, byte[]... children) {
+        byte[][] withHeader = new byte[children.length + 1][];
+        withHeader[0] = int32((version << 24) | flags);
+        System.arraycopy(children, 0, withHeader, 1, children.length);
+        return box(type, withHeader);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    private static byte[] int32(int value) {
+        return ByteBuffer.allocate(4).putInt(value).array();
+    }
+
+    private static byte[] fourCc(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    public long getFragmentCount() {
+        return fragmentCount;
+    }
+
+    public String getStats() {
+        return String.format("fMP4: 编解码器=%s, 初始化段=%d, 分片=%d (%d KB), 跳过=%d, 样本时长=%.1f ms",
+                getCodecString(), initSegmentCount, fragmentCount, fragmentBytes / 1024, skippedFrames,
+                averageDuration * 1000.0 / TIMESCALE);
+    }
+}
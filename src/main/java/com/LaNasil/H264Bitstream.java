@@ -0,0 +1,139 @@
+package com.LaNasil;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * H.264 Annex-B 码流工具方法
+ * 用于离线处理录制的.h264文件（按NALU切分、按访问单元分组）
+ */
+public final class H264Bitstream {
+
+    private H264Bitstream() {
+    }
+
+    /**
+     * 获取起始码长度
+     *
+     * @return 起始码长度 (3 或 4)，不是起始码时返回0
+     */
+    public static int getStartCodeLength(byte[] data, int pos) {
+        if (pos + 3 < data.length && data[pos] == 0x00 && data[pos + 1] == 0x00 && data[pos + 2] == 0x00
+                && data[pos + 3] == 0x01) {
+            return 4;
+        }
+        if (pos + 2 < data.length && data[pos] == 0x00 && data[pos + 1] == 0x00 && data[pos + 2] == 0x01) {
+            return 3;
+        }
+        return 0;
+    }
+
+    /**
+     * 获取NALU类型（naluData需以起始码开头）
+     *
+     * @return NALU类型，数据无效时返回-1
+     */
+    public static int getNaluType(byte[] naluData) {
+        int startCodeLen = getStartCodeLength(naluData, 0);
+        if (startCodeLen == 0 || naluData.length <= startCodeLen) {
+            return -1;
+        }
+        return naluData[startCodeLen] & 0x1F;
+    }
+
+    /**
+     * 将Annex-B码流切分为NALU（每个NALU保留自身的起始码）
+     */
+    public static List<byte[]> splitNalus(byte[] stream) {
+        List<byte[]> nalus = new ArrayList<>();
+        int naluStart = -1;
+        int i = 0;
+        while (i + 2 < stream.length) {
+            if (stream[i] == 0x00 && stream[i + 1] == 0x00 && stream[i + 2] == 0x01) {
+                // 4字节起始码的前导0归属于新的NALU
+                int start = (i > 0 && stream[i - 1] == 0x00) ? i - 1 : i;
+                if (naluStart != -1 && start > naluStart) {
+                    nalus.add(Arrays.copyOfRange(stream, naluStart, start));
+                }
+                naluStart = start;
+                i += 3;
+            } else {
+                i++;
+            }
+        }
+        if (naluStart != -1 && naluStart < stream.length) {
+            nalus.add(Arrays.copyOfRange(stream, naluStart, stream.length));
+        }
+        return nalus;
+    }
+
+    /**
+     * 判断切片NALU是否为一幅图像的第一个切片（first_mb_in_slice == 0）
+     */
+    public static boolean isFirstSliceOfPicture(byte[] naluData) {
+        int startCodeLen = getStartCodeLength(naluData, 0);
+        if (startCodeLen == 0 || naluData.length <= startCodeLen + 1) {
+            return false;
+        }
+        // first_mb_in_slice 为 ue(v) 编码，值为0时第一个比特为1
+        return (naluData[startCodeLen + 1] & 0x80) != 0;
+    }
+
+    /**
+     * 判断访问单元是否包含IDR切片以及SPS和PPS（可以独立开始解码）
+     */
+    public static boolean containsIdrWithParameterSets(byte[] frameData) {
+        if (frameData == null) {
+            return false;
+        }
+        boolean hasIdr = false;
+        boolean hasSps = false;
+        boolean hasPps = false;
+        for (int i = 0; i + 3 < frameData.length; i++) {
+            if (frameData[i] == 0x00 && frameData[i + 1] == 0x00 && frameData[i + 2] == 0x01) {
+                int type = frameData[i + 3] & 0x1F;
+                hasIdr |= type == H264FrameAssembler.NALU_TYPE_IDR;
+                hasSps |= type == H264FrameAssembler.NALU_TYPE_SPS;
+                hasPps |= type == H264FrameAssembler.NALU_TYPE_PPS;
+                i += 2;
+            }
+        }
+        return hasIdr && hasSps && hasPps;
+    }
+
+    /**
+     * 将NALU按访问单元（一帧图像）分组
+     * 新访问单元开始于AUD、SPS、PPS、SEI（位于切片之后时）或新图像的第一个切片
+     */
+    public static List<byte[]> groupAccessUnits(List<byte[]> nalus) {
+        List<byte[]> accessUnits = new ArrayList<>();
+        ByteArrayOutputStream current = new ByteArrayOutputStream();
+        boolean currentHasSlice = false;
+
+        for (byte[] nalu : nalus) {
+            int type = getNaluType(nalu);
+            boolean isSlice = type == H264FrameAssembler.NALU_TYPE_IDR || type == H264FrameAssembler.NALU_TYPE_NON_IDR;
+            boolean startsNewUnit;
+            if (isSlice) {
+                startsNewUnit = isFirstSliceOfPicture(nalu);
+            } else {
+                startsNewUnit = type == H264FrameAssembler.NALU_TYPE_AUD || type == H264FrameAssembler.NALU_TYPE_SPS
+                        || type == H264FrameAssembler.NALU_TYPE_PPS || type == H264FrameAssembler.NALU_TYPE_SEI;
+            }
+
+            if (startsNewUnit && currentHasSlice) {
+                accessUnits.add(current.toByteArray());
+                current.reset();
+                currentHasSlice = false;
+            }
+            current.write(nalu, 0, nalu.length);
+            currentHasSlice |= isSlice;
+        }
+        if (current.size() > 0) {
+            accessUnits.add(current.toByteArray());
+        }
+        return accessUnits;
+    }
+}
@@ -3,34 +3,38 @@ package com.LaNasil;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
-import org.bytedeco.javacv.FrameGrabber;
 
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * H.264解码器 - 将H.264编码的帧数据解码为RGB图像
+ * {@link #decodeFrame(byte[], long)} 不依赖AWT，只有调用 {@link #decodeToRGB(byte[])} 时才创建Java2D转换器。
  */
 public class H264Decoder {
 
     private FFmpegFrameGrabber grabber;
     private Java2DFrameConverter converter;
-    private boolean isInitialized = false;
+    private final DecoderOptions options;
+    private int lastSourceWidth = 0;
+    private int lastSourceHeight = 0;
+
+    // 错误统计：解码失败后跳过非关键帧，直到下一个IDR帧重新同步
+    private boolean awaitingKeyFrame = false;
+    private final AtomicLong decodeErrors = new AtomicLong(0);
+    private final AtomicLong resyncs = new AtomicLong(0);
+    private final AtomicLong skippedWhileResyncing = new AtomicLong(0);
 
     public H264Decoder() {
-        this.converter = new Java2DFrameConverter();
+        this(DecoderOptions.fromSystemProperties());
     }
 
     /**
-     * 初始化解码器
+     * @param options 解码参数（线程数、线程类型等）
      */
-    private void initializeDecoder() throws FrameGrabber.Exception {
-        if (!isInitialized) {
-            grabber = new FFmpegFrameGrabber(new ByteArrayInputStream(new byte[0]));
-            grabber.setFormat("h264");
-            grabber.start();
-            isInitialized = true;
-        }
+    public H264Decoder(DecoderOptions options) {
+        this.options = options;
     }
 
     /**
@@ -40,12 +44,42 @@ public class H264Decoder {
      * @return RGB格式的BufferedImage，如果解码失败返回null
      */
     public BufferedImage decodeToRGB(byte[] h264FrameData) {
-        try {
-            // 初始化解码器
-            if (!isInitialized) {
-                initializeDecoder();
+        Frame frame = grabFrame(h264FrameData);
+        if (frame == null) {
+            return null;
+        }
+        if (converter == null) {
+            converter = new Java2DFrameConverter();
+        }
+        return converter.convert(frame);
+    }
+
+    /**
+     * 解码H.264帧数据为BGR像素（不经过Java2D）
+     *
+     * @param h264FrameData H.264编码的帧数据
+     * @param frameNumber   帧号
+     * @return 解码得到的图像，如果解码失败返回null
+     */
+    public DecodedFrame decodeFrame(byte[] h264FrameData, long frameNumber) {
+        Frame frame = grabFrame(h264FrameData);
+        return frame != null ? DecodedFrame.copyOf(frame, frameNumber) : null;
+    }
+
+    /**
+     * 使用新的grabber解码一个访问单元，返回的帧在下一次解码前有效
+     */
+    private Frame grabFrame(byte[] h264FrameData) {
+        if (awaitingKeyFrame) {
+            if (!H264Bitstream.containsIdrWithParameterSets(h264FrameData)) {
+                // 参考帧已丢失，IDR之前的帧无法正确解码
+                skippedWhileResyncing.incrementAndGet();
+                return null;
             }
+            awaitingKeyFrame = false;
+        }
 
+        try {
             // 创建输入流
             ByteArrayInputStream inputStream = new ByteArrayInputStream(h264FrameData);
 
@@ -54,26 +88,80 @@ public class H264Decoder {
                 grabber.stop();
             }
 
+            FFmpegNatives.ensureLoaded();
             grabber = new FFmpegFrameGrabber(inputStream);
             grabber.setFormat("h264");
+            options.applyTo(grabber);
             grabber.start();
 
+            // 在FFmpeg颜色转换中一次完成缩放
+            lastSourceWidth = grabber.getImageWidth();
+            lastSourceHeight = grabber.getImageHeight();
+            options.applyScaling(grabber, lastSourceWidth, lastSourceHeight);
+
             // 抓取并解码帧
             Frame frame = grabber.grab();
             if (frame != null && frame.image != null) {
-                // 转换为BufferedImage
-                BufferedImage bufferedImage = converter.convert(frame);
-                return bufferedImage;
+                return frame;
             }
+            onDecodeError("未解码出图像");
 
         } catch (Exception e) {
-            System.err.println("H.264解码失败: " + e.getMessage());
-            e.printStackTrace();
+            onDecodeError(e.getMessage());
         }
 
         return null;
     }
 
+    /**
+     * 记录解码错误，之后跳过非关键帧直到下一个带参数集的IDR帧
+     */
+    private void onDecodeError(String reason) {
+        long errors = decodeErrors.incrementAndGet();
+        if (!awaitingKeyFrame) {
+            awaitingKeyFrame = true;
+            resyncs.incrementAndGet();
+        }
+        // 只打印第一次和之后每100次错误，避免损坏的码流刷屏
+        if (errors == 1 || errors % 100 == 0) {
+            System.err.println("H.264解码失败 (累计" + errors + "次): " + reason + "，等待下一个IDR帧");
+        }
+    }
+
+    public long getDecodeErrorCount() {
+        return decodeErrors.get();
+    }
+
+    public long getResyncCount() {
+        return resyncs.get();
+    }
+
+    public long getSkippedWhileResyncingCount() {
+        return skippedWhileResyncing.get();
+    }
+
+    /**
+     * 获取解码错误统计信息
+     */
+    public String getStats() {
+        return String.format("H.264解码器: 解码错误=%d, 重新同步=%d, 同步期间跳过=%d",
+                decodeErrors.get(), resyncs.get(), skippedWhileResyncing.get());
+    }
+
+    /**
+     * @return 最近一次解码的源图像宽度（缩放前）
+     */
+    public int getLastSourceWidth() {
+        return lastSourceWidth;
+    }
+
+    /**
+     * @return 最近一次解码的源图像高度（缩放前）
+     */
+    public int getLastSourceHeight() {
+        return lastSourceHeight;
+    }
+
     /**
      * 释放解码器资源
      */
@@ -86,7 +174,6 @@ public class H264Decoder {
             if (converter != null) {
                 converter.close();
             }
-            isInitialized = false;
         } catch (Exception e) {
             System.err.println("释放解码器资源时出错: " + e.getMessage());
         }
@@ -3,6 +3,7 @@ package com.LaNasil;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -33,6 +34,22 @@ public class H264FrameAssembler {
     private boolean hasPPS = false;
     private long frameNumber = 0;
 
+    // 参数集变化检测（分辨率/编码参数变化）
+    private boolean parameterSetsChangePending = false;
+    private long parameterSetChanges = 0;
+
+    // 码流错误检测与重新同步：检测到错误后丢弃数据，直到下一个带参数集的IDR帧
+    private H264SpsInfo activeSps;
+    private int prevRefFrameNum = -1;
+    private boolean resyncing = false;
+    private long bitstreamErrors = 0;
+    private long resyncCount = 0;
+    private long discardedNalus = 0;
+
+    // 关键帧模式：只转发IDR访问单元（用于大规模设备监控）
+    private boolean keyFrameOnly = false;
+    private long skippedNonKeyFrames = 0;
+
     // H.264解码器（可选）
     private H264Decoder decoder;
     private boolean enableRGBConversion = false;
@@ -42,6 +59,20 @@ public class H264FrameAssembler {
         void onFrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber);
 
         void onParameterSetsReceived(List<byte[]> parameterSets);
+
+        /**
+         * 参数集内容发生变化（例如设备旋转或编码参数调整）
+         * 在使用新参数集的第一个IDR帧开始组装之前调用，此前的帧均已回调完毕
+         */
+        default void onParameterSetsChanged(List<byte[]> parameterSets) {
+        }
+
+        /**
+         * 检测到码流错误（数据丢失或损坏）
+         * 此后组装器丢弃数据直到下一个IDR帧，下游无需重建解码器
+         */
+        default void onBitstreamError(String reason, long frameNumber) {
+        }
     }
 
     // RGB帧回调接口
@@ -51,6 +82,12 @@ public class H264FrameAssembler {
         void onH264FrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber);
 
         void onParameterSetsReceived(List<byte[]> parameterSets);
+
+        default void onParameterSetsChanged(List<byte[]> parameterSets) {
+        }
+
+        default void onBitstreamError(String reason, long frameNumber) {
+        }
     }
 
     private FrameCallback frameCallback;
@@ -84,6 +121,16 @@ public class H264FrameAssembler {
         byte naluHeader = naluData[startCodeLength];
         int naluType = naluHeader & 0x1F;
 
+        String error = checkNaluHeader(naluHeader);
+        if (error != null) {
+            reportBitstreamError(error);
+            return;
+        }
+        if (resyncing && !canResyncAt(naluType)) {
+            discardedNalus++;
+            return;
+        }
+
         switch (naluType) {
             case NALU_TYPE_SPS:
                 handleSPS(naluData);
@@ -110,11 +157,94 @@ public class H264FrameAssembler {
         }
     }
 
+    /**
+     * 检查NALU头部，返回错误描述，正常时返回null
+     */
+    private String checkNaluHeader(byte naluHeader) {
+        int naluType = naluHeader & 0x1F;
+        int nalRefIdc = (naluHeader >> 5) & 0x03;
+        if ((naluHeader & 0x80) != 0) {
+            return "forbidden_zero_bit 被置位";
+        }
+        if (nalRefIdc == 0 && (naluType == NALU_TYPE_IDR || naluType == NALU_TYPE_SPS
+                || naluType == NALU_TYPE_PPS)) {
+            return getNaluTypeDescription(naluType) + " 的 nal_ref_idc 为0";
+        }
+        return null;
+    }
+
+    /**
+     * 重新同步期间只接受参数集和IDR帧（IDR帧需要参数集已就绪）
+     */
+    private boolean canResyncAt(int naluType) {
+        return naluType == NALU_TYPE_SPS || naluType == NALU_TYPE_PPS
+                || (naluType == NALU_TYPE_IDR && hasSPS && hasPPS);
+    }
+
+    /**
+     * 检查 frame_num 连续性，frame_num 跳变说明中间有帧丢失
+     *
+     * @return 错误描述，正常时返回null
+     */
+    private String checkFrameNum(byte[] sliceData, boolean isIdr) {
+        if (activeSps == null) {
+            return null;
+        }
+        int frameNum = activeSps.readFrameNum(sliceData);
+        if (frameNum < 0) {
+            return "切片头无法解析";
+        }
+        int startCodeLength = getStartCodeLength(sliceData, 0);
+        boolean isReference = ((sliceData[startCodeLength] >> 5) & 0x03) != 0;
+        if (isIdr) {
+            prevRefFrameNum = isReference ? frameNum : -1;
+            return frameNum == 0 ? null : "IDR帧的 frame_num 不为0";
+        }
+        if (prevRefFrameNum >= 0 && !activeSps.isGapsInFrameNumAllowed()) {
+            int maxFrameNum = 1 << activeSps.getLog2MaxFrameNum();
+            int expected = (prevRefFrameNum + 1) % maxFrameNum;
+            if (frameNum != prevRefFrameNum && frameNum != expected) {
+                return String.format("frame_num 跳变: 期望 %d, 实际 %d", expected, frameNum);
+            }
+        }
+        if (isReference) {
+            prevRefFrameNum = frameNum;
+        }
+        return null;
+    }
+
+    /**
+     * 记录码流错误并进入重新同步状态
+     * 丢弃正在组装的帧，之后的数据一直丢弃到下一个IDR帧
+     */
+    private void reportBitstreamError(String reason) {
+        bitstreamErrors++;
+        currentFrame.reset();
+        prevRefFrameNum = -1;
+        if (resyncing) {
+            discardedNalus++;
+            return;
+        }
+        resyncing = true;
+        resyncCount++;
+        System.err.println("检测到码流错误: " + reason + "，丢弃数据直到下一个IDR帧 (第" + resyncCount + "次)");
+        if (frameCallback != null) {
+            frameCallback.onBitstreamError(reason, frameNumber);
+        }
+        if (rgbFrameCallback != null) {
+            rgbFrameCallback.onBitstreamError(reason, frameNumber);
+        }
+    }
+
     /**
      * 处理SPS参数集
      */
     private void handleSPS(byte[] spsData) {
         System.out.println("收到SPS参数集，长度: " + spsData.length);
+        H264SpsInfo spsInfo = H264SpsInfo.parse(spsData);
+        if (spsInfo != null) {
+            activeSps = spsInfo;
+        }
 
         // 更新或添加SPS
         updateParameterSet(spsData, NALU_TYPE_SPS);
@@ -167,9 +297,37 @@ public class H264FrameAssembler {
     private void handleIDRFrame(byte[] idrData) {
         System.out.println("收到IDR帧，长度: " + idrData.length);
 
+        // 同步中没有正在组装的帧：IDR图像的第一个切片丢失时，后续切片无法组成完整的关键帧
+        if (resyncing && !H264Bitstream.isFirstSliceOfPicture(idrData)) {
+            discardedNalus++;
+            return;
+        }
+
+        String error = checkFrameNum(idrData, true);
+        if (error != null) {
+            reportBitstreamError(error);
+            return;
+        }
+        if (resyncing) {
+            resyncing = false;
+            System.out.println("已在IDR帧恢复同步，帧号: " + (frameNumber + 1));
+        }
+
+        // 多切片图像：后续切片追加到当前帧
+        if (isContinuationSlice(idrData)) {
+            addToCurrentFrame(idrData);
+            return;
+        }
+
         // IDR帧开始新的GOP，完成当前帧
         completeCurrentFrame();
 
+        // 参数集发生变化时，在新GOP开始前通知下游重新配置
+        if (parameterSetsChangePending) {
+            parameterSetsChangePending = false;
+            notifyParameterSetsChanged();
+        }
+
         // 开始新的关键帧
         startNewFrame();
 
@@ -189,6 +347,18 @@ public class H264FrameAssembler {
     private void handleNonIDRFrame(byte[] nonIdrData) {
         System.out.println("收到非IDR帧，长度: " + nonIdrData.length);
 
+        String error = checkFrameNum(nonIdrData, false);
+        if (error != null) {
+            reportBitstreamError(error);
+            return;
+        }
+
+        // 多切片图像：后续切片追加到当前帧
+        if (isContinuationSlice(nonIdrData)) {
+            addToCurrentFrame(nonIdrData);
+            return;
+        }
+
         // 如果当前有未完成的帧，先完成它
         if (currentFrame.size() > 0 && currentState == FrameState.COLLECTING_FRAME) {
             completeCurrentFrame();
@@ -202,10 +372,27 @@ public class H264FrameAssembler {
         currentState = FrameState.COLLECTING_FRAME;
     }
 
+    /**
+     * 判断切片是否属于正在组装的图像（first_mb_in_slice 不为0）
+     */
+    private boolean isContinuationSlice(byte[] sliceData) {
+        return currentState == FrameState.COLLECTING_FRAME && currentFrame.size() > 0
+                && !H264Bitstream.isFirstSliceOfPicture(sliceData);
+    }
+
     /**
      * 更新参数集
      */
     private void updateParameterSet(byte[] paramData, int naluType) {
+        // 与同类型的旧参数集比较，内容不同说明编码参数发生了变化
+        for (byte[] param : parameterSets) {
+            if (getParameterSetType(param) == naluType && !sameNaluPayload(param, paramData)) {
+                parameterSetsChangePending = true;
+                System.out.println("检测到参数集变化: " + getNaluTypeDescription(naluType));
+                break;
+            }
+        }
+
         // 移除同类型的旧参数集
         parameterSets.removeIf(param -> {
             if (param.length < 5)
@@ -221,6 +408,52 @@ public class H264FrameAssembler {
         parameterSets.add(paramData.clone());
     }
 
+    private int getParameterSetType(byte[] param) {
+        int startCodeLen = getStartCodeLength(param, 0);
+        if (startCodeLen == 0 || param.length <= startCodeLen) {
+            return -1;
+        }
+        return param[startCodeLen] & 0x1F;
+    }
+
+    /**
+     * 比较两个NALU去掉起始码后的内容（起始码长度不同不算变化）
+     */
+    private boolean sameNaluPayload(byte[] a, byte[] b) {
+        int offsetA = getStartCodeLength(a, 0);
+        int offsetB = getStartCodeLength(b, 0);
+        return Arrays.equals(a, offsetA, a.length, b, offsetB, b.length);
+    }
+
+    /**
+     * 通知回调参数集已变化
+     */
+    private void notifyParameterSetsChanged() {
+        parameterSetChanges++;
+        List<byte[]> snapshot = new ArrayList<>(parameterSets);
+        System.out.println("参数集已变化，通知下游重新初始化 (第" + parameterSetChanges + "次)");
+        if (frameCallback != null) {
+            frameCallback.onParameterSetsChanged(snapshot);
+        }
+        if (rgbFrameCallback != null) {
+            rgbFrameCallback.onParameterSetsChanged(snapshot);
+        }
+    }
+
+    /**
+     * @return 当前缓存的参数集副本（SPS/PPS，包含起始码）
+     */
+    public List<byte[]> getParameterSets() {
+        return new ArrayList<>(parameterSets);
+    }
+
+    /**
+     * @return 检测到的参数集变化次数
+     */
+    public long getParameterSetChangeCount() {
+        return parameterSetChanges;
+    }
+
     /**
      * 检查参数集是否完整
      */
@@ -274,6 +507,11 @@ public class H264FrameAssembler {
             byte[] frameData = currentFrame.toByteArray();
             boolean isKeyFrame = isKeyFrameData(frameData);
 
+            if (keyFrameOnly && !isKeyFrame) {
+                skippedNonKeyFrames++;
+                return;
+            }
+
             System.out.println(String.format("完成帧组装: 帧号=%d, 大小=%d字节, 关键帧=%s",
                     frameNumber, frameData.length, isKeyFrame ? "是" : "否"));
 
@@ -352,6 +590,63 @@ public class H264FrameAssembler {
         return 0;
     }
 
+    /**
+     * 设置关键帧模式
+     * 启用后只有IDR访问单元（已附带SPS/PPS）会被转发给回调，其余帧直接丢弃
+     */
+    public void setKeyFrameOnly(boolean keyFrameOnly) {
+        this.keyFrameOnly = keyFrameOnly;
+    }
+
+    public boolean isKeyFrameOnly() {
+        return keyFrameOnly;
+    }
+
+    /**
+     * @return 关键帧模式下丢弃的非关键帧数量
+     */
+    public long getSkippedNonKeyFrames() {
+        return skippedNonKeyFrames;
+    }
+
+    /**
+     * 丢弃正在组装的帧并等待下一个IDR帧（用于上游重连后）
+     * 已缓存的参数集保留，设备重连后即使IDR帧不附带SPS/PPS也可以立即恢复解码
+     */
+    public void resyncAtNextIdr() {
+        currentFrame.reset();
+        prevRefFrameNum = -1;
+        if (!resyncing) {
+            resyncing = true;
+            resyncCount++;
+        }
+    }
+
+    /**
+     * @return 检测到的码流错误数
+     */
+    public long getBitstreamErrorCount() {
+        return bitstreamErrors;
+    }
+
+    /**
+     * @return 进入重新同步状态的次数
+     */
+    public long getResyncCount() {
+        return resyncCount;
+    }
+
+    /**
+     * @return 重新同步期间丢弃的NALU数量
+     */
+    public long getDiscardedNaluCount() {
+        return discardedNalus;
+    }
+
+    public boolean isResyncing() {
+        return resyncing;
+    }
+
     /**
      * 强制完成当前帧（用于流结束或超时情况）
      */
@@ -371,6 +666,10 @@ public class H264FrameAssembler {
         hasSPS = false;
         hasPPS = false;
         frameNumber = 0;
+        parameterSetsChangePending = false;
+        activeSps = null;
+        prevRefFrameNum = -1;
+        resyncing = false;
         System.out.println("帧组装器已重置");
     }
 
@@ -410,8 +709,11 @@ public class H264FrameAssembler {
      * 获取当前帧的统计信息
      */
     public String getFrameStats() {
-        return String.format("帧组装器状态: 状态=%s, 当前帧大小=%d字节, 帧号=%d, SPS=%s, PPS=%s",
-                currentState, currentFrame.size(), frameNumber, hasSPS ? "有" : "无", hasPPS ? "有" : "无");
+        return String.format(
+                "帧组装器状态: 状态=%s, 当前帧大小=%d字节, 帧号=%d, SPS=%s, PPS=%s, 关键帧模式=%s, 码流错误=%d, 重新同步=%d%s",
+                currentState, currentFrame.size(), frameNumber, hasSPS ? "有" : "无", hasPPS ? "有" : "无",
+                keyFrameOnly ? "是(已丢弃" + skippedNonKeyFrames + "帧)" : "否", bitstreamErrors, resyncCount,
+                resyncing ? "(同步中, 已丢弃" + discardedNalus + "个NALU)" : "");
     }
 
     /**
@@ -454,4 +756,30 @@ public class H264FrameAssembler {
         // 普通帧至少要有图像切片
         return hasStartCode && hasSlice && (hasSPS || hasPPS || hasSlice);
     }
+
+    /**
+     * 判断帧是否为非参考帧（所有图像切片的nal_ref_idc均为0）
+     * 非参考帧可以被丢弃而不影响后续帧的解码
+     */
+    public static boolean isNonReferenceFrame(byte[] frameData) {
+        if (frameData == null) {
+            return false;
+        }
+
+        boolean hasSlice = false;
+        for (int i = 0; i + 3 < frameData.length; i++) {
+            if (frameData[i] == 0x00 && frameData[i + 1] == 0x00 && frameData[i + 2] == 0x01) {
+                int header = frameData[i + 3] & 0xFF;
+                int naluType = header & 0x1F;
+                if (naluType == NALU_TYPE_IDR || naluType == NALU_TYPE_NON_IDR) {
+                    hasSlice = true;
+                    if (((header >> 5) & 0x03) != 0) {
+                        return false;
+                    }
+                }
+                i += 2;
+            }
+        }
+        return hasSlice;
+    }
 }
@@ -0,0 +1,291 @@
+package com.LaNasil;
+
+/**
+ * H.264 SPS（序列参数集）解析结果
+ * 只解析确定图像尺寸所需的字段：档次、级别、宏块尺寸和裁剪信息
+ */
+public final class H264SpsInfo {
+
+    private final int profileIdc;
+    private final int constraintFlags;
+    private final int levelIdc;
+    private final int spsId;
+    private final int chromaFormatIdc;
+    private final int width;
+    private final int height;
+    private final int log2MaxFrameNum;
+    private final boolean separateColourPlane;
+    private final boolean gapsInFrameNumAllowed;
+
+    private H264SpsInfo(int profileIdc, int constraintFlags, int levelIdc, int spsId, int chromaFormatIdc,
+            int width, int height, int log2MaxFrameNum, boolean separateColourPlane, boolean gapsInFrameNumAllowed) {
+        this.profileIdc = profileIdc;
+        this.constraintFlags = constraintFlags;
+        this.levelIdc = levelIdc;
+        this.spsId = spsId;
+        this.chromaFormatIdc = chromaFormatIdc;
+        this.width = width;
+        this.height = height;
+        this.log2MaxFrameNum = log2MaxFrameNum;
+        this.separateColourPlane = separateColourPlane;
+        this.gapsInFrameNumAllowed = gapsInFrameNumAllowed;
+    }
+
+    /**
+     * 解析SPS NALU
+     *
+     * @param spsNalu SPS数据（可以包含起始码）
+     * @return 解析结果，数据无效时返回null
+     */
+    public static H264SpsInfo parse(byte[] spsNalu) {
+        if (spsNalu == null) {
+            return null;
+        }
+        int offset = H264Bitstream.getStartCodeLength(spsNalu, 0);
+        if (spsNalu.length < offset + 4 || (spsNalu[offset] & 0x1F) != H264FrameAssembler.NALU_TYPE_SPS) {
+            return null;
+        }
+
+        try {
+            BitReader reader = new BitReader(removeEmulationPrevention(spsNalu, offset + 1));
+            int profileIdc = reader.readBits(8);
+            int constraintFlags = reader.readBits(8);
+            int levelIdc = reader.readBits(8);
+            int spsId = reader.readUE();
+
+            int chromaFormatIdc = 1;
+            boolean separateColourPlane = false;
+            if (profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 244
+                    || profileIdc == 44 || profileIdc == 83 || profileIdc == 86 || profileIdc == 118
+                    || profileIdc == 128 || profileIdc == 138 || profileIdc == 139 || profileIdc == 134
+                    || profileIdc == 135) {
+                chromaFormatIdc = reader.readUE();
+                if (chromaFormatIdc == 3) {
+                    separateColourPlane = reader.readBit() == 1;
+                }
+                reader.readUE(); // bit_depth_luma_minus8
+                reader.readUE(); // bit_depth_chroma_minus8
+                reader.readBit(); // qpprime_y_zero_transform_bypass_flag
+                if (reader.readBit() == 1) { // seq_scaling_matrix_present_flag
+                    int listCount = chromaFormatIdc != 3 ? 8 : 12;
+                    for (int i = 0; i < listCount; i++) {
+                        if (reader.readBit() == 1) {
+                            skipScalingList(reader, i < 6 ? 16 : 64);
+                        }
+                    }
+                }
+            }
+
+            int log2MaxFrameNum = reader.readUE() + 4;
+            int picOrderCntType = reader.readUE();
+            if (picOrderCntType == 0) {
+                reader.readUE(); // log2_max_pic_order_cnt_lsb_minus4
+            } else if (picOrderCntType == 1) {
+                reader.readBit(); // delta_pic_order_always_zero_flag
+                reader.readSE(); // offset_for_non_ref_pic
+                reader.readSE(); // offset_for_top_to_bottom_field
+                int cycle = reader.readUE();
+                for (int i = 0; i < cycle; i++) {
+                    reader.readSE();
+                }
+            }
+            reader.readUE(); // max_num_ref_frames
+            boolean gapsInFrameNumAllowed = reader.readBit() == 1;
+
+            int widthInMbs = reader.readUE() + 1;
+            int heightInMapUnits = reader.readUE() + 1;
+            int frameMbsOnly = reader.readBit();
+            if (frameMbsOnly == 0) {
+                reader.readBit(); // mb_adaptive_frame_field_flag
+            }
+            reader.readBit(); // direct_8x8_inference_flag
+
+            int cropLeft = 0, cropRight = 0, cropTop = 0, cropBottom = 0;
+            if (reader.readBit() == 1) { // frame_cropping_flag
+                cropLeft = reader.readUE();
+                cropRight = reader.readUE();
+                cropTop = reader.readUE();
+                cropBottom = reader.readUE();
+            }
+
+            int chromaArrayType = separateColourPlane ? 0 : chromaFormatIdc;
+            int cropUnitX;
+            int cropUnitY;
+            if (chromaArrayType == 0) {
+                cropUnitX = 1;
+                cropUnitY = 2 - frameMbsOnly;
+            } else {
+                int subWidthC = chromaFormatIdc == 3 ? 1 : 2;
+                int subHeightC = chromaFormatIdc == 1 ? 2 : 1;
+                cropUnitX = subWidthC;
+                cropUnitY = subHeightC * (2 - frameMbsOnly);
+            }
+
+            int width = widthInMbs * 16 - cropUnitX * (cropLeft + cropRight);
+            int height = (2 - frameMbsOnly) * heightInMapUnits * 16 - cropUnitY * (cropTop + cropBottom);
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            return new H264SpsInfo(profileIdc, constraintFlags, levelIdc, spsId, chromaFormatIdc, width, height,
+                    log2MaxFrameNum, separateColourPlane, gapsInFrameNumAllowed);
+
+        } catch (IndexOutOfBoundsException e) {
+            // SPS被截断
+            return null;
+        }
+    }
+
+    /**
+     * 读取使用本SPS的切片的 frame_num
+     *
+     * @param sliceNalu 切片NALU（可以包含起始码）
+     * @return frame_num，数据无效时返回-1
+     */
+    public int readFrameNum(byte[] sliceNalu) {
+        int offset = H264Bitstream.getStartCodeLength(sliceNalu, 0);
+        if (sliceNalu.length < offset + 2) {
+            return -1;
+        }
+        try {
+            // 切片头只需要前几个字节
+            int end = Math.min(sliceNalu.length, offset + 1 + 16);
+            byte[] header = new byte[end - offset];
+            System.arraycopy(sliceNalu, offset, header, 0, header.length);
+            BitReader reader = new BitReader(removeEmulationPrevention(header, 1));
+            reader.readUE(); // first_mb_in_slice
+            reader.readUE(); // slice_type
+            reader.readUE(); // pic_parameter_set_id
+            if (separateColourPlane) {
+                reader.readBits(2); // colour_plane_id
+            }
+            return reader.readBits(log2MaxFrameNum);
+        } catch (IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    private static void skipScalingList(BitReader reader, int size) {
+        int lastScale = 8;
+        int nextScale = 8;
+        for (int j = 0; j < size; j++) {
+            if (nextScale != 0) {
+                int deltaScale = reader.readSE();
+                nextScale = (lastScale + deltaScale + 256) % 256;
+            }
+            lastScale = nextScale == 0 ? lastScale : nextScale;
+        }
+    }
+
+    /**
+     * 去除防竞争字节（00 00 03 中的 03）
+     */
+    private static byte[] removeEmulationPrevention(byte[] data, int offset) {
+        byte[] rbsp = new byte[data.length - offset];
+        int length = 0;
+        int zeros = 0;
+        for (int i = offset; i < data.length; i++) {
+            int b = data[i] & 0xFF;
+            if (zeros >= 2 && b == 0x03) {
+                zeros = 0;
+                continue;
+            }
+            rbsp[length++] = (byte) b;
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        byte[] result = new byte[length];
+        System.arraycopy(rbsp, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * 按比特读取RBSP数据
+     */
+    private static final class BitReader {
+        private final byte[] data;
+        private int bitPosition = 0;
+
+        BitReader(byte[] data) {
+            this.data = data;
+        }
+
+        int readBit() {
+            int value = (data[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 0x01;
+            bitPosition++;
+            return value;
+        }
+
+        int readBits(int count) {
+            int value = 0;
+            for (int i = 0; i < count; i++) {
+                value = (value << 1) | readBit();
+            }
+            return value;
+        }
+
+        // 无符号指数哥伦布编码
+        int readUE() {
+            int leadingZeros = 0;
+            while (readBit() == 0) {
+                leadingZeros++;
+                if (leadingZeros > 31) {
+                    throw new IndexOutOfBoundsException("无效的指数哥伦布编码");
+                }
+            }
+            return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+        }
+
+        // 有符号指数哥伦布编码
+        int readSE() {
+            int value = readUE();
+            return (value & 1) == 1 ? (value + 1) / 2 : -(value / 2);
+        }
+    }
+
+    public int getProfileIdc() {
+        return profileIdc;
+    }
+
+    public int getConstraintFlags() {
+        return constraintFlags;
+    }
+
+    public int getLevelIdc() {
+        return levelIdc;
+    }
+
+    public int getSpsId() {
+        return spsId;
+    }
+
+    public int getChromaFormatIdc() {
+        return chromaFormatIdc;
+    }
+
+    public int getLog2MaxFrameNum() {
+        return log2MaxFrameNum;
+    }
+
+    public boolean isGapsInFrameNumAllowed() {
+        return gapsInFrameNumAllowed;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return RFC 6381 编解码器字符串，例如 avc1.64001f
+     */
+    public String getCodecString() {
+        return String.format("avc1.%02x%02x%02x", profileIdc, constraintFlags, levelIdc);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%dx%d, profile=%d, level=%.1f", width, height, profileIdc, levelIdc / 10.0);
+    }
+}
@@ -0,0 +1,130 @@
+package com.LaNasil;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 命令行模式（--noui）
+ * 只使用 {@link ReceiverEngine}，不加载Swing/AWT：日志和实时统计输出到控制台，
+ * 自动启动WebSocket服务器并连接到H.264流服务器。
+ */
+public class HeadlessReceiver implements ReceiverEngine.Listener {
+
+    private final String host;
+    private final int port;
+    private final boolean keyFrameOnlyMode;
+    private final ReceiverEngine engine;
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    private long lastStatsUpdate;
+
+    /**
+     * @param host         H.264流服务器地址
+     * @param port         H.264流服务器端口
+     * @param keyFrameOnly 是否只解码关键帧生成缩略图（大规模设备监控）
+     */
+    public HeadlessReceiver(String host, int port, boolean keyFrameOnly) {
+        this.host = host;
+        this.port = port;
+        this.keyFrameOnlyMode = keyFrameOnly;
+        this.engine = new ReceiverEngine(keyFrameOnly, this);
+    }
+
+    /**
+     * 启动WebSocket服务器并连接上游，连接失败时退出进程
+     */
+    public void start() {
+        System.out.println("=== H.264 视频流接收器 (命令行模式) ===");
+        System.out.println("目标服务器: " + host + ":" + port);
+        System.out.println("WebSocket端口: " + ReceiverEngine.DEFAULT_WS_PORT);
+        if (keyFrameOnlyMode) {
+            System.out.println("关键帧监控模式: 仅解码IDR帧生成缩略图");
+        }
+        System.out.println("按 Ctrl+C 退出程序");
+        System.out.println("=====================================");
+
+        // 添加关闭钩子
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("\n正在关闭程序...");
+            engine.close();
+            System.out.println("程序已关闭");
+        }));
+
+        // 自动启动WebSocket服务器
+        try {
+            engine.startWebSocketServer(ReceiverEngine.DEFAULT_WS_PORT);
+        } catch (Exception ex) {
+            System.err.println("启动WebSocket服务器失败: " + ex.getMessage());
+        }
+
+        // 自动连接到H.264流服务器
+        try {
+            engine.connect(host, port);
+        } catch (IOException e) {
+            System.err.println("无法连接到服务器 " + host + ":" + port + " - " + e.getMessage());
+            System.exit(1);
+        }
+
+        // 立即显示初始统计信息
+        System.out.println(); // 为统计信息预留一行
+        printStats();
+
+        // 启动统计显示线程
+        Thread statsThread = new Thread(this::printStatsLoop, "Stats-Thread");
+        statsThread.setDaemon(true);
+        statsThread.start();
+    }
+
+    /**
+     * 命令行模式下的统计信息显示循环
+     */
+    private void printStatsLoop() {
+        lastStatsUpdate = System.currentTimeMillis();
+        while (engine.isConnected() && !Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(200); // 每200毫秒检查一次，实现更流畅的更新
+                long currentTime = System.currentTimeMillis();
+                if (currentTime - lastStatsUpdate >= 500) {
+                    printStats();
+                    lastStatsUpdate = currentTime;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 打印统计信息到控制台
+     */
+    private void printStats() {
+        long elapsedTime = engine.getElapsedMillis();
+        if (elapsedTime > 0) {
+            long totalMB = engine.getTotalBytesReceived() / (1024 * 1024);
+
+            // 使用 \r 实现原地更新，让统计信息实时刷新
+            System.out.printf("\r[实时统计] 帧数: %d | 帧率: %.2f fps | 数据率: %.2f KB/s | 总量: %d MB | 跳帧: %d | 错误: %d | 重连: %d | WebSocket: %d 客户端",
+                    engine.getFrameCount(), engine.getFps(), engine.getDataRateKBps(), totalMB,
+                    engine.getSkippedFrameCount(), engine.getErrorCount(), engine.getReconnectCount(),
+                    engine.getWebSocketClientCount());
+            System.out.flush();
+
+            // 每10秒打印一次详细统计
+            if (elapsedTime % 10000 < 500 && System.getProperty("verbose") != null) {
+                System.out.println(); // 换行
+                for (String line : engine.getDetailedStats()) {
+                    log(line);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void log(String message) {
+        System.out.println("[" + dateFormat.format(new Date()) + "] " + message);
+    }
+
+    public ReceiverEngine getEngine() {
+        return engine;
+    }
+}
@@ -0,0 +1,631 @@
+package com.LaNasil;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 低延迟HLS（LL-HLS）打包器 - 把组装好的访问单元切分为fMP4分段和部分分段，通过内嵌HTTP服务器提供
+ * 不重新编码：访问单元由 {@link Fmp4Muxer} 封装为每帧一个 moof + mdat，
+ * 约 {@code hls.partMs} 毫秒的分片组成一个部分分段（part），分段总是从IDR帧开始。
+ * 滚动窗口中的分段、部分分段和初始化段都保存在内存中，播放列表按请求生成，
+ * 支持阻塞式播放列表刷新（_HLS_msn / _HLS_part）和预加载提示，
+ * 内容可以由普通HTTP缓存/CDN分发给大量观看者，而不是由接收器逐个推送。
+ * 指定 -Dhls.dir（例如 /dev/shm/hls）时同时把文件写入该目录（建议使用tmpfs），可以由其他Web服务器提供。
+ * 组装线程只把访问单元放入打包队列（{@link KeyFrameGatedQueue}），队列满时丢弃并从下一个IDR帧开始新的分段。
+ * 配置: -Dhls.port=8090（大于0时启用）-Dhls.partMs=200 -Dhls.segmentSeconds=2 -Dhls.segments=6 -Dhls.dir
+ * -Dpipeline.hls.capacity=256
+ */
+public class HlsPackager implements Closeable {
+
+    public static final String PLAYLIST_NAME = "live.m3u8";
+
+    // 最近几个分段在播放列表中列出部分分段
+    private static final int PART_LISTED_SEGMENTS = 3;
+    // 阻塞请求最多可以请求当前分段之后第几个分段
+    private static final int MAX_SEGMENTS_AHEAD = 2;
+
+    private static final Pattern INIT_PATTERN = Pattern.compile("init-(\\d+)\\.mp4");
+    private static final Pattern SEGMENT_PATTERN = Pattern.compile("seg-(\\d+)\\.m4s");
+    private static final Pattern PART_PATTERN = Pattern.compile("seg-(\\d+)\\.(\\d+)\\.m4s");
+
+    /**
+     * 部分分段：一个或多个连续的fMP4分片
+     */
+    private static final class Part {
+        final byte[] data;
+        final long duration; // TIMESCALE为单位
+        final boolean independent; // 从IDR帧开始
+
+        Part(byte[] data, long duration, boolean independent) {
+            this.data = data;
+            this.duration = duration;
+            this.independent = independent;
+        }
+    }
+
+    /**
+     * 分段：从IDR帧开始，由部分分段组成
+     */
+    private static final class Segment {
+        final long sequence;
+        final int initId;
+        final long startTimestamp;
+        final List<Part> parts = new ArrayList<>();
+        byte[] data; // 分段完成后为所有部分分段的拼接
+        long duration;
+
+        Segment(long sequence, int initId, long startTimestamp) {
+            this.sequence = sequence;
+            this.initId = initId;
+            this.startTimestamp = startTimestamp;
+        }
+
+        boolean isComplete() {
+            return data != null;
+        }
+    }
+
+    private final int port;
+    private final Path directory;
+    private final long partTarget; // TIMESCALE为单位
+    private final long segmentTarget;
+    private final int windowSegments;
+    private final KeyFrameGatedQueue queue;
+
+    // 只在打包线程上访问
+    private final Fmp4Muxer muxer = new Fmp4Muxer();
+    private final ByteArrayOutputStream currentPart = new ByteArrayOutputStream();
+    private long currentPartDuration;
+    private boolean currentPartIndependent;
+    private Segment currentSegment;
+    private int initId = 0;
+    private long nextSequence = 0;
+
+    // 以下字段由this保护，等待新内容的HTTP请求在this上等待
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private final Map<Integer, byte[]> initSegments = new HashMap<>();
+    private long maxSegmentDuration;
+
+    private HttpServer server;
+    private ExecutorService httpExecutor;
+    private volatile boolean closed = false;
+
+    // 统计
+    private final AtomicLong completedSegments = new AtomicLong(0);
+    private final AtomicLong completedParts = new AtomicLong(0);
+    private final AtomicLong playlistRequests = new AtomicLong(0);
+    private final AtomicLong blockedRequests = new AtomicLong(0);
+    private final AtomicLong sentBytes = new AtomicLong(0);
+    private final AtomicLong writeErrors = new AtomicLong(0);
+
+    /**
+     * @param port           HTTP端口
+     * @param directory      同时写入文件的目录，null表示只保存在内存中
+     * @param partMillis     部分分段的目标时长（毫秒）
+     * @param segmentMillis  分段的最小时长（毫秒），达到后在下一个IDR帧处切换分段
+     * @param windowSegments 播放列表中保留的已完成分段数
+     */
+    public HlsPackager(int port, Path directory, long partMillis, long segmentMillis, int windowSegments) {
+        if (partMillis <= 0 || segmentMillis < partMillis || windowSegments < 2) {
+            throw new IllegalArgumentException(String.format("无效的HLS参数: partMs=%d, segmentMs=%d, segments=%d",
+                    partMillis, segmentMillis, windowSegments));
+        }
+        this.port = port;
+        this.directory = directory;
+        this.partTarget = partMillis * Fmp4Muxer.TIMESCALE / 1000;
+        this.segmentTarget = segmentMillis * Fmp4Muxer.TIMESCALE / 1000;
+        this.windowSegments = windowSegments;
+        this.queue = new KeyFrameGatedQueue("hls", 256, this::packageUnit);
+    }
+
+    /**
+     * 按 -Dhls.* 创建打包器
+     *
+     * @return 打包器，没有指定 -Dhls.port 时返回null（不启用）
+     */
+    public static HlsPackager fromSystemProperties() {
+        int port = Integer.getInteger("hls.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        String dir = System.getProperty("hls.dir");
+        long partMillis = Long.getLong("hls.partMs", 200);
+        long segmentMillis = Math.round(Double.parseDouble(System.getProperty("hls.segmentSeconds", "2")) * 1000);
+        int windowSegments = Integer.getInteger("hls.segments", 6);
+        return new HlsPackager(port, dir != null ? Paths.get(dir) : null, partMillis, segmentMillis, windowSegments);
+    }
+
+    /**
+     * 启动HTTP服务器和打包线程（已启动时忽略）
+     *
+     * @throws IOException 端口被占用或无法创建目录
+     */
+    public synchronized void start() throws IOException {
+        if (server != null) {
+            return;
+        }
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        HttpServer newServer = HttpServer.create(new InetSocketAddress(port), 0);
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        // 阻塞式播放列表请求会占用线程直到有新内容，使用不限数量的线程池
+        httpExecutor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "HLS-HTTP-" + threadIndex.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        newServer.setExecutor(httpExecutor);
+        newServer.createContext("/", this::handleRequest);
+        newServer.start();
+        server = newServer;
+        queue.start();
+    }
+
+    /**
+     * 提交一个访问单元（在组装线程上调用，不会阻塞）
+     *
+     * @param timestamp 接收时间（毫秒），用于估计帧时长和 EXT-X-PROGRAM-DATE-TIME
+     * @return 访问单元是否进入打包队列
+     */
+    public boolean append(byte[] frameData, boolean isKeyFrame, long timestamp) {
+        if (closed) {
+            return false;
+        }
+        return queue.offer(frameData, isKeyFrame, -1, timestamp);
+    }
+
+    /**
+     * 打包阶段：封装一个访问单元，按时长切分部分分段，在IDR帧处切分分段
+     */
+    private void packageUnit(KeyFrameGatedQueue.Unit unit) {
+        Fmp4Muxer.Fragment fragment = muxer.mux(unit.data, unit.keyFrame, unit.timestamp);
+        if (fragment == null || (currentSegment == null && !fragment.isKeyFrame())) {
+            return;
+        }
+        if (fragment.isInitChanged()) {
+            initId++;
+            byte[] init = muxer.getInitSegment();
+            writeFile(initName(initId), init);
+            synchronized (this) {
+                initSegments.put(initId, init);
+            }
+        }
+
+        if (fragment.isKeyFrame() && (currentSegment == null || fragment.isInitChanged() || unit.afterGap
+                || isSegmentFull(unit.timestamp, fragment.getDuration()))) {
+            finishSegment();
+            Segment segment;
+            synchronized (this) {
+                segment = new Segment(nextSequence++, initId, unit.timestamp);
+                segments.add(segment);
+            }
+            currentSegment = segment;
+        } else if (currentPart.size() > 0 && currentPartDuration + fragment.getDuration() > partTarget) {
+            // 部分分段的时长不能超过 PART-TARGET
+            finishPart();
+        }
+
+        if (currentPart.size() == 0) {
+            currentPartIndependent = fragment.isKeyFrame();
+        }
+        currentPart.write(fragment.getData(), 0, fragment.getData().length);
+        currentPartDuration += fragment.getDuration();
+        if (currentPartDuration >= partTarget) {
+            finishPart();
+        }
+    }
+
+    /**
+     * 按估计的帧时长或接收时间判断当前分段是否已达到目标时长
+     * （两者都允许半帧的误差：帧时长是估计值，连接时积压的数据会集中到达）
+     */
+    private boolean isSegmentFull(long timestamp, long frameDuration) {
+        long duration = currentSegment.duration + currentPartDuration + frameDuration / 2;
+        long elapsedMillis = timestamp - currentSegment.startTimestamp + frameDuration * 500 / Fmp4Muxer.TIMESCALE;
+        return duration >= segmentTarget || elapsedMillis * Fmp4Muxer.TIMESCALE / 1000 >= segmentTarget;
+    }
+
+    private void finishPart() {
+        if (currentPart.size() == 0 || currentSegment == null) {
+            return;
+        }
+        Part part = new Part(currentPart.toByteArray(), currentPartDuration, currentPartIndependent);
+        currentPart.reset();
+        currentPartDuration = 0;
+        writeFile(partName(currentSegment.sequence, currentSegment.parts.size()), part.data);
+        synchronized (this) {
+            currentSegment.parts.add(part);
+            currentSegment.duration += part.duration;
+            notifyAll();
+        }
+        completedParts.incrementAndGet();
+        writePlaylistFile();
+    }
+
+    /**
+     * 完成当前分段并移出窗口之外的旧分段
+     */
+    private void finishSegment() {
+        finishPart();
+        Segment segment = currentSegment;
+        if (segment == null) {
+            return;
+        }
+        currentSegment = null;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (Part part : segment.parts) {
+            data.write(part.data, 0, part.data.length);
+        }
+        byte[] segmentData = data.toByteArray();
+        writeFile(segmentName(segment.sequence), segmentData);
+
+        List<Segment> evicted = new ArrayList<>();
+        List<Integer> evictedInits = new ArrayList<>();
+        synchronized (this) {
+            segment.data = segmentData;
+            maxSegmentDuration = Math.max(maxSegmentDuration, segment.duration);
+            long complete = segments.stream().filter(Segment::isComplete).count();
+            while (complete > windowSegments) {
+                evicted.add(segments.removeFirst());
+                complete--;
+            }
+            int firstInit = segments.isEmpty() ? initId : segments.getFirst().initId;
+            initSegments.keySet().removeIf(id -> {
+                if (id < firstInit) {
+                    evictedInits.add(id);
+                    return true;
+                }
+                return false;
+            });
+            notifyAll();
+        }
+        completedSegments.incrementAndGet();
+        writePlaylistFile();
+
+        if (directory != null) {
+            for (Segment old : evicted) {
+                deleteFile(segmentName(old.sequence));
+                for (int i = 0; i < old.parts.size(); i++) {
+                    deleteFile(partName(old.sequence, i));
+                }
+            }
+            for (int id : evictedInits) {
+                deleteFile(initName(id));
+            }
+        }
+    }
+
+    /**
+     * 生成当前的播放列表
+     */
+    public synchronized String renderPlaylist() {
+        StringBuilder sb = new StringBuilder();
+        long targetDuration = (Math.max(segmentTarget, maxSegmentDuration) + Fmp4Muxer.TIMESCALE / 2)
+                / Fmp4Muxer.TIMESCALE;
+        sb.append("#EXTM3U\n");
+        sb.append("#EXT-X-VERSION:6\n");
+        sb.append(String.format(Locale.ROOT, "#EXT-X-TARGETDURATION:%d\n", Math.max(1, targetDuration)));
+        sb.append(String.format(Locale.ROOT, "#EXT-X-PART-INF:PART-TARGET=%.3f\n", seconds(partTarget)));
+        sb.append(String.format(Locale.ROOT, "#EXT-X-SERVER-CONTROL:CAN-BLOCK-RELOAD=YES,PART-HOLD-BACK=%.3f\n",
+                seconds(partTarget * 3)));
+        sb.append(String.format(Locale.ROOT, "#EXT-X-MEDIA-SEQUENCE:%d\n",
+                segments.isEmpty() ? 0 : segments.getFirst().sequence));
+
+        int listedInit = -1;
+        int index = 0;
+        int firstPartListed = segments.size() - PART_LISTED_SEGMENTS;
+        for (Segment segment : segments) {
+            if (segment.parts.isEmpty()) {
+                index++;
+                continue;
+            }
+            if (segment.initId != listedInit) {
+                sb.append(String.format(Locale.ROOT, "#EXT-X-MAP:URI=\"%s\"\n", initName(segment.initId)));
+                listedInit = segment.initId;
+            }
+            sb.append("#EXT-X-PROGRAM-DATE-TIME:").append(Instant.ofEpochMilli(segment.startTimestamp)).append('\n');
+            if (index >= firstPartListed) {
+                for (int i = 0; i < segment.parts.size(); i++) {
+                    Part part = segment.parts.get(i);
+                    sb.append(String.format(Locale.ROOT, "#EXT-X-PART:DURATION=%.5f,URI=\"%s\"%s\n",
+                            seconds(part.duration), partName(segment.sequence, i),
+                            part.independent ? ",INDEPENDENT=YES" : ""));
+                }
+            }
+            if (segment.isComplete()) {
+                sb.append(String.format(Locale.ROOT, "#EXTINF:%.5f,\n%s\n", seconds(segment.duration),
+                        segmentName(segment.sequence)));
+            }
+            index++;
+        }
+        if (!segments.isEmpty() && !segments.getLast().isComplete()) {
+            Segment last = segments.getLast();
+            sb.append(String.format(Locale.ROOT, "#EXT-X-PRELOAD-HINT:TYPE=PART,URI=\"%s\"\n",
+                    partName(last.sequence, last.parts.size())));
+        }
+        return sb.toString();
+    }
+
+    private void handleRequest(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                send(exchange, 405, "text/plain", new byte[0], null);
+                return;
+            }
+            String path = exchange.getRequestURI().getPath();
+            String name = path.substring(path.lastIndexOf('/') + 1);
+            Matcher matcher;
+            if (PLAYLIST_NAME.equals(name)) {
+                handlePlaylistRequest(exchange);
+            } else if ((matcher = INIT_PATTERN.matcher(name)).matches()) {
+                byte[] init;
+                synchronized (this) {
+                    init = initSegments.get(Integer.parseInt(matcher.group(1)));
+                }
+                sendMedia(exchange, init, "video/mp4");
+            } else if ((matcher = PART_PATTERN.matcher(name)).matches()) {
+                sendMedia(exchange, awaitPart(Long.parseLong(matcher.group(1)), Integer.parseInt(matcher.group(2))),
+                        "video/iso.segment");
+            } else if ((matcher = SEGMENT_PATTERN.matcher(name)).matches()) {
+                sendMedia(exchange, getSegment(Long.parseLong(matcher.group(1))), "video/iso.segment");
+            } else {
+                send(exchange, 404, "text/plain", new byte[0], null);
+            }
+        } catch (NumberFormatException e) {
+            send(exchange, 400, "text/plain", new byte[0], null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "text/plain", new byte[0], null);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * 播放列表请求：带 _HLS_msn（和 _HLS_part）时等待到请求的分段/部分分段出现
+     */
+    private void handlePlaylistRequest(HttpExchange exchange) throws IOException, InterruptedException {
+        playlistRequests.incrementAndGet();
+        long msn = -1;
+        int part = -1;
+        String query = exchange.getRequestURI().getQuery();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                if (parameter.startsWith("_HLS_msn=")) {
+                    msn = Long.parseLong(parameter.substring(9));
+                } else if (parameter.startsWith("_HLS_part=")) {
+                    part = Integer.parseInt(parameter.substring(10));
+                }
+            }
+        }
+        String playlist = null;
+        int status = 200;
+        synchronized (this) {
+            if (msn > nextSequence + MAX_SEGMENTS_AHEAD) {
+                status = 400;
+            } else if (msn >= 0) {
+                blockedRequests.incrementAndGet();
+                long deadline = System.currentTimeMillis() + blockTimeoutMillis();
+                while (!closed && !isAvailable(msn, part) && status == 200) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        status = 503;
+                    } else {
+                        wait(remaining);
+                    }
+                }
+            }
+            if (status == 200) {
+                playlist = renderPlaylist();
+            }
+        }
+        if (playlist == null) {
+            send(exchange, status, "text/plain", new byte[0], null);
+            return;
+        }
+        // 阻塞请求的URL对应固定的内容，可以被缓存更久
+        send(exchange, 200, "application/vnd.apple.mpegurl", playlist.getBytes(StandardCharsets.UTF_8),
+                msn >= 0 ? "max-age=60" : "max-age=1");
+    }
+
+    /**
+     * @return 播放列表是否已包含分段 msn 的部分分段 part（part小于0时为整个分段）
+     */
+    private boolean isAvailable(long msn, int part) {
+        for (Segment segment : segments) {
+            if (segment.sequence > msn && !segment.parts.isEmpty()) {
+                return true;
+            }
+            if (segment.sequence == msn && (segment.isComplete() || (part >= 0 && segment.parts.size() > part))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取部分分段；请求的是即将生成的部分分段（预加载提示）时等待它完成
+     *
+     * @return 部分分段数据，不存在时返回null
+     */
+    private synchronized byte[] awaitPart(long msn, int partIndex) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + blockTimeoutMillis();
+        while (!closed) {
+            Segment segment = findSegment(msn);
+            if (segment != null && partIndex < segment.parts.size()) {
+                return segment.parts.get(partIndex).data;
+            }
+            // 只等待当前分段或下一个分段中即将生成的部分分段
+            boolean upcoming = segment != null ? !segment.isComplete() && partIndex <= segment.parts.size()
+                    : msn == nextSequence && partIndex == 0;
+            long remaining = deadline - System.currentTimeMillis();
+            if (!upcoming || remaining <= 0) {
+                return null;
+            }
+            blockedRequests.incrementAndGet();
+            wait(remaining);
+        }
+        return null;
+    }
+
+    private synchronized byte[] getSegment(long msn) {
+        Segment segment = findSegment(msn);
+        return segment != null ? segment.data : null;
+    }
+
+    private Segment findSegment(long msn) {
+        for (Segment segment : segments) {
+            if (segment.sequence == msn) {
+                return segment;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 阻塞请求最多等待3倍目标时长
+     */
+    private long blockTimeoutMillis() {
+        return Math.max(segmentTarget, maxSegmentDuration) * 3 * 1000 / Fmp4Muxer.TIMESCALE;
+    }
+
+    private void sendMedia(HttpExchange exchange, byte[] data, String contentType) throws IOException {
+        if (data == null) {
+            send(exchange, 404, "text/plain", new byte[0], null);
+        } else {
+            // 分段、部分分段和初始化段的内容不会改变
+            send(exchange, 200, contentType, data, "max-age=3600");
+        }
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body, String cacheControl)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+        if (cacheControl != null) {
+            exchange.getResponseHeaders().set("Cache-Control", cacheControl);
+        }
+        boolean head = "HEAD".equals(exchange.getRequestMethod());
+        exchange.sendResponseHeaders(status, head || body.length == 0 ? -1 : body.length);
+        if (!head && body.length > 0) {
+            exchange.getResponseBody().write(body);
+            sentBytes.addAndGet(body.length);
+        }
+    }
+
+    private void writePlaylistFile() {
+        if (directory != null) {
+            writeFile(PLAYLIST_NAME, renderPlaylist().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * 先写临时文件再改名，其他Web服务器不会读到写了一半的文件
+     */
+    private void writeFile(String name, byte[] data) {
+        if (directory == null) {
+            return;
+        }
+        try {
+            Path temp = directory.resolve(name + ".tmp");
+            Files.write(temp, data);
+            Files.move(temp, directory.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            System.err.println("写入HLS文件失败: " + name + ": " + e.getMessage());
+        }
+    }
+
+    private void deleteFile(String name) {
+        try {
+            Files.deleteIfExists(directory.resolve(name));
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+        }
+    }
+
+    private static String initName(int id) {
+        return "init-" + id + ".mp4";
+    }
+
+    private static String segmentName(long sequence) {
+        return "seg-" + sequence + ".m4s";
+    }
+
+    private static String partName(long sequence, int part) {
+        return "seg-" + sequence + "." + part + ".m4s";
+    }
+
+    private static double seconds(long ticks) {
+        return ticks / (double) Fmp4Muxer.TIMESCALE;
+    }
+
+    /**
+     * 停止打包线程和HTTP服务器，唤醒所有等待中的请求
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.stop();
+        synchronized (this) {
+            notifyAll();
+            if (server != null) {
+                server.stop(0);
+                httpExecutor.shutdownNow();
+                server = null;
+            }
+        }
+    }
+
+    /**
+     * @return HTTP服务器实际监听的端口，尚未启动时返回配置的端口
+     */
+    public synchronized int getPort() {
+        return server != null ? server.getAddress().getPort() : port;
+    }
+
+    public long getCompletedSegmentCount() {
+        return completedSegments.get();
+    }
+
+    public String getStats() {
+        int windowed;
+        synchronized (this) {
+            windowed = segments.size();
+        }
+        return String.format("HLS: http://<host>:%d/%s, 已完成分段=%d (窗口%d), 部分分段=%d, 播放列表请求=%d, 阻塞请求=%d, "
+                + "已发送=%d KB, 丢弃=%d, 跳过=%d, 写入错误=%d, 队列=%d", getPort(), PLAYLIST_NAME,
+                completedSegments.get(), windowed, completedParts.get(), playlistRequests.get(), blockedRequests.get(),
+                sentBytes.get() / 1024, queue.getDroppedFrameCount(), queue.getSkippedFrameCount(), writeErrors.get(),
+                queue.getQueueDepth());
+    }
+}
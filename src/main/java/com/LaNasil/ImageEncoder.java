@@ -0,0 +1,260 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.avcodec.AVCodec;
+import org.bytedeco.ffmpeg.avcodec.AVCodecContext;
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVDictionary;
+import org.bytedeco.ffmpeg.avutil.AVFrame;
+import org.bytedeco.ffmpeg.swscale.SwsContext;
+import org.bytedeco.javacpp.BytePointer;
+import org.bytedeco.javacpp.IntPointer;
+import org.bytedeco.javacpp.PointerPointer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static org.bytedeco.ffmpeg.global.avcodec.*;
+import static org.bytedeco.ffmpeg.global.avutil.*;
+import static org.bytedeco.ffmpeg.global.swscale.*;
+
+/**
+ * 图像编码 - 不依赖AWT/ImageIO，把 {@link DecodedFrame} 编码为PNG或JPEG
+ * PNG由纯Java实现（zlib压缩），JPEG使用已经加载的FFmpeg的MJPEG编码器，
+ * 无头模式下不会加载Java2D、字体和图像IO插件。
+ */
+public final class ImageEncoder {
+
+    private static final byte[] PNG_SIGNATURE = { (byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n' };
+
+    // PNG压缩级别（-Dimage.pngCompression，0-9），默认与ImageIO相同，调低可以用带宽换编码时间
+    private static final int PNG_COMPRESSION = Integer.getInteger("image.pngCompression",
+            Deflater.DEFAULT_COMPRESSION);
+
+    // MJPEG量化参数（2-31，越小质量越高）
+    private static final int JPEG_QSCALE = 5;
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * 编码为24位RGB的PNG（每行使用Sub过滤）
+     */
+    public static byte[] encodePng(DecodedFrame frame) throws IOException {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int channels = frame.getChannels();
+        if (channels != 3 && channels != 1) {
+            throw new IOException("不支持的通道数: " + channels);
+        }
+        byte[] pixels = frame.getPixels();
+        int rowBytes = width * channels;
+
+        // 每行前面是过滤类型字节；BGR转换为PNG要求的RGB顺序
+        byte[] raw = new byte[(rowBytes + 1) * height];
+        int out = 0;
+        for (int y = 0; y < height; y++) {
+            raw[out++] = 1; // Sub过滤：与左侧像素求差，对自然图像压缩效果明显
+            int rowStart = y * rowBytes;
+            for (int x = 0; x < rowBytes; x += channels) {
+                for (int c = 0; c < channels; c++) {
+                    int source = channels == 3 ? 2 - c : c;
+                    int value = pixels[rowStart + x + source];
+                    int left = x >= channels ? pixels[rowStart + x - channels + source] : 0;
+                    raw[out++] = (byte) (value - left);
+                }
+            }
+        }
+
+        Deflater deflater = new Deflater(PNG_COMPRESSION);
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(raw.length / 4 + 64);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buffer);
+                idat.write(buffer, 0, n);
+            }
+        } finally {
+            deflater.end();
+        }
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream(idat.size() + 64);
+        png.write(PNG_SIGNATURE);
+        ByteBuffer ihdr = ByteBuffer.allocate(13);
+        ihdr.putInt(width).putInt(height);
+        ihdr.put((byte) 8); // 位深
+        ihdr.put((byte) (channels == 3 ? 2 : 0)); // 颜色类型：真彩色 / 灰度
+        ihdr.put((byte) 0).put((byte) 0).put((byte) 0); // 压缩、过滤、非隔行
+        writeChunk(png, "IHDR", ihdr.array());
+        writeChunk(png, "IDAT", idat.toByteArray());
+        writeChunk(png, "IEND", new byte[0]);
+        return png.toByteArray();
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] typeBytes = type.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        writeInt(out, data.length);
+        out.write(typeBytes, 0, 4);
+        out.write(data, 0, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * 使用FFmpeg的MJPEG编码器编码为JPEG（直接调用编码器，不经过封装器）
+     * 每次调用都创建和释放编码器；同一尺寸反复编码时使用 {@link JpegEncoder}
+     */
+    public static byte[] encodeJpeg(DecodedFrame frame) throws IOException {
+        if (frame.getChannels() != 3) {
+            throw new IOException("不支持的通道数: " + frame.getChannels());
+        }
+        try (JpegEncoder encoder = new JpegEncoder(frame.getWidth(), frame.getHeight())) {
+            return encoder.encode(frame.getPixels(), 0, frame.getWidth() * 3);
+        }
+    }
+
+    /**
+     * 固定尺寸的JPEG编码器：MJPEG编码器、YUV帧和颜色转换只创建一次，可以反复编码
+     * 不是线程安全的，每个线程使用自己的实例
+     */
+    public static final class JpegEncoder implements Closeable {
+
+        private final int width;
+        private final int height;
+        private final AVCodecContext context;
+        private final AVFrame yuv;
+        private final AVPacket packet;
+        private final SwsContext sws;
+        private final IntPointer sourceStride = new IntPointer(4);
+        private final PointerPointer<BytePointer> sourcePlanes = new PointerPointer<>(4);
+        private final BytePointer source;
+
+        public JpegEncoder(int width, int height) throws IOException {
+            this.width = width;
+            this.height = height;
+            AVCodec codec = avcodec_find_encoder(AV_CODEC_ID_MJPEG);
+            if (codec == null) {
+                throw new IOException("FFmpeg未包含MJPEG编码器");
+            }
+            context = avcodec_alloc_context3(codec);
+            yuv = av_frame_alloc();
+            packet = av_packet_alloc();
+            sws = sws_alloc_context();
+            source = new BytePointer((long) width * height * 3);
+            // sws_scale总是读取4个平面的指针和行宽
+            sourcePlanes.put(0, source);
+            sourceStride.put(0, width * 3);
+            try {
+                // 全范围YUV420P即JPEG的标准采样格式
+                context.width(width);
+                context.height(height);
+                context.pix_fmt(AV_PIX_FMT_YUV420P);
+                context.color_range(AVCOL_RANGE_JPEG);
+                context.time_base(av_make_q(1, 25));
+                context.flags(context.flags() | AV_CODEC_FLAG_QSCALE);
+                context.global_quality(FF_QP2LAMBDA * JPEG_QSCALE);
+                if (avcodec_open2(context, codec, (AVDictionary) null) < 0) {
+                    throw new IOException("无法打开MJPEG编码器");
+                }
+
+                yuv.format(AV_PIX_FMT_YUV420P);
+                yuv.width(width);
+                yuv.height(height);
+                yuv.color_range(AVCOL_RANGE_JPEG);
+                yuv.quality(context.global_quality());
+                if (av_frame_get_buffer(yuv, 0) < 0) {
+                    throw new IOException("无法分配YUV帧");
+                }
+
+                // 输出范围必须在初始化前设置，之后调用sws_setColorspaceDetails对RGB输入不生效
+                av_opt_set_int(sws, "srcw", width, 0);
+                av_opt_set_int(sws, "srch", height, 0);
+                av_opt_set_int(sws, "src_format", AV_PIX_FMT_BGR24, 0);
+                av_opt_set_int(sws, "dstw", width, 0);
+                av_opt_set_int(sws, "dsth", height, 0);
+                av_opt_set_int(sws, "dst_format", AV_PIX_FMT_YUV420P, 0);
+                av_opt_set_int(sws, "dst_range", 1, 0);
+                av_opt_set_int(sws, "sws_flags", SWS_BILINEAR, 0);
+                if (sws_init_context(sws, null, null) < 0) {
+                    throw new IOException("无法初始化颜色转换");
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * 编码BGR24图像中的一个区域（宽高为编码器的尺寸）
+         *
+         * @param pixels BGR24像素
+         * @param offset 区域左上角像素的偏移
+         * @param stride 图像每行的字节数（编码整张图像时为 width * 3）
+         */
+        public byte[] encode(byte[] pixels, int offset, int stride) throws IOException {
+            if (offset < 0 || stride < width * 3 || offset + (long) stride * (height - 1) + width * 3 > pixels.length) {
+                throw new IOException(String.format("区域超出图像: offset=%d, stride=%d, 尺寸=%dx%d, 数据=%d字节",
+                        offset, stride, width, height, pixels.length));
+            }
+            // 区域按行紧密复制到本地缓冲区（块只复制自身的像素）
+            int rowBytes = width * 3;
+            if (stride == rowBytes) {
+                source.position(0).put(pixels, offset, rowBytes * height);
+            } else {
+                for (int y = 0; y < height; y++) {
+                    source.position((long) y * rowBytes).put(pixels, offset + y * stride, rowBytes);
+                }
+            }
+            source.position(0);
+            // 编码器可能仍引用上一帧的缓冲区
+            if (av_frame_make_writable(yuv) < 0) {
+                throw new IOException("无法写入YUV帧");
+            }
+            sws_scale(sws, sourcePlanes, sourceStride, 0, height, yuv.data(), yuv.linesize());
+
+            if (avcodec_send_frame(context, yuv) < 0 || avcodec_receive_packet(context, packet) < 0) {
+                throw new IOException("MJPEG编码失败");
+            }
+            try {
+                byte[] jpeg = new byte[packet.size()];
+                packet.data().get(jpeg);
+                return jpeg;
+            } finally {
+                av_packet_unref(packet);
+            }
+        }
+
+        @Override
+        public void close() {
+            sws_freeContext(sws);
+            av_packet_free(packet);
+            av_frame_free(yuv);
+            avcodec_free_context(context);
+            source.close();
+            sourceStride.close();
+            sourcePlanes.close();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.LaNasil;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 以关键帧为界的访问单元队列 - 录制和HLS打包等后台写入阶段共用
+ * 组装线程只把访问单元放入有界队列（队列满时丢弃新数据，不阻塞实时路径）。
+ * 开始时和每次丢弃之后都跳过非关键帧直到下一个IDR帧，该IDR帧标记为 {@link Unit#afterGap}，
+ * 由消费者从它开始新的分段。
+ */
+public class KeyFrameGatedQueue {
+
+    /**
+     * 队列中的一个访问单元
+     */
+    public static final class Unit {
+        final byte[] data;
+        final boolean keyFrame;
+        final long frameNumber;
+        final long timestamp;
+        // 此前有访问单元因队列满被丢弃，从这个IDR帧开始新的分段
+        final boolean afterGap;
+
+        Unit(byte[] data, boolean keyFrame, long frameNumber, long timestamp, boolean afterGap) {
+            this.data = data;
+            this.keyFrame = keyFrame;
+            this.frameNumber = frameNumber;
+            this.timestamp = timestamp;
+            this.afterGap = afterGap;
+        }
+    }
+
+    private final PipelineStage<Unit> stage;
+
+    // 生产者（组装线程）状态：丢弃之后跳过非关键帧直到下一个IDR帧
+    private boolean awaitingKeyFrame = true;
+    private boolean gapPending = false;
+
+    // 统计
+    private final AtomicLong droppedFrames = new AtomicLong(0);
+    private final AtomicLong skippedFrames = new AtomicLong(0);
+
+    /**
+     * @param name            阶段名称（容量可以通过 -Dpipeline.&lt;name&gt;.capacity 覆盖）
+     * @param defaultCapacity 默认队列容量
+     * @param handler         在工作线程上处理访问单元
+     */
+    public KeyFrameGatedQueue(String name, int defaultCapacity, Consumer<Unit> handler) {
+        // 消费者变慢时丢弃新的访问单元，之后从下一个IDR帧恢复，不反压组装阶段
+        this.stage = PipelineStage.fromSystemProperties(name, defaultCapacity,
+                PipelineStage.BackpressurePolicy.DROP_NEWEST, handler);
+    }
+
+    public void start() {
+        stage.start();
+    }
+
+    /**
+     * 停止工作线程并丢弃未处理的访问单元
+     */
+    public void stop() {
+        stage.stop();
+    }
+
+    /**
+     * 提交一个访问单元（在组装线程上调用，不会阻塞）
+     *
+     * @return 访问单元是否进入队列
+     */
+    public boolean offer(byte[] frameData, boolean isKeyFrame, long frameNumber, long timestamp) {
+        if (awaitingKeyFrame) {
+            if (!isKeyFrame) {
+                skippedFrames.incrementAndGet();
+                return false;
+            }
+            awaitingKeyFrame = false;
+        }
+        if (!stage.offer(new Unit(frameData, isKeyFrame, frameNumber, timestamp, gapPending))) {
+            droppedFrames.incrementAndGet();
+            // 码流已不连续：等待下一个IDR帧并从它开始新的分段
+            awaitingKeyFrame = true;
+            gapPending = true;
+            return false;
+        }
+        gapPending = false;
+        return true;
+    }
+
+    public int getQueueDepth() {
+        return stage.getQueueDepth();
+    }
+
+    public long getDroppedFrameCount() {
+        return droppedFrames.get();
+    }
+
+    public long getSkippedFrameCount() {
+        return skippedFrames.get();
+    }
+}
@@ -0,0 +1,191 @@
+package com.LaNasil;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 关键帧缩略图生成器 - 用于大规模设备监控
+ * 只解码IDR访问单元（包含参数集），每个IDR都使用新打开的轻量解码器，
+ * 生成的缩略图被缓存并提供给客户端，单台接收主机即可以很低的CPU开销监控大量设备。
+ */
+public class KeyFrameThumbnailer {
+
+    // 默认缩略图宽度，可通过 -Dmonitor.thumbnailWidth 调整
+    public static final int DEFAULT_THUMBNAIL_WIDTH = 320;
+    // 默认最小更新间隔（毫秒），可通过 -Dmonitor.intervalMs 调整
+    public static final long DEFAULT_MIN_INTERVAL_MS = 2000;
+
+    /**
+     * 缩略图更新回调
+     */
+    public interface ThumbnailListener {
+        void onThumbnailUpdated(Thumbnail thumbnail);
+    }
+
+    /**
+     * 缓存的缩略图（JPEG编码）
+     */
+    public static final class Thumbnail {
+        private final byte[] jpegData;
+        private final DecodedFrame image;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final long frameNumber;
+        private final long timestamp;
+
+        Thumbnail(byte[] jpegData, DecodedFrame image, int sourceWidth, int sourceHeight, long frameNumber,
+                long timestamp) {
+            this.jpegData = jpegData;
+            this.image = image;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+            this.frameNumber = frameNumber;
+            this.timestamp = timestamp;
+        }
+
+        public byte[] getJpegData() {
+            return jpegData;
+        }
+
+        /**
+         * @return 缩略图像素（BGR）
+         */
+        public DecodedFrame getImage() {
+            return image;
+        }
+
+        public int getWidth() {
+            return image.getWidth();
+        }
+
+        public int getHeight() {
+            return image.getHeight();
+        }
+
+        public int getSourceWidth() {
+            return sourceWidth;
+        }
+
+        public int getSourceHeight() {
+            return sourceHeight;
+        }
+
+        public long getFrameNumber() {
+            return frameNumber;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+
+    private final DecoderOptions decoderOptions;
+    private final long minIntervalMs;
+    private final ThumbnailListener listener;
+    private final ExecutorService executor;
+    private final AtomicBoolean busy = new AtomicBoolean(false);
+    private volatile Thumbnail latestThumbnail;
+    private volatile long lastAcceptedTime = 0;
+
+    // 统计
+    private final AtomicLong decodedKeyFrames = new AtomicLong(0);
+    private final AtomicLong skippedKeyFrames = new AtomicLong(0);
+    private final AtomicLong failedKeyFrames = new AtomicLong(0);
+
+    public KeyFrameThumbnailer(ThumbnailListener listener) {
+        this(Integer.getInteger("monitor.thumbnailWidth", DEFAULT_THUMBNAIL_WIDTH),
+                Long.getLong("monitor.intervalMs", DEFAULT_MIN_INTERVAL_MS), listener);
+    }
+
+    /**
+     * @param thumbnailWidth 缩略图宽度（高度按比例计算）
+     * @param minIntervalMs  两次缩略图更新之间的最小间隔
+     * @param listener       缩略图更新回调
+     */
+    public KeyFrameThumbnailer(int thumbnailWidth, long minIntervalMs, ThumbnailListener listener) {
+        // 缩略图尺寸直接由FFmpeg在颜色转换时缩放得到，单线程解码即可
+        this.decoderOptions = new DecoderOptions(1, DecoderOptions.ThreadType.SLICE);
+        this.decoderOptions.setOutputSize(thumbnailWidth, 0);
+        this.minIntervalMs = minIntervalMs;
+        this.listener = listener;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "KeyFrame-Thumbnail-Thread");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 提交一个IDR访问单元（由接收线程调用，从不阻塞）
+     * 距上次更新不足最小间隔或上一个缩略图仍在生成时直接跳过
+     */
+    public void submitKeyFrame(byte[] frameData, long frameNumber) {
+        long now = System.currentTimeMillis();
+        if (now - lastAcceptedTime < minIntervalMs || !busy.compareAndSet(false, true)) {
+            skippedKeyFrames.incrementAndGet();
+            return;
+        }
+        lastAcceptedTime = now;
+
+        executor.execute(() -> {
+            try {
+                generateThumbnail(frameData, frameNumber);
+            } finally {
+                busy.set(false);
+            }
+        });
+    }
+
+    /**
+     * 使用全新的解码器解码IDR帧并生成缩略图
+     */
+    private void generateThumbnail(byte[] frameData, long frameNumber) {
+        H264Decoder decoder = new H264Decoder(decoderOptions);
+        try {
+            DecodedFrame frame = decoder.decodeFrame(frameData, frameNumber);
+            if (frame == null) {
+                failedKeyFrames.incrementAndGet();
+                return;
+            }
+
+            byte[] jpegData = ImageEncoder.encodeJpeg(frame);
+            Thumbnail thumbnail = new Thumbnail(jpegData, frame, decoder.getLastSourceWidth(),
+                    decoder.getLastSourceHeight(), frameNumber, System.currentTimeMillis());
+            latestThumbnail = thumbnail;
+            decodedKeyFrames.incrementAndGet();
+
+            if (listener != null) {
+                listener.onThumbnailUpdated(thumbnail);
+            }
+        } catch (Exception e) {
+            failedKeyFrames.incrementAndGet();
+            System.err.println("生成关键帧缩略图失败，帧号: " + frameNumber + ", 错误: " + e.getMessage());
+        } finally {
+            decoder.release();
+        }
+    }
+
+    /**
+     * @return 最近一次生成的缩略图，尚未生成时返回null
+     */
+    public Thumbnail getLatestThumbnail() {
+        return latestThumbnail;
+    }
+
+    /**
+     * 获取缩略图生成统计信息
+     */
+    public String getStats() {
+        return String.format("关键帧监控: 已生成=%d, 跳过=%d, 失败=%d",
+                decodedKeyFrames.get(), skippedKeyFrames.get(), failedKeyFrames.get());
+    }
+
+    /**
+     * 释放资源
+     */
+    public void release() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,269 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.Frame;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 实时解码阶段
+ * 通过 {@link DecodeScheduler} 接收完整的访问单元（最新帧优先），在专用解码线程上持续解码，
+ * 每解码出一帧就回调 {@link FrameListener}。解码器只在参数集变化或连续解码失败时重建。
+ * 没有任何回调需要解码帧时（{@link #hasDemand()}）不解码，丢弃积压；重新出现需求时从下一个IDR帧
+ * （组装器在IDR帧前附带SPS/PPS）继续解码，解码上下文保持不变。
+ */
+public class LiveDecoder implements Runnable {
+
+    // 连续解码错误超过该值时才重建解码器，偶发错误只跳到下一个IDR
+    private static final int MAX_CONSECUTIVE_DECODE_ERRORS = 5;
+
+    /**
+     * 解码帧回调（在解码线程上调用）
+     */
+    public interface FrameListener {
+        /**
+         * @param frame       解码得到的帧，仅在回调期间有效（缓冲区会被下一帧复用）
+         * @param frameNumber 解码帧序号
+         */
+        void onFrameDecoded(Frame frame, long frameNumber);
+
+        /**
+         * @return 当前是否需要解码帧（例如有客户端或订阅者），所有回调都不需要时暂停解码
+         */
+        default boolean wantsFrames() {
+            return true;
+        }
+    }
+
+    private final DecoderOptions decoderOptions;
+    private final List<FrameListener> listeners = new CopyOnWriteArrayList<>();
+    private final DecodeScheduler decodeScheduler = new DecodeScheduler();
+    private volatile boolean running = false;
+    private Thread decoderThread;
+    // 只在提交线程（组装线程）上访问：因没有需求而暂停解码，恢复时等待IDR帧
+    private boolean paused = false;
+
+    // 统计
+    private final AtomicLong decodedFrames = new AtomicLong(0);
+    private final AtomicLong decodeErrors = new AtomicLong(0);
+    private final AtomicLong decoderResyncs = new AtomicLong(0);
+    private final AtomicLong decoderRestarts = new AtomicLong(0);
+    private final AtomicLong framesWithoutDemand = new AtomicLong(0);
+    private volatile long reinitializations = 0;
+
+    public LiveDecoder(DecoderOptions decoderOptions, FrameListener listener) {
+        this.decoderOptions = decoderOptions;
+        if (listener != null) {
+            listeners.add(listener);
+        }
+    }
+
+    /**
+     * 添加解码帧回调（按添加顺序在解码线程上调用）
+     */
+    public void addFrameListener(FrameListener listener) {
+        listeners.add(listener);
+    }
+
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            decodeScheduler.open();
+            decoderThread = new Thread(this, "H264-Decoder-Thread");
+            decoderThread.start();
+        }
+    }
+
+    public synchronized void stop() {
+        running = false;
+        decodeScheduler.close(); // 中断解码器的阻塞读取
+        if (decoderThread != null) {
+            decoderThread.interrupt();
+            try {
+                decoderThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            decoderThread = null;
+        }
+    }
+
+    /**
+     * 提交完整帧进行解码，积压超过延迟预算时由调度器丢帧；没有解码需求时丢弃
+     */
+    public void submit(byte[] frameData, boolean isKeyFrame) {
+        if (!running)
+            return;
+        if (!hasDemand()) {
+            if (!paused) {
+                paused = true;
+                decodeScheduler.resyncAtNextIdr();
+                System.out.println("没有解码帧的使用者，暂停解码");
+            }
+            framesWithoutDemand.incrementAndGet();
+            return;
+        }
+        if (paused) {
+            // 解码上下文中的参考帧已经过期，从下一个IDR帧开始
+            if (!isKeyFrame) {
+                framesWithoutDemand.incrementAndGet();
+                return;
+            }
+            paused = false;
+            System.out.println("出现解码帧的使用者，从IDR帧恢复解码");
+        }
+        decodeScheduler.submit(frameData, isKeyFrame);
+    }
+
+    /**
+     * @return 是否有回调需要解码帧
+     */
+    public boolean hasDemand() {
+        for (FrameListener listener : listeners) {
+            if (listener.wantsFrames()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 参数集变化：在下一个IDR之前结束当前解码器的输入，由解码线程重新初始化
+     */
+    public void onParameterSetsChanged() {
+        if (running) {
+            decodeScheduler.requestBoundaryBeforeNextIdr();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            // 每个循环对应一个解码器实例。参数集变化时输入流在新的IDR之前结束，
+            // 冲刷旧解码器后只重新初始化解码上下文和缩放器，从新的IDR继续解码
+            while (running && !Thread.currentThread().isInterrupted()) {
+                try {
+                    decodeUntilBoundary();
+                    if (running) {
+                        reinitializations++;
+                        System.out.println("参数集已变化，重新初始化解码器 (第" + reinitializations + "次)");
+                    }
+                } catch (Exception e) {
+                    if (!running) {
+                        break;
+                    }
+                    // 解码器无法继续时丢弃积压，从下一个IDR帧开始用新的解码器解码，解码线程不退出
+                    decoderRestarts.incrementAndGet();
+                    decodeScheduler.resyncAtNextIdr();
+                    System.err.println("解码器异常: " + e.getMessage() + "，丢弃数据直到下一个IDR帧后重新初始化 (第"
+                            + decoderRestarts.get() + "次)");
+                    Thread.sleep(100);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            System.out.println("解码线程已停止。");
+        }
+    }
+
+    /**
+     * 创建解码器并持续解码，直到输入流在解码器边界或调度器关闭处结束
+     */
+    private void decodeUntilBoundary() throws Exception {
+        FFmpegNatives.ensureLoaded();
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(decodeScheduler.asInputStream(), 0);
+        try {
+            grabber.setFormat("h264");
+            decoderOptions.applyTo(grabber);
+            grabber.start();
+            System.out.println("解码器已启动: " + decoderOptions);
+
+            // 在FFmpeg的YUV→BGR转换中直接缩放到目标尺寸，预览和图像编码都使用小尺寸帧
+            int sourceWidth = grabber.getImageWidth();
+            int sourceHeight = grabber.getImageHeight();
+            if (decoderOptions.applyScaling(grabber, sourceWidth, sourceHeight)) {
+                System.out.println(String.format("解码输出缩放: %dx%d -> %dx%d", sourceWidth, sourceHeight,
+                        grabber.getImageWidth(), grabber.getImageHeight()));
+            }
+
+            int consecutiveErrors = 0;
+            while (running && !Thread.currentThread().isInterrupted()) {
+
+                Frame frame;
+                try {
+                    frame = grabber.grab();
+                } catch (FFmpegFrameGrabber.Exception e) {
+                    // 偶发的码流错误：保留当前解码上下文，丢弃积压直到下一个IDR帧
+                    decodeErrors.incrementAndGet();
+                    if (++consecutiveErrors >= MAX_CONSECUTIVE_DECODE_ERRORS) {
+                        throw e;
+                    }
+                    decoderResyncs.incrementAndGet();
+                    decodeScheduler.resyncAtNextIdr();
+                    System.err.println("解码错误: " + e.getMessage() + "，等待下一个IDR帧");
+                    continue;
+                }
+                if (frame == null)
+                    break;
+                if (frame.image != null) {
+                    consecutiveErrors = 0;
+                    long frameNumber = decodedFrames.incrementAndGet();
+                    for (FrameListener listener : listeners) {
+                        listener.onFrameDecoded(frame, frameNumber);
+                    }
+                }
+            }
+        } finally {
+            try {
+                grabber.stop();
+                grabber.release();
+            } catch (Exception e) {
+                System.err.println("关闭grabber时出错: " + e.getMessage());
+            }
+        }
+    }
+
+    public DecodeScheduler getDecodeScheduler() {
+        return decodeScheduler;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public long getDecodedFrameCount() {
+        return decodedFrames.get();
+    }
+
+    public long getReinitializationCount() {
+        return reinitializations;
+    }
+
+    public long getDecodeErrorCount() {
+        return decodeErrors.get();
+    }
+
+    public long getDecoderResyncCount() {
+        return decoderResyncs.get();
+    }
+
+    public long getDecoderRestartCount() {
+        return decoderRestarts.get();
+    }
+
+    public long getFramesWithoutDemandCount() {
+        return framesWithoutDemand.get();
+    }
+
+    /**
+     * 获取解码错误统计信息
+     */
+    public String getErrorStats() {
+        return String.format("解码器: 已解码=%d, 解码错误=%d, IDR重新同步=%d, 解码器重建=%d, 参数集重新初始化=%d, 无需求未解码=%d",
+                decodedFrames.get(), decodeErrors.get(), decoderResyncs.get(), decoderRestarts.get(),
+                reinitializations, framesWithoutDemand.get());
+    }
+}
@@ -0,0 +1,292 @@
+package com.LaNasil;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 流水线阶段 - 有界队列加专用工作线程
+ * 上游通过 {@link #offer(Object)} 提交数据，队列满时按背压策略阻塞或丢弃，
+ * 工作线程按顺序处理队列中的数据。通过 {@link #offerRetained(Object)} 提交的数据（如控制消息）不会被丢弃，
+ * 丢弃策略只作用于其他数据。默认值可通过系统属性按阶段名覆盖，例如:
+ * -Dpipeline.fanout.capacity=512 -Dpipeline.fanout.policy=drop_oldest
+ *
+ * @param <T> 阶段处理的数据类型
+ */
+public class PipelineStage<T> {
+
+    /**
+     * 队列满时的背压策略
+     */
+    public enum BackpressurePolicy {
+        BLOCK("block"), // 阻塞上游，直到队列有空间（最终反压到TCP接收窗口）
+        DROP_NEWEST("drop_newest"), // 丢弃新提交的数据
+        DROP_OLDEST("drop_oldest"); // 丢弃队列中最旧的数据，保证实时性
+
+        private final String configName;
+
+        BackpressurePolicy(String configName) {
+            this.configName = configName;
+        }
+
+        public String getConfigName() {
+            return configName;
+        }
+
+        /**
+         * 解析策略名称（block / drop_newest / drop_oldest）
+         */
+        public static BackpressurePolicy parse(String name) {
+            for (BackpressurePolicy policy : values()) {
+                if (policy.configName.equalsIgnoreCase(name.trim()) || policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("未知的背压策略: " + name);
+        }
+    }
+
+    private final String name;
+    private final int capacity;
+    private final BackpressurePolicy policy;
+    private final Consumer<T> handler;
+    private final ArrayBlockingQueue<T> queue;
+    // 队列中不可丢弃的数据（按引用比较）
+    private final Set<T> retained = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+    private volatile boolean running = false;
+    private Thread worker;
+
+    // 统计
+    private final AtomicLong accepted = new AtomicLong(0);
+    private final AtomicLong processed = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private volatile int peakDepth = 0;
+
+    /**
+     * @param name     阶段名称（用于线程名和统计）
+     * @param capacity 队列容量
+     * @param policy   队列满时的背压策略
+     * @param handler  在工作线程上处理每个数据
+     */
+    public PipelineStage(String name, int capacity, BackpressurePolicy policy, Consumer<T> handler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("队列容量必须大于0: " + name + "=" + capacity);
+        }
+        this.name = name;
+        this.capacity = capacity;
+        this.policy = policy;
+        this.handler = handler;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * 创建阶段，容量和策略可通过 -Dpipeline.&lt;name&gt;.capacity / -Dpipeline.&lt;name&gt;.policy 覆盖
+     */
+    public static <T> PipelineStage<T> fromSystemProperties(String name, int defaultCapacity,
+            BackpressurePolicy defaultPolicy, Consumer<T> handler) {
+        int capacity = Integer.getInteger("pipeline." + name + ".capacity", defaultCapacity);
+        String policyName = System.getProperty("pipeline." + name + ".policy");
+        BackpressurePolicy policy = policyName != null ? BackpressurePolicy.parse(policyName) : defaultPolicy;
+        return new PipelineStage<>(name, capacity, policy, handler);
+    }
+
+    /**
+     * 启动工作线程（已启动时忽略）
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        worker = new Thread(this::runWorker, "Pipeline-" + name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * 停止工作线程并丢弃队列中未处理的数据
+     */
+    public synchronized void stop() {
+        running = false;
+        if (worker != null) {
+            worker.interrupt();
+            if (worker != Thread.currentThread()) {
+                try {
+                    worker.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            worker = null;
+        }
+        queue.clear();
+        retained.clear();
+    }
+
+    /**
+     * 提交数据，队列满时按背压策略处理
+     *
+     * @return 数据是否进入队列
+     */
+    public boolean offer(T item) {
+        if (!running) {
+            return false;
+        }
+        switch (policy) {
+            case BLOCK:
+                try {
+                    while (!queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                        if (!running) {
+                            return false;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                break;
+            case DROP_NEWEST:
+                if (!queue.offer(item)) {
+                    dropped.incrementAndGet();
+                    return false;
+                }
+                break;
+            case DROP_OLDEST:
+                while (!queue.offer(item)) {
+                    if (!evictOldestDroppable()) {
+                        // 队列中只有不可丢弃的数据：丢弃新数据
+                        dropped.incrementAndGet();
+                        return false;
+                    }
+                }
+                break;
+        }
+        onAccepted();
+        return true;
+    }
+
+    /**
+     * 提交不可丢弃的数据：不受丢弃策略影响，队列满时先丢弃最旧的可丢弃数据（drop策略）或等待工作线程
+     * 用于必须按顺序送达的控制消息
+     *
+     * @return 数据是否进入队列（只有阶段停止或线程被中断时返回false）
+     */
+    public boolean offerRetained(T item) {
+        if (!running) {
+            return false;
+        }
+        retained.add(item);
+        try {
+            boolean queued = queue.offer(item);
+            while (!queued) {
+                if (policy != BackpressurePolicy.BLOCK && evictOldestDroppable()) {
+                    queued = queue.offer(item);
+                } else {
+                    queued = queue.offer(item, 100, TimeUnit.MILLISECONDS);
+                    if (!queued && !running) {
+                        retained.remove(item);
+                        return false;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            retained.remove(item);
+            return false;
+        }
+        onAccepted();
+        return true;
+    }
+
+    /**
+     * 从队首开始移除第一个可丢弃的数据
+     *
+     * @return 是否移除了数据
+     */
+    private boolean evictOldestDroppable() {
+        for (Iterator<T> iterator = queue.iterator(); iterator.hasNext();) {
+            T item = iterator.next();
+            if (!retained.contains(item)) {
+                iterator.remove();
+                dropped.incrementAndGet();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void onAccepted() {
+        accepted.incrementAndGet();
+        int depth = queue.size();
+        if (depth > peakDepth) {
+            peakDepth = depth;
+        }
+    }
+
+    private void runWorker() {
+        while (running) {
+            T item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException e) {
+                break;
+            }
+            retained.remove(item);
+            try {
+                handler.accept(item);
+                processed.incrementAndGet();
+            } catch (RuntimeException e) {
+                // 单个数据处理失败不影响后续数据
+                failed.incrementAndGet();
+                System.err.println("流水线阶段 " + name + " 处理失败: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return policy;
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getPeakQueueDepth() {
+        return peakDepth;
+    }
+
+    public long getProcessedCount() {
+        return processed.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * 获取阶段统计信息
+     */
+    public String getStats() {
+        return String.format("%s: 队列=%d/%d, 峰值=%d, 接收=%d, 处理=%d, 丢弃=%d, 失败=%d, 策略=%s", name,
+                queue.size(), capacity, peakDepth, accepted.get(), processed.get(), dropped.get(), failed.get(),
+                policy.getConfigName());
+    }
+}
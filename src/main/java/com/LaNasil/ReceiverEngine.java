@@ -0,0 +1,1435 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.Frame;
+import org.java_websocket.WebSocket;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 接收器核心引擎 - 接入、组装、解码和WebSocket分发
+ * 不依赖Swing/AWT：无头模式只加载这一层，GUI（{@link H264StreamReceiver}）作为它的一个客户端，
+ * 通过 {@link Listener} 接收日志和状态变化，并自行向解码阶段注册预览回调。
+ */
+public class ReceiverEngine {
+
+    public static final int DEFAULT_WS_PORT = 8080;
+    public static final int ACCESS_UNIT_HEADER_SIZE = 24;
+
+    /**
+     * 引擎事件回调（可能在任意线程上调用）
+     */
+    public interface Listener {
+        void log(String message);
+
+        /**
+         * 上游连接状态变化：reconnecting / connected
+         */
+        default void onUpstreamStatus(String state, int attempt) {
+        }
+
+        /**
+         * 已断开上游连接（主动断开或上游关闭且不再重连）
+         */
+        default void onDisconnected() {
+        }
+
+        default void onWebSocketServerStarted(int port) {
+        }
+
+        default void onWebSocketServerStopped() {
+        }
+
+        default void onWebSocketClientsChanged(int clientCount) {
+        }
+
+        /**
+         * 关键帧监控模式下生成了新的缩略图
+         */
+        default void onThumbnailUpdated(KeyFrameThumbnailer.Thumbnail thumbnail) {
+        }
+
+        /**
+         * 视频流尺寸确定或变化（例如设备旋转，在组装线程上调用）
+         */
+        default void onStreamGeometryChanged(H264SpsInfo geometry) {
+        }
+    }
+
+    private final Listener listener;
+    private final boolean keyFrameOnlyMode;
+    private final DecoderOptions decoderOptions = DecoderOptions.fromSystemProperties();
+    private final boolean verbose = System.getProperty("verbose") != null;
+    // 只在有解码帧的使用者时解码（-Ddecoder.onDemand=false 时始终解码）
+    private final boolean decodeOnDemand = Boolean.parseBoolean(System.getProperty("decoder.onDemand", "true"));
+
+    // 流水线（接入、组装、分发、解码各阶段独立运行）
+    private final StreamPipeline pipeline;
+    private final LiveDecoder liveDecoder;
+    private final H264FrameAssembler frameAssembler;
+    private final KeyFrameThumbnailer thumbnailer;
+    private final AtomicBoolean connected = new AtomicBoolean(false);
+
+    /**
+     * 连接的订阅模式：每个连接只属于一种模式，即下面的一个客户端集合
+     */
+    private enum ClientMode {
+        JSON, FMP4, ANNEXB, TILES
+    }
+
+    // WebSocket 相关
+    private WebSocketServer webSocketServer;
+    // 所有连接及其模式（唯一的成员关系来源），与各模式的客户端集合一起在clientModeLock下修改
+    private final Map<WebSocket, ClientMode> clientModes = new ConcurrentHashMap<>();
+    private final Object clientModeLock = new Object();
+    // JSON客户端（默认模式）
+    private final Set<WebSocket> webSocketClients = new CopyOnWriteArraySet<>();
+    // 按每个连接的发送积压调整发送给它的图像格式、帧率和帧类型
+    private final ClientQualityController qualityController =
+            ClientQualityController.fromSystemProperties(this::handleQualityChanged);
+    private volatile boolean wsServerRunning = false;
+
+    // 分发队列丢弃了JSON帧或NALU之后，等待下一个关键帧（SPS/IDR）的JSON客户端
+    private final Set<WebSocket> jsonAwaitingKeyFrame = ConcurrentHashMap.newKeySet();
+    private final Set<WebSocket> naluAwaitingKeyFrame = ConcurrentHashMap.newKeySet();
+    // 只在组装线程上访问
+    private long naluSequence = 0;
+    // 只在分发线程上访问
+    private long lastJsonFrameNumber = -1;
+    private long lastNaluSequence = -1;
+
+    // fMP4客户端（subscribe_fmp4）：只接收fMP4分片和状态消息，不接收JSON帧和解码图像
+    private final Set<WebSocket> fmp4Clients = new CopyOnWriteArraySet<>();
+    // 等待下一个关键帧的fMP4客户端（新订阅或分发队列丢弃了分片）
+    private final Set<WebSocket> fmp4AwaitingKeyFrame = ConcurrentHashMap.newKeySet();
+    // 只在分发线程上访问
+    private final Fmp4Muxer fmp4Muxer = new Fmp4Muxer();
+    private long lastFmp4FrameNumber = -1;
+
+    // 二进制访问单元客户端（subscribe_annexb）：接收带帧头的Annex-B访问单元，由浏览器WebCodecs解码
+    private final Set<WebSocket> annexbClients = new CopyOnWriteArraySet<>();
+    private final Set<WebSocket> annexbAwaitingKeyFrame = ConcurrentHashMap.newKeySet();
+    // 只在分发线程上访问
+    private long lastAnnexbFrameNumber = -1;
+
+    // 分块增量客户端（subscribe_tiles）：只接收变化的图像块，画面静止时几乎不占带宽
+    private final Set<WebSocket> tileClients = new CopyOnWriteArraySet<>();
+    private final TileDeltaEncoder tileEncoder = TileDeltaEncoder.fromSystemProperties();
+    // 发送积压超过该值的分块客户端跳过当前帧，变化的块留到下次发送
+    private final long tileMaxBacklogBytes = Long.getLong("tiles.maxBacklogKB", 1024) * 1024;
+
+    // 统计跟踪
+    private final AtomicLong totalBytesReceived = new AtomicLong(0);
+    private final AtomicLong frameCount = new AtomicLong(0);
+    private volatile long startTime;
+
+    // 启动耗时：从连接上游到第一帧解码完成（关键帧监控模式下为第一张缩略图）
+    private volatile long connectNanos;
+    private volatile long firstFrameLatencyMillis = -1;
+    private final AtomicBoolean firstFrameSeen = new AtomicBoolean(false);
+
+    // 当前流的图像尺寸（由SPS解析得到）
+    private volatile H264SpsInfo streamGeometry;
+
+    // 原始码流录制（-Drecord.dir 指定目录时连接后自动开始）
+    private volatile StreamRecorder recorder;
+
+    // 时移缓冲区（-Ddvr.seconds 大于0时启用），片段导出在单独的线程上进行
+    private final TimeShiftBuffer timeShiftBuffer = TimeShiftBuffer.fromSystemProperties();
+    private final Path clipDirectory = Paths.get(System.getProperty("dvr.exportDir", "clips"));
+    private ExecutorService clipExporter;
+
+    // 低延迟HLS（-Dhls.port 大于0时启用），连接上游时启动HTTP服务器
+    private final HlsPackager hlsPackager = HlsPackager.fromSystemProperties();
+
+    // TCP中继（-Drelay.port 大于0时启用），下游接收器可以连接本机端口接收同一路裸流
+    private final StreamRelay relay = StreamRelay.fromSystemProperties();
+
+    // 同一台机器上的其他进程：Unix域套接字裸流（-Drelay.unixSocket）和共享内存解码帧环（-Dshm.path）
+    private final StreamRelay localRelay = StreamRelay.unixSocketFromSystemProperties();
+    private final SharedFrameRing sharedFrameRing = SharedFrameRing.fromSystemProperties();
+
+    // 压缩域画面活动检测（-Dactivity=false 时为null）：画面静止时减少解码、图像编码和推送
+    private final ActivityDetector activityDetector = ActivityDetector.fromSystemProperties(this::handleActivityChanged);
+
+    /**
+     * @param keyFrameOnly 是否只解码关键帧生成缩略图（大规模设备监控）
+     * @param listener     引擎事件回调
+     */
+    public ReceiverEngine(boolean keyFrameOnly, Listener listener) {
+        this.keyFrameOnlyMode = keyFrameOnly;
+        this.listener = listener;
+
+        // 本地库只在解码阶段使用，提前在后台加载，不阻塞WebSocket服务器启动和上游连接
+        FFmpegNatives.preloadAsync();
+
+        H264FrameAssembler.FrameCallback frameCallback = new H264FrameAssembler.FrameCallback() {
+            @Override
+            public void onFrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+                handleCompleteFrame(frameData, isKeyFrame, frameNumber);
+            }
+
+            @Override
+            public void onParameterSetsChanged(List<byte[]> parameterSets) {
+                log("参数集已变化，重新配置解码器而不断开连接");
+                liveDecoder.onParameterSetsChanged();
+                updateStreamGeometry(parameterSets);
+            }
+
+            @Override
+            public void onBitstreamError(String reason, long frameNumber) {
+                // 组装器会丢弃数据直到下一个IDR帧，解码器保持不变
+                log("码流错误 (帧号 " + frameNumber + "): " + reason + "，等待下一个IDR帧重新同步");
+            }
+
+            @Override
+            public void onParameterSetsReceived(List<byte[]> parameterSets) {
+                updateStreamGeometry(parameterSets);
+                log("收到参数集回调: SPS/PPS，总共 " + parameterSets.size() + " 个NALU");
+                for (byte[] nalu : parameterSets) {
+                    int nalType = H264Bitstream.getNaluType(nalu);
+                    if (nalType == H264FrameAssembler.NALU_TYPE_SPS) {
+                        log(String.format("已捕获 SPS: 大小=%d字节", nalu.length));
+                    } else if (nalType == H264FrameAssembler.NALU_TYPE_PPS) {
+                        log(String.format("已捕获 PPS: 大小=%d字节", nalu.length));
+                    }
+                }
+            }
+        };
+
+        liveDecoder = new LiveDecoder(decoderOptions, new LiveDecoder.FrameListener() {
+            @Override
+            public void onFrameDecoded(Frame frame, long frameNumber) {
+                handleDecodedFrame(frame, frameNumber);
+            }
+
+            @Override
+            public boolean wantsFrames() {
+                return !decodeOnDemand || hasDecodedFrameConsumers();
+            }
+        });
+        pipeline = new StreamPipeline(frameCallback, new StreamPipeline.Listener() {
+            @Override
+            public void onNalu(byte[] naluData) {
+                handleNalu(naluData);
+            }
+
+            @Override
+            public void onBytesReceived(int bytes) {
+                totalBytesReceived.addAndGet(bytes);
+            }
+
+            @Override
+            public void onUpstreamStatus(String state, int attempt, long reconnects) {
+                broadcastUpstreamStatus(state, attempt, reconnects);
+                listener.onUpstreamStatus(state, attempt);
+            }
+
+            @Override
+            public void onStopped() {
+                disconnect();
+            }
+
+            @Override
+            public void log(String message) {
+                ReceiverEngine.this.log(message);
+            }
+        });
+        pipeline.attachDecoder(liveDecoder);
+        frameAssembler = pipeline.getFrameAssembler();
+
+        if (keyFrameOnlyMode) {
+            frameAssembler.setKeyFrameOnly(true);
+            thumbnailer = new KeyFrameThumbnailer(this::handleThumbnailUpdated);
+        } else {
+            thumbnailer = null;
+        }
+    }
+
+    /**
+     * 连接上游并启动解码阶段
+     *
+     * @throws IOException 连接失败
+     */
+    public void connect(String host, int port) throws IOException {
+        if (connected.get()) {
+            return;
+        }
+        resetStatistics();
+        startTime = System.currentTimeMillis();
+        connectNanos = System.nanoTime();
+        firstFrameLatencyMillis = -1;
+        firstFrameSeen.set(false);
+
+        pipeline.connect(host, port);
+        connected.set(true);
+        log("成功连接到服务器 " + host + ":" + port);
+
+        String recordDir = System.getProperty("record.dir");
+        if (recordDir != null && recorder == null) {
+            startRecording(Paths.get(recordDir));
+        }
+        if (hlsPackager != null) {
+            try {
+                hlsPackager.start();
+                log("LL-HLS播放列表: http://<本机地址>:" + hlsPackager.getPort() + "/" + HlsPackager.PLAYLIST_NAME);
+            } catch (IOException e) {
+                log("启动HLS服务器失败: " + e.getMessage());
+            }
+        }
+        startRelay(relay);
+        startRelay(localRelay);
+
+        // 关键帧监控模式只生成缩略图，不启动实时解码
+        if (!keyFrameOnlyMode) {
+            liveDecoder.start();
+        }
+    }
+
+    /**
+     * 断开上游连接
+     */
+    public void disconnect() {
+        if (!connected.compareAndSet(true, false)) {
+            return;
+        }
+        pipeline.disconnect();
+        liveDecoder.stop();
+        log("已断开服务器连接");
+        listener.onDisconnected();
+    }
+
+    public boolean isConnected() {
+        return connected.get();
+    }
+
+    /**
+     * 断开连接、停止WebSocket服务并释放所有资源
+     */
+    public void close() {
+        disconnect();
+        stopRecording();
+        if (hlsPackager != null) {
+            hlsPackager.close();
+        }
+        if (relay != null) {
+            relay.close();
+        }
+        if (localRelay != null) {
+            localRelay.close();
+        }
+        if (sharedFrameRing != null) {
+            sharedFrameRing.close();
+        }
+        stopWebSocketServer();
+        tileEncoder.close();
+        pipeline.close();
+        liveDecoder.stop();
+        if (thumbnailer != null) {
+            thumbnailer.release();
+        }
+        synchronized (this) {
+            if (clipExporter != null) {
+                clipExporter.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 开始把组装好的访问单元录制到分段文件（已在录制时先停止之前的录制）
+     */
+    public synchronized void startRecording(Path directory) throws IOException {
+        stopRecording();
+        StreamRecorder newRecorder = StreamRecorder.fromSystemProperties(directory);
+        newRecorder.start();
+        recorder = newRecorder;
+        log("开始录制原始码流到 " + directory.toAbsolutePath() + "（从下一个IDR帧开始）");
+    }
+
+    /**
+     * 停止录制并关闭当前分段
+     */
+    public synchronized void stopRecording() {
+        StreamRecorder current = recorder;
+        if (current == null) {
+            return;
+        }
+        recorder = null;
+        current.close();
+        log("录制已停止: " + current.getStats());
+    }
+
+    /**
+     * @return 当前的录制器，没有录制时返回null
+     */
+    public StreamRecorder getRecorder() {
+        return recorder;
+    }
+
+    /**
+     * 启动 WebSocket 服务器
+     */
+    public void startWebSocketServer(int wsPort) {
+        webSocketServer = new WebSocketServer(new InetSocketAddress(wsPort)) {
+            @Override
+            public void onOpen(WebSocket conn, ClientHandshake handshake) {
+                synchronized (clientModeLock) {
+                    clientModes.put(conn, ClientMode.JSON);
+                    webSocketClients.add(conn);
+                }
+                qualityController.onOpen(conn);
+                log("WebSocket客户端连接: " + conn.getRemoteSocketAddress());
+                sendStreamGeometry(conn);
+                sendCachedThumbnail(conn);
+                updateWebSocketClientCount();
+            }
+
+            @Override
+            public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+                removeClient(conn);
+                qualityController.remove(conn);
+                log("WebSocket客户端断开: " + conn.getRemoteSocketAddress() +
+                        " (代码:" + code + ", 原因:" + reason + ")");
+            }
+
+            @Override
+            public void onMessage(WebSocket conn, String message) {
+                log("收到WebSocket消息 [" + conn.getRemoteSocketAddress() + "]: " + message);
+                handleWebSocketCommand(conn, message);
+            }
+
+            @Override
+            public void onError(WebSocket conn, Exception ex) {
+                log("WebSocket错误 [" + (conn != null ? conn.getRemoteSocketAddress() : "未知") + "]: "
+                        + ex.getMessage());
+            }
+
+            @Override
+            public void onStart() {
+                log("WebSocket服务器启动成功,监听端口: " + wsPort);
+                listener.onWebSocketServerStarted(wsPort);
+            }
+        };
+
+        webSocketServer.start();
+        wsServerRunning = true;
+    }
+
+    /**
+     * 停止 WebSocket 服务器
+     */
+    public void stopWebSocketServer() {
+        if (webSocketServer == null) {
+            return;
+        }
+        try {
+            webSocketServer.stop(1000);
+            synchronized (clientModeLock) {
+                clientModes.clear();
+                webSocketClients.clear();
+                jsonAwaitingKeyFrame.clear();
+                naluAwaitingKeyFrame.clear();
+                fmp4Clients.clear();
+                fmp4AwaitingKeyFrame.clear();
+                annexbClients.clear();
+                annexbAwaitingKeyFrame.clear();
+                tileClients.clear();
+                tileEncoder.clear();
+            }
+            qualityController.clear();
+            wsServerRunning = false;
+            webSocketServer = null;
+            listener.onWebSocketServerStopped();
+            updateWebSocketClientCount();
+            log("WebSocket服务器已停止");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            log("停止WebSocket服务器时出错: " + ex.getMessage());
+        }
+    }
+
+    public boolean isWebSocketServerRunning() {
+        return wsServerRunning;
+    }
+
+    /**
+     * @return 连接的客户端数（每个连接只计一次，不论订阅模式）
+     */
+    public int getWebSocketClientCount() {
+        return clientModes.size();
+    }
+
+    /**
+     * 组装阶段处理完一个NALU后调用：转发原始NALU并输出详细日志
+     */
+    private void handleNalu(byte[] naluData) {
+        // 发送原始NALU到WebSocket（向后兼容，关键帧监控模式下不发送）
+        // 每个NALU都分配序号，分发线程据此发现被丢弃的NALU
+        long sequence = naluSequence++;
+        if (!keyFrameOnlyMode && !webSocketClients.isEmpty()) {
+            pipeline.fanOut(() -> sendRawNaluToWebSocket(naluData, sequence));
+        }
+
+        // 详细日志（可选）
+        if (verbose) {
+            int nalType = H264Bitstream.getNaluType(naluData);
+            log(String.format("解析NALU: 类型=%d (%s), 大小=%d字节",
+                    nalType, H264FrameAssembler.getNaluTypeDescription(nalType), naluData.length));
+        }
+    }
+
+    /**
+     * 处理完整的组装帧
+     */
+    private void handleCompleteFrame(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+        // 验证帧数据的有效性
+        if (!H264FrameAssembler.isValidH264Frame(frameData)) {
+            log("警告: 帧数据可能不完整或无效，帧号=" + frameNumber);
+            return;
+        }
+
+        // 在解码之前判断画面是否在变化
+        if (activityDetector != null) {
+            activityDetector.analyze(frameData, isKeyFrame, System.currentTimeMillis());
+        }
+
+        // 关键帧监控模式：只生成缩略图，不进行完整解码
+        if (thumbnailer != null) {
+            thumbnailer.submitKeyFrame(frameData, frameNumber);
+        } else if (activityDetector == null || activityDetector.admitDecode(frameData)) {
+            liveDecoder.submit(frameData, isKeyFrame);
+        }
+
+        // 录制（写盘在录制线程上完成）
+        StreamRecorder activeRecorder = recorder;
+        if (activeRecorder != null) {
+            activeRecorder.record(frameData, isKeyFrame, frameNumber);
+        }
+        if (timeShiftBuffer != null) {
+            timeShiftBuffer.append(frameData, isKeyFrame, frameNumber);
+        }
+        if (hlsPackager != null) {
+            hlsPackager.append(frameData, isKeyFrame, System.currentTimeMillis());
+        }
+        if (relay != null) {
+            relay.append(frameData, isKeyFrame);
+        }
+        if (localRelay != null) {
+            localRelay.append(frameData, isKeyFrame);
+        }
+
+        // 发送到WebSocket客户端（Base64编码和发送在分发线程上完成）
+        String frameType = isKeyFrame ? "关键帧" : "普通帧";
+        if (!webSocketClients.isEmpty()) {
+            pipeline.fanOut(() -> broadcastCompleteFrameToWebSocket(frameData, isKeyFrame, frameType, frameNumber));
+        }
+        if (!fmp4Clients.isEmpty()) {
+            long timestamp = System.currentTimeMillis();
+            pipeline.fanOut(() -> broadcastFmp4Fragment(frameData, isKeyFrame, frameNumber, timestamp));
+        }
+        if (!annexbClients.isEmpty()) {
+            long timestamp = System.currentTimeMillis();
+            pipeline.fanOut(() -> broadcastAccessUnit(frameData, isKeyFrame, frameNumber, timestamp));
+        }
+
+        // 更新统计
+        frameCount.incrementAndGet();
+
+        log(String.format("处理完整帧: 帧号=%d, 类型=%s, 大小=%d 字节, 有效性=✓, WS客户端=%d",
+                frameNumber, frameType, frameData.length, getWebSocketClientCount()));
+    }
+
+    /**
+     * 启动中继（没有启用时忽略）
+     */
+    private void startRelay(StreamRelay streamRelay) {
+        if (streamRelay == null) {
+            return;
+        }
+        try {
+            streamRelay.start();
+            log("中继已启动: 下游可连接 " + streamRelay.getAddress());
+        } catch (IOException e) {
+            log("启动中继失败 (" + streamRelay.getAddress() + "): " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return 引擎自身是否需要解码帧：共享内存帧环、接收解码图像的WebSocket客户端或分块客户端
+     */
+    private boolean hasDecodedFrameConsumers() {
+        return sharedFrameRing != null || !webSocketClients.isEmpty() || !tileClients.isEmpty();
+    }
+
+    /**
+     * 解码阶段回调：写入共享内存帧环；有WebSocket或分块客户端时复制像素，把图像编码和广播交给图像分发阶段
+     */
+    private void handleDecodedFrame(Frame frame, long frameNumber) {
+        recordFirstFrame();
+        if (sharedFrameRing != null) {
+            sharedFrameRing.write(frame, frameNumber);
+        }
+        if (webSocketClients.isEmpty() && tileClients.isEmpty()) {
+            return;
+        }
+        // 画面静止时只定期推送一帧
+        if (activityDetector != null && !activityDetector.admitImage(System.currentTimeMillis())) {
+            return;
+        }
+        // 解码器会复用帧缓冲区，交给其他线程前先复制一份
+        DecodedFrame image = DecodedFrame.copyOf(frame, frameNumber);
+        pipeline.fanOutImage(() -> {
+            if (!webSocketClients.isEmpty()) {
+                broadcastDecodedFrameAsBase64(image);
+            }
+            if (!tileClients.isEmpty()) {
+                broadcastTiles(image);
+            }
+        });
+    }
+
+    /**
+     * 记录连接后第一帧的解码耗时（包括等待本地库加载和第一个IDR帧）
+     */
+    private void recordFirstFrame() {
+        if (firstFrameSeen.compareAndSet(false, true)) {
+            firstFrameLatencyMillis = (System.nanoTime() - connectNanos) / 1_000_000;
+            log("首帧解码完成，距连接 " + firstFrameLatencyMillis + " ms");
+        }
+    }
+
+    /**
+     * 将解码后的图像以Base64广播到WebSocket客户端
+     * 按客户端的质量级别发送PNG或JPEG（或跳过），每种格式每帧最多编码一次
+     */
+    private void broadcastDecodedFrameAsBase64(DecodedFrame image) {
+        String pngMessage = null;
+        String jpegMessage = null;
+        long now = System.currentTimeMillis();
+        for (WebSocket client : webSocketClients) {
+            ClientQualityController.Level level = qualityController.admitImage(client, now);
+            if (level == null) {
+                continue;
+            }
+            try {
+                String message;
+                if (level == ClientQualityController.Level.FULL) {
+                    if (pngMessage == null) {
+                        pngMessage = buildDecodedFrameMessage(image);
+                    }
+                    message = pngMessage;
+                } else {
+                    if (jpegMessage == null) {
+                        jpegMessage = buildDecodedFrameMessage(image, true);
+                    }
+                    message = jpegMessage;
+                }
+                sendMediaMessage(client, message);
+            } catch (Exception e) {
+                System.err.println("广播解码帧失败: " + e.getMessage());
+                return;
+            }
+        }
+    }
+
+    /**
+     * 图像分发阶段：把变化的图像块发送给subscribe_tiles客户端
+     */
+    private void broadcastTiles(DecodedFrame image) {
+        Map<WebSocket, String> messages;
+        try {
+            messages = tileEncoder.encode(image,
+                    client -> ClientQualityController.backlogBytes(client) > tileMaxBacklogBytes);
+        } catch (IOException e) {
+            System.err.println("分块编码失败: " + e.getMessage());
+            return;
+        }
+        for (Map.Entry<WebSocket, String> entry : messages.entrySet()) {
+            WebSocket client = entry.getKey();
+            try {
+                if (client.isOpen()) {
+                    send(client, entry.getValue());
+                }
+            } catch (Exception e) {
+                log("发送分块消息失败 [" + client.getRemoteSocketAddress() + "]: " + e.getMessage());
+            }
+        }
+    }
+
+    static String buildDecodedFrameMessage(DecodedFrame image) throws IOException {
+        return buildDecodedFrameMessage(image, false);
+    }
+
+    /**
+     * @param jpeg 编码为JPEG（降级的客户端），否则为PNG
+     */
+    static String buildDecodedFrameMessage(DecodedFrame image, boolean jpeg) throws IOException {
+        byte[] encoded = jpeg ? ImageEncoder.encodeJpeg(image) : ImageEncoder.encodePng(image);
+        String base64Image = Base64.getEncoder().encodeToString(encoded);
+        return String.format(
+                "{\"type\":\"decoded_frame\",\"data\":\"%s\",\"frameNumber\":%d,\"width\":%d,\"height\":%d,\"format\":\"%s\",\"timestamp\":%d}",
+                base64Image, image.getFrameNumber(), image.getWidth(), image.getHeight(), jpeg ? "JPEG" : "PNG",
+                System.currentTimeMillis());
+    }
+
+    /**
+     * 客户端质量级别变化：记录日志并通知该客户端
+     */
+    private void handleQualityChanged(WebSocket client, ClientQualityController.Level previous,
+            ClientQualityController.Level current, long backlogBytes, long delayMs) {
+        log(String.format("WebSocket客户端 %s 质量%s: %s -> %s (积压=%d KB, 估计延迟=%d ms)",
+                client.getRemoteSocketAddress(), current.compareTo(previous) > 0 ? "降级" : "恢复",
+                previous.getDescription(), current.getDescription(), backlogBytes / 1024, delayMs));
+        if (client.isOpen()) {
+            send(client, String.format(
+                    "{\"type\":\"quality\",\"level\":\"%s\",\"description\":\"%s\",\"backlogBytes\":%d,\"delayMs\":%d,\"timestamp\":%d}",
+                    current.getKey(), current.getDescription(), backlogBytes, delayMs, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * 画面活动状态变化（在组装线程上调用）：记录日志并通知接收图像的客户端
+     */
+    private void handleActivityChanged(boolean idle, double score, long quietMillis) {
+        log(idle ? String.format("画面静止 (%d ms无变化)，减少解码和图像推送", quietMillis)
+                : String.format("画面恢复变化 (分数=%.2f，静止了 %d ms)", score, quietMillis));
+        String message = String.format(
+                "{\"type\":\"activity\",\"state\":\"%s\",\"score\":%.2f,\"quietMs\":%d,\"timestamp\":%d}",
+                idle ? "idle" : "active", score, quietMillis, System.currentTimeMillis());
+        pipeline.fanOutControl(() -> {
+            broadcastToWebSocketClients(message);
+            for (WebSocket client : tileClients) {
+                if (client.isOpen()) {
+                    send(client, message);
+                }
+            }
+        });
+    }
+
+    /**
+     * 通知WebSocket客户端上游连接状态变化
+     */
+    private void broadcastUpstreamStatus(String state, int attempt, long reconnects) {
+        String message = String.format(
+                "{\"type\":\"upstream_status\",\"state\":\"%s\",\"attempt\":%d,\"reconnects\":%d,\"timestamp\":%d}",
+                state, attempt, reconnects, System.currentTimeMillis());
+        broadcastToWebSocketClients(message);
+        for (WebSocket client : fmp4Clients) {
+            if (client.isOpen()) {
+                send(client, message);
+            }
+        }
+        for (WebSocket client : annexbClients) {
+            if (client.isOpen()) {
+                send(client, message);
+            }
+        }
+        for (WebSocket client : tileClients) {
+            if (client.isOpen()) {
+                send(client, message);
+            }
+        }
+    }
+
+    /**
+     * 根据SPS更新流的图像尺寸，尺寸变化时通知所有客户端
+     */
+    private void updateStreamGeometry(List<byte[]> parameterSets) {
+        for (byte[] nalu : parameterSets) {
+            if (H264Bitstream.getNaluType(nalu) != H264FrameAssembler.NALU_TYPE_SPS) {
+                continue;
+            }
+            H264SpsInfo sps = H264SpsInfo.parse(nalu);
+            if (sps == null) {
+                log("警告: 无法解析SPS");
+                return;
+            }
+            H264SpsInfo previous = streamGeometry;
+            if (previous != null && previous.getWidth() == sps.getWidth() && previous.getHeight() == sps.getHeight()) {
+                return;
+            }
+            streamGeometry = sps;
+            log("视频流尺寸: " + sps + (previous != null ? " (之前: " + previous.getWidth() + "x"
+                    + previous.getHeight() + ")" : ""));
+            listener.onStreamGeometryChanged(sps);
+            String message = buildGeometryMessage(sps);
+            // 经过分发阶段（不会被丢弃），保证客户端在新尺寸的帧之前收到尺寸变化
+            pipeline.fanOutControl(() -> broadcastToWebSocketClients(message));
+            return;
+        }
+    }
+
+    private String buildGeometryMessage(H264SpsInfo sps) {
+        int[] outputSize = decoderOptions.fitOutputSize(sps.getWidth(), sps.getHeight());
+        return String.format(
+                "{\"type\":\"stream_geometry\",\"width\":%d,\"height\":%d,\"outputWidth\":%d,\"outputHeight\":%d,\"codec\":\"%s\",\"timestamp\":%d}",
+                sps.getWidth(), sps.getHeight(), outputSize[0], outputSize[1], sps.getCodecString(),
+                System.currentTimeMillis());
+    }
+
+    /**
+     * 向新连接的客户端发送当前的流尺寸
+     */
+    private void sendStreamGeometry(WebSocket conn) {
+        H264SpsInfo sps = streamGeometry;
+        if (sps != null && conn.isOpen()) {
+            send(conn, buildGeometryMessage(sps));
+        }
+    }
+
+    /**
+     * 处理关键帧缩略图更新：广播给客户端并通知界面
+     */
+    private void handleThumbnailUpdated(KeyFrameThumbnailer.Thumbnail thumbnail) {
+        recordFirstFrame();
+        broadcastToWebSocketClients(buildThumbnailMessage(thumbnail));
+        listener.onThumbnailUpdated(thumbnail);
+        if (verbose) {
+            log(String.format("缩略图已更新: 帧号=%d, 尺寸=%dx%d, 大小=%d字节",
+                    thumbnail.getFrameNumber(), thumbnail.getWidth(), thumbnail.getHeight(),
+                    thumbnail.getJpegData().length));
+        }
+    }
+
+    private String buildThumbnailMessage(KeyFrameThumbnailer.Thumbnail thumbnail) {
+        return String.format(
+                "{\"type\":\"thumbnail\",\"data\":\"%s\",\"frameNumber\":%d,\"width\":%d,\"height\":%d,\"sourceWidth\":%d,\"sourceHeight\":%d,\"format\":\"JPEG\",\"timestamp\":%d}",
+                Base64.getEncoder().encodeToString(thumbnail.getJpegData()), thumbnail.getFrameNumber(),
+                thumbnail.getWidth(), thumbnail.getHeight(), thumbnail.getSourceWidth(), thumbnail.getSourceHeight(),
+                thumbnail.getTimestamp());
+    }
+
+    /**
+     * 向新连接的客户端发送缓存的缩略图
+     */
+    private void sendCachedThumbnail(WebSocket conn) {
+        if (thumbnailer == null) {
+            return;
+        }
+        KeyFrameThumbnailer.Thumbnail thumbnail = thumbnailer.getLatestThumbnail();
+        if (thumbnail != null && conn.isOpen()) {
+            send(conn, buildThumbnailMessage(thumbnail));
+        }
+    }
+
+    /**
+     * 处理WebSocket客户端发送的控制命令
+     */
+    private void handleWebSocketCommand(WebSocket conn, String message) {
+        String command = message.trim();
+        if ("get_thumbnail".equals(command)) {
+            sendCachedThumbnail(conn);
+        } else if (command.startsWith("export_clip")) {
+            handleExportClipCommand(conn, command);
+        } else if ("subscribe_fmp4".equals(command)) {
+            // 从下一个关键帧开始接收（先发送初始化段）
+            setClientMode(conn, ClientMode.FMP4);
+        } else if ("unsubscribe_fmp4".equals(command)) {
+            leaveClientMode(conn, ClientMode.FMP4);
+        } else if ("subscribe_annexb".equals(command)) {
+            // 从下一个关键帧开始接收（关键帧带SPS/PPS）
+            setClientMode(conn, ClientMode.ANNEXB);
+        } else if ("unsubscribe_annexb".equals(command)) {
+            leaveClientMode(conn, ClientMode.ANNEXB);
+        } else if ("subscribe_tiles".equals(command)) {
+            // 第一条消息包含全部块
+            setClientMode(conn, ClientMode.TILES);
+        } else if ("unsubscribe_tiles".equals(command)) {
+            leaveClientMode(conn, ClientMode.TILES);
+        }
+    }
+
+    /**
+     * 把连接切换到指定的订阅模式：先离开之前的模式，新模式从下一个关键帧开始接收
+     */
+    private void setClientMode(WebSocket conn, ClientMode mode) {
+        synchronized (clientModeLock) {
+            ClientMode previous = clientModes.get(conn);
+            if (previous == null || previous == mode) {
+                // 已断开，或已经是该模式
+                return;
+            }
+            removeFromModeSets(conn, previous);
+            clientModes.put(conn, mode);
+            switch (mode) {
+                case JSON:
+                    jsonAwaitingKeyFrame.add(conn);
+                    naluAwaitingKeyFrame.add(conn);
+                    webSocketClients.add(conn);
+                    break;
+                case FMP4:
+                    fmp4AwaitingKeyFrame.add(conn);
+                    fmp4Clients.add(conn);
+                    break;
+                case ANNEXB:
+                    annexbAwaitingKeyFrame.add(conn);
+                    annexbClients.add(conn);
+                    break;
+                case TILES:
+                    tileEncoder.addClient(conn);
+                    tileClients.add(conn);
+                    break;
+            }
+        }
+        log("WebSocket客户端切换到" + describe(mode) + ": " + conn.getRemoteSocketAddress());
+    }
+
+    /**
+     * unsubscribe_*：只有当前处于该模式的连接才切换回JSON消息
+     */
+    private void leaveClientMode(WebSocket conn, ClientMode mode) {
+        synchronized (clientModeLock) {
+            if (clientModes.get(conn) != mode) {
+                return;
+            }
+            setClientMode(conn, ClientMode.JSON);
+        }
+    }
+
+    /**
+     * 移除断开或发送失败的连接（重复调用无影响）
+     */
+    private void removeClient(WebSocket conn) {
+        boolean removed;
+        synchronized (clientModeLock) {
+            ClientMode mode = clientModes.remove(conn);
+            removed = mode != null;
+            if (removed) {
+                removeFromModeSets(conn, mode);
+            }
+        }
+        if (removed) {
+            updateWebSocketClientCount();
+        }
+    }
+
+    private void removeFromModeSets(WebSocket conn, ClientMode mode) {
+        switch (mode) {
+            case JSON:
+                webSocketClients.remove(conn);
+                jsonAwaitingKeyFrame.remove(conn);
+                naluAwaitingKeyFrame.remove(conn);
+                break;
+            case FMP4:
+                fmp4Clients.remove(conn);
+                fmp4AwaitingKeyFrame.remove(conn);
+                break;
+            case ANNEXB:
+                annexbClients.remove(conn);
+                annexbAwaitingKeyFrame.remove(conn);
+                break;
+            case TILES:
+                tileClients.remove(conn);
+                tileEncoder.removeClient(conn);
+                break;
+        }
+    }
+
+    private static String describe(ClientMode mode) {
+        switch (mode) {
+            case FMP4:
+                return "fMP4";
+            case ANNEXB:
+                return "二进制访问单元";
+            case TILES:
+                return "分块增量";
+            default:
+                return "JSON消息";
+        }
+    }
+
+    /**
+     * 分发阶段：把访问单元以二进制消息发送给subscribe_annexb客户端
+     * 消息只构造一次，通过 broadcast 对所有客户端只编码一次WebSocket帧；
+     * 新客户端和丢失过访问单元的客户端从下一个关键帧开始。
+     */
+    private void broadcastAccessUnit(byte[] frameData, boolean isKeyFrame, long frameNumber, long timestamp) {
+        if (lastAnnexbFrameNumber >= 0 && frameNumber != lastAnnexbFrameNumber + 1 && !keyFrameOnlyMode) {
+            // 分发队列丢弃了访问单元（或之前没有客户端），之后的帧缺少参考帧
+            annexbAwaitingKeyFrame.addAll(annexbClients);
+        }
+        lastAnnexbFrameNumber = frameNumber;
+        WebSocketServer server = webSocketServer;
+        if (server == null) {
+            return;
+        }
+        List<WebSocket> receivers = new ArrayList<>();
+        for (WebSocket client : annexbClients) {
+            if (!client.isOpen()) {
+                continue;
+            }
+            if (annexbAwaitingKeyFrame.contains(client)) {
+                if (!isKeyFrame) {
+                    continue;
+                }
+                annexbAwaitingKeyFrame.remove(client);
+            }
+            receivers.add(client);
+        }
+        if (!receivers.isEmpty()) {
+            byte[] message = buildAccessUnitMessage(frameData, isKeyFrame, frameNumber, timestamp);
+            server.broadcast(message, receivers);
+            for (WebSocket client : receivers) {
+                qualityController.onSent(client, message);
+            }
+        }
+    }
+
+    /**
+     * 二进制访问单元消息（大端序）：
+     * 0 uint8 版本(1) | 1 uint8 标志(bit0=关键帧) | 2 uint16 帧头长度(24) | 4 保留 | 8 int64 帧号
+     * | 16 int64 接收时间(毫秒) | 24 起为Annex-B访问单元（关键帧包含SPS/PPS）
+     */
+    static byte[] buildAccessUnitMessage(byte[] frameData, boolean isKeyFrame, long frameNumber, long timestamp) {
+        ByteBuffer message = ByteBuffer.allocate(ACCESS_UNIT_HEADER_SIZE + frameData.length);
+        message.put((byte) 1);
+        message.put((byte) (isKeyFrame ? 1 : 0));
+        message.putShort((short) ACCESS_UNIT_HEADER_SIZE);
+        message.putInt(0);
+        message.putLong(frameNumber);
+        message.putLong(timestamp);
+        message.put(frameData);
+        return message.array();
+    }
+
+    /**
+     * 分发阶段：把访问单元封装为fMP4分片发送给fMP4客户端
+     * 新客户端和丢失过分片的客户端从下一个关键帧开始，关键帧之前先发送初始化段；
+     * 参数集变化时所有客户端都先收到新的初始化段。
+     */
+    private void broadcastFmp4Fragment(byte[] frameData, boolean isKeyFrame, long frameNumber, long timestamp) {
+        if (lastFmp4FrameNumber >= 0 && frameNumber != lastFmp4FrameNumber + 1 && !keyFrameOnlyMode) {
+            // 分发队列丢弃了访问单元（或之前没有fMP4客户端），之后的帧缺少参考帧
+            fmp4AwaitingKeyFrame.addAll(fmp4Clients);
+        }
+        lastFmp4FrameNumber = frameNumber;
+        Fmp4Muxer.Fragment fragment = fmp4Muxer.mux(frameData, isKeyFrame, timestamp);
+        if (fragment == null) {
+            return;
+        }
+        byte[] initSegment = fmp4Muxer.getInitSegment();
+        String initMessage = buildFmp4InitMessage();
+        for (WebSocket client : fmp4Clients) {
+            if (!client.isOpen()) {
+                removeClient(client);
+                continue;
+            }
+            try {
+                boolean awaiting = fmp4AwaitingKeyFrame.contains(client);
+                if (awaiting && !fragment.isKeyFrame()) {
+                    continue;
+                }
+                if (awaiting || fragment.isInitChanged()) {
+                    send(client, initMessage);
+                    send(client, initSegment);
+                    fmp4AwaitingKeyFrame.remove(client);
+                }
+                send(client, fragment.getData());
+            } catch (Exception e) {
+                log("发送fMP4分片失败 [" + client.getRemoteSocketAddress() + "]: " + e.getMessage());
+                removeClient(client);
+            }
+        }
+    }
+
+    private String buildFmp4InitMessage() {
+        H264SpsInfo sps = fmp4Muxer.getSpsInfo();
+        return String.format(
+                "{\"type\":\"fmp4_init\",\"codec\":\"%s\",\"width\":%d,\"height\":%d,\"timescale\":%d,\"timestamp\":%d}",
+                sps.getCodecString(), sps.getWidth(), sps.getHeight(), Fmp4Muxer.TIMESCALE,
+                System.currentTimeMillis());
+    }
+
+    /**
+     * export_clip [秒数] [h264|mp4]：在导出线程上导出片段，完成后只回复发送命令的客户端
+     */
+    private void handleExportClipCommand(WebSocket conn, String command) {
+        String[] parts = command.split("\\s+");
+        double seconds;
+        try {
+            seconds = parts.length > 1 ? Double.parseDouble(parts[1]) : 10;
+        } catch (NumberFormatException e) {
+            send(conn, buildClipErrorMessage("无效的时长: " + parts[1]));
+            return;
+        }
+        String format = parts.length > 2 ? parts[2] : "h264";
+        synchronized (this) {
+            if (clipExporter == null) {
+                clipExporter = Executors.newSingleThreadExecutor(r -> {
+                    Thread thread = new Thread(r, "DVR-Export");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        clipExporter.execute(() -> {
+            String reply;
+            try {
+                TimeShiftBuffer.Clip clip = exportClip(seconds, format);
+                reply = String.format(
+                        "{\"type\":\"clip_exported\",\"file\":\"%s\",\"frames\":%d,\"size\":%d,\"startTimestamp\":%d,\"durationMs\":%d,\"timestamp\":%d}",
+                        clip.getFile().toAbsolutePath().toString().replace("\\", "/"), clip.getFrames(),
+                        clip.getBytes(), clip.getStartTimestamp(), clip.getDurationMillis(),
+                        System.currentTimeMillis());
+            } catch (IOException | IllegalArgumentException | IllegalStateException e) {
+                reply = buildClipErrorMessage(e.getMessage());
+            }
+            if (conn.isOpen()) {
+                send(conn, reply);
+            }
+        });
+    }
+
+    private static String buildClipErrorMessage(String reason) {
+        return String.format("{\"type\":\"clip_error\",\"reason\":\"%s\",\"timestamp\":%d}",
+                reason.replace("\\", "/").replace("\"", "'"), System.currentTimeMillis());
+    }
+
+    /**
+     * 把时移缓冲区中最近 seconds 秒的视频导出到 -Ddvr.exportDir（从之前最近的IDR帧开始，不暂停接收）
+     *
+     * @param format h264（Annex-B裸流）或 mp4（封装，不重新编码）
+     * @throws IllegalStateException 没有启用时移缓冲区
+     */
+    public TimeShiftBuffer.Clip exportClip(double seconds, String format) throws IOException {
+        if (timeShiftBuffer == null) {
+            throw new IllegalStateException("时移缓冲区未启用（-Ddvr.seconds）");
+        }
+        if (!"h264".equalsIgnoreCase(format) && !"mp4".equalsIgnoreCase(format)) {
+            throw new IllegalArgumentException("不支持的片段格式: " + format);
+        }
+        Files.createDirectories(clipDirectory);
+        Path file = clipDirectory.resolve(String.format("clip-%s.%s",
+                new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date()), format.toLowerCase()));
+        TimeShiftBuffer.Clip clip = timeShiftBuffer.exportClip(seconds, file);
+        log("片段已导出: " + clip);
+        return clip;
+    }
+
+    /**
+     * @return 时移缓冲区，没有启用时返回null
+     */
+    public TimeShiftBuffer getTimeShiftBuffer() {
+        return timeShiftBuffer;
+    }
+
+    /**
+     * @return LL-HLS打包器，没有启用时返回null
+     */
+    public HlsPackager getHlsPackager() {
+        return hlsPackager;
+    }
+
+    /**
+     * @return TCP中继，没有启用时返回null
+     */
+    public StreamRelay getRelay() {
+        return relay;
+    }
+
+    /**
+     * @return Unix域套接字中继，没有启用时返回null
+     */
+    public StreamRelay getLocalRelay() {
+        return localRelay;
+    }
+
+    /**
+     * @return 共享内存解码帧环，没有启用时返回null
+     */
+    public SharedFrameRing getSharedFrameRing() {
+        return sharedFrameRing;
+    }
+
+    /**
+     * 发送原始NALU单元到WebSocket（向后兼容）
+     * 分发队列丢弃过NALU的客户端从下一个SPS或IDR开始接收
+     */
+    private void sendRawNaluToWebSocket(byte[] naluData, long sequence) {
+        if (lastNaluSequence >= 0 && sequence != lastNaluSequence + 1) {
+            // 分发队列丢弃了NALU（或之前没有JSON客户端），之后的切片缺少参考帧
+            naluAwaitingKeyFrame.addAll(webSocketClients);
+        }
+        lastNaluSequence = sequence;
+        int nalType = H264Bitstream.getNaluType(naluData);
+        boolean resumePoint = nalType == H264FrameAssembler.NALU_TYPE_SPS || nalType == H264FrameAssembler.NALU_TYPE_IDR;
+        String jsonMessage = null;
+        long now = System.currentTimeMillis();
+        for (WebSocket client : webSocketClients) {
+            if (naluAwaitingKeyFrame.contains(client)) {
+                if (!resumePoint) {
+                    continue;
+                }
+                naluAwaitingKeyFrame.remove(client);
+            }
+            if (!qualityController.admitNalu(client, now)) {
+                continue;
+            }
+            if (jsonMessage == null) {
+                jsonMessage = buildRawNaluMessage(naluData);
+                if (jsonMessage == null) {
+                    return;
+                }
+            }
+            sendMediaMessage(client, jsonMessage);
+        }
+    }
+
+    /**
+     * @return NALU消息，没有NALU头时返回null
+     */
+    static String buildRawNaluMessage(byte[] naluData) {
+        int startCodeLen = H264Bitstream.getStartCodeLength(naluData, 0);
+        if (naluData.length <= startCodeLen) {
+            return null;
+        }
+        int nalType = naluData[startCodeLen] & 0x1F;
+        return String.format(
+                "{\"type\":\"frame\",\"data\":\"%s\",\"nalType\":%d,\"nalDesc\":\"%s\",\"size\":%d,\"timestamp\":%d}",
+                Base64.getEncoder().encodeToString(naluData), nalType,
+                H264FrameAssembler.getNaluTypeDescription(nalType), naluData.length, System.currentTimeMillis());
+    }
+
+    /**
+     * 广播完整帧到WebSocket客户端
+     * 分发队列丢弃过帧的客户端从下一个关键帧开始接收
+     */
+    private void broadcastCompleteFrameToWebSocket(byte[] frameData, boolean isKeyFrame, String frameType,
+            long frameNumber) {
+        if (lastJsonFrameNumber >= 0 && frameNumber != lastJsonFrameNumber + 1 && !keyFrameOnlyMode) {
+            // 分发队列丢弃了帧（或之前没有JSON客户端），之后的帧缺少参考帧
+            jsonAwaitingKeyFrame.addAll(webSocketClients);
+        }
+        lastJsonFrameNumber = frameNumber;
+        String jsonMessage = null;
+        long now = System.currentTimeMillis();
+        for (WebSocket client : webSocketClients) {
+            if (jsonAwaitingKeyFrame.contains(client)) {
+                if (!isKeyFrame) {
+                    continue;
+                }
+                jsonAwaitingKeyFrame.remove(client);
+            }
+            if (!qualityController.admitFrame(client, isKeyFrame, now)) {
+                continue;
+            }
+            if (jsonMessage == null) {
+                jsonMessage = buildCompleteFrameMessage(frameData, frameType, frameNumber);
+            }
+            sendMediaMessage(client, jsonMessage);
+        }
+    }
+
+    static String buildCompleteFrameMessage(byte[] frameData, String frameType, long frameNumber) {
+        String base64Frame = Base64.getEncoder().encodeToString(frameData);
+        return String.format(
+                "{\"type\":\"complete_frame\",\"data\":\"%s\",\"frameType\":\"%s\",\"size\":%d,\"frameNumber\":%d,\"timestamp\":%d}",
+                base64Frame, frameType, frameData.length, frameNumber, System.currentTimeMillis());
+    }
+
+    /**
+     * 通用的WebSocket广播方法
+     */
+    private void broadcastToWebSocketClients(String jsonMessage) {
+        for (WebSocket client : webSocketClients) {
+            try {
+                if (client.isOpen()) {
+                    send(client, jsonMessage);
+                } else {
+                    removeClient(client); // 移除断开的连接
+                }
+            } catch (Exception e) {
+                log("发送WebSocket消息失败 [" + client.getRemoteSocketAddress() + "]: " + e.getMessage());
+                removeClient(client); // 移除出错的连接
+            }
+        }
+    }
+
+    /**
+     * 向单个客户端发送可丢弃的媒体消息（已经过质量控制），发送失败时移除该客户端
+     */
+    private void sendMediaMessage(WebSocket client, String message) {
+        try {
+            if (client.isOpen()) {
+                send(client, message);
+                return;
+            }
+        } catch (Exception e) {
+            log("发送WebSocket消息失败 [" + client.getRemoteSocketAddress() + "]: " + e.getMessage());
+        }
+        removeClient(client);
+    }
+
+    /**
+     * 向客户端发送一条消息并计入该连接的发送字节数（质量控制按发往连接的所有消息估计写出速率）
+     */
+    private void send(WebSocket client, String message) {
+        client.send(message);
+        qualityController.onSent(client, message);
+    }
+
+    private void send(WebSocket client, byte[] data) {
+        client.send(data);
+        qualityController.onSent(client, data);
+    }
+
+    private void updateWebSocketClientCount() {
+        listener.onWebSocketClientsChanged(getWebSocketClientCount());
+    }
+
+    /**
+     * 重置所有统计计数器
+     */
+    public void resetStatistics() {
+        totalBytesReceived.set(0);
+        frameCount.set(0);
+        startTime = System.currentTimeMillis();
+        frameAssembler.reset();
+    }
+
+    /**
+     * @return 连接后第一帧解码完成的耗时（毫秒），尚未解码出第一帧时返回-1
+     */
+    public long getFirstFrameLatencyMillis() {
+        return firstFrameLatencyMillis;
+    }
+
+    public long getFrameCount() {
+        return frameCount.get();
+    }
+
+    public long getTotalBytesReceived() {
+        return totalBytesReceived.get();
+    }
+
+    /**
+     * @return 自连接（或上次重置统计）以来的毫秒数
+     */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    public double getFps() {
+        long elapsedTime = getElapsedMillis();
+        return elapsedTime > 0 ? (frameCount.get() * 1000.0) / elapsedTime : 0;
+    }
+
+    public double getDataRateKBps() {
+        long elapsedTime = getElapsedMillis();
+        return elapsedTime > 0 ? (totalBytesReceived.get() * 1000.0) / (elapsedTime * 1024.0) : 0;
+    }
+
+    public long getSkippedFrameCount() {
+        return liveDecoder.getDecodeScheduler().getSkippedFrameCount();
+    }
+
+    /**
+     * @return 码流错误与解码错误的总数
+     */
+    public long getErrorCount() {
+        return frameAssembler.getBitstreamErrorCount() + liveDecoder.getDecodeErrorCount();
+    }
+
+    public long getResyncCount() {
+        return frameAssembler.getResyncCount();
+    }
+
+    public long getReconnectCount() {
+        return pipeline.getReconnectCount();
+    }
+
+    public String getQueueDepthSummary() {
+        return pipeline.getQueueDepthSummary();
+    }
+
+    /**
+     * @return 帧组装、流水线、解码和缩略图的详细统计（每项一行）
+     */
+    public List<String> getDetailedStats() {
+        List<String> stats = new ArrayList<>();
+        stats.add("帧组装器状态: " + frameAssembler.getFrameStats());
+        stats.add(pipeline.getStats());
+        stats.add(liveDecoder.getErrorStats());
+        if (thumbnailer != null) {
+            stats.add(thumbnailer.getStats());
+        }
+        StreamRecorder activeRecorder = recorder;
+        if (activeRecorder != null) {
+            stats.add(activeRecorder.getStats());
+        }
+        if (timeShiftBuffer != null) {
+            stats.add(timeShiftBuffer.getStats());
+        }
+        if (hlsPackager != null) {
+            stats.add(hlsPackager.getStats());
+        }
+        if (relay != null) {
+            stats.add(relay.getStats());
+        }
+        if (localRelay != null) {
+            stats.add(localRelay.getStats());
+        }
+        if (sharedFrameRing != null) {
+            stats.add(sharedFrameRing.getStats());
+        }
+        if (activityDetector != null) {
+            stats.add(activityDetector.getStats());
+        }
+        if (fmp4Muxer.getFragmentCount() > 0) {
+            stats.add(fmp4Muxer.getStats() + ", 客户端=" + fmp4Clients.size());
+        }
+        if (!annexbClients.isEmpty()) {
+            stats.add("二进制访问单元客户端: " + annexbClients.size());
+        }
+        if (!tileClients.isEmpty()) {
+            stats.add(tileEncoder.getStats());
+        }
+        if (!webSocketClients.isEmpty()) {
+            stats.add(qualityController.getStats());
+        }
+        return stats;
+    }
+
+    public boolean isKeyFrameOnlyMode() {
+        return keyFrameOnlyMode;
+    }
+
+    public DecoderOptions getDecoderOptions() {
+        return decoderOptions;
+    }
+
+    public StreamPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * @return 解码阶段，界面可以通过 {@link LiveDecoder#addFrameListener} 注册预览回调
+     */
+    public LiveDecoder getLiveDecoder() {
+        return liveDecoder;
+    }
+
+    private void log(String message) {
+        listener.log(message);
+    }
+}
@@ -0,0 +1,126 @@
+package com.LaNasil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 程序入口 - 解析命令行参数并选择运行模式
+ * 本类不引用Swing/AWT：--noui 模式直接运行 {@link HeadlessReceiver}，
+ * 只有GUI模式才会加载 {@link H264StreamReceiver}（以及AWT工具包）。
+ */
+public final class ReceiverMain {
+
+    private ReceiverMain() {
+    }
+
+    private static boolean isValidIpAddress(String ip) {
+        if (ip == null || ip.trim().isEmpty())
+            return false;
+        String[] parts = ip.split("\\.");
+        if (parts.length != 4)
+            return false;
+        try {
+            for (String part : parts) {
+                int num = Integer.parseInt(part);
+                if (num < 0 || num > 255)
+                    return false;
+            }
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    private static boolean isValidPort(int port) {
+        return port > 0 && port <= 65535;
+    }
+
+    private static void printUsage() {
+        System.out.println("使用方法:");
+        System.out.println("  java -jar <jarfile>                           - 正常启动GUI界面");
+        System.out.println("  java -jar <jarfile> <ip> <port>               - 使用指定IP和端口启动GUI并自动连接");
+        System.out.println("  java -jar <jarfile> --noui <ip> <port>        - 命令行模式,无GUI界面");
+        System.out.println("\n参数说明:");
+        System.out.println("  ip     - 服务器IP地址 (例如: 192.168.1.100)");
+        System.out.println("  port   - 服务器端口号 (1-65535)");
+        System.out.println("  --noui - 启用命令行模式,不显示GUI界面");
+        System.out.println("  --keyframe-only - 关键帧监控模式,只解码IDR帧并生成缩略图(-Dmonitor.intervalMs, -Dmonitor.thumbnailWidth)");
+        System.out.println("\n命令行模式说明:");
+        System.out.println("  • 不加载Swing/AWT,可在没有图形环境的服务器上运行");
+        System.out.println("  • 自动启动WebSocket服务器(端口8080)");
+        System.out.println("  • 自动连接到指定的H.264流服务器");
+        System.out.println("  • 实时显示统计信息");
+        System.out.println("  • 使用 -Dverbose=true 启用详细日志");
+        System.out.println("  • 使用 -Drecord.dir=<目录> 把原始码流录制为按IDR帧切分的.h264分段");
+        System.out.println("  • 使用 -Ddvr.seconds=30 在内存中保留最近30秒，WebSocket命令 export_clip 导出片段");
+        System.out.println("  • 使用 -Dhls.port=8090 通过HTTP提供低延迟HLS (http://<host>:8090/live.m3u8)");
+        System.out.println("  • 使用 -Drelay.port=8101 在本机端口转发裸流，下游接收器可以像连接设备一样连接它（树形分发）");
+        System.out.println("  • 使用 -Drelay.unixSocket=/tmp/h264.sock 通过Unix域套接字向本机进程转发裸流 (Java 16+)");
+        System.out.println("  • 使用 -Dshm.path=/dev/shm/h264_frames 把解码帧写入共享内存帧环，本机进程可直接读取");
+        System.out.println("  • 画面静止时自动减少解码和图像推送 (-Dactivity.idleMs=1000, -Dactivity.idleImageMs=2000, -Dactivity=false 关闭)");
+        System.out.println("  • 按 Ctrl+C 退出程序");
+        System.out.println("\nWebSocket功能:");
+        System.out.println("  • 客户端可连接 ws://localhost:8080 接收Base64编码的视频帧");
+        System.out.println("  • 支持多个客户端同时连接");
+        System.out.println("  • 发送 subscribe_tiles 只接收变化的图像块 (-Dtiles.size=64, -Dtiles.format=png|jpeg, -Dtiles.refreshMs=10000)");
+        System.out.println("\n示例:");
+        System.out.println("  java -jar receiver.jar --noui 192.168.1.100 8000");
+        System.out.println("  java -Dverbose=true -jar receiver.jar --noui 192.168.5.114 8000");
+    }
+
+    public static void main(String[] args) {
+        // 检查是否包含 --noui / --keyframe-only 参数，并从参数列表中移除
+        boolean noUi = false;
+        boolean keyFrameOnly = false;
+        List<String> remainingArgs = new ArrayList<>();
+        for (String arg : args) {
+            if ("--noui".equals(arg)) {
+                noUi = true;
+            } else if ("--keyframe-only".equals(arg)) {
+                keyFrameOnly = true;
+            } else {
+                remainingArgs.add(arg);
+            }
+        }
+        String[] filteredArgs = remainingArgs.toArray(new String[0]);
+
+        if (filteredArgs.length == 0) {
+            if (noUi) {
+                System.err.println("错误: --noui 参数需要同时指定服务器地址和端口");
+                printUsage();
+                return;
+            }
+            H264StreamReceiver.launch(null, 0, keyFrameOnly);
+        } else if (filteredArgs.length == 2) {
+            String host = filteredArgs[0].trim();
+            try {
+                int port = Integer.parseInt(filteredArgs[1].trim());
+                if (!isValidIpAddress(host) || !isValidPort(port)) {
+                    System.err.println("错误: 无效的IP地址或端口号。");
+                    printUsage();
+                    return;
+                }
+
+                if (noUi) {
+                    // 命令行模式
+                    new HeadlessReceiver(host, port, keyFrameOnly).start();
+                    // 保持程序运行
+                    try {
+                        Thread.currentThread().join();
+                    } catch (InterruptedException e) {
+                        System.out.println("\n程序被中断");
+                    }
+                } else {
+                    // GUI模式
+                    H264StreamReceiver.launch(host, port, keyFrameOnly);
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("错误: 端口号必须是数字。");
+                printUsage();
+            }
+        } else {
+            System.err.println("错误: 参数数量不正确。");
+            printUsage();
+        }
+    }
+}
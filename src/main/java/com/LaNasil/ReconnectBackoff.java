@@ -0,0 +1,86 @@
+package com.LaNasil;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 上游重连的指数退避策略
+ * 每次重连失败后等待时间翻倍（带±20%随机抖动，避免大量设备同时重启后接收端同步重连），
+ * 直到达到上限。默认值从系统属性读取，例如:
+ * -Dreconnect.initialDelayMs=500 -Dreconnect.maxDelayMs=30000 -Dreconnect.maxAttempts=0
+ */
+public class ReconnectBackoff {
+
+    public static final long DEFAULT_INITIAL_DELAY_MS = 500;
+    public static final long DEFAULT_MAX_DELAY_MS = 30000;
+    // 0 表示不限制重连次数
+    public static final int DEFAULT_MAX_ATTEMPTS = 0;
+
+    private static final double JITTER = 0.2;
+
+    private final long initialDelayMs;
+    private final long maxDelayMs;
+    private final int maxAttempts;
+    private long nextDelayMs;
+    private int attempts = 0;
+
+    /**
+     * @param initialDelayMs 第一次重连前的等待时间
+     * @param maxDelayMs     等待时间上限
+     * @param maxAttempts    最大连续重连次数，0 表示不限制
+     */
+    public ReconnectBackoff(long initialDelayMs, long maxDelayMs, int maxAttempts) {
+        if (initialDelayMs <= 0 || maxDelayMs < initialDelayMs) {
+            throw new IllegalArgumentException("无效的重连间隔: " + initialDelayMs + "ms ~ " + maxDelayMs + "ms");
+        }
+        this.initialDelayMs = initialDelayMs;
+        this.maxDelayMs = maxDelayMs;
+        this.maxAttempts = Math.max(0, maxAttempts);
+        this.nextDelayMs = initialDelayMs;
+    }
+
+    /**
+     * 从系统属性创建默认策略
+     */
+    public static ReconnectBackoff fromSystemProperties() {
+        return new ReconnectBackoff(Long.getLong("reconnect.initialDelayMs", DEFAULT_INITIAL_DELAY_MS),
+                Long.getLong("reconnect.maxDelayMs", DEFAULT_MAX_DELAY_MS),
+                Integer.getInteger("reconnect.maxAttempts", DEFAULT_MAX_ATTEMPTS));
+    }
+
+    /**
+     * 计算下一次重连前的等待时间
+     *
+     * @return 等待时间（毫秒），超过最大重连次数时返回-1
+     */
+    public synchronized long nextDelayMs() {
+        if (maxAttempts > 0 && attempts >= maxAttempts) {
+            return -1;
+        }
+        attempts++;
+        long base = nextDelayMs;
+        nextDelayMs = Math.min(maxDelayMs, nextDelayMs * 2);
+        double jitter = 1.0 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER);
+        return Math.max(1, Math.min(maxDelayMs, (long) (base * jitter)));
+    }
+
+    /**
+     * 连接成功后重置退避状态
+     */
+    public synchronized void reset() {
+        attempts = 0;
+        nextDelayMs = initialDelayMs;
+    }
+
+    /**
+     * @return 当前这一轮已尝试的重连次数
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("初始间隔=%dms, 最大间隔=%dms, 最大次数=%s", initialDelayMs, maxDelayMs,
+                maxAttempts > 0 ? String.valueOf(maxAttempts) : "不限");
+    }
+}
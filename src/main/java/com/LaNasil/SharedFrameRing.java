@@ -0,0 +1,226 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.Frame;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 共享内存帧环 - 把解码后的图像写入内存映射文件，供同一台机器上的其他进程（如Python/OpenCV）直接读取
+ * 写入方只有解码线程，从不等待读取方；每个槽位有一个序号锁（seqlock）：写入前序号变为奇数，写完变为偶数，
+ * 读取方复制像素前后各读一次序号，两次相同且为偶数时数据有效，否则重读。
+ * <p>
+ * 文件布局（小端序）：
+ * <pre>
+ * 文件头 64字节: 0 magic "H264RING" | 8 int 版本 | 12 int 槽位数 | 16 int 文件头大小 | 20 int 槽位间隔
+ *               | 24 int 槽位像素容量 | 28 int 状态(0=有效, 1=已关闭或已替换，需要重新打开) | 32 long 最新帧序号
+ * 槽位 i 位于 文件头大小 + i * 槽位间隔，最新帧序号 n（从1开始）在槽位 (n - 1) % 槽位数:
+ *               0 long 序号锁 | 8 long 帧序号 | 16 long 解码帧号 | 24 long 时间戳(毫秒)
+ *               | 32 int 宽 | 36 int 高 | 40 int 通道数 | 44 int 数据长度 | 64 起为紧凑排列的BGR像素
+ * </pre>
+ * 图像尺寸超过槽位容量时（分辨率变大）创建新文件原子替换旧文件，并把旧文件标记为已替换。
+ * 配置: -Dshm.path=/dev/shm/h264_frames（指定时启用）-Dshm.slots=4
+ */
+public class SharedFrameRing implements Closeable {
+
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int SLOT_HEADER_SIZE = 64;
+
+    private static final byte[] MAGIC = "H264RING".getBytes(StandardCharsets.US_ASCII);
+    private static final int STATE_ACTIVE = 0;
+    private static final int STATE_CLOSED = 1;
+
+    // 头部字段偏移
+    private static final int OFFSET_SLOT_COUNT = 12;
+    private static final int OFFSET_HEADER_SIZE = 16;
+    private static final int OFFSET_SLOT_STRIDE = 20;
+    private static final int OFFSET_SLOT_CAPACITY = 24;
+    private static final int OFFSET_STATE = 28;
+    private static final int OFFSET_LATEST_SEQUENCE = 32;
+
+    // 序号锁和最新帧序号需要按顺序对其他进程可见
+    private static final VarHandle LONG_VIEW = MethodHandles.byteBufferViewVarHandle(long[].class,
+            ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_VIEW = MethodHandles.byteBufferViewVarHandle(int[].class,
+            ByteOrder.LITTLE_ENDIAN);
+
+    private final Path path;
+    private final int slotCount;
+
+    // 只在解码线程上访问（close除外）
+    private MappedByteBuffer buffer;
+    private int slotStride;
+    private int slotCapacity;
+    private long sequence = 0;
+    private boolean failed = false;
+
+    // 统计
+    private final AtomicLong writtenFrames = new AtomicLong(0);
+    private final AtomicLong writtenBytes = new AtomicLong(0);
+    private final AtomicLong remaps = new AtomicLong(0);
+    private volatile String geometry = "-";
+
+    public SharedFrameRing(Path path, int slotCount) {
+        if (slotCount < 2) {
+            throw new IllegalArgumentException("共享内存帧环至少需要2个槽位: " + slotCount);
+        }
+        this.path = path;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * 按 -Dshm.* 创建帧环
+     *
+     * @return 帧环，没有指定 -Dshm.path 时返回null（不启用）
+     */
+    public static SharedFrameRing fromSystemProperties() {
+        String path = System.getProperty("shm.path");
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        return new SharedFrameRing(Paths.get(path), Integer.getInteger("shm.slots", 4));
+    }
+
+    /**
+     * 写入一帧（在解码线程上调用，不会等待读取方）
+     *
+     * @param frame       解码得到的8位图像帧
+     * @param frameNumber 解码帧序号
+     */
+    public synchronized void write(Frame frame, long frameNumber) {
+        if (failed || frame.image == null || frame.imageDepth != Frame.DEPTH_UBYTE) {
+            return;
+        }
+        int width = frame.imageWidth;
+        int height = frame.imageHeight;
+        int channels = frame.imageChannels;
+        int rowBytes = width * channels;
+        int dataLength = rowBytes * height;
+        try {
+            if (buffer == null || dataLength > slotCapacity) {
+                remap(dataLength);
+                geometry = width + "x" + height + "x" + channels;
+            }
+        } catch (IOException e) {
+            failed = true;
+            System.err.println("创建共享内存帧环失败: " + path + " (" + e.getMessage() + ")");
+            return;
+        }
+
+        long next = sequence + 1;
+        int slot = HEADER_SIZE + (int) ((next - 1) % slotCount) * slotStride;
+        long lock = (long) LONG_VIEW.getVolatile(buffer, slot);
+        LONG_VIEW.setVolatile(buffer, slot, lock + 1);
+        // 序号锁变为奇数之后才能写入像素
+        VarHandle.storeStoreFence();
+
+        ByteBuffer source = ((ByteBuffer) frame.image[0]).duplicate();
+        ByteBuffer target = buffer.duplicate();
+        int data = slot + SLOT_HEADER_SIZE;
+        for (int y = 0; y < height; y++) {
+            source.limit(y * frame.imageStride + rowBytes);
+            source.position(y * frame.imageStride);
+            target.position(data + y * rowBytes);
+            target.put(source);
+        }
+        buffer.putLong(slot + 8, next);
+        buffer.putLong(slot + 16, frameNumber);
+        buffer.putLong(slot + 24, System.currentTimeMillis());
+        buffer.putInt(slot + 32, width);
+        buffer.putInt(slot + 36, height);
+        buffer.putInt(slot + 40, channels);
+        buffer.putInt(slot + 44, dataLength);
+
+        LONG_VIEW.setRelease(buffer, slot, lock + 2);
+        LONG_VIEW.setRelease(buffer, OFFSET_LATEST_SEQUENCE, next);
+        sequence = next;
+        writtenFrames.incrementAndGet();
+        writtenBytes.addAndGet(dataLength);
+    }
+
+    /**
+     * 创建能容纳 dataLength 字节图像的新文件，写好文件头后原子替换旧文件
+     */
+    private void remap(int dataLength) throws IOException {
+        // 槽位按64字节对齐，像素区域对齐到缓存行
+        int capacity = (dataLength + 63) & ~63;
+        int stride = SLOT_HEADER_SIZE + capacity;
+        long size = HEADER_SIZE + (long) stride * slotCount;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("帧环过大: " + size + " 字节");
+        }
+
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        MappedByteBuffer newBuffer;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            newBuffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        newBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < MAGIC.length; i++) {
+            newBuffer.put(i, MAGIC[i]);
+        }
+        newBuffer.putInt(8, VERSION);
+        newBuffer.putInt(OFFSET_SLOT_COUNT, slotCount);
+        newBuffer.putInt(OFFSET_HEADER_SIZE, HEADER_SIZE);
+        newBuffer.putInt(OFFSET_SLOT_STRIDE, stride);
+        newBuffer.putInt(OFFSET_SLOT_CAPACITY, capacity);
+        newBuffer.putInt(OFFSET_STATE, STATE_ACTIVE);
+        newBuffer.putLong(OFFSET_LATEST_SEQUENCE, 0);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        if (buffer != null) {
+            // 已经映射旧文件的读取方看到该状态后重新打开
+            INT_VIEW.setVolatile(buffer, OFFSET_STATE, STATE_CLOSED);
+            remaps.incrementAndGet();
+        }
+        buffer = newBuffer;
+        slotStride = stride;
+        slotCapacity = capacity;
+        sequence = 0;
+    }
+
+    /**
+     * 标记帧环已关闭并删除文件（已经映射的读取方仍然可以读到最后的数据）
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            INT_VIEW.setVolatile(buffer, OFFSET_STATE, STATE_CLOSED);
+            buffer = null;
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                System.err.println("删除共享内存帧环失败: " + e.getMessage());
+            }
+        }
+        failed = true;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getStats() {
+        return String.format("共享内存帧环: %s, 槽位=%d, 图像=%s, 已写入=%d帧 / %d MB, 重建=%d",
+                path, slotCount, geometry, writtenFrames.get(), writtenBytes.get() / (1024 * 1024), remaps.get());
+    }
+}
@@ -0,0 +1,512 @@
+package com.LaNasil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 离线码流分析 - 按磁盘速度分析录制的.h264文件，无需经过实时接收器回放
+ * 文件按块映射到内存（可以超过2GB），各块用fork-join并行查找起始码并记录NALU头；
+ * 跨越块边界的起始码由起点所在的块负责（每块多映射前1字节和后5字节）。
+ * 之后按文件顺序合并NALU索引，用与 {@link H264Bitstream#groupAccessUnits} 相同的规则划分访问单元，
+ * 统计NALU类型分布、GOP结构、帧大小、码率变化和参数集变化。
+ *
+ * 用法: java -cp <jar> com.LaNasil.StreamAnalyzer <file.h264> [--threads N] [--chunk-mb 64] [--fps 30]
+ *                                               [--json report.json]
+ */
+public class StreamAnalyzer {
+
+    // 参数集最多读取的字节数（SPS/PPS通常只有几十字节）
+    private static final int MAX_PARAMETER_SET_BYTES = 4096;
+
+    /**
+     * 一块数据中找到的NALU：起点（含起始码）、NALU头和是否为图像的第一个切片
+     */
+    private static final class NaluIndex {
+        long[] positions = new long[1024];
+        byte[] headers = new byte[1024];
+        boolean[] firstSlice = new boolean[1024];
+        int count = 0;
+
+        void add(long position, byte header, boolean first) {
+            if (count == positions.length) {
+                positions = Arrays.copyOf(positions, count * 2);
+                headers = Arrays.copyOf(headers, count * 2);
+                firstSlice = Arrays.copyOf(firstSlice, count * 2);
+            }
+            positions[count] = position;
+            headers[count] = header;
+            firstSlice[count] = first;
+            count++;
+        }
+    }
+
+    /**
+     * 并行扫描：把块区间递归拆分，每个叶子任务扫描一块
+     */
+    private static final class ScanTask extends RecursiveTask<List<NaluIndex>> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long fileSize;
+        private final long chunkSize;
+        private final int fromChunk;
+        private final int toChunk;
+
+        ScanTask(FileChannel channel, long fileSize, long chunkSize, int fromChunk, int toChunk) {
+            this.channel = channel;
+            this.fileSize = fileSize;
+            this.chunkSize = chunkSize;
+            this.fromChunk = fromChunk;
+            this.toChunk = toChunk;
+        }
+
+        @Override
+        protected List<NaluIndex> compute() {
+            if (toChunk - fromChunk == 1) {
+                List<NaluIndex> result = new ArrayList<>(1);
+                try {
+                    result.add(scanChunk(channel, fileSize, fromChunk * chunkSize,
+                            Math.min(fileSize, (fromChunk + 1) * chunkSize)));
+                } catch (IOException e) {
+                    throw new IllegalStateException("读取文件失败: " + e.getMessage(), e);
+                }
+                return result;
+            }
+            int middle = (fromChunk + toChunk) >>> 1;
+            ScanTask left = new ScanTask(channel, fileSize, chunkSize, fromChunk, middle);
+            ScanTask right = new ScanTask(channel, fileSize, chunkSize, middle, toChunk);
+            left.fork();
+            List<NaluIndex> result = new ArrayList<>(right.compute());
+            result.addAll(0, left.join());
+            return result;
+        }
+    }
+
+    /**
+     * 扫描 [start, end) 中开始的起始码
+     */
+    private static NaluIndex scanChunk(FileChannel channel, long fileSize, long start, long end) throws IOException {
+        // 多映射前1字节（4字节起始码的前导0）和后5字节（跨越边界的起始码、NALU头和切片头第一个字节）
+        long mapStart = Math.max(0, start - 1);
+        long mapEnd = Math.min(fileSize, end + 5);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        int limit = (int) (mapEnd - mapStart);
+        int scanEnd = (int) (end - mapStart);
+        NaluIndex index = new NaluIndex();
+        int i = (int) (start - mapStart);
+        while (i < scanEnd && i + 2 < limit) {
+            if ((buffer.get(i + 2) & 0xFF) > 1) {
+                // 第三个字节大于1时，以 i、i+1、i+2 开始的位置都不可能是起始码
+                i += 3;
+                continue;
+            }
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                int naluStart = (i > 0 && buffer.get(i - 1) == 0) ? i - 1 : i;
+                byte header = i + 3 < limit ? buffer.get(i + 3) : 0;
+                // first_mb_in_slice 为 ue(v) 编码，值为0时第一个比特为1
+                boolean first = i + 4 < limit && (buffer.get(i + 4) & 0x80) != 0;
+                index.add(mapStart + naluStart, header, first);
+                i += 3;
+            } else {
+                i++;
+            }
+        }
+        return index;
+    }
+
+    private final Path file;
+    private final double fps;
+
+    // 分析结果
+    private long fileSize;
+    private long scanMillis;
+    private int chunks;
+    private int threads;
+    private final long[] naluCounts = new long[32];
+    private final long[] naluBytes = new long[32];
+    private long naluTotal;
+    private long nonReferenceFrames;
+    private int maxSlicesPerFrame;
+    private long totalSlices;
+    private int[] frameSizes = new int[1024];
+    private boolean[] frameKey = new boolean[1024];
+    private int frameCount = 0;
+    private final List<Integer> keyFrameIndexes = new ArrayList<>();
+    private final List<String> parameterSetChanges = new ArrayList<>();
+    private H264SpsInfo firstSps;
+
+    public StreamAnalyzer(Path file, double fps) {
+        this.file = file;
+        this.fps = fps;
+    }
+
+    /**
+     * 并行扫描并分析整个文件
+     */
+    public void analyze(int threadCount, long chunkSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            fileSize = channel.size();
+            if (fileSize == 0) {
+                throw new IOException("文件为空: " + file);
+            }
+            chunks = (int) ((fileSize + chunkSize - 1) / chunkSize);
+            threads = threadCount;
+            long startNanos = System.nanoTime();
+            ForkJoinPool pool = new ForkJoinPool(threadCount);
+            List<NaluIndex> indexes;
+            try {
+                indexes = pool.invoke(new ScanTask(channel, fileSize, chunkSize, 0, chunks));
+            } finally {
+                pool.shutdown();
+            }
+            merge(channel, indexes);
+            scanMillis = (System.nanoTime() - startNanos) / 1_000_000;
+        }
+    }
+
+    /**
+     * 按文件顺序合并各块的NALU并划分访问单元
+     */
+    private void merge(FileChannel channel, List<NaluIndex> indexes) throws IOException {
+        byte[] lastSps = null;
+        byte[] lastPps = null;
+        int currentSize = 0;
+        boolean currentHasSlice = false;
+        boolean currentKey = false;
+        boolean currentReference = false;
+        int currentSlices = 0;
+
+        for (int c = 0; c < indexes.size(); c++) {
+            NaluIndex index = indexes.get(c);
+            for (int n = 0; n < index.count; n++) {
+                long position = index.positions[n];
+                long next = nextPosition(indexes, c, n);
+                int size = (int) (next - position);
+                int type = index.headers[n] & 0x1F;
+                int refIdc = (index.headers[n] >> 5) & 0x03;
+                naluCounts[type]++;
+                naluBytes[type] += size;
+                naluTotal++;
+
+                boolean isSlice = type == H264FrameAssembler.NALU_TYPE_IDR
+                        || type == H264FrameAssembler.NALU_TYPE_NON_IDR;
+                boolean startsNewUnit = isSlice ? index.firstSlice[n]
+                        : type == H264FrameAssembler.NALU_TYPE_AUD || type == H264FrameAssembler.NALU_TYPE_SPS
+                                || type == H264FrameAssembler.NALU_TYPE_PPS
+                                || type == H264FrameAssembler.NALU_TYPE_SEI;
+                if (startsNewUnit && currentHasSlice) {
+                    addFrame(currentSize, currentKey, currentReference, currentSlices);
+                    currentSize = 0;
+                    currentHasSlice = false;
+                    currentKey = false;
+                    currentReference = false;
+                    currentSlices = 0;
+                }
+                currentSize += size;
+                if (isSlice) {
+                    currentHasSlice = true;
+                    currentSlices++;
+                    currentKey |= type == H264FrameAssembler.NALU_TYPE_IDR;
+                    currentReference |= refIdc != 0;
+                }
+
+                // 参数集很少出现，按需从文件读取内容比较
+                if (type == H264FrameAssembler.NALU_TYPE_SPS) {
+                    byte[] sps = read(channel, position, size);
+                    if (lastSps == null || !Arrays.equals(trimTrailingZeros(lastSps), trimTrailingZeros(sps))) {
+                        H264SpsInfo info = H264SpsInfo.parse(sps);
+                        if (lastSps == null) {
+                            firstSps = info;
+                        } else {
+                            parameterSetChanges.add(String.format("帧 %d (偏移 %d): SPS变化 -> %s", frameCount,
+                                    position, info != null ? info + ", " + info.getCodecString() : "无法解析"));
+                        }
+                        lastSps = sps;
+                    }
+                } else if (type == H264FrameAssembler.NALU_TYPE_PPS) {
+                    byte[] pps = read(channel, position, size);
+                    if (lastPps != null && !Arrays.equals(trimTrailingZeros(lastPps), trimTrailingZeros(pps))) {
+                        parameterSetChanges.add(String.format("帧 %d (偏移 %d): PPS变化 (%d字节)", frameCount,
+                                position, pps.length));
+                    }
+                    lastPps = pps;
+                }
+            }
+        }
+        if (currentHasSlice) {
+            addFrame(currentSize, currentKey, currentReference, currentSlices);
+        }
+    }
+
+    private long nextPosition(List<NaluIndex> indexes, int chunk, int n) {
+        if (n + 1 < indexes.get(chunk).count) {
+            return indexes.get(chunk).positions[n + 1];
+        }
+        for (int c = chunk + 1; c < indexes.size(); c++) {
+            if (indexes.get(c).count > 0) {
+                return indexes.get(c).positions[0];
+            }
+        }
+        return fileSize;
+    }
+
+    private void addFrame(int size, boolean key, boolean reference, int slices) {
+        if (frameCount == frameSizes.length) {
+            frameSizes = Arrays.copyOf(frameSizes, frameCount * 2);
+            frameKey = Arrays.copyOf(frameKey, frameCount * 2);
+        }
+        if (key) {
+            keyFrameIndexes.add(frameCount);
+        }
+        if (!reference) {
+            nonReferenceFrames++;
+        }
+        maxSlicesPerFrame = Math.max(maxSlicesPerFrame, slices);
+        totalSlices += slices;
+        frameSizes[frameCount] = size;
+        frameKey[frameCount] = key;
+        frameCount++;
+    }
+
+    private static byte[] read(FileChannel channel, long position, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(size, MAX_PARAMETER_SET_BYTES));
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // 继续读取
+        }
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    private static byte[] trimTrailingZeros(byte[] data) {
+        int length = data.length;
+        while (length > 0 && data[length - 1] == 0) {
+            length--;
+        }
+        return length == data.length ? data : Arrays.copyOf(data, length);
+    }
+
+    /**
+     * @return 按帧类型筛选后排序的帧大小
+     */
+    private int[] sortedSizes(Boolean key) {
+        int[] sizes = new int[frameCount];
+        int count = 0;
+        for (int i = 0; i < frameCount; i++) {
+            if (key == null || frameKey[i] == key) {
+                sizes[count++] = frameSizes[i];
+            }
+        }
+        sizes = Arrays.copyOf(sizes, count);
+        Arrays.sort(sizes);
+        return sizes;
+    }
+
+    private static int percentile(int[] sorted, double p) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, Math.floor(sorted.length * p))];
+    }
+
+    private static double average(int[] values) {
+        long sum = 0;
+        for (int value : values) {
+            sum += value;
+        }
+        return values.length == 0 ? 0 : (double) sum / values.length;
+    }
+
+    /**
+     * @return GOP长度（帧数）到出现次数的映射，第一个IDR之前和最后一个不完整的GOP不计入
+     */
+    private Map<Integer, Integer> gopLengths() {
+        Map<Integer, Integer> lengths = new TreeMap<>();
+        for (int i = 1; i < keyFrameIndexes.size(); i++) {
+            lengths.merge(keyFrameIndexes.get(i) - keyFrameIndexes.get(i - 1), 1, Integer::sum);
+        }
+        return lengths;
+    }
+
+    /**
+     * @return 每秒的码率（kbps），按 fps 把帧映射到时间
+     */
+    private double[] bitrateSeries() {
+        int framesPerSecond = Math.max(1, (int) Math.round(fps));
+        int seconds = (frameCount + framesPerSecond - 1) / framesPerSecond;
+        double[] series = new double[seconds];
+        for (int i = 0; i < frameCount; i++) {
+            series[i / framesPerSecond] += frameSizes[i] * 8 / 1000.0;
+        }
+        return series;
+    }
+
+    public String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        double seconds = scanMillis / 1000.0;
+        sb.append(String.format("文件: %s (%.1f MB)%n", file, fileSize / 1048576.0));
+        sb.append(String.format("扫描: %d ms, %.0f MB/s, %d线程, %d块%n", scanMillis,
+                seconds > 0 ? fileSize / 1048576.0 / seconds : 0, threads, chunks));
+        if (firstSps != null) {
+            sb.append(String.format("码流: %s, %s%n", firstSps, firstSps.getCodecString()));
+        }
+
+        sb.append(String.format("%nNALU类型分布 (共%d个):%n", naluTotal));
+        for (int type = 0; type < 32; type++) {
+            if (naluCounts[type] > 0) {
+                sb.append(String.format("  %2d %-16s %10d 个 %12d 字节 (%.1f%%)%n", type,
+                        H264FrameAssembler.getNaluTypeDescription(type), naluCounts[type], naluBytes[type],
+                        naluBytes[type] * 100.0 / fileSize));
+            }
+        }
+
+        int[] all = sortedSizes(null);
+        int[] key = sortedSizes(true);
+        int[] inter = sortedSizes(false);
+        sb.append(String.format("%n帧: %d (IDR %d, 非IDR %d, 非参考帧 %d), 每帧切片 平均%.2f / 最多%d%n", frameCount,
+                key.length, inter.length, nonReferenceFrames, frameCount > 0 ? (double) totalSlices / frameCount : 0,
+                maxSlicesPerFrame));
+        appendSizeLine(sb, "全部", all);
+        appendSizeLine(sb, "IDR", key);
+        appendSizeLine(sb, "非IDR", inter);
+
+        Map<Integer, Integer> gops = gopLengths();
+        sb.append(String.format("%nGOP: %d个完整GOP", gops.values().stream().mapToInt(Integer::intValue).sum()));
+        if (!keyFrameIndexes.isEmpty() && keyFrameIndexes.get(0) > 0) {
+            sb.append(String.format("，第一个IDR之前有%d帧", keyFrameIndexes.get(0)));
+        }
+        sb.append(System.lineSeparator());
+        for (Map.Entry<Integer, Integer> entry : gops.entrySet()) {
+            sb.append(String.format("  长度 %4d 帧 (%.2f 秒): %d 次%n", entry.getKey(), entry.getKey() / fps,
+                    entry.getValue()));
+        }
+
+        double[] bitrate = bitrateSeries();
+        if (bitrate.length > 0) {
+            double min = Double.MAX_VALUE;
+            double max = 0;
+            double sum = 0;
+            // 最后一秒通常不完整，不参与最小值统计
+            for (int i = 0; i < bitrate.length; i++) {
+                if (i < bitrate.length - 1 || bitrate.length == 1) {
+                    min = Math.min(min, bitrate[i]);
+                }
+                max = Math.max(max, bitrate[i]);
+                sum += bitrate[i];
+            }
+            sb.append(String.format("%n码率 (按 %.1f fps 换算, 时长 %.1f 秒): 平均 %.0f kbps, 最小 %.0f kbps, 最大 %.0f kbps%n",
+                    fps, frameCount / fps, sum * fps / Math.max(1, frameCount), min, max));
+        }
+
+        sb.append(String.format("%n参数集变化: %d 次%n", parameterSetChanges.size()));
+        for (String change : parameterSetChanges) {
+            sb.append("  ").append(change).append(System.lineSeparator());
+        }
+        return sb.toString();
+    }
+
+    private static void appendSizeLine(StringBuilder sb, String label, int[] sorted) {
+        if (sorted.length == 0) {
+            return;
+        }
+        sb.append(String.format("  %-6s 大小: 平均 %.0f, p50 %d, p95 %d, 最小 %d, 最大 %d 字节%n", label, average(sorted),
+                percentile(sorted, 0.50), percentile(sorted, 0.95), sorted[0], sorted[sorted.length - 1]));
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append(String.format("{\"file\":\"%s\",\"sizeBytes\":%d,\"scanMillis\":%d,\"threads\":%d,\"chunks\":%d,",
+                file.toString().replace("\\", "/"), fileSize, scanMillis, threads, chunks));
+        if (firstSps != null) {
+            json.append(String.format("\"width\":%d,\"height\":%d,\"codec\":\"%s\",", firstSps.getWidth(),
+                    firstSps.getHeight(), firstSps.getCodecString()));
+        }
+        json.append("\"naluTypes\":[");
+        boolean first = true;
+        for (int type = 0; type < 32; type++) {
+            if (naluCounts[type] > 0) {
+                json.append(first ? "" : ",").append(String.format("{\"type\":%d,\"count\":%d,\"bytes\":%d}", type,
+                        naluCounts[type], naluBytes[type]));
+                first = false;
+            }
+        }
+        int[] all = sortedSizes(null);
+        int[] key = sortedSizes(true);
+        int[] inter = sortedSizes(false);
+        json.append(String.format("],\"frames\":{\"count\":%d,\"idr\":%d,\"nonIdr\":%d,\"nonReference\":%d,"
+                + "\"maxSlices\":%d,\"avgBytes\":%.1f,\"idrAvgBytes\":%.1f,\"nonIdrAvgBytes\":%.1f,"
+                + "\"p95Bytes\":%d,\"maxBytes\":%d},", frameCount, key.length, inter.length, nonReferenceFrames,
+                maxSlicesPerFrame, average(all), average(key), average(inter), percentile(all, 0.95),
+                all.length > 0 ? all[all.length - 1] : 0));
+        json.append("\"gopLengths\":{");
+        first = true;
+        for (Map.Entry<Integer, Integer> entry : gopLengths().entrySet()) {
+            json.append(first ? "" : ",").append(String.format("\"%d\":%d", entry.getKey(), entry.getValue()));
+            first = false;
+        }
+        json.append(String.format("},\"fps\":%.3f,\"bitrateKbps\":[", fps));
+        double[] bitrate = bitrateSeries();
+        for (int i = 0; i < bitrate.length; i++) {
+            json.append(i > 0 ? "," : "").append(String.format("%.1f", bitrate[i]));
+        }
+        json.append("],\"parameterSetChanges\":[");
+        for (int i = 0; i < parameterSetChanges.size(); i++) {
+            json.append(i > 0 ? "," : "").append('"').append(parameterSetChanges.get(i).replace("\"", "'"))
+                    .append('"');
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    public static void main(String[] args) throws Exception {
+        String file = null;
+        int threadCount = Runtime.getRuntime().availableProcessors();
+        long chunkMB = 64;
+        double fps = 30.0;
+        String jsonOutput = null;
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            boolean hasValue = i + 1 < args.length;
+            if ("--threads".equals(arg) && hasValue) {
+                threadCount = Integer.parseInt(args[++i]);
+            } else if ("--chunk-mb".equals(arg) && hasValue) {
+                chunkMB = Long.parseLong(args[++i]);
+            } else if ("--fps".equals(arg) && hasValue) {
+                fps = Double.parseDouble(args[++i]);
+            } else if ("--json".equals(arg) && hasValue) {
+                jsonOutput = args[++i];
+            } else if (file == null && !arg.startsWith("--")) {
+                file = arg;
+            } else {
+                System.err.println("未知参数: " + arg);
+                file = null;
+                break;
+            }
+        }
+        if (file == null || threadCount <= 0 || chunkMB <= 0 || chunkMB > 1024 || fps <= 0) {
+            System.err.println("用法: StreamAnalyzer <file.h264> [--threads N] [--chunk-mb 64] [--fps 30] [--json report.json]");
+            System.err.println("  --threads   并行扫描的线程数（默认CPU核数）");
+            System.err.println("  --chunk-mb  每块映射的大小（1-1024 MB）");
+            System.err.println("  --fps       帧率，用于把帧换算为时间（裸流不含时间戳）");
+            return;
+        }
+
+        StreamAnalyzer analyzer = new StreamAnalyzer(Paths.get(file), fps);
+        analyzer.analyze(threadCount, chunkMB * 1024 * 1024);
+        System.out.print(analyzer.getSummary());
+        if (jsonOutput != null) {
+            Files.write(Paths.get(jsonOutput), analyzer.toJson().getBytes(StandardCharsets.UTF_8));
+            System.out.println("JSON报告已写入 " + jsonOutput);
+        }
+    }
+}
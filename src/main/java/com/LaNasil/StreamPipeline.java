@@ -0,0 +1,533 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.Frame;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 流水线引擎 - 将H.264流的接收处理拆分为相互独立的阶段
+ * <ul>
+ * <li>接入(ingest)：网络线程只负责读取socket和切分NALU，上游断开后按指数退避自动重连</li>
+ * <li>组装(assembly)：帧组装、参数集和码流错误处理</li>
+ * <li>分发(fanout)：Base64编码、JSON构建和WebSocket发送</li>
+ * <li>图像分发(image)：解码图像的编码和发送</li>
+ * <li>解码(decode)：由 {@link LiveDecoder} 按最新帧优先调度</li>
+ * </ul>
+ * 阶段之间通过有界队列连接，慢的阶段只会按各自的背压策略丢弃数据，而不会拖慢网络读取。
+ * 作为库嵌入时，可以通过 {@link #publishers()} 以 {@link java.util.concurrent.Flow.Publisher}
+ * 订阅NALU、访问单元和解码帧，订阅者在自己的线程上按需消费。
+ */
+public class StreamPipeline {
+
+    // 组装阶段的特殊标记：冲刷当前帧 / 等待下一个IDR帧
+    private static final byte[] FLUSH = new byte[0];
+    private static final byte[] RESYNC = new byte[0];
+
+    /**
+     * 流水线事件回调
+     */
+    public interface Listener {
+        /**
+         * 组装阶段处理完一个NALU（在组装线程上调用）
+         */
+        void onNalu(byte[] naluData);
+
+        /**
+         * 从上游读取到数据（在接入线程上调用）
+         */
+        default void onBytesReceived(int bytes) {
+        }
+
+        /**
+         * 上游连接状态变化：reconnecting / connected
+         */
+        default void onUpstreamStatus(String state, int attempt, long reconnects) {
+        }
+
+        /**
+         * 接入线程已结束（上游关闭且不再重连）
+         */
+        default void onStopped() {
+        }
+
+        void log(String message);
+    }
+
+    private final H264FrameAssembler frameAssembler;
+    private final Listener listener;
+    private final PipelineStage<byte[]> assemblyStage;
+    private final PipelineStage<Runnable> fanOutStage;
+    private final PipelineStage<Runnable> imageFanOutStage;
+    private final List<PipelineStage<?>> stages = new ArrayList<>();
+    private final StreamPublishers publishers = new StreamPublishers();
+    private LiveDecoder decoder;
+
+    // 接入和重连（-Dreconnect.enabled=false 关闭重连）
+    private final boolean reconnectEnabled = Boolean.parseBoolean(System.getProperty("reconnect.enabled", "true"));
+    private final ReconnectBackoff reconnectBackoff = ReconnectBackoff.fromSystemProperties();
+    private final AtomicLong reconnectCount = new AtomicLong(0);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile Socket socket;
+    private Thread ingestThread;
+    private String upstreamHost;
+    private int upstreamPort;
+
+    /**
+     * @param frameCallback 帧组装回调（在组装线程上调用），可以为null
+     * @param listener      流水线事件回调
+     */
+    public StreamPipeline(H264FrameAssembler.FrameCallback frameCallback, Listener listener) {
+        this.frameAssembler = new H264FrameAssembler(new PublishingFrameCallback(frameCallback));
+        this.listener = listener;
+        // 组装很轻量，默认阻塞接入线程而不是丢弃NALU（丢弃会破坏码流）
+        this.assemblyStage = PipelineStage.fromSystemProperties("assembly", 1024,
+                PipelineStage.BackpressurePolicy.BLOCK, this::assemble);
+        // 实时预览优先：WebSocket发送跟不上时丢弃最旧的消息
+        this.fanOutStage = PipelineStage.fromSystemProperties("fanout", 256,
+                PipelineStage.BackpressurePolicy.DROP_OLDEST, Runnable::run);
+        this.imageFanOutStage = PipelineStage.fromSystemProperties("image", 2,
+                PipelineStage.BackpressurePolicy.DROP_OLDEST, Runnable::run);
+        stages.add(assemblyStage);
+        stages.add(fanOutStage);
+        stages.add(imageFanOutStage);
+    }
+
+    /**
+     * 关联解码阶段：统计信息中显示其积压，解码帧同时发布给 {@link StreamPublishers#decodedFrames()} 的订阅者
+     */
+    public void attachDecoder(LiveDecoder decoder) {
+        this.decoder = decoder;
+        decoder.addFrameListener(new LiveDecoder.FrameListener() {
+            @Override
+            public void onFrameDecoded(Frame frame, long frameNumber) {
+                publishers.publishDecodedFrame(frame, frameNumber);
+            }
+
+            @Override
+            public boolean wantsFrames() {
+                return publishers.hasDecodedFrameSubscribers();
+            }
+        });
+    }
+
+    /**
+     * @return NALU、访问单元和解码帧的响应式发布器
+     */
+    public StreamPublishers publishers() {
+        return publishers;
+    }
+
+    /**
+     * 连接上游并启动所有阶段
+     *
+     * @throws IOException 首次连接失败
+     */
+    public synchronized void connect(String host, int port) throws IOException {
+        if (running.get()) {
+            return;
+        }
+        Socket newSocket = new Socket();
+        try {
+            newSocket.connect(new InetSocketAddress(host, port), 5000); // 5秒超时
+        } catch (IOException e) {
+            newSocket.close();
+            throw e;
+        }
+        socket = newSocket;
+        upstreamHost = host;
+        upstreamPort = port;
+        running.set(true);
+
+        for (PipelineStage<?> stage : stages) {
+            stage.start();
+        }
+        ingestThread = new Thread(this::runIngest, "H264-Receiver-Thread");
+        ingestThread.start();
+    }
+
+    /**
+     * 断开上游并停止所有阶段
+     */
+    public synchronized void disconnect() {
+        if (!running.compareAndSet(true, false)) {
+            return;
+        }
+        if (ingestThread != null) {
+            ingestThread.interrupt();
+        }
+        closeSocket();
+        for (PipelineStage<?> stage : stages) {
+            stage.stop();
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * 断开上游并结束所有发布器的流（之后不能再连接）
+     */
+    public void close() {
+        disconnect();
+        publishers.close();
+    }
+
+    /**
+     * 提交WebSocket分发任务（Base64编码、JSON构建和发送都在分发线程上完成）
+     */
+    public void fanOut(Runnable task) {
+        fanOutStage.offer(task);
+    }
+
+    /**
+     * 提交必须送达的控制消息（尺寸变化、画面活动等），不会被分发队列丢弃，与媒体消息保持顺序
+     */
+    public void fanOutControl(Runnable task) {
+        fanOutStage.offerRetained(task);
+    }
+
+    /**
+     * 提交解码图像的编码和分发任务
+     */
+    public void fanOutImage(Runnable task) {
+        imageFanOutStage.offer(task);
+    }
+
+    /**
+     * 组装阶段：在组装线程上处理NALU
+     */
+    private void assemble(byte[] naluData) {
+        if (naluData == FLUSH) {
+            frameAssembler.forceCompleteFrame();
+            return;
+        }
+        if (naluData == RESYNC) {
+            frameAssembler.resyncAtNextIdr();
+            return;
+        }
+        frameAssembler.processNALU(naluData);
+        listener.onNalu(naluData);
+        publishers.publishNalu(naluData);
+    }
+
+    /**
+     * 在调用方的帧回调之外把访问单元发布给订阅者
+     */
+    private final class PublishingFrameCallback implements H264FrameAssembler.FrameCallback {
+        private final H264FrameAssembler.FrameCallback delegate;
+
+        PublishingFrameCallback(H264FrameAssembler.FrameCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onFrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+            if (delegate != null) {
+                delegate.onFrameComplete(frameData, isKeyFrame, frameNumber);
+            }
+            publishers.publishAccessUnit(frameData, isKeyFrame, frameNumber);
+        }
+
+        @Override
+        public void onParameterSetsReceived(List<byte[]> parameterSets) {
+            if (delegate != null) {
+                delegate.onParameterSetsReceived(parameterSets);
+            }
+        }
+
+        @Override
+        public void onParameterSetsChanged(List<byte[]> parameterSets) {
+            if (delegate != null) {
+                delegate.onParameterSetsChanged(parameterSets);
+            }
+        }
+
+        @Override
+        public void onBitstreamError(String reason, long frameNumber) {
+            if (delegate != null) {
+                delegate.onBitstreamError(reason, frameNumber);
+            }
+        }
+    }
+
+    /**
+     * 接入阶段：读取上游数据，连接断开后按指数退避自动重连
+     * 重连期间其余阶段和WebSocket客户端都保持运行，
+     * 重连成功后帧组装器保留已缓存的SPS/PPS并从第一个IDR帧恢复转发和解码
+     */
+    private void runIngest() {
+        try {
+            while (running.get() && !Thread.currentThread().isInterrupted()) {
+                Socket current = socket;
+                if (current == null) {
+                    break;
+                }
+                try {
+                    receiveFromUpstream(current);
+                } catch (IOException e) {
+                    if (running.get()) {
+                        listener.log("接收数据时发生错误: " + e.getMessage());
+                    }
+                }
+                if (!running.get() || !reconnectEnabled || !reconnectUpstream()) {
+                    break;
+                }
+            }
+        } finally {
+            listener.log("H.264流接收已停止");
+            if (running.get()) {
+                listener.onStopped();
+            }
+        }
+    }
+
+    /**
+     * 从当前上游连接读取数据并切分NALU，直到连接关闭
+     */
+    private void receiveFromUpstream(Socket current) throws IOException {
+        try (BufferedInputStream inputStream = new BufferedInputStream(current.getInputStream())) {
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream streamBuffer = new ByteArrayOutputStream();
+
+            // 状态机变量用于精确解析NALU边界
+            int state = 0;
+            int lastNaluStart = -1;
+
+            while (running.get() && !Thread.currentThread().isInterrupted()) {
+                int bytesRead = inputStream.read(buffer);
+                if (bytesRead == -1) {
+                    listener.log("服务器连接已关闭");
+                    break;
+                }
+
+                // 将读取的数据添加到流缓冲区
+                streamBuffer.write(buffer, 0, bytesRead);
+                byte[] currentData = streamBuffer.toByteArray();
+
+                // 使用状态机解析NALU单元
+                int processedBytes = parseNalusWithStateMachine(currentData, lastNaluStart, state, this::submitNalu);
+
+                // 保留未处理的数据
+                if (processedBytes > 0 && processedBytes < currentData.length) {
+                    byte[] remainingData = Arrays.copyOfRange(currentData, processedBytes, currentData.length);
+                    streamBuffer.reset();
+                    streamBuffer.write(remainingData);
+                }
+
+                listener.onBytesReceived(bytesRead);
+            }
+
+            // 处理剩余的数据
+            byte[] remainingData = streamBuffer.toByteArray();
+            if (remainingData.length > 0) {
+                submitNalu(remainingData);
+            }
+
+            // 强制完成当前帧
+            assemblyStage.offer(FLUSH);
+        }
+    }
+
+    /**
+     * 使用状态机精确解析NALU单元
+     * 完整的NALU（含起始码）交给 naluSink，返回已处理的字节数（最后一个NALU可能还不完整，留待下次解析）
+     */
+    static int parseNalusWithStateMachine(byte[] data, int lastStart, int initialState, Consumer<byte[]> naluSink) {
+        int state = initialState;
+        int lastNaluStart = lastStart;
+        int processedBytes = 0;
+
+        for (int i = 0; i < data.length; i++) {
+            switch (state) {
+                case 0: // 寻找第一个0x00
+                    if (data[i] == 0x00) {
+                        state = 1;
+                    }
+                    break;
+
+                case 1: // 寻找第二个0x00
+                    if (data[i] == 0x00) {
+                        state = 2;
+                    } else {
+                        state = 0;
+                    }
+                    break;
+
+                case 2: // 可能是3字节起始码或4字节起始码
+                    if (data[i] == 0x00) {
+                        state = 3; // 可能是4字节起始码
+                    } else if (data[i] == 0x01) {
+                        // 找到3字节起始码 (00 00 01)
+                        if (lastNaluStart != -1) {
+                            // 处理前一个NALU
+                            byte[] naluData = Arrays.copyOfRange(data, lastNaluStart, i - 2);
+                            naluSink.accept(naluData);
+                            processedBytes = i - 2;
+                        }
+                        lastNaluStart = i - 2;
+                        state = 0;
+                    } else {
+                        state = 0;
+                    }
+                    break;
+
+                case 3: // 寻找4字节起始码的0x01
+                    if (data[i] == 0x01) {
+                        // 找到4字节起始码 (00 00 00 01)
+                        if (lastNaluStart != -1) {
+                            // 处理前一个NALU
+                            byte[] naluData = Arrays.copyOfRange(data, lastNaluStart, i - 3);
+                            naluSink.accept(naluData);
+                            processedBytes = i - 3;
+                        }
+                        lastNaluStart = i - 3;
+                        state = 0;
+                    } else if (data[i] != 0x00) {
+                        state = 0;
+                    }
+                    // 如果是0x00，保持在state 3
+                    break;
+            }
+        }
+
+        return processedBytes;
+    }
+
+    /**
+     * 校验起始码后将NALU交给组装阶段
+     */
+    private void submitNalu(byte[] naluData) {
+        if (naluData.length < 4 || H264Bitstream.getStartCodeLength(naluData, 0) == 0) {
+            listener.log("警告: NALU数据不包含有效起始码");
+            return;
+        }
+        assemblyStage.offer(naluData);
+    }
+
+    /**
+     * 按指数退避重连上游
+     *
+     * @return 是否重连成功（主动断开、线程被中断或超过最大重连次数时返回false）
+     */
+    private boolean reconnectUpstream() {
+        closeSocket();
+
+        reconnectBackoff.reset();
+        while (running.get()) {
+            long delayMs = reconnectBackoff.nextDelayMs();
+            if (delayMs < 0) {
+                listener.log("重连失败次数已达上限 (" + reconnectBackoff + ")，停止重连");
+                return false;
+            }
+            int attempt = reconnectBackoff.getAttempts();
+            listener.log(String.format("上游连接已断开，%dms 后第%d次重连 %s:%d", delayMs, attempt, upstreamHost,
+                    upstreamPort));
+            listener.onUpstreamStatus("reconnecting", attempt, reconnectCount.get());
+
+            try {
+                Thread.sleep(delayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            if (!running.get()) {
+                return false;
+            }
+
+            Socket newSocket = new Socket();
+            try {
+                newSocket.connect(new InetSocketAddress(upstreamHost, upstreamPort), 5000);
+            } catch (IOException e) {
+                listener.log("重连失败: " + e.getMessage());
+                try {
+                    newSocket.close();
+                } catch (IOException ignored) {
+                    // 连接未建立，忽略关闭错误
+                }
+                continue;
+            }
+
+            socket = newSocket;
+            if (!running.get()) {
+                // 重连期间主动断开
+                closeSocket();
+                return false;
+            }
+            reconnectCount.incrementAndGet();
+            // 设备通常从GOP中间开始发送，丢弃数据直到第一个IDR帧，已缓存的参数集保留
+            assemblyStage.offer(RESYNC);
+            listener.log("已重新连接到服务器 " + upstreamHost + ":" + upstreamPort + " (累计重连" + reconnectCount.get()
+                    + "次)，等待IDR帧恢复解码");
+            listener.onUpstreamStatus("connected", attempt, reconnectCount.get());
+            return true;
+        }
+        return false;
+    }
+
+    private void closeSocket() {
+        Socket current = socket;
+        socket = null;
+        if (current != null && !current.isClosed()) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                listener.log("清理连接时发生错误: " + e.getMessage());
+            }
+        }
+    }
+
+    public H264FrameAssembler getFrameAssembler() {
+        return frameAssembler;
+    }
+
+    public long getReconnectCount() {
+        return reconnectCount.get();
+    }
+
+    /**
+     * @return 所有带队列的阶段（不含解码阶段）
+     */
+    public List<PipelineStage<?>> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    /**
+     * 各阶段当前队列深度的简要信息，例如 "assembly=0 fanout=3 image=1 decode=2"
+     */
+    public String getQueueDepthSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (PipelineStage<?> stage : stages) {
+            sb.append(stage.getName()).append('=').append(stage.getQueueDepth()).append(' ');
+        }
+        if (decoder != null) {
+            sb.append("decode=").append(decoder.getDecodeScheduler().getQueuedFrames());
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * 获取各阶段的统计信息（每个阶段一行）
+     */
+    public String getStats() {
+        StringBuilder sb = new StringBuilder("流水线: 重连=").append(reconnectCount.get());
+        sb.append("\n  ").append(publishers.getStats());
+        for (PipelineStage<?> stage : stages) {
+            sb.append("\n  ").append(stage.getStats());
+        }
+        if (decoder != null) {
+            sb.append("\n  decode: ").append(decoder.getDecodeScheduler().getStats());
+        }
+        return sb.toString();
+    }
+}
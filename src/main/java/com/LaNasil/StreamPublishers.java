@@ -0,0 +1,137 @@
+package com.LaNasil;
+
+import org.bytedeco.javacv.Frame;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 响应式流发布器 - 以 {@link Flow.Publisher} 的形式对外提供NALU、访问单元和解码帧
+ * 每个订阅者在发布器的线程池上按自己 request(n) 的需求消费，有独立的缓冲区。
+ * 默认不阻塞发布线程：订阅者缓冲区已满时该订阅者丢弃这一项并计数，接入和组装永远不会被慢订阅者拖住。
+ * 需要无损消费时可以用 -Dpublisher.blocking=true 改为阻塞发布（慢订阅者会反压整条流水线）。
+ * 缓冲区大小通过 -Dpublisher.bufferSize 调整（默认 {@link Flow#defaultBufferSize()}）。
+ */
+public class StreamPublishers implements AutoCloseable {
+
+    private final ExecutorService executor;
+    private final boolean blocking;
+    private final SubmissionPublisher<byte[]> naluPublisher;
+    private final SubmissionPublisher<AccessUnit> accessUnitPublisher;
+    private final SubmissionPublisher<DecodedFrame> decodedFramePublisher;
+
+    // 统计（丢弃数按订阅者累计）
+    private final AtomicLong droppedNalus = new AtomicLong(0);
+    private final AtomicLong droppedAccessUnits = new AtomicLong(0);
+    private final AtomicLong droppedDecodedFrames = new AtomicLong(0);
+
+    public StreamPublishers() {
+        this(Integer.getInteger("publisher.bufferSize", Flow.defaultBufferSize()),
+                Boolean.getBoolean("publisher.blocking"));
+    }
+
+    /**
+     * @param bufferSize 每个订阅者的最大缓冲项数
+     * @param blocking   缓冲区已满时是否阻塞发布线程
+     */
+    public StreamPublishers(int bufferSize, boolean blocking) {
+        AtomicInteger threadIndex = new AtomicInteger(0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "Flow-Publisher-" + threadIndex.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.blocking = blocking;
+        this.naluPublisher = new SubmissionPublisher<>(executor, bufferSize);
+        this.accessUnitPublisher = new SubmissionPublisher<>(executor, bufferSize);
+        this.decodedFramePublisher = new SubmissionPublisher<>(executor, bufferSize);
+    }
+
+    /**
+     * @return NALU流（包含起始码，每个元素一个NALU）
+     */
+    public Flow.Publisher<byte[]> nalus() {
+        return naluPublisher;
+    }
+
+    /**
+     * @return 访问单元流（组装完成的帧，关键帧附带SPS/PPS）
+     */
+    public Flow.Publisher<AccessUnit> accessUnits() {
+        return accessUnitPublisher;
+    }
+
+    /**
+     * @return 解码帧流（BGR像素）
+     */
+    public Flow.Publisher<DecodedFrame> decodedFrames() {
+        return decodedFramePublisher;
+    }
+
+    void publishNalu(byte[] naluData) {
+        publish(naluPublisher, naluData, droppedNalus);
+    }
+
+    void publishAccessUnit(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+        if (accessUnitPublisher.hasSubscribers()) {
+            publish(accessUnitPublisher, new AccessUnit(frameData, isKeyFrame, frameNumber, System.currentTimeMillis()),
+                    droppedAccessUnits);
+        }
+    }
+
+    /**
+     * @return 解码帧流是否有订阅者（没有时解码阶段可以暂停）
+     */
+    boolean hasDecodedFrameSubscribers() {
+        return decodedFramePublisher.hasSubscribers();
+    }
+
+    /**
+     * 发布解码帧，只有存在订阅者时才复制像素
+     */
+    void publishDecodedFrame(Frame frame, long frameNumber) {
+        if (decodedFramePublisher.hasSubscribers()) {
+            publish(decodedFramePublisher, DecodedFrame.copyOf(frame, frameNumber), droppedDecodedFrames);
+        }
+    }
+
+    private <T> void publish(SubmissionPublisher<T> publisher, T item, AtomicLong dropped) {
+        if (publisher.isClosed() || !publisher.hasSubscribers()) {
+            return;
+        }
+        if (blocking) {
+            publisher.submit(item);
+        } else {
+            publisher.offer(item, (subscriber, droppedItem) -> {
+                dropped.incrementAndGet();
+                return false; // 不重试
+            });
+        }
+    }
+
+    /**
+     * 获取发布器统计信息
+     */
+    public String getStats() {
+        return String.format("发布器: NALU订阅者=%d(丢弃%d), 访问单元订阅者=%d(丢弃%d), 解码帧订阅者=%d(丢弃%d), 模式=%s",
+                naluPublisher.getNumberOfSubscribers(), droppedNalus.get(),
+                accessUnitPublisher.getNumberOfSubscribers(), droppedAccessUnits.get(),
+                decodedFramePublisher.getNumberOfSubscribers(), droppedDecodedFrames.get(),
+                blocking ? "阻塞" : "丢弃");
+    }
+
+    /**
+     * 结束所有流（订阅者收到 onComplete）
+     */
+    @Override
+    public void close() {
+        naluPublisher.close();
+        accessUnitPublisher.close();
+        decodedFramePublisher.close();
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,269 @@
+package com.LaNasil;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 原始码流录制器 - 把组装好的访问单元异步写入内存映射的分段文件
+ * 组装线程只把访问单元放入录制阶段的 {@link KeyFrameGatedQueue}（队列满时丢弃，不阻塞实时路径），
+ * 录制线程把数据写入预先分配并映射到内存的 .h264 分段文件。
+ * 分段总是从带SPS/PPS的IDR帧开始，达到大小或时长上限后在下一个IDR帧处切换，
+ * 每个分段都可以单独用 ffmpeg/ffplay 打开。每个分段旁边有一个 .idx 索引文件，
+ * 记录每个关键帧在分段中的偏移、帧号和时间戳。
+ * 配置: -Drecord.dir=recordings -Drecord.segmentMB=64 -Drecord.segmentSeconds=60
+ * -Dpipeline.record.capacity=512
+ */
+public class StreamRecorder implements Closeable {
+
+    private static final int DEFAULT_SEGMENT_MB = 64;
+    private static final int DEFAULT_SEGMENT_SECONDS = 60;
+    // 分段超出预分配大小时每次扩展的最小字节数
+    private static final long MIN_GROW_BYTES = 1024 * 1024;
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final long segmentMillis;
+    private final KeyFrameGatedQueue queue;
+    private final String sessionName;
+    private volatile boolean closed = false;
+
+    // 以下字段只在录制线程上访问（关闭时在录制线程停止之后访问）
+    private RandomAccessFile segmentFile;
+    private FileChannel segmentChannel;
+    private MappedByteBuffer mapped;
+    private BufferedWriter indexWriter;
+    private Path segmentPath;
+    private long segmentLength; // 文件当前长度（预分配）
+    private long segmentWritten; // 已写入的字节数
+    private long segmentStartMillis;
+    private long segmentFrames;
+    private int segmentIndex = 0;
+
+    // 统计
+    private final AtomicLong recordedFrames = new AtomicLong(0);
+    private final AtomicLong recordedBytes = new AtomicLong(0);
+    private final AtomicLong completedSegments = new AtomicLong(0);
+    private final AtomicLong writeErrors = new AtomicLong(0);
+
+    /**
+     * @param directory     分段文件目录（不存在时创建）
+     * @param segmentBytes  分段大小上限，超过后在下一个IDR帧处切换分段；同时是每个分段预分配的大小
+     * @param segmentMillis 分段时长上限（毫秒），0表示只按大小切换
+     */
+    public StreamRecorder(Path directory, long segmentBytes, long segmentMillis) {
+        if (segmentBytes <= 0) {
+            throw new IllegalArgumentException("分段大小必须大于0: " + segmentBytes);
+        }
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.segmentMillis = segmentMillis;
+        this.sessionName = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        this.queue = new KeyFrameGatedQueue("record", 512, this::write);
+    }
+
+    /**
+     * 按 -Drecord.segmentMB / -Drecord.segmentSeconds 创建录制器
+     */
+    public static StreamRecorder fromSystemProperties(Path directory) {
+        long segmentBytes = Long.getLong("record.segmentMB", DEFAULT_SEGMENT_MB) * 1024 * 1024;
+        long segmentMillis = Long.getLong("record.segmentSeconds", DEFAULT_SEGMENT_SECONDS) * 1000;
+        return new StreamRecorder(directory, segmentBytes, segmentMillis);
+    }
+
+    /**
+     * 创建目录并启动录制线程
+     */
+    public void start() throws IOException {
+        Files.createDirectories(directory);
+        queue.start();
+    }
+
+    /**
+     * 提交一个访问单元（在组装线程上调用，不会阻塞）
+     *
+     * @return 访问单元是否进入录制队列
+     */
+    public boolean record(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+        if (closed) {
+            return false;
+        }
+        return queue.offer(frameData, isKeyFrame, frameNumber, System.currentTimeMillis());
+    }
+
+    /**
+     * 录制阶段：写入一个访问单元，必要时在IDR帧处切换分段
+     */
+    private synchronized void write(KeyFrameGatedQueue.Unit unit) {
+        try {
+            if (unit.keyFrame && shouldStartSegment(unit)) {
+                finishSegment();
+                openSegment(unit.timestamp);
+            }
+            if (segmentChannel == null) {
+                // 之前的写入失败，等待下一个IDR帧重新开始
+                return;
+            }
+            if (unit.keyFrame) {
+                indexWriter.write(String.format("%d\t%d\t%d\t%d\t%d\n", segmentWritten, unit.frameNumber,
+                        unit.timestamp, unit.timestamp - segmentStartMillis, unit.data.length));
+                // 每个GOP刷新一次，进程异常退出时索引与已写入的数据一致
+                indexWriter.flush();
+            }
+            ensureCapacity(unit.data.length);
+            mapped.put(unit.data);
+            segmentWritten += unit.data.length;
+            segmentFrames++;
+            recordedFrames.incrementAndGet();
+            recordedBytes.addAndGet(unit.data.length);
+        } catch (IOException e) {
+            writeErrors.incrementAndGet();
+            System.err.println("录制写入失败: " + e.getMessage() + "，从下一个IDR帧开始新的分段");
+            closeSegmentQuietly();
+        }
+    }
+
+    private boolean shouldStartSegment(KeyFrameGatedQueue.Unit unit) {
+        return segmentChannel == null || unit.afterGap || segmentWritten >= segmentBytes
+                || (segmentMillis > 0 && unit.timestamp - segmentStartMillis >= segmentMillis);
+    }
+
+    private void openSegment(long timestamp) throws IOException {
+        segmentIndex++;
+        String baseName = String.format("%s-%05d", sessionName, segmentIndex);
+        segmentPath = directory.resolve(baseName + ".h264");
+        segmentFile = new RandomAccessFile(segmentPath.toFile(), "rw");
+        segmentChannel = segmentFile.getChannel();
+        segmentFile.setLength(segmentBytes);
+        segmentLength = segmentBytes;
+        mapped = segmentChannel.map(FileChannel.MapMode.READ_WRITE, 0, segmentLength);
+        segmentWritten = 0;
+        segmentFrames = 0;
+        segmentStartMillis = timestamp;
+        indexWriter = Files.newBufferedWriter(directory.resolve(baseName + ".idx"), StandardCharsets.UTF_8);
+        indexWriter.write(String.format("# %s.h264 开始时间=%d\n", baseName, timestamp));
+        indexWriter.write("# offset\tframeNumber\ttimestampMs\trelativeMs\tsize\n");
+    }
+
+    /**
+     * 剩余映射空间不足时扩展文件并从当前写入位置重新映射
+     */
+    private void ensureCapacity(int length) throws IOException {
+        if (mapped.remaining() >= length) {
+            return;
+        }
+        long grow = Math.max(Math.max(MIN_GROW_BYTES, segmentBytes / 4), length);
+        segmentLength = segmentWritten + grow;
+        segmentFile.setLength(segmentLength);
+        mapped.force();
+        mapped = segmentChannel.map(FileChannel.MapMode.READ_WRITE, segmentWritten, segmentLength - segmentWritten);
+    }
+
+    /**
+     * 刷新并截断当前分段到实际写入的长度
+     */
+    private void finishSegment() throws IOException {
+        if (segmentChannel == null) {
+            return;
+        }
+        try {
+            mapped.force();
+            mapped = null;
+            indexWriter.close();
+            try {
+                segmentChannel.truncate(segmentWritten);
+            } catch (IOException e) {
+                // 映射未释放时部分平台（Windows）不允许截断；
+                // 末尾的零字节是Annex-B允许的trailing_zero_8bits，分段仍然可以播放
+                System.err.println("截断录制分段失败: " + e.getMessage());
+            }
+            completedSegments.incrementAndGet();
+            System.out.println(String.format("录制分段完成: %s, %d帧, %d KB, %.1f秒", segmentPath.getFileName(),
+                    segmentFrames, segmentWritten / 1024,
+                    (System.currentTimeMillis() - segmentStartMillis) / 1000.0));
+        } finally {
+            closeSegmentQuietly();
+        }
+    }
+
+    private void closeSegmentQuietly() {
+        mapped = null;
+        try {
+            if (indexWriter != null) {
+                indexWriter.close();
+            }
+            if (segmentFile != null) {
+                segmentFile.close();
+            }
+        } catch (IOException e) {
+            // 忽略
+        }
+        indexWriter = null;
+        segmentFile = null;
+        segmentChannel = null;
+    }
+
+    /**
+     * 写完队列中剩余的访问单元，关闭当前分段
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        // 最多等待1秒让录制线程写完积压的数据
+        long deadline = System.currentTimeMillis() + 1000;
+        while (queue.getQueueDepth() > 0 && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        queue.stop();
+        synchronized (this) {
+            try {
+                finishSegment();
+            } catch (IOException e) {
+                System.err.println("关闭录制分段失败: " + e.getMessage());
+            }
+        }
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public long getRecordedFrameCount() {
+        return recordedFrames.get();
+    }
+
+    public long getRecordedBytes() {
+        return recordedBytes.get();
+    }
+
+    public long getDroppedFrameCount() {
+        return queue.getDroppedFrameCount();
+    }
+
+    public long getCompletedSegmentCount() {
+        return completedSegments.get();
+    }
+
+    public String getStats() {
+        return String.format("录制: 目录=%s, 已完成分段=%d, 已录制=%d帧 / %d KB, 丢弃=%d, 跳过=%d, 写入错误=%d, 队列=%d",
+                directory, completedSegments.get(), recordedFrames.get(), recordedBytes.get() / 1024,
+                queue.getDroppedFrameCount(), queue.getSkippedFrameCount(), writeErrors.get(), queue.getQueueDepth());
+    }
+}
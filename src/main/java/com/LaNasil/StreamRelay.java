@@ -0,0 +1,393 @@
+package com.LaNasil;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TCP中继 - 在本机端口上把组装好的Annex-B码流转发给下游接收器
+ * 设备通常只能同时支持一两个TCP读取者，下游接收器连接中继端口（与连接设备相同的裸流协议），
+ * 中继节点之间可以组成树形结构，把一路设备流分发到多台机器。
+ * 每个访问单元只有一份数据，以引用的形式放入各下游的有界队列，由各自的发送线程写出；
+ * 下游跟不上时清空它的积压并从下一个IDR帧继续，保证下游收到的码流始终可以解码，不影响其他下游。
+ * 新连接的下游先收到缓存的当前GOP（从带SPS/PPS的IDR帧开始），不需要等待下一个关键帧。
+ * 同一台机器上的分析进程可以改为连接Unix域套接字（{@link #unixSocket}），数据格式相同，不经过TCP协议栈。
+ * 配置: -Drelay.port=8101（大于0时启用）-Drelay.unixSocket=/tmp/h264.sock（指定时启用）
+ * -Drelay.queueFrames=300 -Drelay.maxDownstreams=16
+ */
+public class StreamRelay implements Closeable {
+
+    /**
+     * 一个下游连接
+     */
+    private final class Downstream implements Runnable {
+        final Closeable connection;
+        final OutputStream output;
+        final String name;
+        final BlockingQueue<byte[]> queue;
+        // 由StreamRelay.this保护
+        boolean awaitingKeyFrame = true;
+        final AtomicLong sentFrames = new AtomicLong(0);
+        final AtomicLong sentBytes = new AtomicLong(0);
+        final AtomicLong droppedFrames = new AtomicLong(0);
+        final Thread writer;
+
+        Downstream(Closeable connection, OutputStream output, String name) {
+            this.connection = connection;
+            this.output = output;
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(queueFrames);
+            this.writer = new Thread(this, "Relay-" + name);
+            this.writer.setDaemon(true);
+        }
+
+        /**
+         * 放入一个访问单元（持有StreamRelay.this的锁时调用）
+         */
+        void offer(byte[] frameData, boolean isKeyFrame) {
+            if (awaitingKeyFrame) {
+                if (!isKeyFrame) {
+                    return;
+                }
+                awaitingKeyFrame = false;
+            }
+            if (!queue.offer(frameData)) {
+                // 下游跟不上：丢弃积压，从下一个IDR帧继续
+                droppedFrames.addAndGet(queue.size() + 1);
+                queue.clear();
+                if (isKeyFrame) {
+                    queue.offer(frameData);
+                } else {
+                    awaitingKeyFrame = true;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try (OutputStream out = new BufferedOutputStream(output, 64 * 1024)) {
+                while (!closed) {
+                    byte[] frameData = queue.take();
+                    out.write(frameData);
+                    // 积压的帧一起写出，队列空时立即发送
+                    if (queue.isEmpty()) {
+                        out.flush();
+                    }
+                    sentFrames.incrementAndGet();
+                    sentBytes.addAndGet(frameData.length);
+                    totalSentBytes.addAndGet(frameData.length);
+                }
+            } catch (IOException e) {
+                if (!closed) {
+                    System.out.println("中继下游断开: " + name + " (" + e.getMessage() + ")");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                remove(this);
+            }
+        }
+
+        void close() {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // 忽略
+            }
+            writer.interrupt();
+        }
+    }
+
+    private final int port;
+    private final Path unixSocketPath;
+    private final int queueFrames;
+    private final int maxDownstreams;
+    private final List<Downstream> downstreams = new CopyOnWriteArrayList<>();
+
+    // 当前GOP（从IDR帧开始），由this保护；超过队列容量时不再缓存，新下游等待下一个IDR帧
+    private final List<byte[]> gop = new ArrayList<>();
+    private boolean gopOverflow = false;
+
+    private ServerSocket serverSocket;
+    private ServerSocketChannel unixServerChannel;
+    private volatile boolean closed = false;
+
+    // 统计
+    private final AtomicLong acceptedDownstreams = new AtomicLong(0);
+    private final AtomicLong rejectedDownstreams = new AtomicLong(0);
+    private final AtomicLong totalSentBytes = new AtomicLong(0);
+    private final AtomicLong droppedByRemoved = new AtomicLong(0);
+
+    /**
+     * @param port           监听端口
+     * @param queueFrames    每个下游的队列容量（帧），同时是GOP缓存的上限
+     * @param maxDownstreams 最多同时连接的下游数
+     */
+    public StreamRelay(int port, int queueFrames, int maxDownstreams) {
+        this(port, null, queueFrames, maxDownstreams);
+    }
+
+    private StreamRelay(int port, Path unixSocketPath, int queueFrames, int maxDownstreams) {
+        if (queueFrames <= 0 || maxDownstreams <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("无效的中继参数: queueFrames=%d, maxDownstreams=%d", queueFrames, maxDownstreams));
+        }
+        this.port = port;
+        this.unixSocketPath = unixSocketPath;
+        this.queueFrames = queueFrames;
+        this.maxDownstreams = maxDownstreams;
+    }
+
+    /**
+     * 创建监听Unix域套接字的中继（需要Java 16或更高版本的运行时）
+     *
+     * @param path 套接字文件路径，启动时删除上次遗留的套接字文件
+     */
+    public static StreamRelay unixSocket(Path path, int queueFrames, int maxDownstreams) {
+        return new StreamRelay(0, path, queueFrames, maxDownstreams);
+    }
+
+    /**
+     * 按 -Drelay.* 创建中继
+     *
+     * @return 中继，没有指定 -Drelay.port 时返回null（不启用）
+     */
+    public static StreamRelay fromSystemProperties() {
+        int port = Integer.getInteger("relay.port", 0);
+        if (port <= 0) {
+            return null;
+        }
+        return new StreamRelay(port, Integer.getInteger("relay.queueFrames", 300),
+                Integer.getInteger("relay.maxDownstreams", 16));
+    }
+
+    /**
+     * 按 -Drelay.unixSocket 创建本机中继
+     *
+     * @return 中继，没有指定 -Drelay.unixSocket 时返回null（不启用）
+     */
+    public static StreamRelay unixSocketFromSystemProperties() {
+        String path = System.getProperty("relay.unixSocket");
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+        return unixSocket(Paths.get(path), Integer.getInteger("relay.queueFrames", 300),
+                Integer.getInteger("relay.maxDownstreams", 16));
+    }
+
+    /**
+     * 开始监听下游连接（已启动时忽略）
+     *
+     * @throws IOException 端口被占用，或者运行时不支持Unix域套接字
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null || unixServerChannel != null) {
+            return;
+        }
+        if (unixSocketPath != null) {
+            unixServerChannel = openUnixServerChannel(unixSocketPath);
+        } else {
+            ServerSocket newServerSocket = new ServerSocket();
+            newServerSocket.setReuseAddress(true);
+            newServerSocket.bind(new InetSocketAddress(port));
+            serverSocket = newServerSocket;
+        }
+        Thread acceptThread = new Thread(this::runAccept, "Relay-Accept");
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    /**
+     * 通过反射打开Unix域套接字：项目以Java 11为编译目标，UnixDomainSocketAddress 和
+     * ServerSocketChannel.open(ProtocolFamily) 在Java 16才加入，较早的运行时上抛出IOException
+     */
+    private static ServerSocketChannel openUnixServerChannel(Path path) throws IOException {
+        SocketAddress address;
+        ServerSocketChannel channel;
+        try {
+            ProtocolFamily unix = StandardProtocolFamily.valueOf("UNIX");
+            address = (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", Path.class).invoke(null, path);
+            channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, unix);
+        } catch (ReflectiveOperationException | IllegalArgumentException e) {
+            throw new IOException("当前运行时不支持Unix域套接字（需要Java 16或更高版本）", e);
+        }
+        try {
+            if (Files.isRegularFile(path)) {
+                throw new IOException("不是套接字文件: " + path);
+            }
+            // 上次运行遗留的套接字文件
+            Files.deleteIfExists(path);
+            channel.bind(address);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * 等待下一个下游连接
+     */
+    private Downstream acceptDownstream() throws IOException {
+        if (unixServerChannel != null) {
+            SocketChannel channel = unixServerChannel.accept();
+            return new Downstream(channel, Channels.newOutputStream(channel),
+                    "unix#" + (acceptedDownstreams.get() + rejectedDownstreams.get() + 1));
+        }
+        Socket socket = serverSocket.accept();
+        try {
+            socket.setTcpNoDelay(true);
+        } catch (IOException e) {
+            // 忽略
+        }
+        return new Downstream(socket, socket.getOutputStream(), String.valueOf(socket.getRemoteSocketAddress()));
+    }
+
+    private void runAccept() {
+        while (!closed) {
+            Downstream downstream;
+            try {
+                downstream = acceptDownstream();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("中继接受连接失败: " + e.getMessage());
+                }
+                return;
+            }
+            if (downstreams.size() >= maxDownstreams) {
+                rejectedDownstreams.incrementAndGet();
+                System.out.println("中继下游已达上限 " + maxDownstreams + "，拒绝: " + downstream.name);
+                downstream.close();
+                continue;
+            }
+            synchronized (this) {
+                // 先放入缓存的GOP，新下游从IDR帧开始，不需要等待下一个关键帧
+                if (!gop.isEmpty() && !gopOverflow) {
+                    downstream.queue.addAll(gop);
+                    downstream.awaitingKeyFrame = false;
+                }
+                downstreams.add(downstream);
+            }
+            acceptedDownstreams.incrementAndGet();
+            System.out.println("中继下游连接: " + downstream.name + "，缓存GOP " + downstream.queue.size() + " 帧");
+            downstream.writer.start();
+        }
+    }
+
+    /**
+     * 转发一个访问单元（在组装线程上调用，不会阻塞）
+     * frameData 被所有下游共享，调用者之后不能再修改它
+     */
+    public synchronized void append(byte[] frameData, boolean isKeyFrame) {
+        if (closed) {
+            return;
+        }
+        if (isKeyFrame) {
+            gop.clear();
+            gopOverflow = false;
+        }
+        if (!gopOverflow && (isKeyFrame || !gop.isEmpty())) {
+            if (gop.size() < queueFrames) {
+                gop.add(frameData);
+            } else {
+                gop.clear();
+                gopOverflow = true;
+            }
+        }
+        for (Downstream downstream : downstreams) {
+            downstream.offer(frameData, isKeyFrame);
+        }
+    }
+
+    private void remove(Downstream downstream) {
+        if (downstreams.remove(downstream)) {
+            droppedByRemoved.addAndGet(downstream.droppedFrames.get());
+        }
+        downstream.close();
+    }
+
+    /**
+     * 停止监听并断开所有下游
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            try {
+                if (serverSocket != null) {
+                    serverSocket.close();
+                }
+                if (unixServerChannel != null) {
+                    unixServerChannel.close();
+                    Files.deleteIfExists(unixSocketPath);
+                }
+            } catch (IOException e) {
+                // 忽略
+            }
+            gop.clear();
+        }
+        for (Downstream downstream : downstreams) {
+            downstream.close();
+        }
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return 监听地址描述（TCP端口或Unix域套接字路径）
+     */
+    public String getAddress() {
+        return unixSocketPath != null ? "unix:" + unixSocketPath : "端口 " + port;
+    }
+
+    public int getDownstreamCount() {
+        return downstreams.size();
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        long dropped = droppedByRemoved.get();
+        for (Downstream downstream : downstreams) {
+            dropped += downstream.droppedFrames.get();
+        }
+        int gopFrames;
+        synchronized (this) {
+            gopFrames = gop.size();
+        }
+        sb.append(String.format("中继: %s, 下游=%d/%d, 累计连接=%d, 拒绝=%d, 已发送=%d KB, 丢弃=%d帧, GOP缓存=%d帧",
+                getAddress(), downstreams.size(), maxDownstreams, acceptedDownstreams.get(), rejectedDownstreams.get(),
+                totalSentBytes.get() / 1024, dropped, gopFrames));
+        for (Downstream downstream : downstreams) {
+            sb.append(String.format("%n  下游 %s: 已发送=%d帧 / %d KB, 积压=%d帧, 丢弃=%d帧", downstream.name,
+                    downstream.sentFrames.get(), downstream.sentBytes.get() / 1024, downstream.queue.size(),
+                    downstream.droppedFrames.get()));
+        }
+        return sb.toString();
+    }
+}
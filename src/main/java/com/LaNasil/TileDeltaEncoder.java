@@ -0,0 +1,346 @@
+package com.LaNasil;
+
+import org.java_websocket.WebSocket;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
+
+/**
+ * 分块增量编码 - 解码图像按固定大小分块，只发送与上一帧相比发生变化的块
+ * 画面大部分静止时（设备UI测试）带宽和编码CPU都只与变化区域成正比。
+ * 每个块用CRC32判断是否变化；每个客户端有一个待发送块集合，积压时跳过的帧中变化的块会累积，
+ * 下次发送时一起补上，客户端画面不会缺块。需要的块在编码线程池中并行编码，每帧每个块最多编码一次。
+ * JPEG编码器按块尺寸复用（内部块和右侧/底部边缘块只有几种尺寸），不会为每个块重新创建编码器。
+ * 新客户端和每隔 refreshMs 的周期刷新发送全部块。
+ * 配置: -Dtiles.size=64 -Dtiles.format=png|jpeg -Dtiles.refreshMs=10000 -Dtiles.threads=CPU核数
+ */
+public class TileDeltaEncoder implements Closeable {
+
+    /**
+     * 单个客户端的状态（只在编码线程上访问，needsFull除外）
+     */
+    private static final class ClientState {
+        final BitSet dirty = new BitSet();
+        volatile boolean needsFull = true;
+    }
+
+    private final int tileSize;
+    private final boolean jpeg;
+    private final long refreshMs;
+    private final int threadCount;
+    private final Map<WebSocket, ClientState> clients = new ConcurrentHashMap<>();
+    // 空闲的JPEG编码器，按块尺寸（宽 << 32 | 高）分组，编码任务借出后归还，每种尺寸最多线程数个
+    private final Map<Long, Queue<ImageEncoder.JpegEncoder>> idleJpegEncoders = new ConcurrentHashMap<>();
+    private ForkJoinPool pool;
+
+    // 只在编码线程上访问
+    private int width = -1;
+    private int height = -1;
+    private int columns;
+    private int rows;
+    private long[] checksums;
+    private long lastRefreshMillis;
+
+    // 统计
+    private final AtomicLong frames = new AtomicLong(0);
+    private final AtomicLong changedTiles = new AtomicLong(0);
+    private final AtomicLong totalTiles = new AtomicLong(0);
+    private final AtomicLong encodedTiles = new AtomicLong(0);
+    private final AtomicLong messageBytes = new AtomicLong(0);
+
+    public TileDeltaEncoder(int tileSize, boolean jpeg, long refreshMs, int threadCount) {
+        if (tileSize < 16 || refreshMs <= 0 || threadCount <= 0) {
+            throw new IllegalArgumentException(String.format(
+                    "无效的分块参数: tileSize=%d, refreshMs=%d, threads=%d", tileSize, refreshMs, threadCount));
+        }
+        this.tileSize = tileSize;
+        this.jpeg = jpeg;
+        this.refreshMs = refreshMs;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * 按 -Dtiles.* 创建编码器（线程池在第一次编码时创建）
+     */
+    public static TileDeltaEncoder fromSystemProperties() {
+        return new TileDeltaEncoder(Integer.getInteger("tiles.size", 64),
+                "jpeg".equalsIgnoreCase(System.getProperty("tiles.format", "png")),
+                Long.getLong("tiles.refreshMs", 10000),
+                Integer.getInteger("tiles.threads", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * 添加客户端，下一帧向它发送全部块
+     */
+    public void addClient(WebSocket client) {
+        clients.put(client, new ClientState());
+    }
+
+    public void removeClient(WebSocket client) {
+        clients.remove(client);
+    }
+
+    public void clear() {
+        clients.clear();
+    }
+
+    public boolean hasClients() {
+        return !clients.isEmpty();
+    }
+
+    /**
+     * 处理一帧（在图像分发线程上调用）
+     *
+     * @param frame 解码图像
+     * @param skip  本帧跳过的客户端（例如发送积压过多），跳过期间变化的块累积到下次发送
+     * @return 每个客户端要发送的tile_frame消息，没有变化块的客户端不在结果中
+     */
+    public Map<WebSocket, String> encode(DecodedFrame frame, Predicate<WebSocket> skip) throws IOException {
+        long now = System.currentTimeMillis();
+        boolean geometryChanged = frame.getWidth() != width || frame.getHeight() != height;
+        if (geometryChanged) {
+            width = frame.getWidth();
+            height = frame.getHeight();
+            columns = (width + tileSize - 1) / tileSize;
+            rows = (height + tileSize - 1) / tileSize;
+            checksums = new long[columns * rows];
+            // 编码任务都已结束，旧尺寸的编码器不会再用到
+            closeJpegEncoders();
+        }
+        int tileCount = columns * rows;
+        BitSet changed = computeChangedTiles(frame, geometryChanged);
+        boolean refresh = now - lastRefreshMillis >= refreshMs;
+        if (refresh) {
+            lastRefreshMillis = now;
+        }
+        frames.incrementAndGet();
+        changedTiles.addAndGet(changed.cardinality());
+        totalTiles.addAndGet(tileCount);
+
+        // 每个客户端待发送的块
+        Map<WebSocket, BitSet> pending = new HashMap<>();
+        BitSet needed = new BitSet(tileCount);
+        for (Map.Entry<WebSocket, ClientState> entry : clients.entrySet()) {
+            ClientState state = entry.getValue();
+            if (state.needsFull || geometryChanged || refresh) {
+                state.needsFull = false;
+                state.dirty.set(0, tileCount);
+            } else {
+                state.dirty.or(changed);
+            }
+            if (state.dirty.isEmpty() || skip.test(entry.getKey())) {
+                continue;
+            }
+            BitSet tiles = (BitSet) state.dirty.clone();
+            state.dirty.clear();
+            pending.put(entry.getKey(), tiles);
+            needed.or(tiles);
+        }
+        if (pending.isEmpty()) {
+            return new HashMap<>();
+        }
+
+        String[] encoded = encodeTiles(frame, needed);
+        // 待发送块相同的客户端共享同一条消息
+        Map<BitSet, String> messages = new HashMap<>();
+        Map<WebSocket, String> result = new HashMap<>();
+        for (Map.Entry<WebSocket, BitSet> entry : pending.entrySet()) {
+            String message = messages.computeIfAbsent(entry.getValue(),
+                    tiles -> buildMessage(frame, tiles, encoded, tiles.cardinality() == tileCount, now));
+            result.put(entry.getKey(), message);
+        }
+        for (String message : messages.values()) {
+            messageBytes.addAndGet(message.length());
+        }
+        return result;
+    }
+
+    /**
+     * 按行计算每个块的CRC32，与上一帧比较
+     */
+    private BitSet computeChangedTiles(DecodedFrame frame, boolean reset) {
+        byte[] pixels = frame.getPixels();
+        int channels = frame.getChannels();
+        int rowBytes = width * channels;
+        BitSet changed = new BitSet(columns * rows);
+        CRC32[] crcs = new CRC32[columns];
+        for (int column = 0; column < columns; column++) {
+            crcs[column] = new CRC32();
+        }
+        for (int row = 0; row < rows; row++) {
+            int top = row * tileSize;
+            int bottom = Math.min(top + tileSize, height);
+            for (CRC32 crc : crcs) {
+                crc.reset();
+            }
+            for (int y = top; y < bottom; y++) {
+                int lineStart = y * rowBytes;
+                for (int column = 0; column < columns; column++) {
+                    int left = column * tileSize * channels;
+                    int length = Math.min(tileSize * channels, rowBytes - left);
+                    crcs[column].update(pixels, lineStart + left, length);
+                }
+            }
+            for (int column = 0; column < columns; column++) {
+                int index = row * columns + column;
+                long checksum = crcs[column].getValue();
+                if (reset || checksums[index] != checksum) {
+                    changed.set(index);
+                    checksums[index] = checksum;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * 在线程池中并行编码需要的块
+     *
+     * @return 按块序号排列的Base64数据，不需要的块为null
+     */
+    private String[] encodeTiles(DecodedFrame frame, BitSet needed) throws IOException {
+        if (pool == null) {
+            pool = new ForkJoinPool(threadCount);
+        }
+        String[] encoded = new String[columns * rows];
+        List<Future<?>> futures = new ArrayList<>();
+        for (int index = needed.nextSetBit(0); index >= 0; index = needed.nextSetBit(index + 1)) {
+            int tile = index;
+            futures.add(pool.submit((Callable<Void>) () -> {
+                encoded[tile] = Base64.getEncoder().encodeToString(encodeTile(frame, tile));
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("分块编码被中断", e);
+        } catch (ExecutionException e) {
+            throw new IOException("分块编码失败: " + e.getCause().getMessage(), e.getCause());
+        }
+        encodedTiles.addAndGet(futures.size());
+        return encoded;
+    }
+
+    private byte[] encodeTile(DecodedFrame frame, int index) throws IOException {
+        int left = (index % columns) * tileSize;
+        int top = (index / columns) * tileSize;
+        int tileWidth = Math.min(tileSize, width - left);
+        int tileHeight = Math.min(tileSize, height - top);
+        int channels = frame.getChannels();
+        if (jpeg) {
+            if (channels != 3) {
+                throw new IOException("不支持的通道数: " + channels);
+            }
+            return encodeJpegTile(frame.getPixels(), (top * width + left) * channels, width * channels, tileWidth,
+                    tileHeight);
+        }
+        int tileRowBytes = tileWidth * channels;
+        byte[] pixels = new byte[tileRowBytes * tileHeight];
+        for (int y = 0; y < tileHeight; y++) {
+            System.arraycopy(frame.getPixels(), ((top + y) * width + left) * channels, pixels, y * tileRowBytes,
+                    tileRowBytes);
+        }
+        DecodedFrame tile = new DecodedFrame(pixels, tileWidth, tileHeight, channels, frame.getFrameNumber(),
+                frame.getTimestamp());
+        return ImageEncoder.encodePng(tile);
+    }
+
+    /**
+     * 用同尺寸的空闲编码器直接编码图像中的块区域，编码失败的编码器不再复用
+     */
+    private byte[] encodeJpegTile(byte[] pixels, int offset, int stride, int tileWidth, int tileHeight)
+            throws IOException {
+        Queue<ImageEncoder.JpegEncoder> idle = idleJpegEncoders.computeIfAbsent(
+                (long) tileWidth << 32 | tileHeight, key -> new ConcurrentLinkedQueue<>());
+        ImageEncoder.JpegEncoder encoder = idle.poll();
+        if (encoder == null) {
+            encoder = new ImageEncoder.JpegEncoder(tileWidth, tileHeight);
+        }
+        boolean reusable = false;
+        try {
+            byte[] data = encoder.encode(pixels, offset, stride);
+            reusable = true;
+            return data;
+        } finally {
+            if (reusable) {
+                idle.offer(encoder);
+            } else {
+                encoder.close();
+            }
+        }
+    }
+
+    private void closeJpegEncoders() {
+        for (Queue<ImageEncoder.JpegEncoder> idle : idleJpegEncoders.values()) {
+            ImageEncoder.JpegEncoder encoder;
+            while ((encoder = idle.poll()) != null) {
+                encoder.close();
+            }
+        }
+        idleJpegEncoders.clear();
+    }
+
+    private String buildMessage(DecodedFrame frame, BitSet tiles, String[] encoded, boolean full, long now) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(
+                "{\"type\":\"tile_frame\",\"frameNumber\":%d,\"width\":%d,\"height\":%d,\"tileSize\":%d,\"format\":\"%s\",\"full\":%b,\"tiles\":[",
+                frame.getFrameNumber(), width, height, tileSize, jpeg ? "JPEG" : "PNG", full));
+        boolean first = true;
+        for (int index = tiles.nextSetBit(0); index >= 0; index = tiles.nextSetBit(index + 1)) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            int left = (index % columns) * tileSize;
+            int top = (index / columns) * tileSize;
+            sb.append(String.format("{\"x\":%d,\"y\":%d,\"w\":%d,\"h\":%d,\"data\":\"", left, top,
+                    Math.min(tileSize, width - left), Math.min(tileSize, height - top)));
+            sb.append(encoded[index]).append("\"}");
+        }
+        sb.append(String.format("],\"timestamp\":%d}", now));
+        return sb.toString();
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                // 等待正在编码的任务归还编码器
+                pool.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+        closeJpegEncoders();
+    }
+
+    public String getStats() {
+        long total = totalTiles.get();
+        return String.format("分块增量: 客户端=%d, 帧=%d, 变化块比例=%.1f%%, 已编码块=%d, 已发送=%d KB",
+                clients.size(), frames.get(), total > 0 ? changedTiles.get() * 100.0 / total : 0.0,
+                encodedTiles.get(), messageBytes.get() / 1024);
+    }
+}
@@ -0,0 +1,362 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.avcodec.AVPacket;
+import org.bytedeco.ffmpeg.avutil.AVRational;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 时移缓冲区 - 在堆外内存中保留最近N秒的访问单元，可以随时导出片段
+ * 访问单元数据按写入顺序循环写入一块直接内存（{@link ByteBuffer#allocateDirect}），
+ * 帧的偏移、大小、帧号和时间戳保存在基本类型数组组成的环形索引中，关键帧另有一个索引，
+ * 保留几分钟的视频也不会增加堆内存和GC压力。
+ * 导出时从请求起点之前最近的IDR帧开始，每次只在锁内把一个访问单元从直接内存写入文件，
+ * 组装线程追加数据最多等待一帧的写入时间。
+ * 配置: -Ddvr.seconds=30（大于0时启用）-Ddvr.capacityMB=64 -Ddvr.exportDir=clips
+ */
+public class TimeShiftBuffer {
+
+    /**
+     * 导出的片段
+     */
+    public static final class Clip {
+        private final Path file;
+        private final int frames;
+        private final long bytes;
+        private final long startTimestamp;
+        private final long endTimestamp;
+
+        Clip(Path file, int frames, long bytes, long startTimestamp, long endTimestamp) {
+            this.file = file;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.startTimestamp = startTimestamp;
+            this.endTimestamp = endTimestamp;
+        }
+
+        public Path getFile() {
+            return file;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return 第一帧（IDR帧）的接收时间（毫秒）
+         */
+        public long getStartTimestamp() {
+            return startTimestamp;
+        }
+
+        public long getEndTimestamp() {
+            return endTimestamp;
+        }
+
+        public long getDurationMillis() {
+            return endTimestamp - startTimestamp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (%d帧, %d KB, %.1f秒)", file.getFileName(), frames, bytes / 1024,
+                    getDurationMillis() / 1000.0);
+        }
+    }
+
+    private final long retainMillis;
+    private final ByteBuffer data;
+    private final int capacity;
+    private int writePosition = 0;
+
+    // 帧索引（环形，按序号 seq % maxFrames 存放）
+    private final int maxFrames;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] frameNumbers;
+    private final long[] timestamps;
+    private final boolean[] keyFrames;
+    private long oldestSeq = 0;
+    private long nextSeq = 0;
+    private long bufferedBytes = 0;
+
+    // 关键帧索引：按时间顺序保存关键帧的序号
+    private final long[] keySeqs;
+    private int keyHead = 0;
+    private int keyCount = 0;
+
+    // 统计
+    private final AtomicLong appendedFrames = new AtomicLong(0);
+    private final AtomicLong rejectedFrames = new AtomicLong(0);
+    private final AtomicLong exportedClips = new AtomicLong(0);
+
+    /**
+     * @param retainSeconds 保留的时长（秒）
+     * @param capacityBytes 直接内存大小，码率较高时保留的时长会少于 retainSeconds
+     */
+    public TimeShiftBuffer(int retainSeconds, int capacityBytes) {
+        if (retainSeconds <= 0 || capacityBytes <= 0) {
+            throw new IllegalArgumentException("时移缓冲区的时长和容量必须大于0");
+        }
+        this.retainMillis = retainSeconds * 1000L;
+        this.capacity = capacityBytes;
+        this.data = ByteBuffer.allocateDirect(capacityBytes);
+        // 按最高120fps估算帧数，索引本身只占很少的堆内存
+        this.maxFrames = (int) Math.min(1 << 20, Math.max(1024, retainSeconds * 120L));
+        this.offsets = new int[maxFrames];
+        this.lengths = new int[maxFrames];
+        this.frameNumbers = new long[maxFrames];
+        this.timestamps = new long[maxFrames];
+        this.keyFrames = new boolean[maxFrames];
+        this.keySeqs = new long[maxFrames];
+    }
+
+    /**
+     * 按 -Ddvr.seconds / -Ddvr.capacityMB 创建，未启用时返回null
+     */
+    public static TimeShiftBuffer fromSystemProperties() {
+        int seconds = Integer.getInteger("dvr.seconds", 0);
+        if (seconds <= 0) {
+            return null;
+        }
+        int capacityMB = Integer.getInteger("dvr.capacityMB", 64);
+        return new TimeShiftBuffer(seconds, capacityMB * 1024 * 1024);
+    }
+
+    /**
+     * 追加一个访问单元（在组装线程上调用）
+     *
+     * @return 是否已写入（缓冲区为空时跳过IDR之前的帧，超过容量的帧也会被跳过）
+     */
+    public synchronized boolean append(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+        int length = frameData.length;
+        if (length > capacity || (size() == 0 && !isKeyFrame)) {
+            rejectedFrames.incrementAndGet();
+            return false;
+        }
+        long now = System.currentTimeMillis();
+
+        // 末尾放不下时回到开头，末尾剩余的旧数据一起淘汰
+        boolean wrapped = false;
+        int tailStart = writePosition;
+        if (writePosition + length > capacity) {
+            writePosition = 0;
+            wrapped = true;
+        }
+        int end = writePosition + length;
+        while (size() > 0) {
+            int index = index(oldestSeq);
+            int offset = offsets[index];
+            boolean inTail = wrapped && offset >= tailStart;
+            boolean overlaps = offset < end && offset + lengths[index] > writePosition;
+            if (!inTail && !overlaps && size() < maxFrames) {
+                break;
+            }
+            evictOldest();
+        }
+
+        data.position(writePosition);
+        data.put(frameData);
+        int index = index(nextSeq);
+        offsets[index] = writePosition;
+        lengths[index] = length;
+        frameNumbers[index] = frameNumber;
+        timestamps[index] = now;
+        keyFrames[index] = isKeyFrame;
+        if (isKeyFrame) {
+            keySeqs[(keyHead + keyCount) % maxFrames] = nextSeq;
+            keyCount++;
+        }
+        nextSeq++;
+        bufferedBytes += length;
+        writePosition = end;
+        appendedFrames.incrementAndGet();
+
+        // 按时长整GOP淘汰：保留起点之前的最后一个IDR帧，导出最近 retainSeconds 秒时总能从IDR开始
+        while (keyCount > 1 && now - timestamps[index(keySeqs[(keyHead + 1) % maxFrames])] >= retainMillis) {
+            long nextKeySeq = keySeqs[(keyHead + 1) % maxFrames];
+            while (oldestSeq < nextKeySeq) {
+                evictOldest();
+            }
+        }
+        // 按容量淘汰后缓冲区也要从关键帧开始
+        while (size() > 0 && !keyFrames[index(oldestSeq)]) {
+            evictOldest();
+        }
+        return true;
+    }
+
+    private void evictOldest() {
+        if (keyCount > 0 && keySeqs[keyHead] == oldestSeq) {
+            keyHead = (keyHead + 1) % maxFrames;
+            keyCount--;
+        }
+        bufferedBytes -= lengths[index(oldestSeq)];
+        oldestSeq++;
+    }
+
+    private int index(long seq) {
+        return (int) (seq % maxFrames);
+    }
+
+    private int size() {
+        return (int) (nextSeq - oldestSeq);
+    }
+
+    /**
+     * 导出最近 seconds 秒的视频，从起点之前最近的IDR帧开始，到调用时的最新一帧结束
+     *
+     * @param file 输出文件，扩展名为 .mp4 时封装为MP4（不重新编码），否则写入Annex-B裸流
+     * @throws IOException 缓冲区为空、导出期间数据已被覆盖或写入失败
+     */
+    public Clip exportClip(double seconds, Path file) throws IOException {
+        long startSeq;
+        long endSeq;
+        synchronized (this) {
+            if (keyCount == 0) {
+                throw new IOException("时移缓冲区中还没有关键帧");
+            }
+            endSeq = nextSeq - 1;
+            long startTime = timestamps[index(endSeq)] - (long) (seconds * 1000);
+            // 二分查找时间不晚于起点的最后一个关键帧，找不到时从最早的关键帧开始
+            int low = 0;
+            int high = keyCount - 1;
+            int found = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                long seq = keySeqs[(keyHead + mid) % maxFrames];
+                if (timestamps[index(seq)] <= startTime) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            startSeq = keySeqs[(keyHead + found) % maxFrames];
+        }
+
+        boolean mp4 = file.getFileName().toString().toLowerCase().endsWith(".mp4");
+        Path rawFile = mp4 ? Files.createTempFile(file.toAbsolutePath().getParent(), "clip-", ".h264") : file;
+        long bytes = 0;
+        long startTimestamp;
+        long endTimestamp;
+        try {
+            try (FileChannel channel = FileChannel.open(rawFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (long seq = startSeq; seq <= endSeq; seq++) {
+                    bytes += writeFrame(channel, seq);
+                }
+            }
+            synchronized (this) {
+                if (startSeq < oldestSeq) {
+                    throw new IOException("导出期间数据已被覆盖，请缩短片段时长或增大 -Ddvr.capacityMB");
+                }
+                startTimestamp = timestamps[index(startSeq)];
+                endTimestamp = timestamps[index(endSeq)];
+            }
+            int frames = (int) (endSeq - startSeq + 1);
+            if (mp4) {
+                double fps = endTimestamp > startTimestamp ? (frames - 1) * 1000.0 / (endTimestamp - startTimestamp)
+                        : 30.0;
+                remuxToMp4(rawFile, file, fps);
+            }
+            exportedClips.incrementAndGet();
+            return new Clip(file, frames, bytes, startTimestamp, endTimestamp);
+        } finally {
+            if (mp4) {
+                Files.deleteIfExists(rawFile);
+            }
+        }
+    }
+
+    /**
+     * 在锁内把一个访问单元从直接内存写入文件（不经过堆内存）
+     */
+    private synchronized int writeFrame(FileChannel channel, long seq) throws IOException {
+        if (seq < oldestSeq) {
+            throw new IOException("导出期间数据已被覆盖，请缩短片段时长或增大 -Ddvr.capacityMB");
+        }
+        int index = index(seq);
+        ByteBuffer frame = data.duplicate();
+        frame.limit(offsets[index] + lengths[index]).position(offsets[index]);
+        while (frame.hasRemaining()) {
+            channel.write(frame);
+        }
+        return lengths[index];
+    }
+
+    /**
+     * 把Annex-B裸流封装为MP4（只复制数据包，不重新编码）
+     */
+    private static void remuxToMp4(Path rawFile, Path mp4File, double fps) throws IOException {
+        FFmpegNatives.ensureLoaded();
+        FFmpegFrameGrabber grabber = new FFmpegFrameGrabber(rawFile.toString());
+        FFmpegFrameRecorder recorder = null;
+        try {
+            grabber.setFormat("h264");
+            grabber.start();
+            recorder = new FFmpegFrameRecorder(mp4File.toString(), grabber.getImageWidth(), grabber.getImageHeight());
+            recorder.setFormat("mp4");
+            recorder.setFrameRate(fps);
+            recorder.start(grabber.getFormatContext());
+            // 裸流没有时间戳：按缓冲区中的平均接收间隔以解码顺序生成（设备码流通常不含B帧）
+            AVRational timeBase = grabber.getFormatContext().streams(grabber.getVideoStream()).time_base();
+            double ticksPerFrame = timeBase.den() / (timeBase.num() * fps);
+            long index = 0;
+            AVPacket packet;
+            while ((packet = grabber.grabPacket()) != null) {
+                long pts = Math.round(index * ticksPerFrame);
+                packet.pts(pts);
+                packet.dts(pts);
+                packet.duration(Math.round(ticksPerFrame));
+                recorder.recordPacket(packet);
+                index++;
+            }
+            recorder.stop();
+        } finally {
+            // grabber.start() 失败时同样释放已分配的格式上下文
+            if (recorder != null) {
+                recorder.release();
+            }
+            grabber.stop();
+            grabber.release();
+        }
+    }
+
+    /**
+     * @return 当前缓冲的时长（毫秒）
+     */
+    public synchronized long getBufferedMillis() {
+        return size() > 0 ? timestamps[index(nextSeq - 1)] - timestamps[index(oldestSeq)] : 0;
+    }
+
+    public synchronized int getBufferedFrames() {
+        return size();
+    }
+
+    public synchronized long getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    public int getCapacityBytes() {
+        return capacity;
+    }
+
+    public synchronized String getStats() {
+        return String.format("时移缓冲: %.1f秒 / %d帧 / %d个关键帧, 内存=%d/%d KB, 已追加=%d, 跳过=%d, 已导出=%d",
+                getBufferedMillis() / 1000.0, size(), keyCount, bufferedBytes / 1024, capacity / 1024,
+                appendedFrames.get(), rejectedFrames.get(), exportedClips.get());
+    }
+}
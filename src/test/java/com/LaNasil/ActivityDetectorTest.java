@@ -0,0 +1,165 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ActivityDetector 的活动/静止切换、IDR之后的画质提升帧、帧内切片比例和静止期间的解码过滤
+ * 访问单元是只有切片头的合成数据，帧大小由填充字节控制
+ */
+class ActivityDetectorTest {
+
+    private static final long IDLE_MS = 1000;
+    private static final long FRAME_MS = 33;
+    private static final int STILL_SIZE = 40;
+
+    // 切片头：first_mb_in_slice=0，slice_type=5（P）/ 7（I）
+    private static final int P_SLICE = 0xC4;
+    private static final int I_SLICE = 0x88;
+
+    private final List<String> changes = new ArrayList<>();
+    private ActivityDetector detector;
+    // 测试时间都相对于第一个IDR
+    private long base;
+
+    @BeforeEach
+    void setUp() {
+        base = System.currentTimeMillis();
+        detector = new ActivityDetector(0.5, IDLE_MS, 2000, 3, 300, 0.1,
+                (idle, score, quietMillis) -> changes.add(idle ? "idle" : "active"));
+    }
+
+    @Test
+    void becomesIdleAfterIdleMsAndActiveOnLargeFrame() {
+        // 第一个IDR总是活动，静止计时从这里开始
+        assertEquals(1.0, detector.analyze(frame(0x65, 2000, I_SLICE), true, base));
+        for (long t = base + FRAME_MS; t < base + IDLE_MS; t += FRAME_MS) {
+            assertEquals(0.0, detector.analyze(frame(0x41, STILL_SIZE, P_SLICE), false, t));
+        }
+        assertFalse(detector.isIdle());
+        detector.analyze(frame(0x41, STILL_SIZE, P_SLICE), false, base + IDLE_MS);
+        assertTrue(detector.isIdle());
+
+        // 分数为 log(大小/基线) / log(sizeRatio)：3倍于静止帧时为1
+        assertEquals(1.0, detector.analyze(frame(0x41, STILL_SIZE * 3, P_SLICE), false, base + IDLE_MS + 500));
+        assertFalse(detector.isIdle());
+        // 1.7倍：分数略低于阈值，不算活动
+        double score = detector.analyze(frame(0x41, STILL_SIZE * 17 / 10, P_SLICE), false, base + IDLE_MS + 600);
+        assertTrue(score > 0.4 && score < 0.5, String.valueOf(score));
+        detector.analyze(frame(0x41, STILL_SIZE, P_SLICE), false, base + 2 * IDLE_MS + 499);
+        assertFalse(detector.isIdle());
+        detector.analyze(frame(0x41, STILL_SIZE, P_SLICE), false, base + 2 * IDLE_MS + 500);
+        assertTrue(detector.isIdle());
+        assertEquals(Arrays.asList("idle", "active", "idle"), changes);
+    }
+
+    @Test
+    void qualityRampAfterUnchangedIdrIsNotActivity() {
+        detector.analyze(frame(0x65, 2000, I_SLICE), true, base);
+        long t = feedUntilIdle(frame(0x41, STILL_SIZE, P_SLICE), base + FRAME_MS);
+        assertTrue(detector.isIdle());
+
+        // 大小几乎不变的周期IDR，之后编码器逐步提高画质
+        assertEquals(0.0, detector.analyze(frame(0x65, 2000, I_SLICE), true, t));
+        for (int size : new int[] { STILL_SIZE * 3, STILL_SIZE * 2, STILL_SIZE * 2 }) {
+            t += FRAME_MS;
+            assertTrue(detector.analyze(frame(0x41, size, P_SLICE), false, t) >= 0.5);
+            assertTrue(detector.isIdle());
+        }
+        // 回落到基线后结束等待，之后的大帧是真正的活动
+        t += FRAME_MS;
+        detector.analyze(frame(0x41, STILL_SIZE, P_SLICE), false, t);
+        t += FRAME_MS;
+        detector.analyze(frame(0x41, STILL_SIZE * 3, P_SLICE), false, t);
+        assertFalse(detector.isIdle());
+
+        // 大小变化超过10%的IDR本身就是活动
+        assertEquals(1.0, detector.analyze(frame(0x65, 2400, I_SLICE), true, t + FRAME_MS));
+        assertEquals(Arrays.asList("idle", "active"), changes);
+    }
+
+    @Test
+    void qualityRampCountsAsActivityAfterSettleWindow() {
+        detector.analyze(frame(0x65, 2000, I_SLICE), true, base);
+        long t = feedUntilIdle(frame(0x41, STILL_SIZE, P_SLICE), base + FRAME_MS);
+        long idr = t;
+        detector.analyze(frame(0x65, 2000, I_SLICE), true, idr);
+        // 大帧一直持续：最多忽略500ms
+        detector.analyze(frame(0x41, STILL_SIZE * 3, P_SLICE), false, idr + 499);
+        assertTrue(detector.isIdle());
+        detector.analyze(frame(0x41, STILL_SIZE * 3, P_SLICE), false, idr + 500);
+        assertFalse(detector.isIdle());
+    }
+
+    @Test
+    void intraSliceShareCountsAsActivity() {
+        detector.analyze(frame(0x65, 2000, I_SLICE), true, base);
+        long t = feedUntilIdle(twoSlices(P_SLICE, P_SLICE), base + FRAME_MS);
+        assertTrue(detector.isIdle());
+        // 与静止帧大小相同，但一半切片是帧内编码
+        assertEquals(0.5, detector.analyze(twoSlices(I_SLICE, P_SLICE), false, t), 1e-9);
+        assertFalse(detector.isIdle());
+    }
+
+    @Test
+    void idleSkipsOnlyNonReferenceFrames() {
+        byte[] nonReference = frame(0x01, STILL_SIZE, P_SLICE);
+        byte[] reference = frame(0x41, STILL_SIZE, P_SLICE);
+        byte[] idr = frame(0x65, 2000, I_SLICE);
+        assertTrue(detector.admitDecode(nonReference));
+
+        detector.analyze(idr, true, base);
+        feedUntilIdle(reference, base + FRAME_MS);
+        assertTrue(detector.isIdle());
+        assertFalse(detector.admitDecode(nonReference));
+        assertTrue(detector.admitDecode(reference));
+        assertTrue(detector.admitDecode(idr));
+        assertTrue(detector.getStats().contains("跳过解码=1"), detector.getStats());
+    }
+
+    /**
+     * 从 start 开始按帧间隔送入同一帧，最后一帧正好在 idleMs 处
+     *
+     * @return 下一帧的时间
+     */
+    private long feedUntilIdle(byte[] frame, long start) {
+        for (long t = start; t < base + IDLE_MS; t += FRAME_MS) {
+            detector.analyze(frame, false, t);
+        }
+        detector.analyze(frame, false, base + IDLE_MS);
+        return base + IDLE_MS + FRAME_MS;
+    }
+
+    /**
+     * 单个切片的访问单元：4字节起始码、NALU头、切片头，之后用不含起始码的字节填充到 size
+     */
+    private static byte[] frame(int naluHeader, int size, int sliceHeader) {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) 0x55);
+        data[0] = 0;
+        data[1] = 0;
+        data[2] = 0;
+        data[3] = 1;
+        data[4] = (byte) naluHeader;
+        data[5] = (byte) sliceHeader;
+        return data;
+    }
+
+    private static byte[] twoSlices(int firstSliceHeader, int secondSliceHeader) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] first = frame(0x41, STILL_SIZE / 2, firstSliceHeader);
+        byte[] second = frame(0x41, STILL_SIZE / 2, secondSliceHeader);
+        out.write(first, 0, first.length);
+        out.write(second, 0, second.length);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,187 @@
+package com.LaNasil;
+
+import org.java_websocket.WebSocket;
+import org.java_websocket.WebSocketImpl;
+import org.java_websocket.drafts.Draft_6455;
+import org.java_websocket.framing.Framedata;
+import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.server.WebSocketServer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ClientQualityController 的降级/恢复状态机（测试直接填充和清空连接的发送队列，时间由参数给出），
+ * 以及记录的发送字节数与Java-WebSocket实际放入发送队列的字节数一致
+ */
+class ClientQualityControllerTest {
+
+    private static final long MAX_BACKLOG = 100_000;
+    private static final long RECOVER_MS = 1000;
+
+    private final List<String> changes = new ArrayList<>();
+    private ClientQualityController controller;
+    private WebSocketImpl client;
+    // 客户端状态在第一次调用时以当前时间创建，测试时间都相对于它
+    private long base;
+
+    @BeforeEach
+    void setUp() {
+        controller = new ClientQualityController(true, 1000, MAX_BACKLOG, RECOVER_MS, 5, 0,
+                (webSocket, previous, current, backlogBytes, delayMs) -> changes.add(current.getKey()));
+        client = new WebSocketImpl(new IdleServer(), new Draft_6455());
+        base = System.currentTimeMillis();
+    }
+
+    @Test
+    void stepsDownOneLevelPer500ms() {
+        setBacklog(2 * MAX_BACKLOG);
+        assertNull(controller.admitImage(client, base + 600));
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+        // 距离上一次降级不足500ms
+        assertNull(controller.admitImage(client, base + 1000));
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+        controller.admitImage(client, base + 1100);
+        controller.admitImage(client, base + 1600);
+        controller.admitImage(client, base + 2100);
+        assertEquals(ClientQualityController.Level.KEY_FRAMES, controller.getLevel(client));
+        assertEquals(Arrays.asList("jpeg", "reduced_rate", "key_frames"), changes);
+    }
+
+    @Test
+    void recoversAfterBacklogStaysClearAndBacksOffWhenCongestedAgain() {
+        setBacklog(2 * MAX_BACKLOG);
+        controller.admitImage(client, base + 600);
+        setBacklog(0);
+        assertEquals(ClientQualityController.Level.JPEG, controller.admitImage(client, base + 700));
+        // 无积压需要保持 recoverMs
+        controller.admitImage(client, base + 1699);
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+        assertEquals(ClientQualityController.Level.FULL, controller.admitImage(client, base + 1700));
+
+        // 恢复后很快再次拥塞：降级后恢复等待时间加倍
+        setBacklog(2 * MAX_BACKLOG);
+        controller.admitImage(client, base + 2200);
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+        setBacklog(0);
+        controller.admitImage(client, base + 2300);
+        controller.admitImage(client, base + 3300 + RECOVER_MS / 2);
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+        controller.admitImage(client, base + 2300 + 2 * RECOVER_MS);
+        assertEquals(ClientQualityController.Level.FULL, controller.getLevel(client));
+        assertEquals(Arrays.asList("jpeg", "full", "jpeg", "full"), changes);
+    }
+
+    @Test
+    void estimatedDelayTriggersStepDownBelowBacklogLimit() {
+        byte[] message = new byte[50_000 - 4];
+        controller.onSent(client, message);
+        setBacklog(50_000);
+        controller.admitImage(client, base + 250);
+        // 200ms只写出1000字节：积压49000字节需要约10秒，但距离连接建立还不到500ms
+        setBacklog(49_000);
+        assertNull(controller.admitImage(client, base + 450));
+        assertEquals(ClientQualityController.Level.FULL, controller.getLevel(client));
+        controller.admitImage(client, base + 800);
+        assertEquals(ClientQualityController.Level.JPEG, controller.getLevel(client));
+    }
+
+    @Test
+    void skippedFrameWaitsForNextKeyFrame() {
+        assertTrue(controller.admitFrame(client, false, base + 10));
+        setBacklog(2 * MAX_BACKLOG);
+        assertFalse(controller.admitFrame(client, false, base + 20));
+        setBacklog(0);
+        // 积压已清空，但跳过的帧之后的非关键帧缺少参考帧
+        assertFalse(controller.admitFrame(client, false, base + 30));
+        assertTrue(controller.admitFrame(client, true, base + 40));
+        assertTrue(controller.admitFrame(client, false, base + 50));
+        assertEquals(ClientQualityController.Level.FULL, controller.getLevel(client));
+    }
+
+    @Test
+    void reducedLevelsSendOnlyKeyFramesAndNoNalus() {
+        setBacklog(2 * MAX_BACKLOG);
+        controller.admitImage(client, base + 600);
+        controller.admitImage(client, base + 1100);
+        setBacklog(0);
+        assertEquals(ClientQualityController.Level.REDUCED_RATE, controller.getLevel(client));
+        assertFalse(controller.admitNalu(client, base + 1200));
+        assertTrue(controller.admitFrame(client, true, base + 1200));
+        assertFalse(controller.admitFrame(client, false, base + 1233));
+        // 限帧级别的图像间隔为 1000 / reducedFps
+        assertEquals(ClientQualityController.Level.REDUCED_RATE, controller.admitImage(client, base + 1300));
+        assertNull(controller.admitImage(client, base + 1400));
+        assertEquals(ClientQualityController.Level.REDUCED_RATE, controller.admitImage(client, base + 1500));
+    }
+
+    @Test
+    void frameBytesMatchesServerFrames() {
+        Draft_6455 draft = new Draft_6455();
+        for (int length : new int[] { 0, 1, 125, 126, 65535, 65536, 300_000 }) {
+            byte[] payload = new byte[length];
+            assertEquals(queuedBytes(draft, draft.createFrames(ByteBuffer.wrap(payload), false)),
+                    ClientQualityController.frameBytes(length), "二进制消息 " + length);
+            String text = new String(payload, StandardCharsets.US_ASCII);
+            assertEquals(queuedBytes(draft, draft.createFrames(text, false)),
+                    ClientQualityController.frameBytes(ClientQualityController.utf8Length(text)), "文本消息 " + length);
+        }
+    }
+
+    @Test
+    void utf8LengthCountsNonAsciiMessages() {
+        for (String text : Arrays.asList("{\"type\":\"quality\"}", "{\"description\":\"仅关键帧\"}", "é∑😀x")) {
+            assertEquals(text.getBytes(StandardCharsets.UTF_8).length, ClientQualityController.utf8Length(text), text);
+        }
+    }
+
+    private void setBacklog(long bytes) {
+        client.outQueue.clear();
+        if (bytes > 0) {
+            client.outQueue.add(ByteBuffer.allocate((int) bytes));
+        }
+    }
+
+    private static long queuedBytes(Draft_6455 draft, List<Framedata> frames) {
+        long total = 0;
+        for (Framedata frame : frames) {
+            total += draft.createBinaryFrame(frame).remaining();
+        }
+        return total;
+    }
+
+    /**
+     * 只作为连接的监听器，不会启动
+     */
+    private static final class IdleServer extends WebSocketServer {
+        @Override
+        public void onOpen(WebSocket conn, ClientHandshake handshake) {
+        }
+
+        @Override
+        public void onClose(WebSocket conn, int code, String reason, boolean remote) {
+        }
+
+        @Override
+        public void onMessage(WebSocket conn, String message) {
+        }
+
+        @Override
+        public void onError(WebSocket conn, Exception ex) {
+        }
+
+        @Override
+        public void onStart() {
+        }
+    }
+}
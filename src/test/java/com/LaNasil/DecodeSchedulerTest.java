@@ -0,0 +1,124 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * DecodeScheduler 在解码线程停滞（不调用take）时的丢帧顺序和计数
+ */
+class DecodeSchedulerTest {
+
+    // nal_ref_idc=3 的IDR切片
+    private static final byte[] IDR = { 0, 0, 0, 1, 0x65, (byte) 0x88, 0x01 };
+    // nal_ref_idc=2 的参考P帧
+    private static final byte[] REF = { 0, 0, 0, 1, 0x41, (byte) 0x9a, 0x02 };
+    // nal_ref_idc=0 的非参考帧
+    private static final byte[] NON_REF = { 0, 0, 0, 1, 0x01, (byte) 0x9e, 0x03 };
+
+    private static DecodeScheduler frameBudget(int maxQueuedFrames) {
+        DecodeScheduler scheduler = new DecodeScheduler(60000, maxQueuedFrames);
+        scheduler.open();
+        return scheduler;
+    }
+
+    @Test
+    void dropsNonReferenceFramesFirst() throws Exception {
+        DecodeScheduler scheduler = frameBudget(4);
+        scheduler.submit(IDR, true);
+        scheduler.submit(REF, false);
+        scheduler.submit(NON_REF, false);
+        scheduler.submit(NON_REF, false);
+        scheduler.submit(NON_REF, false);
+
+        assertEquals(3, scheduler.getSkippedNonReferenceCount());
+        assertEquals(0, scheduler.getSkippedToIdrCount());
+        assertEquals(0, scheduler.getIdrJumpCount());
+        assertEquals(2, scheduler.getQueuedFrames());
+        assertArrayEquals(IDR, scheduler.take());
+        assertArrayEquals(REF, scheduler.take());
+    }
+
+    @Test
+    void jumpsToQueuedIdrWhenReferenceFramesOverflow() throws Exception {
+        DecodeScheduler scheduler = frameBudget(4);
+        byte[] secondIdr = IDR.clone();
+        secondIdr[6] = 0x7f;
+        scheduler.submit(IDR, true);
+        scheduler.submit(REF, false);
+        scheduler.submit(NON_REF, false);
+        scheduler.submit(REF, false);
+        scheduler.submit(REF, false);
+        // 丢弃非参考帧后仍有4帧：未超出
+        assertEquals(1, scheduler.getSkippedNonReferenceCount());
+        assertEquals(4, scheduler.getQueuedFrames());
+
+        scheduler.submit(secondIdr, true);
+        assertEquals(1, scheduler.getSkippedNonReferenceCount());
+        assertEquals(4, scheduler.getSkippedToIdrCount());
+        assertEquals(1, scheduler.getIdrJumpCount());
+        assertEquals(5, scheduler.getSkippedFrameCount());
+        assertEquals(1, scheduler.getQueuedFrames());
+        assertArrayEquals(secondIdr, scheduler.take());
+    }
+
+    @Test
+    void waitsForNextIdrWhenNoLaterIdrIsQueued() throws Exception {
+        DecodeScheduler scheduler = frameBudget(4);
+        scheduler.submit(IDR, true);
+        for (int i = 0; i < 4; i++) {
+            scheduler.submit(REF, false);
+        }
+        // 唯一的IDR在队首，跳过全部积压
+        assertEquals(5, scheduler.getSkippedToIdrCount());
+        assertEquals(1, scheduler.getIdrJumpCount());
+        assertEquals(0, scheduler.getQueuedFrames());
+
+        // 下一个IDR之前的帧无法解码
+        scheduler.submit(REF, false);
+        scheduler.submit(NON_REF, false);
+        assertEquals(7, scheduler.getSkippedToIdrCount());
+        assertEquals(0, scheduler.getSkippedNonReferenceCount());
+        assertEquals(0, scheduler.getQueuedFrames());
+
+        scheduler.submit(IDR, true);
+        scheduler.submit(REF, false);
+        assertEquals(2, scheduler.getQueuedFrames());
+        assertEquals(1, scheduler.getIdrJumpCount());
+        assertArrayEquals(IDR, scheduler.take());
+    }
+
+    @Test
+    void enforcesLatencyBudgetForStalledConsumer() throws Exception {
+        DecodeScheduler scheduler = new DecodeScheduler(50, 1000);
+        scheduler.open();
+        scheduler.submit(IDR, true);
+        scheduler.submit(NON_REF, false);
+        scheduler.submit(REF, false);
+        Thread.sleep(80);
+        scheduler.submit(NON_REF, false);
+
+        // 先丢弃非参考帧，最早的帧仍然超时，再跳到下一个IDR
+        assertEquals(2, scheduler.getSkippedNonReferenceCount());
+        assertEquals(2, scheduler.getSkippedToIdrCount());
+        assertEquals(1, scheduler.getIdrJumpCount());
+        assertEquals(0, scheduler.getQueuedFrames());
+    }
+
+    @Test
+    void keepsDecoderBoundaryWhenJumpingToIdr() throws Exception {
+        DecodeScheduler scheduler = frameBudget(3);
+        scheduler.submit(IDR, true);
+        scheduler.submit(REF, false);
+        scheduler.submit(REF, false);
+        scheduler.requestBoundaryBeforeNextIdr();
+        scheduler.submit(IDR, true);
+
+        // 边界和IDR一起保留，解码线程先结束当前输入流再从新的IDR开始
+        assertEquals(3, scheduler.getSkippedToIdrCount());
+        assertEquals(2, scheduler.getQueuedFrames());
+        assertEquals(0, scheduler.take().length);
+        assertArrayEquals(IDR, scheduler.take());
+    }
+}
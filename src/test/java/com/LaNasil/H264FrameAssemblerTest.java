@@ -0,0 +1,64 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * H264FrameAssembler 重新同步：只能在IDR图像的第一个切片处恢复
+ */
+class H264FrameAssemblerTest {
+
+    private static final byte[] SPS = H264SpsInfoTest.hex("0000000167640c1fac191a805005ba01e1108d40");
+    private static final byte[] PPS = H264SpsInfoTest.hex("0000000168ebe3cb22c0");
+    // first_mb_in_slice=0, slice_type=7, pps_id=0, frame_num=0
+    private static final byte[] IDR_FIRST_SLICE = H264SpsInfoTest.hex("0000000165888000000000");
+    // first_mb_in_slice=1：同一图像的第二个切片
+    private static final byte[] IDR_SECOND_SLICE = H264SpsInfoTest.hex("0000000165422000000000");
+
+    private final List<byte[]> keyFrames = new ArrayList<>();
+    private final H264FrameAssembler assembler = new H264FrameAssembler(new H264FrameAssembler.FrameCallback() {
+        @Override
+        public void onFrameComplete(byte[] frameData, boolean isKeyFrame, long frameNumber) {
+            if (isKeyFrame) {
+                keyFrames.add(frameData);
+            }
+        }
+
+        @Override
+        public void onParameterSetsReceived(List<byte[]> parameterSets) {
+        }
+    });
+
+    @Test
+    void resyncIgnoresIdrSliceThatDoesNotStartPicture() {
+        assembler.processNALU(SPS);
+        assembler.processNALU(PPS);
+        assembler.processNALU(IDR_FIRST_SLICE);
+        assembler.processNALU(IDR_SECOND_SLICE);
+        assembler.resyncAtNextIdr();
+
+        // 丢失了第一个切片的IDR图像不能结束同步
+        assembler.processNALU(IDR_SECOND_SLICE);
+        assertTrue(assembler.isResyncing());
+        assertEquals(1, assembler.getDiscardedNaluCount());
+
+        assembler.processNALU(IDR_FIRST_SLICE);
+        assertFalse(assembler.isResyncing());
+        assembler.processNALU(IDR_SECOND_SLICE);
+        assembler.forceCompleteFrame();
+
+        assertEquals(0, assembler.getBitstreamErrorCount());
+        assertEquals(1, keyFrames.size());
+        byte[] frame = keyFrames.get(0);
+        assertTrue(H264Bitstream.containsIdrWithParameterSets(frame));
+        List<byte[]> nalus = H264Bitstream.splitNalus(frame);
+        assertEquals(4, nalus.size());
+        assertTrue(H264Bitstream.isFirstSliceOfPicture(nalus.get(2)));
+    }
+}
@@ -0,0 +1,92 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * H264SpsInfo 解析测试，SPS取自 libx264 对各尺寸编码的输出
+ */
+class H264SpsInfoTest {
+
+    // 1920x1080：编码为1920x1088（68行宏块），底部裁剪8行
+    private static final String SPS_1080P = "67640c28ac191a80780227e58078442350";
+    private static final String SPS_720P = "67640c1fac191a805005ba01e1108d40";
+    // 旋转后的竖屏720p
+    private static final String SPS_720P_PORTRAIT = "67640c1fac191a80b40a1a01e1108d40";
+    // 手机竖屏 1080x2340：编码高度2352，底部裁剪12行
+    private static final String SPS_PORTRAIT_2340 = "67640c32ac191a80440127e59e01e1108d40";
+    // Baseline档次（没有chroma_format_idc等字段），360行需要从368裁剪
+    private static final String SPS_BASELINE_360P = "6742c01e8c8d405017fcb00f08846a";
+
+    @Test
+    void parsesCropped1080p() {
+        H264SpsInfo sps = H264SpsInfo.parse(hex(SPS_1080P));
+        assertNotNull(sps);
+        assertEquals(1920, sps.getWidth());
+        assertEquals(1080, sps.getHeight());
+        assertEquals(100, sps.getProfileIdc());
+        assertEquals(40, sps.getLevelIdc());
+        assertEquals(1, sps.getChromaFormatIdc());
+        assertEquals("avc1.640c28", sps.getCodecString());
+    }
+
+    @Test
+    void parses720pAndItsRotation() {
+        H264SpsInfo landscape = H264SpsInfo.parse(hex(SPS_720P));
+        H264SpsInfo portrait = H264SpsInfo.parse(hex(SPS_720P_PORTRAIT));
+        assertNotNull(landscape);
+        assertNotNull(portrait);
+        assertEquals(1280, landscape.getWidth());
+        assertEquals(720, landscape.getHeight());
+        assertEquals(720, portrait.getWidth());
+        assertEquals(1280, portrait.getHeight());
+    }
+
+    @Test
+    void parsesCroppedPortraitPhoneStream() {
+        H264SpsInfo sps = H264SpsInfo.parse(hex(SPS_PORTRAIT_2340));
+        assertNotNull(sps);
+        assertEquals(1080, sps.getWidth());
+        assertEquals(2340, sps.getHeight());
+    }
+
+    @Test
+    void parsesBaselineProfile() {
+        H264SpsInfo sps = H264SpsInfo.parse(hex(SPS_BASELINE_360P));
+        assertNotNull(sps);
+        assertEquals(640, sps.getWidth());
+        assertEquals(360, sps.getHeight());
+        assertEquals(66, sps.getProfileIdc());
+    }
+
+    @Test
+    void acceptsStartCodePrefix() {
+        H264SpsInfo sps = H264SpsInfo.parse(hex("00000001" + SPS_1080P));
+        assertNotNull(sps);
+        assertEquals(1920, sps.getWidth());
+        assertEquals(1080, sps.getHeight());
+        sps = H264SpsInfo.parse(hex("000001" + SPS_720P));
+        assertNotNull(sps);
+        assertEquals(1280, sps.getWidth());
+    }
+
+    @Test
+    void rejectsInvalidData() {
+        assertNull(H264SpsInfo.parse(null));
+        // PPS
+        assertNull(H264SpsInfo.parse(hex("68ebe3cb22c0")));
+        // 截断的SPS
+        assertNull(H264SpsInfo.parse(hex(SPS_1080P.substring(0, 12))));
+    }
+
+    static byte[] hex(String text) {
+        byte[] data = new byte[text.length() / 2];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) Integer.parseInt(text.substring(i * 2, i * 2 + 2), 16);
+        }
+        return data;
+    }
+}
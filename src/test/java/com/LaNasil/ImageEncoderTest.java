@@ -0,0 +1,72 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * 复用的 JpegEncoder 直接编码图像区域，结果与复制出区域后单独编码相同
+ */
+class ImageEncoderTest {
+
+    private static final int WIDTH = 100;
+    private static final int HEIGHT = 70;
+
+    @Test
+    void reusedEncoderMatchesOneShotEncoding() throws IOException {
+        byte[] pixels = gradient(0);
+        try (ImageEncoder.JpegEncoder encoder = new ImageEncoder.JpegEncoder(32, 32)) {
+            // 同一个编码器依次编码不同位置的块，以及变化后的图像中的同一个块
+            for (int[] tile : new int[][] { { 0, 0 }, { 64, 32 }, { 40, 38 } }) {
+                assertArrayEquals(ImageEncoder.encodeJpeg(copy(pixels, tile[0], tile[1], 32, 32)),
+                        encoder.encode(pixels, (tile[1] * WIDTH + tile[0]) * 3, WIDTH * 3));
+            }
+            byte[] changed = gradient(90);
+            assertArrayEquals(ImageEncoder.encodeJpeg(copy(changed, 64, 32, 32, 32)),
+                    encoder.encode(changed, (32 * WIDTH + 64) * 3, WIDTH * 3));
+        }
+    }
+
+    @Test
+    void encodesWholeFrameAsJpeg() throws IOException {
+        byte[] jpeg = ImageEncoder.encodeJpeg(new DecodedFrame(gradient(0), WIDTH, HEIGHT, 3, 0, 0));
+        // SOI和EOI标记
+        assertEquals((byte) 0xFF, jpeg[0]);
+        assertEquals((byte) 0xD8, jpeg[1]);
+        assertEquals((byte) 0xFF, jpeg[jpeg.length - 2]);
+        assertEquals((byte) 0xD9, jpeg[jpeg.length - 1]);
+    }
+
+    @Test
+    void rejectsRegionOutsideImage() throws IOException {
+        byte[] pixels = gradient(0);
+        try (ImageEncoder.JpegEncoder encoder = new ImageEncoder.JpegEncoder(32, 32)) {
+            assertThrows(IOException.class, () -> encoder.encode(pixels, (40 * WIDTH + 80) * 3 + 3, WIDTH * 3));
+        }
+    }
+
+    private static byte[] gradient(int shift) {
+        byte[] pixels = new byte[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int i = (y * WIDTH + x) * 3;
+                pixels[i] = (byte) (x * 2 + shift);
+                pixels[i + 1] = (byte) (y * 3);
+                pixels[i + 2] = (byte) ((x ^ y) + shift);
+            }
+        }
+        return pixels;
+    }
+
+    private static DecodedFrame copy(byte[] pixels, int left, int top, int width, int height) {
+        byte[] tile = new byte[width * height * 3];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(pixels, ((top + y) * WIDTH + left) * 3, tile, y * width * 3, width * 3);
+        }
+        return new DecodedFrame(tile, width, height, 3, 0, 0);
+    }
+}
@@ -0,0 +1,143 @@
+package com.LaNasil;
+
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Frame;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 流中途改变SPS（设备旋转）：解码器只重新初始化一次，客户端只收到一次尺寸变化
+ */
+class ParameterSetChangeTest {
+
+    private static final int FRAMES_PER_STREAM = 30;
+
+    private ServerSocket server;
+    private Thread serverThread;
+    private ReceiverEngine engine;
+
+    @BeforeEach
+    void setUp() {
+        System.setProperty("decoder.onDemand", "false");
+        System.setProperty("activity", "false");
+        // 本地库加载期间积压的帧不应被调度器丢弃
+        System.setProperty("decoder.latencyBudgetMs", "60000");
+        System.setProperty("decoder.maxQueuedFrames", "1000");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (engine != null) {
+            engine.close();
+        }
+        if (server != null) {
+            server.close();
+        }
+        if (serverThread != null) {
+            serverThread.interrupt();
+            serverThread.join(1000);
+        }
+        System.clearProperty("decoder.onDemand");
+        System.clearProperty("activity");
+        System.clearProperty("decoder.latencyBudgetMs");
+        System.clearProperty("decoder.maxQueuedFrames");
+    }
+
+    @Test
+    void rotationReinitializesDecoderOnceAndNotifiesGeometryOnce() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(encode(320, 192));
+        stream.write(encode(192, 320));
+        startServer(stream.toByteArray());
+
+        List<H264SpsInfo> geometries = new CopyOnWriteArrayList<>();
+        engine = new ReceiverEngine(false, new ReceiverEngine.Listener() {
+            @Override
+            public void log(String message) {
+            }
+
+            @Override
+            public void onStreamGeometryChanged(H264SpsInfo geometry) {
+                geometries.add(geometry);
+            }
+        });
+        engine.connect("127.0.0.1", server.getLocalPort());
+
+        LiveDecoder decoder = engine.getLiveDecoder();
+        long deadline = System.currentTimeMillis() + 30000;
+        while (decoder.getDecodedFrameCount() < FRAMES_PER_STREAM + 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(decoder.getDecodedFrameCount() > FRAMES_PER_STREAM, "第二段流没有被解码");
+        assertEquals(0, decoder.getDecodeScheduler().getSkippedFrameCount());
+
+        assertEquals(1, decoder.getReinitializationCount());
+        assertEquals(0, decoder.getDecoderRestartCount());
+        assertEquals(2, geometries.size());
+        assertEquals(320, geometries.get(0).getWidth());
+        assertEquals(192, geometries.get(0).getHeight());
+        assertEquals(192, geometries.get(1).getWidth());
+        assertEquals(320, geometries.get(1).getHeight());
+    }
+
+    /**
+     * 编码一段Annex-B码流：第一帧为带SPS/PPS的IDR，没有B帧
+     */
+    private static byte[] encode(int width, int height) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        FFmpegFrameRecorder recorder = new FFmpegFrameRecorder(output, width, height);
+        recorder.setFormat("h264");
+        recorder.setVideoCodec(avcodec.AV_CODEC_ID_H264);
+        recorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+        recorder.setFrameRate(30);
+        recorder.setGopSize(10);
+        recorder.setVideoOption("preset", "ultrafast");
+        recorder.setVideoOption("tune", "zerolatency");
+        recorder.start();
+        Frame frame = new Frame(width, height, Frame.DEPTH_UBYTE, 3);
+        ByteBuffer pixels = (ByteBuffer) frame.image[0];
+        for (int i = 0; i < FRAMES_PER_STREAM; i++) {
+            for (int p = 0; p < pixels.capacity(); p++) {
+                pixels.put(p, (byte) (p / 3 % width + i * 4));
+            }
+            recorder.record(frame);
+        }
+        recorder.stop();
+        recorder.release();
+        return output.toByteArray();
+    }
+
+    /**
+     * 向第一个连接发送码流后保持连接，避免接收器进入重连
+     */
+    private void startServer(byte[] data) throws IOException {
+        server = new ServerSocket(0);
+        serverThread = new Thread(() -> {
+            try (Socket socket = server.accept()) {
+                OutputStream out = socket.getOutputStream();
+                out.write(data);
+                out.flush();
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (IOException | InterruptedException e) {
+                // 测试结束
+            }
+        }, "Test-Upstream");
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+}
@@ -0,0 +1,104 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * StreamAnalyzer 并行扫描测试：跨越fork/join块边界的起始码只统计一次，结果与块大小无关
+ */
+class StreamAnalyzerTest {
+
+    private static final byte[] START_CODE_4 = { 0, 0, 0, 1 };
+    private static final byte[] START_CODE_3 = { 0, 0, 1 };
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void startCodeStraddlingChunkBoundaryIsCountedOnce() throws IOException {
+        // 块大小16：4字节起始码从偏移14开始，跨越第一个块边界
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        nalu(stream, START_CODE_4, H264SpsInfoTest.hex("67640c1fac191a805005"));
+        assertEquals(14, stream.size());
+        nalu(stream, START_CODE_4, H264SpsInfoTest.hex("68ebe3cb22c0"));
+        nalu(stream, START_CODE_3, slice(0x65, 20));
+        Path file = write(stream);
+
+        StreamAnalyzer analyzer = new StreamAnalyzer(file, 30);
+        analyzer.analyze(2, 16);
+        String json = analyzer.toJson();
+        assertTrue(json.contains("\"chunks\":3"), json);
+        assertTrue(json.contains("{\"type\":7,\"count\":1,\"bytes\":14}"), json);
+        assertTrue(json.contains("{\"type\":8,\"count\":1,\"bytes\":10}"), json);
+        assertTrue(json.contains("{\"type\":5,\"count\":1,\"bytes\":23}"), json);
+        assertTrue(json.contains("\"frames\":{\"count\":1,\"idr\":1,"), json);
+    }
+
+    @Test
+    void resultDoesNotDependOnChunkSize() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int gop = 0; gop < 3; gop++) {
+            nalu(stream, START_CODE_4, H264SpsInfoTest.hex("67640c1fac191a805005ba01e1108d40"));
+            nalu(stream, START_CODE_4, H264SpsInfoTest.hex("68ebe3cb22c0"));
+            nalu(stream, START_CODE_4, slice(0x65, 37));
+            for (int frame = 0; frame < 5; frame++) {
+                // 交替使用3字节和4字节起始码、参考帧和非参考帧
+                nalu(stream, frame % 2 == 0 ? START_CODE_3 : START_CODE_4, slice(frame % 2 == 0 ? 0x41 : 0x01,
+                        5 + frame * 3));
+            }
+        }
+        Path file = write(stream);
+
+        StreamAnalyzer whole = new StreamAnalyzer(file, 30);
+        whole.analyze(1, 1 << 20);
+        String expected = stripScanInfo(whole.toJson());
+        assertTrue(expected.contains("\"frames\":{\"count\":18,\"idr\":3,\"nonIdr\":15,\"nonReference\":6,"),
+                expected);
+
+        // 覆盖边界落在起始码、NALU头和切片头第一个字节上的所有位置
+        for (int chunkSize = 1; chunkSize <= 48; chunkSize++) {
+            StreamAnalyzer chunked = new StreamAnalyzer(file, 30);
+            chunked.analyze(4, chunkSize);
+            assertEquals(expected, stripScanInfo(chunked.toJson()), "块大小 " + chunkSize);
+        }
+    }
+
+    /**
+     * 切片：NALU头，first_mb_in_slice=0（第一个比特为1），其余为不含起始码的数据
+     */
+    private static byte[] slice(int header, int length) {
+        byte[] data = new byte[length];
+        data[0] = (byte) header;
+        data[1] = (byte) 0x88;
+        for (int i = 2; i < length; i++) {
+            data[i] = (byte) (0x10 + i);
+        }
+        return data;
+    }
+
+    private static void nalu(ByteArrayOutputStream stream, byte[] startCode, byte[] payload) {
+        stream.write(startCode, 0, startCode.length);
+        stream.write(payload, 0, payload.length);
+    }
+
+    private Path write(ByteArrayOutputStream stream) throws IOException {
+        Path file = directory.resolve("stream.h264");
+        Files.write(file, stream.toByteArray());
+        return file;
+    }
+
+    /**
+     * 去掉耗时、线程数和块数，只比较分析结果
+     */
+    private static String stripScanInfo(String json) {
+        return json.substring(json.indexOf("\"naluTypes\""));
+    }
+}
@@ -0,0 +1,118 @@
+package com.LaNasil;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * TimeShiftBuffer 环形缓冲区的回绕、淘汰和导出测试
+ */
+class TimeShiftBufferTest {
+
+    private static final int GOP = 4;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void rejectsFramesBeforeFirstKeyFrameAndOversizedFrames() {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(60, 1000);
+        assertFalse(buffer.append(frame(0, 100), false, 0));
+        assertTrue(buffer.append(frame(1, 100), true, 1));
+        assertFalse(buffer.append(frame(2, 1001), false, 2));
+        assertEquals(1, buffer.getBufferedFrames());
+    }
+
+    @Test
+    void wrapsAroundAndStartsAtKeyFrame() throws IOException {
+        // 130字节的帧：每圈末尾剩余90字节，回绕时一起淘汰
+        TimeShiftBuffer buffer = new TimeShiftBuffer(60, 1000);
+        byte[][] frames = new byte[50][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = frame(i, 130);
+            assertTrue(buffer.append(frames[i], i % GOP == 0, i));
+            assertTrue(buffer.getBufferedBytes() <= buffer.getCapacityBytes());
+            assertTrue(buffer.getBufferedFrames() > 0);
+        }
+        // 一圈最多7帧；帧49回绕到开头覆盖帧42，不完整的GOP（帧43）一起淘汰，缓冲区从关键帧44开始
+        assertEquals(6, buffer.getBufferedFrames());
+        assertEquals(780, buffer.getBufferedBytes());
+
+        Path clip = directory.resolve("clip.h264");
+        TimeShiftBuffer.Clip exported = buffer.exportClip(60, clip);
+        assertEquals(6, exported.getFrames());
+        assertArrayEquals(concat(frames, 44, 50), Files.readAllBytes(clip));
+    }
+
+    @Test
+    void keepsDataIntactAcrossManyWraps() throws IOException {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(60, 4096);
+        byte[][] frames = new byte[400][];
+        for (int i = 0; i < frames.length; i++) {
+            // 关键帧较大，帧大小不整除容量
+            frames[i] = frame(i, i % GOP == 0 ? 300 : 70 + i % 23);
+            buffer.append(frames[i], i % GOP == 0, i);
+        }
+        int buffered = buffer.getBufferedFrames();
+        int first = frames.length - buffered;
+        assertEquals(0, first % GOP, "缓冲区应从关键帧开始");
+        assertTrue(buffered >= GOP);
+
+        Path clip = directory.resolve("wrapped.h264");
+        TimeShiftBuffer.Clip exported = buffer.exportClip(60, clip);
+        assertEquals(buffered, exported.getFrames());
+        assertArrayEquals(concat(frames, first, frames.length), Files.readAllBytes(clip));
+    }
+
+    @Test
+    void evictsGopsOlderThanRetention() throws Exception {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(1, 1 << 20);
+        for (int i = 0; i < 2 * GOP; i++) {
+            buffer.append(frame(i, 100), i % GOP == 0, i);
+        }
+        Thread.sleep(1100);
+        // 第二个GOP已超过保留时长，它之前的第一个GOP被淘汰；第二个GOP保留作为起点
+        buffer.append(frame(8, 100), true, 8);
+        assertEquals(GOP + 1, buffer.getBufferedFrames());
+    }
+
+    @Test
+    void failedRemuxLeavesNoTemporaryFile() throws IOException {
+        TimeShiftBuffer buffer = new TimeShiftBuffer(60, 1000);
+        buffer.append(frame(0, 100), true, 0);
+        Path clip = directory.resolve("broken.mp4");
+        assertThrows(IOException.class, () -> buffer.exportClip(60, clip));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.filter(path -> path.getFileName().toString().startsWith("clip-")).count());
+        }
+    }
+
+    /**
+     * 内容为帧序号的测试帧（不是有效的H.264数据）
+     */
+    private static byte[] frame(int index, int length) {
+        byte[] data = new byte[length];
+        Arrays.fill(data, (byte) index);
+        return data;
+    }
+
+    private static byte[] concat(byte[][] frames, int from, int to) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = from; i < to; i++) {
+            out.write(frames[i], 0, frames[i].length);
+        }
+        return out.toByteArray();
+    }
+}